@@ -0,0 +1,43 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.util.Log;
+
+import com.google.gson.JsonParser;
+
+import org.worldbank.transport.driver.datastore.JacksonRecordDataCodec;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+
+import java.io.IOException;
+
+/**
+ * Static methods shared by the datastore tests and benchmarks.
+ */
+public class DatastoreTestHelpers {
+
+    /**
+     * Build a section row, stored as Smile like the sections of saved records.
+     *
+     * @param name Serialized name of the section field
+     * @param index Position of the section in the record
+     * @param json Section data, as JSON text
+     * @return Row to store for the section
+     * @throws IOException if the data cannot be encoded
+     */
+    public static RecordDatabaseManager.SectionRow smileSection(String name, int index, String json) throws IOException {
+        return new RecordDatabaseManager.SectionRow(name, index,
+                JacksonRecordDataCodec.SMILE.encode(new JsonParser().parse(json)));
+    }
+
+    /**
+     * Log the time taken per row since a benchmark step started.
+     *
+     * @param logLabel Log tag of the benchmark
+     * @param label Name of the step
+     * @param startNanos {@link System#nanoTime()} when the step started
+     * @param rowCount Number of rows the step worked on
+     */
+    public static void logPerRow(String logLabel, String label, long startNanos, int rowCount) {
+        long elapsed = System.nanoTime() - startNanos;
+        Log.i(logLabel, label + ": " + (elapsed / rowCount / 1000.0) + " us/row over " + rowCount + " rows");
+    }
+}
@@ -0,0 +1,61 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import org.worldbank.transport.driver.datastore.EnumCodecRegistry;
+import org.worldbank.transport.driver.datastore.GsonSetDeserializer;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Tests for reading sets of enums through the registered value tables.
+ */
+public class EnumCodecRegistryTests extends AndroidTestCase {
+
+    private static final Type WEATHER_SET = new TypeToken<Set<DriverConstantFields.WeatherEnum>>() {}.getType();
+
+    Gson gson;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        EnumCodecRegistry.clear();
+        gson = new GsonBuilder().registerTypeAdapter(Set.class, new GsonSetDeserializer()).create();
+    }
+
+    @SmallTest
+    public void testRegisteredEnum() {
+        EnumCodecRegistry.register(DriverConstantFields.WeatherEnum.class);
+        EnumCodecRegistry.EnumCodec codec = EnumCodecRegistry.forSetType(WEATHER_SET);
+        assertNotNull("Expected codec for registered enum", codec);
+        assertEquals("Unexpected constant for value", DriverConstantFields.WeatherEnum.FOG, codec.fromValue("Fog"));
+        assertNull("Unknown value should have no constant", codec.fromValue("Hail"));
+    }
+
+    @SmallTest
+    public void testDeserializeSetInOrder() {
+        Set<DriverConstantFields.WeatherEnum> set = gson.fromJson("[\"Rain\",\"Fair\"]", WEATHER_SET);
+        assertEquals("Unexpected set size", 2, set.size());
+        Iterator<DriverConstantFields.WeatherEnum> iterator = set.iterator();
+        assertEquals("Set should keep order", DriverConstantFields.WeatherEnum.RAIN, iterator.next());
+        assertEquals("Set should keep order", DriverConstantFields.WeatherEnum.FAIR, iterator.next());
+        assertSame("Unregistered enum should be registered on first read",
+                EnumCodecRegistry.forSetType(WEATHER_SET), EnumCodecRegistry.forSetType(WEATHER_SET));
+    }
+
+    @SmallTest
+    public void testUnknownValueOrType() {
+        assertNull("Set with unknown value should not be read", gson.fromJson("[\"Hail\"]", WEATHER_SET));
+
+        Type stringSet = new TypeToken<Set<String>>() {}.getType();
+        assertNull("Non-enum set should have no codec", EnumCodecRegistry.forSetType(stringSet));
+    }
+}
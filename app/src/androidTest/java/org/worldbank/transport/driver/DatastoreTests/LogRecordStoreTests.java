@@ -0,0 +1,187 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.gson.JsonObject;
+
+import org.worldbank.transport.driver.datastore.JacksonRecordDataCodec;
+import org.worldbank.transport.driver.datastore.LogRecordStore;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordStore;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for the append-only record store, including reading its segments back after a restart.
+ */
+public class LogRecordStoreTests extends AndroidTestCase {
+
+    private static final String SOME_DATA = "{\"person\":{\"Name\":\"Amal\"}}";
+
+    // small enough that a few hundred records fill several segments
+    private static final long SMALL_SEGMENT_BYTES = 16 * 1024;
+
+    File directory;
+    LogRecordStore store;
+    DriverConstantFields someConstants;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File(getContext().getCacheDir(), "record_log_test");
+        deleteDirectory();
+        store = new LogRecordStore(directory, SMALL_SEGMENT_BYTES);
+
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+        someConstants.location = new Location("");
+        someConstants.location.setLatitude(13.75);
+        someConstants.location.setLongitude(100.5);
+        someConstants.Weather = DriverConstantFields.WeatherEnum.RAIN;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testAddUpdateDelete() {
+        long id = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        assertTrue("Add failed", id > 0);
+
+        RecordStore.StoredRecord record = store.readRecord(id);
+        assertEquals("Unexpected schema", "schema", record.schemaVersion);
+        assertEquals("Unexpected data", "Amal", record.data.getAsJsonObject()
+                .getAsJsonObject("person").get("Name").getAsString());
+        assertEquals("Location should be stored", 13.75, record.constants.location.getLatitude());
+        assertEquals("Weather should be stored", DriverConstantFields.WeatherEnum.RAIN, record.constants.Weather);
+
+        // unset nullable fields are kept on update
+        DriverConstantFields updateConstants = new DriverConstantFields();
+        updateConstants.occurredFrom = someConstants.occurredFrom;
+        assertEquals("Update failed", 1, store.updateRecord(new RecordDatabaseManager.RecordRow(null,
+                "{\"person\":{\"Name\":\"Omar\"}}", updateConstants), id));
+
+        record = store.readRecord(id);
+        assertEquals("Data should be updated", "Omar", record.data.getAsJsonObject()
+                .getAsJsonObject("person").get("Name").getAsString());
+        assertEquals("Location should be kept", 100.5, record.constants.location.getLongitude());
+        assertEquals("Weather should be kept", DriverConstantFields.WeatherEnum.RAIN, record.constants.Weather);
+        assertTrue("Update time should be set", record.updatedAt > 0);
+
+        assertTrue("Delete failed", store.deleteRecord(id));
+        assertNull("Deleted record should be gone", store.readRecord(id));
+        assertEquals("Unexpected record count", 0, store.getRecordCount());
+    }
+
+    @SmallTest
+    public void testReopen() throws IOException {
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            rows.add(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        }
+        long[] ids = store.addRecords(rows);
+        assertNotNull("Batch add failed", ids);
+        store.deleteRecord(ids[1]);
+        store.close();
+
+        store = new LogRecordStore(directory, SMALL_SEGMENT_BYTES);
+        assertEquals("Unexpected record count after reopen", 2, store.getRecordCount());
+        assertNull("Deleted record should stay deleted", store.readRecord(ids[1]));
+        assertNotNull("Record should be read back", store.readRecord(ids[2]));
+
+        long newId = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        assertTrue("IDs should not be reused", newId > ids[2]);
+    }
+
+    @SmallTest
+    public void testSectionUpdateKeepsOtherSections() throws Exception {
+        List<RecordDatabaseManager.SectionRow> sections = new ArrayList<>(2);
+        sections.add(DatastoreTestHelpers.smileSection("details", 0, "{\"Description\":\"Bridge\"}"));
+        sections.add(DatastoreTestHelpers.smileSection("person", 1, "[{\"Name\":\"Amal\"}]"));
+        long id = store.addRecord(new RecordDatabaseManager.RecordRow("schema", sections,
+                JacksonRecordDataCodec.SMILE, someConstants));
+
+        List<RecordDatabaseManager.SectionRow> changed = new ArrayList<>(1);
+        changed.add(DatastoreTestHelpers.smileSection("person", 1, "[{\"Name\":\"Amal\"},{\"Name\":\"Omar\"}]"));
+        store.updateRecord(new RecordDatabaseManager.RecordRow(null, changed, JacksonRecordDataCodec.SMILE,
+                someConstants), id);
+
+        JsonObject data = store.readRecord(id).data.getAsJsonObject();
+        assertEquals("Unchanged section should be kept", "Bridge",
+                data.getAsJsonObject("details").get("Description").getAsString());
+        assertEquals("Updated section should be written", 2, data.getAsJsonArray("person").size());
+    }
+
+    @MediumTest
+    public void testCompaction() throws IOException {
+        long id = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        long keptId = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+
+        // rewrite one record until the earlier segments are mostly dead
+        for (int i = 0; i < 500; i++) {
+            store.updateRecord(new RecordDatabaseManager.RecordRow(null,
+                    "{\"person\":{\"Name\":\"Person " + i + "\"}}", someConstants), id);
+        }
+        store.deleteRecord(keptId);
+        assertTrue("Expected several segments", store.getSegmentCount() > 2);
+
+        assertTrue("Compaction failed", store.compact());
+        assertEquals("Full segments should be compacted into one", 2, store.getSegmentCount());
+        assertEquals("Compacted segment should have no dead entries", 0, store.getDeadBytes());
+
+        assertEquals("Unexpected record count after compaction", 1, store.getRecordCount());
+        assertEquals("Latest update should survive compaction", "Person 499", store.readRecord(id).data
+                .getAsJsonObject().getAsJsonObject("person").get("Name").getAsString());
+
+        store.close();
+        store = new LogRecordStore(directory, SMALL_SEGMENT_BYTES);
+        assertEquals("Unexpected record count after reopen", 1, store.getRecordCount());
+        assertNull("Deleted record should stay deleted after compaction", store.readRecord(keptId));
+        assertTrue("IDs should not be reused after compaction",
+                store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants)) > keptId);
+    }
+
+    @SmallTest
+    public void testTornEntryCutOff() throws IOException {
+        long id = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        long tornId = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        store.close();
+
+        // as if killed partway through writing the last entry
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+
+        store = new LogRecordStore(directory, SMALL_SEGMENT_BYTES);
+        assertNotNull("Complete entry should be read back", store.readRecord(id));
+        assertNull("Torn entry should be dropped", store.readRecord(tornId));
+
+        long newId = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        assertNotNull("Writes should carry on after the torn entry", store.readRecord(newId));
+    }
+
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
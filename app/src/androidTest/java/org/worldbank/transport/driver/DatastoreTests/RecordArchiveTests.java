@@ -0,0 +1,196 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.database.Cursor;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.worldbank.transport.driver.datastore.RecordArchive;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordSummary;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for moving records between databases through an archive.
+ */
+public class RecordArchiveTests extends AndroidTestCase {
+
+    private static final byte[] PHOTO_BYTES = { 1, 2, 3, 4, 5 };
+
+    RecordDatabaseManager manager;
+    RecordDatabaseManager otherManager;
+    DriverConstantFields someConstants;
+    File photo;
+    File mediaDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new RecordDatabaseManager((new MockContext()), true);
+        otherManager = new RecordDatabaseManager((new MockContext()), true);
+
+        Map<String, Set<String>> fieldsBySection = new HashMap<>();
+        fieldsBySection.put("person", Collections.singleton("Photo"));
+        RecordSummary.MediaFields mediaFields = new RecordSummary.MediaFields(fieldsBySection);
+        manager.setMediaFields(mediaFields);
+        otherManager.setMediaFields(mediaFields);
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+
+        photo = new File(getContext().getCacheDir(), "MI_archive_test.jpg");
+        FileOutputStream photoOut = new FileOutputStream(photo);
+        photoOut.write(PHOTO_BYTES);
+        photoOut.close();
+
+        mediaDir = new File(getContext().getCacheDir(), "imported_media");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        photo.delete();
+        File[] imported = mediaDir.listFiles();
+        if (imported != null) {
+            for (File file : imported) {
+                file.delete();
+            }
+        }
+        mediaDir.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testRoundTripWithMedia() throws IOException {
+        manager.addRecord("schema", "{\"person\":{\"Name\":\"Amal\",\"Photo\":\"" + photo.getAbsolutePath() + "\"}}",
+                someConstants);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        RecordArchive.Stats exported = manager.exportRecords(null, false, archive);
+        assertEquals("Unexpected exported record count", 1, exported.records);
+        assertEquals("Unexpected exported media count", 1, exported.mediaFiles);
+        assertEquals("Archive size should be counted", archive.size(), exported.bytes);
+
+        RecordArchive.Stats imported = otherManager.importRecords(new ByteArrayInputStream(archive.toByteArray()), mediaDir);
+        assertEquals("Unexpected imported record count", 1, imported.records);
+        assertEquals("Unexpected imported media count", 1, imported.mediaFiles);
+
+        JsonObject data = new JsonParser().parse(otherManager.getSerializedRecordWithId(1)).getAsJsonObject();
+        JsonObject person = data.getAsJsonObject("person");
+        assertEquals("Text should be imported as-is", "Amal", person.get("Name").getAsString());
+
+        File importedPhoto = new File(person.get("Photo").getAsString());
+        assertEquals("Photo path should point into the media directory", mediaDir.getAbsolutePath(),
+                importedPhoto.getParentFile().getAbsolutePath());
+        assertEquals("Photo should be copied", PHOTO_BYTES.length, importedPhoto.length());
+        FileInputStream photoIn = new FileInputStream(importedPhoto);
+        byte[] photoRead = new byte[PHOTO_BYTES.length];
+        assertEquals("Could not read imported photo", PHOTO_BYTES.length, photoIn.read(photoRead));
+        photoIn.close();
+        assertEquals("Imported photo content differs", PHOTO_BYTES[4], photoRead[4]);
+    }
+
+    @SmallTest
+    public void testOnlyMediaFieldsArchived() throws IOException {
+        manager.addRecord("schema", "{\"person\":{\"Name\":\"media/notes\",\"Address\":\"" +
+                photo.getAbsolutePath() + "\",\"Photo\":[\"" + photo.getAbsolutePath() + "\"]}}", someConstants);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        assertEquals("Photo should be archived once", 1, manager.exportRecords(null, false, archive).mediaFiles);
+        otherManager.importRecords(new ByteArrayInputStream(archive.toByteArray()), mediaDir);
+
+        JsonObject person = new JsonParser().parse(otherManager.getSerializedRecordWithId(1)).getAsJsonObject()
+                .getAsJsonObject("person");
+        assertEquals("Text like an entry name should be imported as-is", "media/notes", person.get("Name").getAsString());
+        assertEquals("Text like a path should be imported as-is", photo.getAbsolutePath(),
+                person.get("Address").getAsString());
+        File importedPhoto = new File(person.getAsJsonArray("Photo").get(0).getAsString());
+        assertEquals("Photo in a list should point into the media directory", mediaDir.getAbsolutePath(),
+                importedPhoto.getParentFile().getAbsolutePath());
+    }
+
+    @SmallTest
+    public void testMediaNameCollision() throws IOException {
+        assertTrue("Could not create media directory", mediaDir.mkdirs());
+        File existing = new File(mediaDir, photo.getName());
+        FileOutputStream existingOut = new FileOutputStream(existing);
+        existingOut.write(new byte[] { 9 });
+        existingOut.close();
+
+        manager.addRecord("schema", "{\"person\":{\"Photo\":\"" + photo.getAbsolutePath() + "\"}}", someConstants);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        manager.exportRecords(null, false, archive);
+        RecordArchive.Stats imported = otherManager.importRecords(new ByteArrayInputStream(archive.toByteArray()), mediaDir);
+        assertEquals("Photo should be imported under another name", 1, imported.mediaFiles);
+
+        File importedPhoto = new File(new JsonParser().parse(otherManager.getSerializedRecordWithId(1))
+                .getAsJsonObject().getAsJsonObject("person").get("Photo").getAsString());
+        assertFalse("Record should not point to the file already there", existing.equals(importedPhoto));
+        assertEquals("Imported photo should be copied", PHOTO_BYTES.length, importedPhoto.length());
+        assertEquals("File already there should be left as it is", 1, existing.length());
+    }
+
+    @SmallTest
+    public void testExportUploadReadyOnly() throws IOException {
+        // located at 0, 0 counts as no location, as for upload
+        someConstants.location = new Location("");
+        manager.addRecord("schema", "{\"person\":{\"Name\":\"Amal\"}}", someConstants);
+
+        DriverConstantFields locatedConstants = new DriverConstantFields();
+        locatedConstants.occurredFrom = new Date();
+        locatedConstants.location = new Location("");
+        locatedConstants.location.setLatitude(13.75);
+        locatedConstants.location.setLongitude(100.5);
+        locatedConstants.Weather = DriverConstantFields.WeatherEnum.RAIN;
+        long locatedId = manager.addRecord("schema", "{\"person\":{\"Name\":\"Omar\"}}", locatedConstants);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        assertEquals("Only the located record should be exported", 1,
+                manager.exportRecords(null, true, archive).records);
+
+        otherManager.importRecords(new ByteArrayInputStream(archive.toByteArray()), mediaDir);
+        Cursor cursor = otherManager.readAllRecords();
+        assertEquals("Unexpected imported record count", 1, cursor.getCount());
+        cursor.close();
+
+        DriverConstantFields imported = otherManager.getRecordById(1).getEditConstants();
+        assertEquals("Location should be imported", 13.75, imported.location.getLatitude());
+        assertEquals("Weather should be imported", DriverConstantFields.WeatherEnum.RAIN, imported.Weather);
+
+        archive.reset();
+        assertEquals("Selected record should be exported", 1,
+                manager.exportRecords(new long[] { locatedId }, false, archive).records);
+    }
+
+    @MediumTest
+    public void testImportInBatches() throws IOException {
+        int recordCount = RecordArchive.IMPORT_BATCH_SIZE * 2 + 3;
+        for (int i = 0; i < recordCount; i++) {
+            manager.addRecord("schema", "{\"person\":{\"Name\":\"Person " + i + "\"}}", someConstants);
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        manager.exportRecords(null, false, archive);
+
+        RecordArchive.Stats imported = otherManager.importRecords(new ByteArrayInputStream(archive.toByteArray()), mediaDir);
+        assertEquals("All records should be imported across batches", recordCount, imported.records);
+        Cursor cursor = otherManager.readAllRecords();
+        assertEquals("Unexpected record count after import", recordCount, cursor.getCount());
+        cursor.close();
+    }
+}
@@ -0,0 +1,97 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.content.ComponentCallbacks2;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.datastore.DriverRecordContract;
+import org.worldbank.transport.driver.datastore.RecordCache;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.Date;
+
+/**
+ * Tests for the cache of records read from the database.
+ */
+public class RecordCacheTests extends AndroidTestCase {
+
+    RecordCache cache;
+    DriverConstantFields someConstants;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new RecordCache(4);
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+    }
+
+    @SmallTest
+    public void testHitAndMiss() {
+        RecordCache.Row row = makeRow(1, 100);
+        cache.put(row);
+
+        assertSame("Expected cached row", row, cache.get(1, 100));
+        assertNull("Expected miss for uncached record", cache.get(2, 100));
+        assertEquals("Unexpected hit count", 1, cache.getHitCount());
+        assertEquals("Unexpected miss count", 1, cache.getMissCount());
+    }
+
+    @SmallTest
+    public void testUpdatedRecordIsStale() {
+        cache.put(makeRow(1, 100));
+
+        assertNull("Record updated since caching should miss", cache.get(1, 200));
+        assertEquals("Stale entry should be dropped", 0, cache.size());
+        assertNull("Stale entry should not come back", cache.get(1, 100));
+    }
+
+    @SmallTest
+    public void testInvalidate() {
+        cache.put(makeRow(1, 100));
+        cache.invalidate(1);
+        assertNull("Invalidated record should miss", cache.get(1, 100));
+    }
+
+    @SmallTest
+    public void testBounded() {
+        for (long i = 1; i <= 6; i++) {
+            cache.put(makeRow(i, 0));
+        }
+        assertEquals("Cache should not grow past its size", 4, cache.size());
+        assertNull("Least recently used record should be evicted", cache.get(1, 0));
+        assertNotNull("Most recently used record should be kept", cache.get(6, 0));
+    }
+
+    @SmallTest
+    public void testTrimMemory() {
+        for (long i = 1; i <= 4; i++) {
+            cache.put(makeRow(i, 0));
+        }
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals("Hiding the UI alone should not release records", 4, cache.size());
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals("Expected half of records released", 2, cache.size());
+        assertNotNull("Most recently used records should be kept", cache.get(4, 0));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals("Expected all records released", 0, cache.size());
+    }
+
+    @SmallTest
+    public void testConstantsCopied() {
+        cache.put(makeRow(1, 100));
+
+        DriverConstantFields edited = cache.get(1, 100).getConstants();
+        edited.Weather = DriverConstantFields.WeatherEnum.RAIN;
+        assertNull("Editing constants from a cached row should not change the row",
+                cache.get(1, 100).getConstants().Weather);
+    }
+
+    private RecordCache.Row makeRow(long recordId, long lastUpdated) {
+        return new RecordCache.Row(recordId, lastUpdated, "schema", DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS,
+                null, someConstants);
+    }
+}
@@ -0,0 +1,146 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.worldbank.transport.driver.TestModels.TestPerson;
+import org.worldbank.transport.driver.TestModels.TestPerson.DriverError;
+import org.worldbank.transport.driver.TestModels.TestPerson.Injury;
+import org.worldbank.transport.driver.TestModels.TestPerson.Involvement;
+import org.worldbank.transport.driver.TestModels.TestPerson.Sex;
+import org.worldbank.transport.driver.datastore.DriverRecordContract;
+import org.worldbank.transport.driver.datastore.JacksonRecordDataCodec;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compare the stored size and decode time of record data as JSON text and as Smile binary.
+ * Sizes and timings are logged; run on a device and filter logcat for the log label.
+ */
+public class RecordDataCodecBenchmarkTests extends AndroidTestCase {
+
+    private static final String LOG_LABEL = "RecordCodecBenchmark";
+
+    private static final int ROW_COUNT = 1000;
+    private static final int PEOPLE_PER_RECORD = 8;
+
+    RecordDatabaseManager manager;
+    DriverConstantFields someConstants;
+    JsonElement someRecord;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new RecordDatabaseManager((new MockContext()), true);
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+        someRecord = buildRecord();
+    }
+
+    @LargeTest
+    public void testSizeAndDecodeTime() throws Exception {
+        String json = new Gson().toJson(someRecord);
+        byte[] smile = JacksonRecordDataCodec.SMILE.encode(someRecord);
+        Log.i(LOG_LABEL, "Record size as JSON: " + json.getBytes("UTF-8").length +
+                " bytes; as Smile: " + smile.length + " bytes");
+        assertTrue("Smile encoding should be smaller than JSON", smile.length < json.length());
+
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(new RecordDatabaseManager.RecordRow("schema", json, someConstants));
+        }
+        long[] jsonIds = manager.addRecords(rows);
+        assertNotNull("Failed to add JSON rows", jsonIds);
+
+        rows.clear();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(new RecordDatabaseManager.RecordRow("schema", smile, JacksonRecordDataCodec.SMILE, someConstants));
+        }
+        long[] smileIds = manager.addRecords(rows);
+        assertNotNull("Failed to add Smile rows", smileIds);
+
+        // JSON text as read before: a string from the cursor, parsed by Gson
+        JsonParser gsonParser = new JsonParser();
+        Cursor cursor = manager.readAllRecords();
+        int dataColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+        int formatColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT);
+        long start = System.nanoTime();
+        while (cursor.moveToNext()) {
+            if (cursor.getInt(formatColumn) == DriverRecordContract.RecordEntry.DATA_FORMAT_JSON) {
+                assertTrue(gsonParser.parse(cursor.getString(dataColumn)).isJsonObject());
+            }
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "JSON string, Gson parse", start, ROW_COUNT);
+
+        // JSON text read as bytes by the JSON codec
+        cursor.moveToPosition(-1);
+        start = System.nanoTime();
+        while (cursor.moveToNext()) {
+            if (cursor.getInt(formatColumn) == DriverRecordContract.RecordEntry.DATA_FORMAT_JSON) {
+                assertTrue(JacksonRecordDataCodec.JSON.decode(cursor.getBlob(dataColumn)).isJsonObject());
+            }
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "JSON bytes, codec decode", start, ROW_COUNT);
+
+        cursor.moveToPosition(-1);
+        start = System.nanoTime();
+        while (cursor.moveToNext()) {
+            if (cursor.getInt(formatColumn) == DriverRecordContract.RecordEntry.DATA_FORMAT_SMILE) {
+                assertTrue(JacksonRecordDataCodec.SMILE.decode(cursor.getBlob(dataColumn)).isJsonObject());
+            }
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "Smile bytes, codec decode", start, ROW_COUNT);
+        cursor.close();
+    }
+
+    /**
+     * Build a record like one entered in the field: details, and a list of people with text and
+     * select list fields filled in.
+     */
+    private static JsonElement buildRecord() {
+        Gson gson = new Gson();
+        JsonObject record = new JsonObject();
+
+        JsonObject details = new JsonObject();
+        details.addProperty("_localId", UUID.randomUUID().toString());
+        details.addProperty("Severity", "Injury");
+        details.addProperty("Main cause", "Speeding");
+        details.addProperty("Collision type", "Rear end");
+        details.addProperty("Description", "Two cars collided at the junction near the market");
+        record.add("accidentDetails", details);
+
+        JsonArray people = new JsonArray();
+        for (int i = 0; i < PEOPLE_PER_RECORD; i++) {
+            TestPerson person = new TestPerson();
+            person.LocalId = UUID.randomUUID().toString();
+            person.Name = "Person " + i;
+            person.Address = i + " Main Street";
+            person.LicenseNumber = "LN" + (100000 + i);
+            person.Age = String.valueOf(20 + i);
+            person.Hospital = "General Hospital";
+            person.Sex = Sex.values()[i % Sex.values().length];
+            person.Injury = Injury.values()[i % Injury.values().length];
+            person.DriverError = DriverError.values()[i % DriverError.values().length];
+            person.Involvement = Involvement.values()[i % Involvement.values().length];
+            people.add(gson.toJsonTree(person));
+        }
+        record.add("person", people);
+
+        return record;
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import org.worldbank.transport.driver.datastore.DriverRecordContract;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compare the per-row cost of record writes through the database manager's compiled statements
+ * and bulk operations against building ContentValues and committing each row on its own.
+ * Timings are logged; run on a device and filter logcat for the log label.
+ */
+public class RecordDatabaseBenchmarkTests extends AndroidTestCase {
+
+    private static final String LOG_LABEL = "RecordDbBenchmark";
+
+    private static final int ROW_COUNT = 5000;
+    private static final String WHERE_ID = "_id= ?";
+
+    // roughly the size of a small serialized record
+    private static final String SOME_DATA = "{\"incidentDetails\":{\"Severity\":\"Property damage\"," +
+            "\"Main cause\":\"Speeding\",\"Collision type\":\"Head on\",\"_localId\":" +
+            "\"3c5e7d1a-9b8f-4c2e-a1d6-0f4b2e8c9a71\"},\"person\":[],\"vehicle\":[]}";
+
+    RecordDatabaseManager manager;
+    SQLiteDatabase contentValuesDb;
+    DriverConstantFields someConstants;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new RecordDatabaseManager((new MockContext()), true);
+
+        contentValuesDb = SQLiteDatabase.create(null);
+        contentValuesDb.execSQL(DriverRecordContract.RECORD_TABLE_CREATE);
+
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+        someConstants.location = new Location("");
+        someConstants.location.setLatitude(24.7);
+        someConstants.location.setLongitude(46.7);
+        someConstants.Weather = DriverConstantFields.WeatherEnum.FAIR;
+        someConstants.Light = DriverConstantFields.LightEnum.DAY;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        contentValuesDb.close();
+        super.tearDown();
+    }
+
+    @LargeTest
+    public void testInsertUpdateDeleteCost() {
+        long[] ids = new long[ROW_COUNT];
+
+        // ContentValues, one transaction per row
+        long start = System.nanoTime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            ids[i] = insertWithContentValues();
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "ContentValues insert", start, ROW_COUNT);
+
+        start = System.nanoTime();
+        for (long id : ids) {
+            updateWithContentValues(id);
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "ContentValues update", start, ROW_COUNT);
+
+        start = System.nanoTime();
+        for (long id : ids) {
+            contentValuesDb.beginTransaction();
+            try {
+                contentValuesDb.delete(DriverRecordContract.RecordEntry.TABLE_NAME, WHERE_ID,
+                        new String[] { String.valueOf(id) });
+                contentValuesDb.setTransactionSuccessful();
+            } finally {
+                contentValuesDb.endTransaction();
+            }
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "ContentValues delete", start, ROW_COUNT);
+
+        // compiled statements, one transaction per row
+        start = System.nanoTime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            ids[i] = manager.addRecord("schema", SOME_DATA, someConstants);
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "Compiled insert", start, ROW_COUNT);
+
+        start = System.nanoTime();
+        for (long id : ids) {
+            manager.updateRecord(SOME_DATA, someConstants, id);
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "Compiled update", start, ROW_COUNT);
+
+        start = System.nanoTime();
+        for (long id : ids) {
+            manager.deleteRecord(id);
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "Compiled delete", start, ROW_COUNT);
+        assertTableSize(0);
+
+        // compiled statements, one transaction for all rows
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        }
+
+        start = System.nanoTime();
+        ids = manager.addRecords(rows);
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "Bulk insert", start, ROW_COUNT);
+        assertNotNull("Bulk insert failed", ids);
+        assertTableSize(ROW_COUNT);
+
+        start = System.nanoTime();
+        int deleted = manager.deleteRecords(ids);
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, "Bulk delete", start, ROW_COUNT);
+        assertEquals("Bulk delete did not remove all rows", ROW_COUNT, deleted);
+        assertTableSize(0);
+    }
+
+    private long insertWithContentValues() {
+        ContentValues values = buildConstantValues();
+        values.put(DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION, "schema");
+        values.put(DriverRecordContract.RecordEntry.COLUMN_DATA, SOME_DATA);
+
+        long id;
+        contentValuesDb.beginTransaction();
+        try {
+            id = contentValuesDb.insert(DriverRecordContract.RecordEntry.TABLE_NAME, null, values);
+            contentValuesDb.setTransactionSuccessful();
+        } finally {
+            contentValuesDb.endTransaction();
+        }
+        return id;
+    }
+
+    private void updateWithContentValues(long id) {
+        ContentValues values = buildConstantValues();
+        values.put(DriverRecordContract.RecordEntry.COLUMN_DATA, SOME_DATA);
+        values.put(DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT, System.currentTimeMillis());
+
+        contentValuesDb.beginTransaction();
+        try {
+            contentValuesDb.update(DriverRecordContract.RecordEntry.TABLE_NAME, values, WHERE_ID,
+                    new String[] { String.valueOf(id) });
+            contentValuesDb.setTransactionSuccessful();
+        } finally {
+            contentValuesDb.endTransaction();
+        }
+    }
+
+    private ContentValues buildConstantValues() {
+        ContentValues values = new ContentValues();
+        values.put(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM, someConstants.occurredFrom.getTime());
+        values.put(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO, someConstants.occurredFrom.getTime());
+        values.put(DriverRecordContract.RecordEntry.COLUMN_LATITUDE, someConstants.location.getLatitude());
+        values.put(DriverRecordContract.RecordEntry.COLUMN_LONGITUDE, someConstants.location.getLongitude());
+        values.put(DriverRecordContract.RecordEntry.COLUMN_WEATHER, someConstants.Weather.toString());
+        values.put(DriverRecordContract.RecordEntry.COLUMN_LIGHT, someConstants.Light.toString());
+        return values;
+    }
+
+    private void assertTableSize(int expected) {
+        Cursor cursor = manager.readAllRecords();
+        assertEquals("Unexpected number of records", expected, cursor.getCount());
+        cursor.close();
+    }
+
+}
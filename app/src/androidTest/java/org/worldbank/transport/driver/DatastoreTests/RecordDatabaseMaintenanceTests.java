@@ -0,0 +1,115 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.datastore.RecordDatabaseHelper;
+import org.worldbank.transport.driver.datastore.RecordDatabaseMaintenance;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for compacting the records database and reporting on it.
+ */
+public class RecordDatabaseMaintenanceTests extends AndroidTestCase {
+
+    private static final int ROW_COUNT = 300;
+
+    // big enough that a few hundred records take up a good number of pages
+    private static final String SOME_DATA = "{\"incidentDetails\":{\"Description\":\"" +
+            new String(new char[400]).replace('\0', 'x') + "\"},\"person\":[],\"vehicle\":[]}";
+
+    RecordDatabaseManager manager;
+    DriverConstantFields someConstants;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new RecordDatabaseManager((new MockContext()), true);
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+    }
+
+    @SmallTest
+    public void testFirstRunEnablesIncrementalVacuum() {
+        assertTrue("Maintenance should be due before it has run", manager.isMaintenanceDue());
+        manager.runMaintenance();
+
+        RecordDatabaseMaintenance.Diagnostics diagnostics = manager.getDiagnostics();
+        assertEquals("Expected incremental auto-vacuum", RecordDatabaseMaintenance.AUTO_VACUUM_INCREMENTAL,
+                diagnostics.autoVacuum);
+        assertTrue("Run should be recorded", diagnostics.lastRunAt > 0);
+        assertFalse("Maintenance should not be due right after running", manager.isMaintenanceDue());
+    }
+
+    @SmallTest
+    public void testStateKeptBetweenLaunches() {
+        SharedPreferences preferences = getContext().getSharedPreferences("maintenance_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        SQLiteDatabase db = new RecordDatabaseHelper(getContext(), null).getWritableDatabase();
+
+        try {
+            RecordDatabaseMaintenance firstLaunch = new RecordDatabaseMaintenance(db, null);
+            firstLaunch.restoreState(preferences);
+            assertTrue("Maintenance should be due before it has ever run", firstLaunch.isDue());
+            firstLaunch.run();
+
+            RecordDatabaseMaintenance nextLaunch = new RecordDatabaseMaintenance(db, null);
+            nextLaunch.restoreState(preferences);
+            assertFalse("Maintenance should not be due again on the next launch", nextLaunch.isDue());
+            assertEquals("Last run should be kept", firstLaunch.getDiagnostics().lastRunAt,
+                    nextLaunch.getDiagnostics().lastRunAt);
+        } finally {
+            db.close();
+            preferences.edit().clear().commit();
+        }
+    }
+
+    @MediumTest
+    public void testDeletedRecordsFreed() {
+        manager.runMaintenance();
+
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        }
+        long[] ids = manager.addRecords(rows);
+        long fullPageCount = manager.getDiagnostics().pageCount;
+
+        assertEquals("Delete failed", ROW_COUNT, manager.deleteRecords(ids));
+        assertTrue("Deleting many records should make maintenance due", manager.isMaintenanceDue());
+        assertTrue("Deleted records should leave free pages", manager.getDiagnostics().freePages > 0);
+
+        long pagesFreed = manager.runMaintenance();
+        RecordDatabaseMaintenance.Diagnostics diagnostics = manager.getDiagnostics();
+        assertTrue("Expected pages to be freed", pagesFreed > 0);
+        assertEquals("Freed pages should be reported", pagesFreed, diagnostics.lastPagesFreed);
+        assertTrue("Database should shrink", diagnostics.pageCount < fullPageCount);
+        assertEquals("Size should follow pages", diagnostics.pageSize * diagnostics.pageCount, diagnostics.databaseBytes);
+    }
+
+    @SmallTest
+    public void testQueryTimings() {
+        manager.addRecord("schema", SOME_DATA, someConstants);
+        manager.readRecordSummaries("").close();
+        manager.readRecordSummaries("xxx").close();
+        manager.readSummaryTotals();
+
+        RecordDatabaseMaintenance.Diagnostics diagnostics = manager.getDiagnostics();
+        RecordDatabaseMaintenance.QueryTiming summaries = diagnostics.queryTimings.get(RecordDatabaseManager.QUERY_SUMMARIES);
+        assertNotNull("Summary queries should be timed", summaries);
+        assertEquals("Unexpected summary query count", 2, summaries.count);
+        assertTrue("Max should not exceed total", summaries.maxNanos <= summaries.totalNanos);
+        assertNotNull("Totals query should be timed", diagnostics.queryTimings.get(RecordDatabaseManager.QUERY_TOTALS));
+        assertEquals("Unexpected record count", 1, diagnostics.recordCount);
+    }
+}
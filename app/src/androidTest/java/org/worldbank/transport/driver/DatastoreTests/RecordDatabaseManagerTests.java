@@ -1,16 +1,29 @@
 package org.worldbank.transport.driver.DatastoreTests;
 
 import android.database.Cursor;
+import android.location.Location;
 import android.test.AndroidTestCase;
 import android.test.mock.MockContext;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+
+import org.worldbank.transport.driver.TestModels.TestPerson;
 import org.worldbank.transport.driver.datastore.DriverRecordContract;
+import org.worldbank.transport.driver.datastore.DriverSchemaSerializer;
+import org.worldbank.transport.driver.datastore.GeoHash;
+import org.worldbank.transport.driver.datastore.JacksonRecordDataCodec;
 import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordSearchText;
 import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Test the database manager in isolation.
@@ -89,4 +102,421 @@ public class RecordDatabaseManagerTests extends AndroidTestCase {
 
         cursor.close();
     }
+
+    @SmallTest
+    public void testAddRecords() {
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(3);
+        rows.add(new RecordDatabaseManager.RecordRow("schema", "one", someConstants));
+        rows.add(new RecordDatabaseManager.RecordRow("schema", "two", someConstants));
+        rows.add(new RecordDatabaseManager.RecordRow("schema", "three", someConstants));
+
+        long[] ids = manager.addRecords(rows);
+        assertNotNull("Bulk insert failed", ids);
+        assertEquals("Unexpected number of IDs for added records", 3, ids.length);
+        assertEquals("Did not get expected data for record", "two", manager.getSerializedRecordWithId(ids[1]));
+    }
+
+    @SmallTest
+    public void testAddRecordsRollsBack() {
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(2);
+        rows.add(new RecordDatabaseManager.RecordRow("schema", "good", someConstants));
+        rows.add(new RecordDatabaseManager.RecordRow("schema", null, someConstants));
+
+        assertNull("Bulk insert with a bad row should fail", manager.addRecords(rows));
+
+        Cursor cursor = manager.readAllRecords();
+        assertEquals("No records should be added when bulk insert fails", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testDeleteRecords() {
+        long idOne = manager.addRecord("schema", "one", someConstants);
+        long idTwo = manager.addRecord("schema", "two", someConstants);
+        long idThree = manager.addRecord("schema", "three", someConstants);
+
+        int deleted = manager.deleteRecords(new long[] {idOne, idThree});
+        assertEquals("Unexpected number of records deleted", 2, deleted);
+
+        assertNull("Deleted record still found", manager.getSerializedRecordWithId(idOne));
+        assertEquals("Record not deleted should remain", "two", manager.getSerializedRecordWithId(idTwo));
+    }
+
+    @SmallTest
+    public void testUpdateKeepsUnsetConstants() {
+        someConstants.Weather = DriverConstantFields.WeatherEnum.RAIN;
+        long id = manager.addRecord("schema", "somedata", someConstants);
+
+        DriverConstantFields noWeather = new DriverConstantFields();
+        noWeather.occurredFrom = someConstants.occurredFrom;
+        manager.updateRecord("changed", noWeather, id);
+
+        Cursor cursor = manager.getRecordByIdCursor(id);
+        cursor.moveToFirst();
+        String weather = cursor.getString(cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_WEATHER));
+        cursor.close();
+        assertEquals("Weather should not be cleared by update without it", "Rain", weather);
+    }
+
+    @SmallTest
+    public void testReadRecordsOccurredBetween() {
+        long now = System.currentTimeMillis();
+        long dayMillis = 24 * 60 * 60 * 1000;
+
+        someConstants.occurredFrom = new Date(now - 10 * dayMillis);
+        manager.addRecord("schema", "ten days ago", someConstants);
+        someConstants.occurredFrom = new Date(now - 2 * dayMillis);
+        manager.addRecord("schema", "two days ago", someConstants);
+        someConstants.occurredFrom = new Date(now - dayMillis);
+        manager.addRecord("schema", "yesterday", someConstants);
+
+        Cursor cursor = manager.readRecordsOccurredBetween(now - 3 * dayMillis, now);
+        assertEquals("Unexpected number of records in range", 2, cursor.getCount());
+
+        cursor.moveToFirst();
+        int idx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+        assertEquals("Records in range should be sorted by occurrence, most recent first",
+                "yesterday", cursor.getString(idx));
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testReadRecordsEnteredSince() {
+        manager.addRecord("schema", "earlier", someConstants);
+
+        // wait so entry times differ
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        long since = System.currentTimeMillis();
+        manager.addRecord("schema", "later", someConstants);
+
+        Cursor cursor = manager.readRecordsEnteredSince(since);
+        assertEquals("Unexpected number of records entered since", 1, cursor.getCount());
+
+        cursor.moveToFirst();
+        int idx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+        assertEquals("Unexpected record entered since", "later", cursor.getString(idx));
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testOccurredFromRoundTrip() {
+        long id = manager.addRecord("schema", "somedata", someConstants);
+
+        Cursor cursor = manager.getRecordByIdCursor(id);
+        cursor.moveToFirst();
+        long stored = cursor.getLong(cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM));
+        cursor.close();
+        assertEquals("Occurred time should be stored to the millisecond",
+                someConstants.occurredFrom.getTime(), stored);
+    }
+
+    @SmallTest
+    public void testGeohashEncoding() {
+        assertEquals("Unexpected geohash", "ezs42", GeoHash.encode(42.6, -5.6, 5));
+    }
+
+    @SmallTest
+    public void testReadRecordsInBoundingBox() {
+        addRecordAt("riyadh", 24.7136, 46.6753);
+        addRecordAt("jeddah", 21.4858, 39.1925);
+        addRecordAt("no location", 0, 0);
+
+        Cursor cursor = manager.readRecordsInBoundingBox(24, 46, 25, 47);
+        assertEquals("Unexpected number of records in box", 1, cursor.getCount());
+        cursor.moveToFirst();
+        int idx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+        assertEquals("Unexpected record in box", "riyadh", cursor.getString(idx));
+        cursor.close();
+
+        cursor = manager.readRecordsInBoundingBox(-90, -180, 90, 180);
+        assertEquals("Records without a location should not be found by location", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testReadRecordsInBoundingBoxAcrossAntimeridian() {
+        addRecordAt("east", -17.7, 179.9);
+        addRecordAt("west", -17.7, -179.9);
+        addRecordAt("far", -17.7, 170);
+
+        Cursor cursor = manager.readRecordsInBoundingBox(-18, 179.5, -17, -179.5);
+        assertEquals("Unexpected number of records in box crossing antimeridian", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testReadRecordsNear() {
+        // about 50 and 300 meters north of the search point
+        addRecordAt("close", 24.70045, 46.6753);
+        addRecordAt("farther", 24.7027, 46.6753);
+        addRecordAt("far", 24.75, 46.6753);
+
+        Cursor cursor = manager.readRecordsNear(24.7, 46.6753, 500);
+        assertEquals("Unexpected number of nearby records", 2, cursor.getCount());
+
+        cursor.moveToFirst();
+        int idx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+        assertEquals("Nearby records should be sorted nearest first", "close", cursor.getString(idx));
+        cursor.close();
+
+        cursor = manager.readRecordsNear(24.7, 46.6753, 100);
+        assertEquals("Unexpected number of records within 100 meters", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testUpdateMovesRecordLocation() {
+        long id = addRecordAt("moving", 24.7136, 46.6753);
+
+        DriverConstantFields moved = new DriverConstantFields();
+        moved.occurredFrom = someConstants.occurredFrom;
+        moved.location = new Location("");
+        moved.location.setLatitude(21.4858);
+        moved.location.setLongitude(39.1925);
+        manager.updateRecord("moved", moved, id);
+
+        Cursor cursor = manager.readRecordsNear(24.7136, 46.6753, 1000);
+        assertEquals("Record should no longer be found at old location", 0, cursor.getCount());
+        cursor.close();
+
+        cursor = manager.readRecordsNear(21.4858, 39.1925, 1000);
+        assertEquals("Record should be found at new location", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    private long addRecordAt(String data, double latitude, double longitude) {
+        DriverConstantFields constants = new DriverConstantFields();
+        constants.occurredFrom = someConstants.occurredFrom;
+        constants.location = new Location("");
+        constants.location.setLatitude(latitude);
+        constants.location.setLongitude(longitude);
+        return manager.addRecord("schema", data, constants);
+    }
+
+    @SmallTest
+    public void testSearchRecordsByPrefix() {
+        manager.addRecord("schema", "{\"details\":{\"Main cause\":\"Speeding\"}}", someConstants);
+        manager.addRecord("schema", "{\"details\":{\"Main cause\":\"Drunk driving\"}}", someConstants);
+
+        Cursor cursor = manager.searchRecords("spee");
+        assertEquals("Unexpected number of records matching prefix", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = manager.searchRecords("dr dri");
+        assertEquals("Every word should match as a prefix", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = manager.searchRecords("  ");
+        assertEquals("Empty search should return all records", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testSearchRecordsByConstants() {
+        someConstants.Light = DriverConstantFields.LightEnum.NIGHT_UNLIT;
+        manager.addRecord("schema", "{}", someConstants);
+
+        Cursor cursor = manager.searchRecords("unlit");
+        assertEquals("Should find record by constant field text", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testSearchIndexFollowsUpdatesAndDeletes() {
+        long id = manager.addRecord("schema", "{\"cause\":\"Speeding\"}", someConstants);
+        manager.updateRecord("{\"cause\":\"Fatigue\"}", someConstants, id);
+
+        Cursor cursor = manager.searchRecords("speeding");
+        assertEquals("Old text should not be found after update", 0, cursor.getCount());
+        cursor.close();
+
+        cursor = manager.searchRecords("fatigue");
+        assertEquals("New text should be found after update", 1, cursor.getCount());
+        cursor.close();
+
+        manager.deleteRecord(id);
+        cursor = manager.searchRecords("fatigue");
+        assertEquals("Deleted record should not be found", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testSearchTextSkipsMetadata() {
+        String text = RecordSearchText.fromRecordData("{\"_localId\":\"abc\",\"vehicle\":[{\"Make\":\"Toyota\"," +
+                "\"Driver\":\"3c5e7d1a-9b8f-4c2e-a1d6-0f4b2e8c9a71\",\"Photo\":\"/sdcard/Pictures/MI_1.jpg\"," +
+                "\"Count\":2}]}");
+        assertEquals("Unexpected text to index", "Toyota", text);
+    }
+
+    @SmallTest
+    public void testBuildMatchQuery() {
+        assertEquals("Unexpected match query", "head* on*", RecordSearchText.buildMatchQuery(" head-\"on "));
+        assertNull("Punctuation alone should not make a query", RecordSearchText.buildMatchQuery("*\""));
+    }
+
+    @SmallTest
+    public void testBinaryRecordData() throws Exception {
+        JsonElement tree = new JsonParser().parse("{\"Name\":\"Amal\",\"Sex\":\"Female\",\"Age\":\"30\"}");
+        byte[] encoded = JacksonRecordDataCodec.SMILE.encode(tree);
+        long id = manager.addRecord(new RecordDatabaseManager.RecordRow("schema", encoded,
+                JacksonRecordDataCodec.SMILE, someConstants));
+
+        Cursor cursor = manager.getRecordByIdCursor(id);
+        assertTrue("Binary record not found", cursor.moveToFirst());
+        int dataIdx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+        int formatIdx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT);
+        assertEquals("Unexpected data format", DriverRecordContract.RecordEntry.DATA_FORMAT_SMILE, cursor.getInt(formatIdx));
+
+        TestPerson person = DriverSchemaSerializer.readRecord(cursor.getBlob(dataIdx), cursor.getInt(formatIdx), TestPerson.class);
+        cursor.close();
+        assertNotNull("Could not decode binary record", person);
+        assertEquals("Unexpected name after decoding", "Amal", person.Name);
+        assertEquals("Unexpected enum value after decoding", "Female", person.Sex.toString());
+
+        assertEquals("Binary record should read back as equivalent JSON", tree,
+                new JsonParser().parse(manager.getSerializedRecordWithId(id)));
+
+        cursor = manager.searchRecords("amal");
+        assertEquals("Binary record text should be searchable", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testJsonRecordDataStaysReadable() throws Exception {
+        long id = manager.addRecord("schema", "{\"Name\":\"Omar\"}", someConstants);
+
+        Cursor cursor = manager.getRecordByIdCursor(id);
+        assertTrue("JSON record not found", cursor.moveToFirst());
+        int dataIdx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+        int formatIdx = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT);
+        assertEquals("Unexpected data format", DriverRecordContract.RecordEntry.DATA_FORMAT_JSON, cursor.getInt(formatIdx));
+        TestPerson person = DriverSchemaSerializer.readRecord(cursor.getBlob(dataIdx), cursor.getInt(formatIdx), TestPerson.class);
+        cursor.close();
+        assertEquals("Could not read JSON record as bytes", "Omar", person.Name);
+
+        // saving re-encodes in the binary format
+        JsonElement tree = new JsonParser().parse("{\"Name\":\"Omar K\"}");
+        manager.updateRecord(new RecordDatabaseManager.RecordRow(null, JacksonRecordDataCodec.SMILE.encode(tree),
+                JacksonRecordDataCodec.SMILE, someConstants), id);
+        assertEquals("Unexpected data after re-encoding", "{\"Name\":\"Omar K\"}", manager.getSerializedRecordWithId(id));
+    }
+
+    @SmallTest
+    public void testSectionalRecordData() throws Exception {
+        List<RecordDatabaseManager.SectionRow> sections = new ArrayList<>(2);
+        sections.add(DatastoreTestHelpers.smileSection("details", 0, "{\"Description\":\"Collision near the bridge\"}"));
+        sections.add(DatastoreTestHelpers.smileSection("person", 1, "{\"Name\":\"Amal\",\"Sex\":\"Female\"}"));
+        long id = manager.addRecord(new RecordDatabaseManager.RecordRow("schema", sections,
+                JacksonRecordDataCodec.SMILE, someConstants));
+        assertTrue("Sectional record not added", id > -1);
+
+        Cursor cursor = manager.getRecordByIdCursor(id);
+        assertTrue("Sectional record not found", cursor.moveToFirst());
+        assertEquals("Unexpected data format", DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS,
+                cursor.getInt(cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT)));
+        cursor.close();
+
+        TestPerson person = (TestPerson) manager.readRecordSection(id, "person", TestPerson.class);
+        assertNotNull("Could not read section", person);
+        assertEquals("Unexpected name in section", "Amal", person.Name);
+        assertNull("Missing section should read as null", manager.readRecordSection(id, "vehicle", TestPerson.class));
+
+        assertEquals("Sections should assemble into the whole record",
+                new JsonParser().parse("{\"details\":{\"Description\":\"Collision near the bridge\"}," +
+                        "\"person\":{\"Name\":\"Amal\",\"Sex\":\"Female\"}}"),
+                new JsonParser().parse(manager.getSerializedRecordWithId(id)));
+
+        cursor = manager.searchRecords("bridge amal");
+        assertEquals("Text from all sections should be searchable", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testUpdateSectionKeepsOthers() throws Exception {
+        List<RecordDatabaseManager.SectionRow> sections = new ArrayList<>(2);
+        sections.add(DatastoreTestHelpers.smileSection("details", 0, "{\"Description\":\"Collision near the bridge\"}"));
+        sections.add(DatastoreTestHelpers.smileSection("person", 1, "{\"Name\":\"Amal\"}"));
+        long id = manager.addRecord(new RecordDatabaseManager.RecordRow("schema", sections,
+                JacksonRecordDataCodec.SMILE, someConstants));
+
+        List<RecordDatabaseManager.SectionRow> changed = new ArrayList<>(1);
+        changed.add(DatastoreTestHelpers.smileSection("person", 1, "{\"Name\":\"Omar\"}"));
+        assertEquals("Section update failed", 1, manager.updateRecord(new RecordDatabaseManager.RecordRow(null, changed,
+                JacksonRecordDataCodec.SMILE, someConstants), id));
+
+        TestPerson person = (TestPerson) manager.readRecordSection(id, "person", TestPerson.class);
+        assertEquals("Section not updated", "Omar", person.Name);
+        assertNotNull("Unchanged section should be kept", manager.readRecordSection(id, "details", JsonElement.class));
+
+        Cursor cursor = manager.searchRecords("amal");
+        assertEquals("Replaced section text should leave the index", 0, cursor.getCount());
+        cursor.close();
+        cursor = manager.searchRecords("bridge omar");
+        assertEquals("Search should cover kept and updated sections", 1, cursor.getCount());
+        cursor.close();
+
+        assertTrue("Failed to delete sectional record", manager.deleteRecord(id));
+        assertNull("Sections should be deleted with the record", manager.readRecordSection(id, "details", JsonElement.class));
+    }
+
+    @SmallTest
+    public void testUnreadableSection() throws Exception {
+        List<RecordDatabaseManager.SectionRow> sections = new ArrayList<>(2);
+        sections.add(DatastoreTestHelpers.smileSection("details", 0, "{\"Description\":\"Collision near the bridge\"}"));
+        sections.add(new RecordDatabaseManager.SectionRow("person", 1, new byte[] { 1, 2, 3 }));
+        long id = manager.addRecord(new RecordDatabaseManager.RecordRow("schema", sections,
+                JacksonRecordDataCodec.SMILE, someConstants));
+        assertTrue("Sectional record not added", id > -1);
+
+        try {
+            manager.readRecordSection(id, "person", TestPerson.class);
+            fail("Section that cannot be decoded should not read as missing");
+        } catch (IOException e) {
+            // expected
+        }
+        assertNull("Missing section should still read as null", manager.readRecordSection(id, "vehicle", TestPerson.class));
+    }
+
+    @SmallTest
+    public void testReadSectionFromStoredFormats() throws Exception {
+        String json = "{\"Name\":\"Amal\",\"Sex\":\"Female\",\"Unknown\":{\"nested\":[1,{\"deep\":true}]},\"Age\":\"30\"}";
+        JsonElement tree = new JsonParser().parse(json);
+
+        byte[] smile = JacksonRecordDataCodec.SMILE.encode(tree);
+        TestPerson fromSmile = (TestPerson) DriverSchemaSerializer.readSection(smile,
+                DriverRecordContract.RecordEntry.DATA_FORMAT_SMILE, TestPerson.class);
+        assertEquals("Unexpected name read from Smile", "Amal", fromSmile.Name);
+        assertEquals("Unexpected enum read from Smile", "Female", fromSmile.Sex.toString());
+        assertEquals("Field after an unknown one should be read from Smile", "30", fromSmile.Age);
+
+        TestPerson fromJson = (TestPerson) DriverSchemaSerializer.readSection(json.getBytes("UTF-8"),
+                DriverRecordContract.RecordEntry.DATA_FORMAT_JSON, TestPerson.class);
+        assertEquals("Unexpected name read from JSON", "Amal", fromJson.Name);
+        assertEquals("Field after an unknown one should be read from JSON", "30", fromJson.Age);
+
+        byte[] unset = JacksonRecordDataCodec.SMILE.encode(JsonNull.INSTANCE);
+        assertNull("Unset section should read as null", DriverSchemaSerializer.readSection(unset,
+                DriverRecordContract.RecordEntry.DATA_FORMAT_SMILE, TestPerson.class));
+    }
+
+    @SmallTest
+    public void testMergeQueuedSections() throws Exception {
+        List<RecordDatabaseManager.SectionRow> first = new ArrayList<>(2);
+        first.add(DatastoreTestHelpers.smileSection("details", 0, "{}"));
+        first.add(DatastoreTestHelpers.smileSection("person", 1, "{\"Name\":\"Amal\"}"));
+        List<RecordDatabaseManager.SectionRow> second = new ArrayList<>(1);
+        second.add(DatastoreTestHelpers.smileSection("person", 1, "{\"Name\":\"Omar\"}"));
+
+        RecordDatabaseManager.RecordRow merged = RecordDatabaseManager.RecordRow.merge(
+                new RecordDatabaseManager.RecordRow(null, first, JacksonRecordDataCodec.SMILE, someConstants),
+                new RecordDatabaseManager.RecordRow(null, second, JacksonRecordDataCodec.SMILE, someConstants));
+        assertEquals("Merged write should have both sections", 2, merged.sections.size());
+        assertSame("Later section should win", second.get(0), merged.sections.get(1));
+    }
+
 }
@@ -0,0 +1,140 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordJournal;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for finding, storing and replaying journaled record changes.
+ */
+public class RecordJournalTests extends AndroidTestCase {
+
+    RecordDatabaseManager manager;
+    DriverConstantFields someConstants;
+    JsonParser parser;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new RecordDatabaseManager((new MockContext()), true);
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+        parser = new JsonParser();
+    }
+
+    @SmallTest
+    public void testDiffFindsChangedFields() {
+        JsonElement before = parser.parse("{\"Name\":\"Amal\",\"Age\":\"30\",\"Hospital\":\"General\"}");
+        JsonElement after = parser.parse("{\"Name\":\"Amal\",\"Age\":\"31\",\"Address\":\"Main Street\"}");
+
+        List<RecordJournal.Change> changes = new ArrayList<>();
+        RecordJournal.diff(-1, "schema", "person", before, after, changes);
+        assertEquals("Unexpected number of changes", 3, changes.size());
+        assertEquals("Removed field should be journaled first", "[\"Hospital\"]", changes.get(0).path);
+        assertNull("Removed field should have no value", changes.get(0).value);
+
+        assertEquals("Replaying changes should give the later tree", after, replay(before, changes));
+    }
+
+    @SmallTest
+    public void testDiffListItems() {
+        JsonElement before = parser.parse("[{\"Name\":\"Amal\"},{\"Name\":\"Omar\"}]");
+        JsonElement after = parser.parse("[{\"Name\":\"Amal\"},{\"Name\":\"Omar K\"}]");
+
+        List<RecordJournal.Change> changes = new ArrayList<>();
+        RecordJournal.diff(-1, "schema", "person", before, after, changes);
+        assertEquals("Only the changed item field should be journaled", 1, changes.size());
+        assertEquals("Unexpected path to list item field", "[1,\"Name\"]", changes.get(0).path);
+        assertEquals("Unexpected tree after replay", after, replay(before, changes));
+
+        // items added; list is replaced whole
+        JsonElement added = parser.parse("[{\"Name\":\"Amal\"},{\"Name\":\"Omar K\"},{\"Name\":\"Sara\"}]");
+        changes.clear();
+        RecordJournal.diff(-1, "schema", "person", after, added, changes);
+        assertEquals("Resized list should be one change", 1, changes.size());
+        assertEquals("Unexpected tree after replaying resized list", added, replay(after, changes));
+    }
+
+    @SmallTest
+    public void testDiffFromUnsetSection() {
+        JsonElement after = parser.parse("{\"Description\":\"Collision near the bridge\"}");
+
+        List<RecordJournal.Change> changes = new ArrayList<>();
+        RecordJournal.diff(-1, "schema", "details", null, after, changes);
+        assertEquals("New section should be one change", 1, changes.size());
+        assertEquals("Unexpected tree after replay", after, replay(null, changes));
+
+        changes.clear();
+        RecordJournal.diff(-1, "schema", "details", after, null, changes);
+        assertEquals("Unset section should replay as null", JsonNull.INSTANCE, replay(after, changes));
+    }
+
+    @SmallTest
+    public void testConstantsTreeRoundTrip() {
+        someConstants.location = new Location("");
+        someConstants.location.setLatitude(13.75);
+        someConstants.location.setLongitude(100.5);
+        someConstants.Weather = DriverConstantFields.WeatherEnum.RAIN;
+
+        DriverConstantFields restored = new DriverConstantFields();
+        RecordJournal.readConstantsTree(RecordJournal.constantsTree(someConstants), restored);
+        assertEquals("Unexpected occurred from", someConstants.occurredFrom, restored.occurredFrom);
+        assertEquals("Unexpected latitude", 13.75, restored.location.getLatitude());
+        assertEquals("Unexpected longitude", 100.5, restored.location.getLongitude());
+        assertEquals("Unexpected weather", DriverConstantFields.WeatherEnum.RAIN, restored.Weather);
+        assertNull("Unset light should stay unset", restored.Light);
+    }
+
+    @SmallTest
+    public void testJournalStorage() {
+        List<RecordJournal.Change> changes = new ArrayList<>();
+        changes.add(new RecordJournal.Change(-1, "schema", "person", "[\"Name\"]", "\"Amal\""));
+        changes.add(new RecordJournal.Change(-1, "schema", "person", "[\"Age\"]", null));
+        assertTrue("Failed to append to journal", manager.appendJournal(changes));
+
+        List<RecordJournal.Change> read = manager.readJournal();
+        assertEquals("Unexpected number of journaled changes", 2, read.size());
+        assertEquals("Journal should keep change order", "[\"Name\"]", read.get(0).path);
+        assertEquals("Unexpected journaled value", "\"Amal\"", read.get(0).value);
+        assertNull("Removal should read back as null value", read.get(1).value);
+        assertEquals("Unexpected journaled record ID", -1, read.get(1).recordId);
+
+        manager.clearJournal();
+        assertTrue("Journal should be empty once cleared", manager.readJournal().isEmpty());
+    }
+
+    @SmallTest
+    public void testSaveCompactsJournal() {
+        List<RecordJournal.Change> changes = new ArrayList<>();
+        changes.add(new RecordJournal.Change(-1, "schema", "person", "[\"Name\"]", "\"Amal\""));
+        manager.appendJournal(changes);
+
+        long id = manager.addRecord("schema", "{\"Name\":\"Amal\"}", someConstants);
+        assertEquals("Saving another record should leave the journal", 1, manager.readJournal().size());
+
+        RecordDatabaseManager.RecordRow row = new RecordDatabaseManager.RecordRow(null, "{\"Name\":\"Amal\"}",
+                someConstants).withJournalCompaction();
+        assertEquals("Update failed", 1, manager.updateRecord(row, id));
+        assertTrue("Saving the edited record should clear the journal", manager.readJournal().isEmpty());
+    }
+
+    private static JsonElement replay(JsonElement tree, List<RecordJournal.Change> changes) {
+        for (RecordJournal.Change change : changes) {
+            tree = RecordJournal.apply(tree, change);
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,150 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import org.worldbank.transport.driver.datastore.LogRecordStore;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordStore;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compare the per-row cost of the SQLite and append-only record stores, on a workload that is
+ * mostly inserts and updates, and on one that is mostly reads. Timings are logged; run on a
+ * device and filter logcat for the log label.
+ */
+public class RecordStoreBenchmarkTests extends AndroidTestCase {
+
+    private static final String LOG_LABEL = "RecordStoreBenchmark";
+
+    private static final int ROW_COUNT = 5000;
+    private static final int SCAN_PASSES = 5;
+
+    // roughly the size of a small serialized record
+    private static final String SOME_DATA = "{\"incidentDetails\":{\"Severity\":\"Property damage\"," +
+            "\"Main cause\":\"Speeding\",\"Collision type\":\"Head on\",\"_localId\":" +
+            "\"3c5e7d1a-9b8f-4c2e-a1d6-0f4b2e8c9a71\"},\"person\":[],\"vehicle\":[]}";
+
+    File logDirectory;
+    RecordStore databaseStore;
+    RecordStore logStore;
+    DriverConstantFields someConstants;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        databaseStore = new RecordDatabaseManager((new MockContext()), true);
+
+        logDirectory = new File(getContext().getCacheDir(), "record_log_benchmark");
+        deleteLogDirectory();
+        logStore = new LogRecordStore(logDirectory);
+
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+        someConstants.location = new Location("");
+        someConstants.location.setLatitude(24.7);
+        someConstants.location.setLongitude(46.7);
+        someConstants.Weather = DriverConstantFields.WeatherEnum.FAIR;
+        someConstants.Light = DriverConstantFields.LightEnum.DAY;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        databaseStore.close();
+        logStore.close();
+        deleteLogDirectory();
+        super.tearDown();
+    }
+
+    @LargeTest
+    public void testInsertHeavy() {
+        runInsertHeavy("SQLite", databaseStore);
+        runInsertHeavy("Log", logStore);
+    }
+
+    @LargeTest
+    public void testScanHeavy() {
+        runScanHeavy("SQLite", databaseStore);
+        runScanHeavy("Log", logStore);
+    }
+
+    private void runInsertHeavy(String label, RecordStore store) {
+        long[] ids = new long[ROW_COUNT];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            ids[i] = store.addRecord(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, label + " insert", start, ROW_COUNT);
+
+        start = System.nanoTime();
+        for (long id : ids) {
+            store.updateRecord(new RecordDatabaseManager.RecordRow(null, SOME_DATA, someConstants), id);
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, label + " update", start, ROW_COUNT);
+
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        }
+        start = System.nanoTime();
+        assertNotNull(label + " bulk insert failed", store.addRecords(rows));
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, label + " bulk insert", start, ROW_COUNT);
+
+        start = System.nanoTime();
+        store.checkpoint();
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, label + " checkpoint", start, ROW_COUNT * 3);
+
+        assertEquals(label + " has unexpected record count", ROW_COUNT * 2, store.getRecordCount());
+    }
+
+    private void runScanHeavy(String label, RecordStore store) {
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(new RecordDatabaseManager.RecordRow("schema", SOME_DATA, someConstants));
+        }
+        long[] ids = store.addRecords(rows);
+        assertNotNull(label + " bulk insert failed", ids);
+
+        final int[] visited = new int[1];
+        long start = System.nanoTime();
+        for (int pass = 0; pass < SCAN_PASSES; pass++) {
+            store.scanRecords(new RecordStore.RecordVisitor() {
+                @Override
+                public boolean visit(RecordStore.StoredRecord record) {
+                    visited[0]++;
+                    return true;
+                }
+            });
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, label + " scan", start, ROW_COUNT * SCAN_PASSES);
+        assertEquals(label + " scan missed records", ROW_COUNT * SCAN_PASSES, visited[0]);
+
+        Random random = new Random(1);
+        start = System.nanoTime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            assertNotNull(label + " read by ID failed", store.readRecord(ids[random.nextInt(ids.length)]));
+        }
+        DatastoreTestHelpers.logPerRow(LOG_LABEL, label + " read by ID", start, ROW_COUNT);
+    }
+
+    private void deleteLogDirectory() {
+        File[] files = logDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        logDirectory.delete();
+    }
+
+}
@@ -0,0 +1,198 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.database.Cursor;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.gson.JsonParser;
+
+import org.worldbank.transport.driver.datastore.DriverRecordContract;
+import org.worldbank.transport.driver.datastore.JacksonRecordDataCodec;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordSummary;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for building record summaries and keeping them up to date in the database.
+ */
+public class RecordSummaryTests extends AndroidTestCase {
+
+    private static final String RECORD_DATA = "{" +
+            "\"details\":{\"_localId\":\"0c6b8f4e-5c1a-4a43-9f7e-1d5a4f0f3e21\",\"Description\":\"Collision near the bridge\"}," +
+            "\"person\":[{\"Name\":\"Amal\",\"Photo\":\"/sdcard/Pictures/MI_1.jpg\"},{\"Name\":\"Omar\"}]," +
+            "\"vehicle\":[]}";
+
+    RecordDatabaseManager manager;
+    DriverConstantFields someConstants;
+    RecordSummary.MediaFields mediaFields;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new RecordDatabaseManager((new MockContext()), true);
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+
+        Map<String, Set<String>> fieldsBySection = new HashMap<>();
+        fieldsBySection.put("person", Collections.singleton("Photo"));
+        mediaFields = new RecordSummary.MediaFields(fieldsBySection);
+        manager.setMediaFields(mediaFields);
+    }
+
+    @SmallTest
+    public void testSectionStats() throws Exception {
+        byte[] data = JacksonRecordDataCodec.SMILE.encode(new JsonParser().parse(
+                "[{\"_localId\":\"0c6b8f4e-5c1a-4a43-9f7e-1d5a4f0f3e21\",\"Name\":\"Amal\",\"Age\":30," +
+                        "\"Photo\":\"/sdcard/Pictures/MI_1.jpg\"},{\"Name\":\"Omar\"},{\"Name\":\"Sara\"}]"));
+
+        RecordSummary.SectionStats stats = RecordSummary.sectionStats("person", 1, data, JacksonRecordDataCodec.SMILE,
+                mediaFields.forSection("person"));
+        assertEquals("Unexpected item count", 3, stats.itemCount);
+        assertEquals("Unexpected photo count", 1, stats.photoCount);
+        assertEquals("Label should skip IDs and paths", "Amal - Omar", stats.label);
+        assertTrue("Payload should be estimated", stats.payloadBytes > 0);
+
+        RecordSummary.SectionStats single = RecordSummary.sectionStats("details", 0,
+                JacksonRecordDataCodec.SMILE.encode(new JsonParser().parse("{\"Description\":\"Bridge\"}")),
+                JacksonRecordDataCodec.SMILE);
+        assertEquals("Set single item section should count one item", 1, single.itemCount);
+    }
+
+    @SmallTest
+    public void testOnlyMediaFieldsArePhotos() throws Exception {
+        byte[] data = JacksonRecordDataCodec.SMILE.encode(new JsonParser().parse(
+                "[{\"Name\":\"Amal\",\"Address\":\"/12 River Road\",\"Photo\":\"/sdcard/Pictures/MI_1.jpg\"}," +
+                        "{\"Name\":\"Omar\",\"Photo\":[\"/sdcard/Pictures/MI_2.jpg\",\"/sdcard/Pictures/MI_3.jpg\"]}]"));
+
+        RecordSummary.SectionStats stats = RecordSummary.sectionStats("person", 1, data, JacksonRecordDataCodec.SMILE,
+                mediaFields.forSection("person"));
+        assertEquals("Only values of media fields should count as photos", 3, stats.photoCount);
+
+        RecordSummary.SectionStats noMedia = RecordSummary.sectionStats("vehicle", 2, data, JacksonRecordDataCodec.SMILE,
+                mediaFields.forSection("vehicle"));
+        assertEquals("Section without media fields should have no photos", 0, noMedia.photoCount);
+    }
+
+    @SmallTest
+    public void testWholeRecordStats() {
+        List<RecordSummary.SectionStats> sections = RecordSummary.recordStats(RECORD_DATA, mediaFields);
+        assertEquals("Expected a section per top-level member", 3, sections.size());
+
+        RecordSummary summary = RecordSummary.fromSections(sections);
+        assertEquals("Label should come from the first section with text", "Collision near the bridge", summary.label);
+        assertEquals("Unexpected photo count", 1, summary.photoCount);
+
+        Map<String, Integer> counts = RecordSummary.parseItemCounts(summary.getItemCountsJson());
+        assertEquals("Unexpected person count", 2, (int) counts.get("person"));
+        assertEquals("Unexpected vehicle count", 0, (int) counts.get("vehicle"));
+    }
+
+    @SmallTest
+    public void testSummaryWrittenWithRecord() {
+        long noLocationId = manager.addRecord("schema", RECORD_DATA, someConstants);
+
+        someConstants.location = new Location("");
+        someConstants.location.setLatitude(13.75);
+        someConstants.location.setLongitude(100.5);
+        long locatedId = manager.addRecord("schema", RECORD_DATA, someConstants);
+
+        Cursor cursor = manager.readRecordSummaries("");
+        assertEquals("Expected a summary for each record", 2, cursor.getCount());
+        int idColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry._ID);
+        int labelColumn = cursor.getColumnIndex(DriverRecordContract.SummaryEntry.COLUMN_LABEL);
+        int readyColumn = cursor.getColumnIndex(DriverRecordContract.SummaryEntry.COLUMN_UPLOAD_READY);
+        while (cursor.moveToNext()) {
+            assertEquals("Unexpected label", "Collision near the bridge", cursor.getString(labelColumn));
+            boolean expectReady = cursor.getLong(idColumn) == locatedId;
+            assertEquals("Only record with a location should be ready to upload", expectReady,
+                    cursor.getInt(readyColumn) == 1);
+        }
+        cursor.close();
+
+        RecordSummary.Totals totals = manager.readSummaryTotals();
+        assertEquals("Unexpected record count", 2, totals.recordCount);
+        assertEquals("Unexpected upload ready count", 1, totals.uploadReadyCount);
+        assertEquals("Unexpected photo count", 2, totals.photoCount);
+
+        manager.deleteRecord(noLocationId);
+        totals = manager.readSummaryTotals();
+        assertEquals("Deleted record should lose its summary", 1, totals.recordCount);
+    }
+
+    @SmallTest
+    public void testSectionalSummaryKeepsOtherSections() throws Exception {
+        List<RecordDatabaseManager.SectionRow> sections = new ArrayList<>(2);
+        sections.add(DatastoreTestHelpers.smileSection("details", 0, "{\"Description\":\"Collision near the bridge\"}"));
+        sections.add(DatastoreTestHelpers.smileSection("person", 1, "[{\"Name\":\"Amal\"}]"));
+        long id = manager.addRecord(new RecordDatabaseManager.RecordRow("schema", sections,
+                JacksonRecordDataCodec.SMILE, someConstants));
+
+        List<RecordDatabaseManager.SectionRow> changed = new ArrayList<>(1);
+        changed.add(DatastoreTestHelpers.smileSection("person", 1, "[{\"Name\":\"Amal\"},{\"Name\":\"Omar\"}]"));
+        assertEquals("Section update failed", 1, manager.updateRecord(new RecordDatabaseManager.RecordRow(null, changed,
+                JacksonRecordDataCodec.SMILE, someConstants), id));
+
+        Cursor cursor = manager.readRecordSummaries("omar");
+        assertTrue("Summary should be found by search", cursor.moveToFirst());
+        assertEquals("Label should come from the unchanged first section", "Collision near the bridge",
+                cursor.getString(cursor.getColumnIndex(DriverRecordContract.SummaryEntry.COLUMN_LABEL)));
+
+        Map<String, Integer> counts = RecordSummary.parseItemCounts(
+                cursor.getString(cursor.getColumnIndex(DriverRecordContract.SummaryEntry.COLUMN_ITEM_COUNTS)));
+        assertEquals("Unchanged section should still be counted", 1, (int) counts.get("details"));
+        assertEquals("Updated section should be recounted", 2, (int) counts.get("person"));
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testSummaryPages() {
+        List<Long> addedIds = new ArrayList<>(5);
+        for (int i = 0; i < 5; i++) {
+            addedIds.add(manager.addRecord("schema", RECORD_DATA, someConstants));
+        }
+
+        // records entered in the same millisecond are ordered by ID
+        List<Long> listedIds = new ArrayList<>(5);
+        RecordSummary.ListEntry last = null;
+        List<RecordSummary.ListEntry> page;
+        do {
+            page = manager.readRecordSummaryPage("", last, 2);
+            assertTrue("Page should not be larger than its limit", page.size() <= 2);
+            for (RecordSummary.ListEntry entry : page) {
+                if (last != null) {
+                    assertTrue("Rows should be most recently entered first",
+                            entry.enteredAt < last.enteredAt ||
+                                    (entry.enteredAt == last.enteredAt && entry.recordId < last.recordId));
+                }
+                listedIds.add(entry.recordId);
+                last = entry;
+            }
+        } while (page.size() == 2);
+
+        assertEquals("Every record should be listed once", 5, listedIds.size());
+        assertTrue("Every added record should be listed", listedIds.containsAll(addedIds));
+
+        assertEquals("Search should filter pages", 5, manager.readRecordSummaryPage("omar", null, 10).size());
+        assertTrue("Search should filter pages", manager.readRecordSummaryPage("nobody", null, 10).isEmpty());
+
+        RecordSummary.ListEntry entry = manager.readRecordSummaryEntry(addedIds.get(0));
+        assertNotNull("Should read a single row", entry);
+        assertEquals("Unexpected label", "Collision near the bridge", entry.label);
+        assertEquals("Unexpected person count", 2, (int) entry.itemCounts.get("person"));
+        assertFalse("Record without a location should not be ready", entry.uploadReady);
+
+        manager.deleteRecord(addedIds.get(0));
+        assertNull("Deleted record should have no row", manager.readRecordSummaryEntry(addedIds.get(0)));
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.gson.JsonParser;
+
+import org.worldbank.transport.driver.TestModels.TestSchema;
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordValidator;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+import org.worldbank.transport.driver.tasks.ValidateRecordsTask;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for checking stored record data against schema constraints.
+ */
+public class RecordValidatorTests extends AndroidTestCase {
+
+    private static final String VALID_RECORD = "{\"Person\":[{\"Name\":\"Amal\",\"License number\":\"1234567\"," +
+            "\"Sex\":\"Female\",\"Vehicle\":\"v1\"}],\"Vehicle\":[{\"_localId\":\"v1\"}]}";
+
+    private static final String INVALID_RECORD = "{\"Person\":[{\"Name\":\"Omar\",\"License number\":\"123\"," +
+            "\"Sex\":\"Other\",\"Vehicle\":\"v2\"}],\"Vehicle\":[{\"_localId\":\"v1\"}]}";
+
+    RecordValidator validator;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        validator = RecordValidator.compile(TestSchema.class);
+    }
+
+    private List<RecordValidator.Problem> validate(String data) {
+        return validator.validate(new JsonParser().parse(data));
+    }
+
+    private RecordValidator.Problem findProblem(List<RecordValidator.Problem> problems, String field) {
+        for (RecordValidator.Problem problem : problems) {
+            if (field.equals(problem.field)) {
+                return problem;
+            }
+        }
+        return null;
+    }
+
+    @SmallTest
+    public void testValidRecord() {
+        List<RecordValidator.Problem> problems = validate(VALID_RECORD);
+        assertTrue("Valid record should have no problems, found " + problems, problems.isEmpty());
+
+        // optional select and reference may be left empty
+        problems = validate("{\"Person\":[{\"Name\":\"Amal\",\"Sex\":\"\",\"Vehicle\":\"\"}]}");
+        assertTrue("Empty optional fields should be allowed, found " + problems, problems.isEmpty());
+    }
+
+    @SmallTest
+    public void testInvalidFields() {
+        List<RecordValidator.Problem> problems = validate(INVALID_RECORD);
+        assertEquals("Unexpected problem count: " + problems, 3, problems.size());
+
+        RecordValidator.Problem license = findProblem(problems, "License number");
+        assertEquals("Short license number should fail size", RecordValidator.PROBLEM_LENGTH, license.kind);
+        assertEquals("Problem should be on the first person", 0, license.itemIndex);
+        assertEquals("Unknown option should fail", RecordValidator.PROBLEM_OPTION, findProblem(problems, "Sex").kind);
+        assertEquals("Missing vehicle should fail reference", RecordValidator.PROBLEM_REFERENCE,
+                findProblem(problems, "Vehicle").kind);
+    }
+
+    @SmallTest
+    public void testBadStructure() {
+        List<RecordValidator.Problem> problems = validate("{\"Person\":{\"Name\":\"Amal\"}}");
+        assertEquals("Single item where list expected should fail", RecordValidator.PROBLEM_STRUCTURE,
+                problems.get(0).kind);
+        assertFalse("Non-object data should fail", validate("[]").isEmpty());
+    }
+
+    @MediumTest
+    public void testValidateStoredRecords() {
+        RecordDatabaseManager manager = new RecordDatabaseManager((new MockContext()), true);
+        DriverConstantFields constants = new DriverConstantFields();
+        constants.occurredFrom = new Date();
+
+        manager.addRecord("schema", VALID_RECORD, constants);
+        long invalidId = manager.addRecord("schema", INVALID_RECORD, constants);
+        manager.addRecord("old schema", INVALID_RECORD, constants);
+
+        ValidateRecordsTask.Result result = ValidateRecordsTask.validateRecords(manager, validator, "schema");
+        assertEquals("Records of the schema should be checked", 2, result.checked);
+        assertEquals("Records of other schemas should be skipped", 1, result.skipped);
+        assertEquals("Unexpected invalid count", 1, result.getInvalidCount());
+        assertEquals("Wrong record found invalid", invalidId, (long) result.invalidRecordIds.get(0));
+    }
+}
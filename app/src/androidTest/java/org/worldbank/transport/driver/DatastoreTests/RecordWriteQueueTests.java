@@ -0,0 +1,117 @@
+package org.worldbank.transport.driver.DatastoreTests;
+
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordWriteQueue;
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+import org.worldbank.transport.driver.staticmodels.Record;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the background record writer against an in-memory database.
+ */
+public class RecordWriteQueueTests extends AndroidTestCase {
+
+    RecordDatabaseManager manager;
+    RecordWriteQueue writeQueue;
+    DriverConstantFields someConstants;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new RecordDatabaseManager((new MockContext()), true);
+        writeQueue = new RecordWriteQueue(manager);
+        someConstants = new DriverConstantFields();
+        someConstants.occurredFrom = new Date();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        writeQueue.shutdown();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testSaveNewRecord() throws Exception {
+        Record record = new Record(null, -1, someConstants, "someschema");
+        Future<Long> saved = writeQueue.save(record, "someschema", "somedata", someConstants.copy());
+
+        long id = saved.get(1, TimeUnit.SECONDS);
+        assertTrue("Record was not inserted", id > -1);
+        assertEquals("Record ID not set after insert", id, record.getRecordId());
+        assertEquals("Unexpected data for saved record", "somedata", manager.getSerializedRecordWithId(id));
+    }
+
+    @SmallTest
+    public void testLastSaveWins() throws Exception {
+        Record record = new Record(null, -1, someConstants, "someschema");
+        writeQueue.save(record, "someschema", "first", someConstants.copy());
+        writeQueue.save(record, "someschema", "second", someConstants.copy());
+        Future<Long> saved = writeQueue.save(record, "someschema", "third", someConstants.copy());
+
+        long id = saved.get(1, TimeUnit.SECONDS);
+        writeQueue.waitForPendingWrites();
+
+        assertEquals("Saves of one record should not add rows", 1, manager.readAllRecords().getCount());
+        assertEquals("Did not keep data from last save", "third", manager.getSerializedRecordWithId(id));
+    }
+
+    @SmallTest
+    public void testDeleteRecord() throws Exception {
+        Record record = new Record(null, -1, someConstants, "someschema");
+        writeQueue.save(record, "someschema", "somedata", someConstants.copy());
+        Future<Boolean> deleted = writeQueue.delete(record);
+
+        assertTrue("Record delete failed", deleted.get(1, TimeUnit.SECONDS));
+        assertEquals("Record still in database after delete", 0, manager.readAllRecords().getCount());
+    }
+
+    @SmallTest
+    public void testDeleteRecords() throws Exception {
+        Record first = new Record(null, -1, someConstants, "someschema");
+        Record second = new Record(null, -1, someConstants, "someschema");
+        long firstId = writeQueue.save(first, "someschema", "first", someConstants.copy()).get(1, TimeUnit.SECONDS);
+        long secondId = writeQueue.save(second, "someschema", "second", someConstants.copy()).get(1, TimeUnit.SECONDS);
+
+        Future<Integer> deleted = writeQueue.deleteRecords(new long[] { firstId, secondId });
+        assertEquals("Expected both records deleted", 2, (int) deleted.get(1, TimeUnit.SECONDS));
+        assertEquals("Records still in database after delete", 0, manager.readAllRecords().getCount());
+    }
+
+    @SmallTest
+    public void testDeleteUnsavedRecord() throws Exception {
+        Record record = new Record(null, -1, someConstants, "someschema");
+        assertTrue("Deleting a record never saved should succeed",
+                writeQueue.delete(record).get(1, TimeUnit.SECONDS));
+    }
+
+    @SmallTest
+    public void testReadAfterPendingWrites() throws Exception {
+        final Record record = new Record(null, -1, someConstants, "someschema");
+        writeQueue.save(record, "someschema", "somedata", someConstants.copy());
+        Future<String> read = writeQueue.read(new Callable<String>() {
+            @Override
+            public String call() {
+                return manager.getSerializedRecordWithId(record.getRecordId());
+            }
+        }, null);
+
+        assertEquals("Read queued after a save should see it", "somedata", read.get(1, TimeUnit.SECONDS));
+    }
+
+    @SmallTest
+    public void testFlush() throws Exception {
+        Record record = new Record(null, -1, someConstants, "someschema");
+        Future<Long> saved = writeQueue.save(record, "someschema", "somedata", someConstants.copy());
+        writeQueue.flush().get(1, TimeUnit.SECONDS);
+
+        assertTrue("Save queued before flush should be done after it", saved.isDone());
+    }
+}
@@ -11,6 +11,7 @@ import org.mockito.Mockito;
 import org.worldbank.transport.driver.MockPostRecordsUrlBuilder;
 import org.worldbank.transport.driver.activities.RecordListActivity;
 import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordWriteQueue;
 import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
 import org.worldbank.transport.driver.staticmodels.DriverUserAuth;
 import org.worldbank.transport.driver.staticmodels.DriverUserInfo;
@@ -30,6 +31,7 @@ public class PostRecordsTaskTests extends AndroidTestCase {
     MockWebServer server;
     PostRecordsTask postRecordsTask;
     RecordDatabaseManager testDbManager;
+    RecordWriteQueue testWriteQueue;
 
     @Override
     protected void setUp() throws Exception {
@@ -44,9 +46,11 @@ public class PostRecordsTaskTests extends AndroidTestCase {
         userInfo.setUserToken(auth);
 
         testDbManager = new RecordDatabaseManager(getContext(), true);
+        testWriteQueue = new RecordWriteQueue(testDbManager);
 
         PostRecordsTask.UploadRecordUrl uploadRecordUrl = new MockPostRecordsUrlBuilder(server);
-        postRecordsTask = new PostRecordsTask(mockActivity, userInfo, uploadRecordUrl, testDbManager);
+        postRecordsTask = new PostRecordsTask(mockActivity, userInfo, uploadRecordUrl, testDbManager,
+                testWriteQueue);
     }
 
     @Override
@@ -54,6 +58,8 @@ public class PostRecordsTaskTests extends AndroidTestCase {
         super.tearDown();
         postRecordsTask.cancel(true);
         postRecordsTask = null;
+        testWriteQueue.shutdown();
+        testWriteQueue = null;
         server = null;
         mockActivity = null;
     }
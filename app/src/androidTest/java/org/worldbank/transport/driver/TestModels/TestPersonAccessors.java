@@ -0,0 +1,28 @@
+package org.worldbank.transport.driver.TestModels;
+
+import org.worldbank.transport.driver.utilities.FieldAccessor;
+
+/**
+ * Accessors for TestPerson, as would be generated with the schema models.
+ * Only covers the name field, so others are read by reflection.
+ */
+public class TestPersonAccessors implements FieldAccessor.Provider {
+
+    @Override
+    public FieldAccessor getAccessor(String fieldName) {
+        if ("Name".equals(fieldName)) {
+            return new FieldAccessor() {
+                @Override
+                public Object get(Object target) {
+                    return ((TestPerson) target).Name;
+                }
+
+                @Override
+                public void set(Object target, Object value) {
+                    ((TestPerson) target).Name = (String) value;
+                }
+            };
+        }
+        return null;
+    }
+}
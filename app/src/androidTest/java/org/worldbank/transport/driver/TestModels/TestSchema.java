@@ -0,0 +1,29 @@
+package org.worldbank.transport.driver.TestModels;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+
+import org.jsonschema2pojo.annotations.Multiple;
+
+import java.util.ArrayList;
+
+/**
+ * Minimal top-level schema class with sections of TestPerson items, for tests that work on
+ * whole records. The vehicle section only needs items with local IDs for people to refer to.
+ */
+@JsonPropertyOrder({
+    "Person",
+    "Vehicle"
+})
+public class TestSchema {
+
+    @SerializedName("Person")
+    @Expose
+    @Multiple(true)
+    public ArrayList<TestPerson> Person;
+    @SerializedName("Vehicle")
+    @Expose
+    @Multiple(true)
+    public ArrayList<TestPerson> Vehicle;
+}
@@ -0,0 +1,64 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.utilities.DisplayDateFormatter;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Tests for formatting dates for display with cached formats.
+ */
+public class DisplayDateFormatterTests extends AndroidTestCase {
+
+    // Friday, December 31, 1999 11:59:59 PM UTC
+    private static final long END_OF_1999 = 946684799000L;
+
+    @SmallTest
+    public void testUmmalqura() {
+        DisplayDateFormatter formatter = new DisplayDateFormatter("EEEE d MMMM, y", Locale.ENGLISH,
+                TimeZone.getTimeZone("UTC"), true);
+        assertEquals("Incorrect Hijri date", "Friday 23 Ramadhan, 1420", formatter.format(END_OF_1999));
+        assertEquals("Cached Hijri date should not change", "Friday 23 Ramadhan, 1420", formatter.format(END_OF_1999));
+    }
+
+    @SmallTest
+    public void testGregorianByMinute() {
+        DisplayDateFormatter formatter = new DisplayDateFormatter("d MMMM y 'at' HH:mm", Locale.ENGLISH,
+                TimeZone.getTimeZone("UTC"), false);
+        assertEquals("Incorrect Gregorian date", "31 December 1999 at 23:59", formatter.format(END_OF_1999));
+        assertEquals("Times in the same minute should read the same", "31 December 1999 at 23:59",
+                formatter.format(END_OF_1999 - 58000));
+        assertEquals("Next minute should be formatted again", "1 January 2000 at 00:00",
+                formatter.format(END_OF_1999 + 1000));
+    }
+
+    @SmallTest
+    public void testTimeZoneOffset() {
+        DisplayDateFormatter formatter = new DisplayDateFormatter("d MMMM y HH:mm", Locale.ENGLISH,
+                TimeZone.getTimeZone("Asia/Riyadh"), false);
+        assertEquals("Should show time in the time zone given", "1 January 2000 02:59",
+                formatter.format(END_OF_1999));
+    }
+
+    @SmallTest
+    public void testFormatOnOtherThread() throws InterruptedException {
+        final DisplayDateFormatter formatter = new DisplayDateFormatter("EEEE d MMMM, y HH:mm:ss", Locale.ENGLISH,
+                TimeZone.getTimeZone("UTC"), false);
+        final String[] fromThread = new String[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fromThread[0] = formatter.format(END_OF_1999);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals("Unexpected date formatted on other thread", "Friday 31 December, 1999 23:59:59", fromThread[0]);
+        assertEquals("Date formatted on other thread should be found again", fromThread[0],
+                formatter.format(END_OF_1999));
+    }
+}
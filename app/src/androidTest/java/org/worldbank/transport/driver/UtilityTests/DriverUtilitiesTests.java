@@ -5,6 +5,7 @@ import android.util.Log;
 
 import org.worldbank.transport.driver.TestModels.TestPerson;
 import org.worldbank.transport.driver.utilities.DriverUtilities;
+import org.worldbank.transport.driver.utilities.ListItemLabeler;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -88,6 +89,21 @@ public class DriverUtilitiesTests extends AndroidTestCase {
                 "item label", "Test Person - 1", bigBirdLabel);
     }
 
+    public void testListItemLabeler() {
+        ListItemLabeler labeler = new ListItemLabeler(TestPerson.class);
+
+        TestPerson bigBird = new TestPerson();
+        bigBird.Name = "Big Bird";
+        assertEquals("Unexpected value label", "Big Bird", labeler.getValueLabel(bigBird));
+
+        bigBird.Address = "Sesame Street";
+        assertEquals("Label should follow changed values", "Big Bird - Sesame Street", labeler.getValueLabel(bigBird));
+
+        assertEquals("Item without values should have empty value label", "", labeler.getValueLabel(new TestPerson()));
+        assertEquals("Unexpected default item label", "Test Person - 3", ListItemLabeler.getDefaultLabel("Test Person", 2));
+        assertFalse("Test person has no image label field", labeler.hasImages());
+    }
+
     public void testUmmalQuara() {
         Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ENGLISH);
         // Friday, December 31, 1999 11:59:59 PM UTC
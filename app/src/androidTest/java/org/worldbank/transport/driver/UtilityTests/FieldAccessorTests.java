@@ -0,0 +1,55 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.TestModels.TestPerson;
+import org.worldbank.transport.driver.utilities.FieldAccessor;
+
+/**
+ * Tests for generated and reflective model field accessors.
+ */
+public class FieldAccessorTests extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FieldAccessor.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FieldAccessor.clear();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testGeneratedAccessor() throws IllegalAccessException {
+        FieldAccessor name = FieldAccessor.forField(TestPerson.class, "Name");
+        assertFalse("Generated accessor should be used", name.getClass().getName().endsWith("ReflectiveAccessor"));
+
+        TestPerson person = new TestPerson();
+        name.set(person, "Grover");
+        assertEquals("Generated accessor did not set field", "Grover", person.Name);
+        assertEquals("Generated accessor did not read field", "Grover", name.get(person));
+    }
+
+    @SmallTest
+    public void testReflectiveFallback() throws IllegalAccessException, NoSuchFieldException {
+        FieldAccessor age = FieldAccessor.forField(TestPerson.class.getField("Age"));
+        assertTrue("Field without generated accessor should use reflection",
+                age.getClass().getName().endsWith("ReflectiveAccessor"));
+
+        TestPerson person = new TestPerson();
+        age.set(person, "42");
+        assertEquals("Reflective accessor did not set field", "42", person.Age);
+        assertEquals("Reflective accessor did not read field", "42", age.get(person));
+    }
+
+    @SmallTest
+    public void testAccessorsCached() {
+        FieldAccessor age = FieldAccessor.forField(TestPerson.class, "Age");
+        assertSame("Accessor should be reused", age, FieldAccessor.forField(TestPerson.class, "Age"));
+        assertNull("Missing field should have no accessor", FieldAccessor.forField(TestPerson.class, "Nope"));
+    }
+}
@@ -0,0 +1,174 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.google.gson.annotations.SerializedName;
+
+import org.jsonschema2pojo.media.SerializableMedia;
+import org.worldbank.transport.driver.TestModels.TestPerson;
+import org.worldbank.transport.driver.adapters.FormItemListAdapter;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for updating only the rows of form list items that changed.
+ */
+public class FormItemListAdapterTests extends AndroidTestCase {
+
+    /**
+     * List item with an image field first, so it is shown with the item's label.
+     */
+    @JsonPropertyOrder({
+        "Photo",
+        "Name"
+    })
+    public static class PhotoItem {
+        @SerializedName("Photo")
+        public SerializableMedia Photo;
+
+        @SerializedName("Name")
+        public String Name;
+    }
+
+    /**
+     * Keeps the rows the adapter reported as changed.
+     */
+    private static class ChangeRecorder extends RecyclerView.AdapterDataObserver {
+        ArrayList<String> changes = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            changes.add("all");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            changes.add("changed " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            changes.add("inserted " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            changes.add("removed " + positionStart + " " + itemCount);
+        }
+    }
+
+    FormItemListAdapter adapter;
+    ChangeRecorder recorder;
+    ArrayList<TestPerson> people;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter = new FormItemListAdapter("Person", null);
+        recorder = new ChangeRecorder();
+        adapter.registerAdapterDataObserver(recorder);
+
+        people = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TestPerson person = new TestPerson();
+            person.Name = "Person " + i;
+            people.add(person);
+        }
+    }
+
+    @SmallTest
+    public void testFirstBuild() {
+        adapter.buildLabelList(people, TestPerson.class);
+        assertEquals("Unexpected item count", 3, adapter.getItemCount());
+        assertEquals("First build should refresh the whole list", "all", recorder.changes.get(0));
+    }
+
+    @SmallTest
+    public void testUnchangedListNotBound() {
+        adapter.buildLabelList(people, TestPerson.class);
+        recorder.changes.clear();
+
+        adapter.buildLabelList(people, TestPerson.class);
+        assertTrue("Unchanged list should not update any rows", recorder.changes.isEmpty());
+    }
+
+    @SmallTest
+    public void testInsertAndRemove() {
+        adapter.buildLabelList(people, TestPerson.class);
+        recorder.changes.clear();
+
+        TestPerson added = new TestPerson();
+        added.Name = "Added";
+        people.add(1, added);
+        adapter.buildLabelList(people, TestPerson.class);
+        assertEquals("Only the added row should be inserted", "[inserted 1 1]", recorder.changes.toString());
+        recorder.changes.clear();
+
+        people.remove(0);
+        adapter.buildLabelList(people, TestPerson.class);
+        assertEquals("Only the removed row should be removed", "[removed 0 1]", recorder.changes.toString());
+        assertEquals("Unexpected item count", 3, adapter.getItemCount());
+    }
+
+    @SmallTest
+    public void testOpenedItemRelabelled() {
+        adapter.buildLabelList(people, TestPerson.class);
+        recorder.changes.clear();
+
+        // labels are kept for items not opened for editing
+        people.get(1).Name = "Renamed";
+        adapter.buildLabelList(people, TestPerson.class);
+        assertTrue("Item not opened should keep its label", recorder.changes.isEmpty());
+
+        adapter.noteItemEdited(1);
+        adapter.buildLabelList(people, TestPerson.class);
+        assertEquals("Opened item should be labelled again", "[changed 1 1]", recorder.changes.toString());
+        recorder.changes.clear();
+
+        // only labelled again once per opening
+        people.get(1).Name = "Renamed again";
+        adapter.buildLabelList(people, TestPerson.class);
+        assertTrue("Item should be labelled again only after it is next opened", recorder.changes.isEmpty());
+    }
+
+    @SmallTest
+    public void testEditedItemsKeptPerAdapter() {
+        FormItemListAdapter otherAdapter = new FormItemListAdapter("Person", null);
+        ChangeRecorder otherRecorder = new ChangeRecorder();
+        otherAdapter.registerAdapterDataObserver(otherRecorder);
+
+        adapter.buildLabelList(people, TestPerson.class);
+        otherAdapter.buildLabelList(people, TestPerson.class);
+        otherRecorder.changes.clear();
+
+        people.get(0).Name = "Renamed";
+        adapter.noteItemEdited(0);
+        otherAdapter.buildLabelList(people, TestPerson.class);
+        assertTrue("Item opened from one list should not relabel another", otherRecorder.changes.isEmpty());
+    }
+
+    @SmallTest
+    public void testImageWithoutPath() {
+        ArrayList<PhotoItem> items = new ArrayList<>();
+        PhotoItem item = new PhotoItem();
+        item.Name = "No path";
+        item.Photo = new SerializableMedia();
+        items.add(item);
+
+        adapter.buildLabelList(items, PhotoItem.class);
+        recorder.changes.clear();
+
+        // comparing rows with a null image path should not fail
+        adapter.noteItemEdited(0);
+        adapter.buildLabelList(items, PhotoItem.class);
+        assertTrue("Unchanged item should not be bound again", recorder.changes.isEmpty());
+
+        item.Photo.path = "/sdcard/Pictures/MI_photo.jpg";
+        adapter.noteItemEdited(0);
+        adapter.buildLabelList(items, PhotoItem.class);
+        assertEquals("Item with a new image should be bound again", "[changed 0 1]", recorder.changes.toString());
+    }
+}
@@ -0,0 +1,91 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.TestModels.TestPerson;
+import org.worldbank.transport.driver.utilities.FormSectionTemplate;
+
+import java.util.List;
+
+/**
+ * Tests for building and caching form section templates.
+ */
+public class FormSectionTemplateTests extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FormSectionTemplate.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FormSectionTemplate.clear();
+        super.tearDown();
+    }
+
+    private FormSectionTemplate getPersonTemplate() {
+        return FormSectionTemplate.getTemplate(TestPerson.class, false, getContext().getResources(),
+                getContext().getPackageName());
+    }
+
+    private FormSectionTemplate.FieldTemplate findField(FormSectionTemplate template, String name) {
+        for (FormSectionTemplate.FieldTemplate field : template.fields) {
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    @SmallTest
+    public void testFieldsInOrder() {
+        FormSectionTemplate template = getPersonTemplate();
+
+        // hidden local ID is left out
+        assertEquals("Unexpected field count", 12, template.fields.size());
+        assertEquals("Fields should follow JsonPropertyOrder", "Name", template.fields.get(0).name);
+        assertEquals("Fields should follow JsonPropertyOrder", "Vehicle", template.fields.get(11).name);
+        assertNull("Hidden field should not be in template", findField(template, "LocalId"));
+    }
+
+    @SmallTest
+    public void testFieldControls() {
+        FormSectionTemplate template = getPersonTemplate();
+
+        FormSectionTemplate.FieldTemplate licenseNumber = findField(template, "LicenseNumber");
+        assertEquals("Label should come from serialized name", "License number", licenseNumber.label);
+        assertEquals("Unexpected control type", FormSectionTemplate.ControlType.TEXT, licenseNumber.controlType);
+
+        FormSectionTemplate.FieldTemplate vehicle = findField(template, "Vehicle");
+        assertEquals("Unexpected control type", FormSectionTemplate.ControlType.REFERENCE, vehicle.controlType);
+        assertEquals("Reference should keep watch target", "Vehicle", vehicle.watchTarget);
+        assertNull("Reference options depend on the record", vehicle.optionLabels);
+
+        FormSectionTemplate.FieldTemplate driverError = findField(template, "DriverError");
+        assertEquals("Unexpected control type", FormSectionTemplate.ControlType.SELECT, driverError.controlType);
+        List<String> labels = driverError.optionLabels;
+        assertEquals("Optional select should start with empty option", "", labels.get(0));
+        assertEquals("Option label should come from serialized name", "Fatigued/asleep", labels.get(1));
+        assertEquals("Option items should match labels", "FATIGUED_ASLEEP",
+                ((Enum) driverError.optionItems.get(1)).name());
+        assertEquals("Labels and items should match", labels.size(), driverError.optionItems.size());
+
+        try {
+            labels.add("Other");
+            fail("Template options should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @SmallTest
+    public void testTemplateCached() {
+        FormSectionTemplate template = getPersonTemplate();
+        assertSame("Template should be reused", template, getPersonTemplate());
+
+        FormSectionTemplate.clear();
+        assertNotSame("Template should be rebuilt after clear", template, getPersonTemplate());
+    }
+}
@@ -0,0 +1,275 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.widget.LinearLayout;
+
+import org.worldbank.transport.driver.adapters.RecordListAdapter;
+import org.worldbank.transport.driver.datastore.RecordSummary;
+import org.worldbank.transport.driver.utilities.DisplayDateFormatter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Tests for paging the record list, and updating only the rows of records that changed.
+ */
+public class RecordListAdapterTests extends AndroidTestCase {
+
+    /**
+     * Keeps the rows the adapter reported as changed.
+     */
+    private static class ChangeRecorder extends RecyclerView.AdapterDataObserver {
+        ArrayList<String> changes = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            changes.add("all");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            changes.add("changed " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            changes.add("inserted " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            changes.add("removed " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            changes.add("moved " + fromPosition + " " + toPosition + " " + itemCount);
+        }
+    }
+
+    /**
+     * Keeps the rows the adapter asked to read the next page after.
+     */
+    private static class PageListener implements RecordListAdapter.RecordListListener {
+        ArrayList<Long> pagesAfter = new ArrayList<>();
+
+        @Override
+        public void clickedRecord(long recordId) {}
+
+        @Override
+        public void longPressedRecord(long recordId) {}
+
+        @Override
+        public void needNextPage(RecordSummary.ListEntry lastEntry) {
+            pagesAfter.add(lastEntry.recordId);
+        }
+    }
+
+    RecordListAdapter adapter;
+    ChangeRecorder recorder;
+    PageListener listener;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        DisplayDateFormatter dateFormatter = new DisplayDateFormatter("d MMMM y HH:mm", Locale.ENGLISH,
+                TimeZone.getTimeZone("UTC"), false);
+        listener = new PageListener();
+        adapter = new RecordListAdapter(getContext(), dateFormatter, listener);
+        recorder = new ChangeRecorder();
+        adapter.registerAdapterDataObserver(recorder);
+    }
+
+    @SmallTest
+    public void testFirstPage() {
+        assertFalse("Adapter should not be loaded before its first page", adapter.isLoaded());
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), true);
+
+        assertTrue("Adapter should be loaded after its first page", adapter.isLoaded());
+        assertTrue("Adapter should expect more records", adapter.hasMore());
+        assertEquals("First page should refresh the whole list", "[all]", recorder.changes.toString());
+        assertRecords(3, 2, 1);
+    }
+
+    @SmallTest
+    public void testAddPage() {
+        adapter.setRecords(entries(3, 300, 2, 200), true);
+        recorder.changes.clear();
+
+        adapter.addPage(entries(1, 100), false);
+        assertEquals("Page should be inserted after the last row", "[inserted 2 1]", recorder.changes.toString());
+        assertFalse("Adapter should not expect more records after the last page", adapter.hasMore());
+        assertRecords(3, 2, 1);
+    }
+
+    @SmallTest
+    public void testSetRecordsUnchanged() {
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), false);
+        assertTrue("Unchanged list should not update any rows", recorder.changes.isEmpty());
+    }
+
+    @SmallTest
+    public void testSetRecordsContentsChanged() {
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        List<RecordSummary.ListEntry> changed = entries(3, 300, 1, 100);
+        changed.add(1, new RecordSummary.ListEntry(2, 200, "Relabelled", new HashMap<String, Integer>(), 0, true));
+        adapter.setRecords(changed, false);
+        assertEquals("Only the changed row should be bound again", "[changed 1 1]", recorder.changes.toString());
+    }
+
+    @SmallTest
+    public void testSetRecordsDiffed() {
+        adapter.setRecords(entries(4, 400, 3, 300, 2, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        // one row dropped, one added, and one moved to the front
+        adapter.setRecords(entries(1, 500, 5, 450, 4, 400, 2, 200), false);
+        assertFalse("Rows should be diffed, not all refreshed", recorder.changes.contains("all"));
+        assertRecords(1, 5, 4, 2);
+    }
+
+    @SmallTest
+    public void testUpdateSamePlace() {
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        adapter.updateRecord(entry(2, 200));
+        assertTrue("Unchanged record should not be bound again", recorder.changes.isEmpty());
+
+        adapter.updateRecord(new RecordSummary.ListEntry(2, 200, "Relabelled", new HashMap<String, Integer>(), 0, true));
+        assertEquals("Changed record should be bound again in place", "[changed 1 1]", recorder.changes.toString());
+        assertRecords(3, 2, 1);
+    }
+
+    @SmallTest
+    public void testUpdateInsert() {
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        adapter.updateRecord(entry(4, 250));
+        assertEquals("New record should be inserted in order", "[inserted 1 1]", recorder.changes.toString());
+        assertRecords(3, 4, 2, 1);
+    }
+
+    @SmallTest
+    public void testUpdateMove() {
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        adapter.updateRecord(entry(1, 350));
+        assertEquals("Record entered later should move to the front", "[removed 2 1, inserted 0 1]",
+                recorder.changes.toString());
+        assertRecords(1, 3, 2);
+    }
+
+    @SmallTest
+    public void testUpdateTieBreak() {
+        adapter.setRecords(entries(5, 300, 3, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        // entered at the same time: most recently added first
+        adapter.updateRecord(entry(4, 200));
+        assertEquals("Record added later should go first", "[inserted 1 1]", recorder.changes.toString());
+        recorder.changes.clear();
+
+        adapter.updateRecord(entry(2, 200));
+        assertEquals("Record added earlier should go after", "[inserted 3 1]", recorder.changes.toString());
+        assertRecords(5, 4, 3, 2, 1);
+    }
+
+    @SmallTest
+    public void testUpdatePastLastRow() {
+        adapter.setRecords(entries(3, 300, 2, 200), true);
+        recorder.changes.clear();
+
+        // left to be read with the next page
+        adapter.updateRecord(entry(4, 50));
+        assertTrue("Record after the last row should not be added", recorder.changes.isEmpty());
+
+        adapter.updateRecord(entry(3, 100));
+        assertEquals("Record moved after the last row should only be removed", "[removed 0 1]",
+                recorder.changes.toString());
+        assertRecords(2);
+        recorder.changes.clear();
+
+        // with no more to read, the last row is the end of the list
+        adapter.addPage(new ArrayList<RecordSummary.ListEntry>(), false);
+        recorder.changes.clear();
+        adapter.updateRecord(entry(4, 50));
+        assertEquals("Record after the last row should be added at the end", "[inserted 1 1]",
+                recorder.changes.toString());
+        assertRecords(2, 4);
+    }
+
+    @SmallTest
+    public void testRemoveRecord() {
+        adapter.setRecords(entries(3, 300, 2, 200, 1, 100), false);
+        recorder.changes.clear();
+
+        adapter.removeRecord(2);
+        adapter.removeRecord(7);
+        assertEquals("Only the shown record should be removed", "[removed 1 1]", recorder.changes.toString());
+        assertRecords(3, 1);
+    }
+
+    @SmallTest
+    public void testPageRequested() {
+        long[] idsAndTimes = new long[30];
+        for (int i = 0; i < 15; i++) {
+            idsAndTimes[i * 2] = 100 - i;
+            idsAndTimes[i * 2 + 1] = 1000 - i;
+        }
+        adapter.setRecords(entries(idsAndTimes), true);
+        RecordListAdapter.ViewHolder holder = adapter.onCreateViewHolder(new LinearLayout(getContext()), 0);
+
+        adapter.onBindViewHolder(holder, 4);
+        assertTrue("Page should not be requested far from the last row", listener.pagesAfter.isEmpty());
+
+        adapter.onBindViewHolder(holder, 5);
+        adapter.onBindViewHolder(holder, 6);
+        assertEquals("Page should be requested once, after the last row", "[86]", listener.pagesAfter.toString());
+
+        adapter.addPage(entries(85, 985), false);
+        adapter.onBindViewHolder(holder, 15);
+        assertEquals("Page should not be requested after the last page", "[86]", listener.pagesAfter.toString());
+
+        // a new first page may be requested past again
+        adapter.setRecords(entries(idsAndTimes), true);
+        adapter.onBindViewHolder(holder, 14);
+        assertEquals("Page should be requested again for new rows", "[86, 86]", listener.pagesAfter.toString());
+    }
+
+    private void assertRecords(long... recordIds) {
+        assertEquals("Unexpected item count", recordIds.length, adapter.getItemCount());
+        for (int i = 0; i < recordIds.length; i++) {
+            assertEquals("Unexpected record at " + i, recordIds[i], adapter.getItemId(i));
+        }
+    }
+
+    private static RecordSummary.ListEntry entry(long recordId, long enteredAt) {
+        return new RecordSummary.ListEntry(recordId, enteredAt, "Record " + recordId,
+                new HashMap<String, Integer>(), 0, true);
+    }
+
+    /**
+     * @param idsAndTimes Record ID and entered at time of each row, in turn
+     * @return Rows, in the order given
+     */
+    private static List<RecordSummary.ListEntry> entries(long... idsAndTimes) {
+        ArrayList<RecordSummary.ListEntry> entries = new ArrayList<>();
+        for (int i = 0; i < idsAndTimes.length; i += 2) {
+            entries.add(entry(idsAndTimes[i], idsAndTimes[i + 1]));
+        }
+        return entries;
+    }
+}
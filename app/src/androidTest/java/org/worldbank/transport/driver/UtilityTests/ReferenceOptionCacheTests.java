@@ -0,0 +1,47 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.utilities.ReferenceOptionCache;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for keeping reference field options by section.
+ */
+public class ReferenceOptionCacheTests extends AndroidTestCase {
+
+    @SmallTest
+    public void testInvalidateSection() {
+        ReferenceOptionCache cache = new ReferenceOptionCache();
+
+        ArrayList<String> labels = new ArrayList<>();
+        labels.add("Car - Toyota");
+        ArrayList<Object> ids = new ArrayList<>();
+        ids.add("0b7a45a6-0b4c-4f0d-9d5e-3f2a5b1c2d3e");
+
+        cache.put("Vehicle", new ReferenceOptionCache.Options(labels, ids));
+        cache.put("Person", new ReferenceOptionCache.Options(new ArrayList<String>(), new ArrayList<Object>()));
+
+        ReferenceOptionCache.Options options = cache.get("Vehicle");
+        assertEquals("Unexpected cached label", "Car - Toyota", options.labels.get(0));
+        assertEquals("Labels and IDs should match", options.labels.size(), options.ids.size());
+
+        cache.invalidate("Vehicle");
+        assertNull("Invalidated section should have no options", cache.get("Vehicle"));
+        assertNotNull("Other sections should keep their options", cache.get("Person"));
+    }
+
+    @SmallTest
+    public void testOptionsNotModifiable() {
+        ReferenceOptionCache.Options options = new ReferenceOptionCache.Options(new ArrayList<String>(),
+                new ArrayList<Object>());
+        try {
+            options.labels.add("");
+            fail("Cached options should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.utilities.ThumbnailLoader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Tests for decoding downscaled images for list thumbnails.
+ */
+public class ThumbnailLoaderTests extends AndroidTestCase {
+
+    File image;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Bitmap landscape = Bitmap.createBitmap(800, 400, Bitmap.Config.ARGB_8888);
+        landscape.eraseColor(Color.BLUE);
+        image = new File(getContext().getCacheDir(), "MI_thumbnail_test.jpg");
+        FileOutputStream imageOut = new FileOutputStream(image);
+        landscape.compress(Bitmap.CompressFormat.JPEG, 90, imageOut);
+        imageOut.close();
+        landscape.recycle();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        image.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testDecodeFitsSize() {
+        Bitmap thumbnail = ThumbnailLoader.decodeThumbnail(image.getAbsolutePath(), 80, 80);
+        assertNotNull("Thumbnail should be decoded", thumbnail);
+        assertEquals("Thumbnail should be scaled to fit the width", 80, thumbnail.getWidth());
+        assertEquals("Thumbnail should keep its aspect ratio", 40, thumbnail.getHeight());
+    }
+
+    @SmallTest
+    public void testSmallImageNotScaledUp() {
+        Bitmap thumbnail = ThumbnailLoader.decodeThumbnail(image.getAbsolutePath(), 1600, 1600);
+        assertNotNull("Thumbnail should be decoded", thumbnail);
+        assertEquals("Image smaller than the thumbnail size should be kept as is", 800, thumbnail.getWidth());
+    }
+
+    @SmallTest
+    public void testMissingImage() {
+        assertNull("Missing image should not decode",
+                ThumbnailLoader.decodeThumbnail(new File(getContext().getCacheDir(), "missing.jpg").getAbsolutePath(),
+                        80, 80));
+    }
+}
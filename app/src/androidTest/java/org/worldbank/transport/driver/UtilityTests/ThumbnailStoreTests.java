@@ -0,0 +1,91 @@
+package org.worldbank.transport.driver.UtilityTests;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.worldbank.transport.driver.utilities.ThumbnailStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Tests for storing thumbnails next to captured images.
+ */
+public class ThumbnailStoreTests extends AndroidTestCase {
+
+    File image;
+    File thumbnail;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        image = new File(getContext().getCacheDir(), "MI_thumbnail_store_test.jpg");
+        thumbnail = ThumbnailStore.getThumbnailFile(image.getAbsolutePath());
+        thumbnail.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        image.delete();
+        thumbnail.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testWriteAtCapture() throws Exception {
+        Bitmap captured = storeImage(768, 512);
+        assertTrue("Thumbnail should be written", ThumbnailStore.writeThumbnail(captured, image));
+        assertFalse("Captured image should not be recycled", captured.isRecycled());
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(thumbnail.getAbsolutePath(), options);
+        assertEquals("Thumbnail should be scaled to the thumbnail size", ThumbnailStore.THUMBNAIL_SIZE, options.outWidth);
+        assertEquals("Thumbnail should keep its aspect ratio", ThumbnailStore.THUMBNAIL_SIZE * 2 / 3, options.outHeight);
+
+        Bitmap loaded = ThumbnailStore.loadThumbnail(image.getAbsolutePath(), 80, 80);
+        assertNotNull("Thumbnail should load", loaded);
+        assertEquals("Loaded thumbnail should fit requested size", 80, loaded.getWidth());
+    }
+
+    @SmallTest
+    public void testWriteInBackground() throws Exception {
+        Bitmap captured = storeImage(768, 512);
+        ThumbnailStore.writeThumbnailInBackground(captured, image);
+
+        for (int i = 0; i < 50 && !captured.isRecycled(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue("Captured image should be recycled once the thumbnail is written", captured.isRecycled());
+        assertTrue("Thumbnail should be written", thumbnail.isFile());
+    }
+
+    @SmallTest
+    public void testMissingThumbnailMade() throws Exception {
+        storeImage(768, 512).recycle();
+        assertFalse("Image should start without a thumbnail", thumbnail.exists());
+
+        Bitmap loaded = ThumbnailStore.loadThumbnail(image.getAbsolutePath(), 80, 80);
+        assertNotNull("Thumbnail should load from the image", loaded);
+        assertEquals("Loaded thumbnail should fit requested size", 80, loaded.getWidth());
+        assertTrue("Thumbnail should be stored for next time", thumbnail.isFile());
+    }
+
+    @SmallTest
+    public void testMissingImage() {
+        assertNull("Missing image without a thumbnail should not load",
+                ThumbnailStore.loadThumbnail(image.getAbsolutePath(), 80, 80));
+    }
+
+    private Bitmap storeImage(int width, int height) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GREEN);
+        FileOutputStream out = new FileOutputStream(image);
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        out.close();
+        return bitmap;
+    }
+}
@@ -5,7 +5,6 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 
 import android.support.v7.widget.Toolbar;
-import android.text.InputType;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -21,37 +20,21 @@ import com.azavea.androidvalidatedforms.controllers.EditTextController;
 import com.azavea.androidvalidatedforms.controllers.FormSectionController;
 import com.azavea.androidvalidatedforms.controllers.LabeledFieldController;
 import com.azavea.androidvalidatedforms.controllers.SelectionController;
-
-import org.apache.commons.lang.StringUtils;
-import org.jsonschema2pojo.annotations.FieldFormat;
-import org.jsonschema2pojo.annotations.FieldFormats;
-import org.jsonschema2pojo.annotations.FieldType;
-import org.jsonschema2pojo.annotations.FieldTypes;
-import org.jsonschema2pojo.annotations.IsHidden;
-
 import com.azavea.androidvalidatedforms.tasks.ValidationTask;
-import com.google.gson.annotations.SerializedName;
-import javax.validation.constraints.NotNull;
 
-import org.jsonschema2pojo.annotations.WatchTarget;
-import org.jsonschema2pojo.media.SerializableMedia;
 import org.worldbank.transport.driver.R;
-import org.worldbank.transport.driver.annotations.ConstantFieldType;
-import org.worldbank.transport.driver.annotations.ConstantFieldTypes;
 import org.worldbank.transport.driver.controls.DriverImageController;
 import org.worldbank.transport.driver.staticmodels.DriverApp;
 import org.worldbank.transport.driver.staticmodels.DriverAppContext;
 import org.worldbank.transport.driver.utilities.DriverUtilities;
+import org.worldbank.transport.driver.utilities.FieldAccessor;
+import org.worldbank.transport.driver.utilities.FormSectionTemplate;
 import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
+import org.worldbank.transport.driver.utilities.ReferenceOptionCache;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Set;
 
 /**
  * Base class for creating dynamic forms for DriverSchema sections.
@@ -115,7 +98,19 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
         // set up some state before calling super
         mAppContext = new DriverAppContext((DriverApp) getApplicationContext());
         app = mAppContext.getDriverApp();
-        currentlyEditing = app.getEditObject();
+        if (app.isRestoringJournaledRecord()) {
+            // shown again after the app was killed; build the form once the record is read back in
+            app.afterJournalRestore(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isFinishing()) {
+                        recreate();
+                    }
+                }
+            });
+        } else {
+            currentlyEditing = app.getEditObject();
+        }
         packageName = getPackageName();
         resources = getResources();
 
@@ -132,6 +127,15 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
         setSupportActionBar(toolbar);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // journal changes made in this form, so they can be restored if the app is killed
+        app.journalEditingRecord();
+        // sync any queued record writes to disk in the background, in case app is not coming back
+        DriverApp.getRecordWriteQueue().flush();
+    }
+
     protected void saveAndExit() {
         RecordFormSectionManager.saveAndExit(app, this);
     }
@@ -151,6 +155,9 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
         ViewGroup containerView = (ViewGroup) findViewById(R.id.form_elements_container);
         RelativeLayout buttonBar = buildButtonBar();
         containerView.addView(buttonBar);
+
+        // get the sections either side ready while this one is shown
+        RecordFormSectionManager.prefetchAdjacentSections(sectionId, currentlyEditing, resources, packageName);
     }
 
     /**
@@ -177,6 +184,11 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
 
     @Override
     public FormController createFormController() {
+        if (currentlyEditing == null) {
+            Log.d(LOG_LABEL, "Waiting for record being edited to be restored");
+            return null;
+        }
+
         String sectionName = RecordFormSectionManager.getSectionName(sectionId);
 
         // section offset was passed to activity in intent; find section to use here
@@ -218,215 +230,59 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
 
     private FormSectionController addSectionModel() {
         FormSectionController section = new FormSectionController(this, sectionLabel);
-        Field[] fields = sectionClass.getDeclaredFields();
-
-        HashMap<String, Class> enums = new HashMap<>();
-
-        // find enums for select lists
-        Class[] classes = sectionClass.getDeclaredClasses();
-        for (Class clazz : classes) {
-            if (clazz.isEnum()) {
-                enums.put(clazz.getSimpleName(), clazz);
-            }
-        }
 
-        // map of field names to their form controls
-        HashMap<String, LabeledFieldController> fieldControls = new HashMap<>(fields.length);
+        // fields, labels, and enumerated options are only found once per section class
+        FormSectionTemplate template = FormSectionTemplate.getTemplate(sectionClass, isConstants,
+                resources, packageName);
 
-        field_loop:
-        for (Field field: fields) {
+        for (FormSectionTemplate.FieldTemplate field : template.fields) {
             LabeledFieldController control = null;
-            String fieldName = field.getName();
-            String fieldLabel = fieldName;
-            FieldTypes fieldType = null;
-            FieldFormats format = null;
-            boolean isRequired = false;
-            ConstantFieldTypes constantFieldType = null;
-            String watchTarget = null;
-
-            // constants form keeps translated field labels in strings
-            if (isConstants) {
-                fieldLabel = getString(resources.getIdentifier(fieldName, "string", packageName));
-            }
-
-            Annotation[] annotations = field.getDeclaredAnnotations();
-
-            for (Annotation annotation: annotations) {
-
-                Class annotationType = annotation.annotationType();
-
-                if (annotationType.equals(IsHidden.class)) {
-                    IsHidden isHidden = (IsHidden) annotation;
-                    if (isHidden.value()) {
-                        continue field_loop;
-                    } else {
-                        Log.w(LOG_LABEL, "Have false isHidden annotation, which is inefficient. Better just leave it off.");
-                    }
-                } else if (annotationType.equals(FieldType.class)) {
-                    FieldType fieldTypeAnnotation = (FieldType) annotation;
-                    fieldType = fieldTypeAnnotation.value();
-                } else if (annotationType.equals(FieldFormat.class)) {
-                    FieldFormat formatAnnotation = (FieldFormat) annotation;
-                    format = formatAnnotation.value();
-                    Log.d(LOG_LABEL, "Format for field " + fieldName + " is : " + format);
-                } else if (annotationType.equals(SerializedName.class) && !isConstants) {
-                    SerializedName serializedName = (SerializedName) annotation;
-                    fieldLabel = serializedName.value();
-                } else if (annotationType.equals(NotNull.class)) {
-                    isRequired = true;
-                } else if (annotationType.equals(ConstantFieldType.class)) {
-                    ConstantFieldType constantFieldTypeAnnotation = (ConstantFieldType) annotation;
-                    constantFieldType = constantFieldTypeAnnotation.value();
-                } else if (annotationType.equals(WatchTarget.class)) {
-                    WatchTarget watchTargetAnnotation = (WatchTarget) annotation;
-                    watchTarget = watchTargetAnnotation.value();
-                }
-            }
-
-            if (fieldType != null) {
-                // have a jsonschema2pojo field type
-                switch (fieldType) {
-                    case image:
-                        Log.d(LOG_LABEL, "found image field");
-
-                        if (!field.getType().equals(SerializableMedia.class)) {
-                            Log.e(LOG_LABEL, "image field has wrong type: " + field.getType());
-                            continue;
-                        }
-
-                        control = new DriverImageController(this, fieldName, fieldLabel, isRequired);
-                        break;
-                    case selectlist:
-                        // find enum with the options in it
-                        Class fieldClass = field.getType();
-                        Class enumClass = enums.get(fieldClass.getSimpleName());
-
-                        // for checkbox-formatted fields, enum is in a separate class (not inner)
-                        if (enumClass == null) {
-                            if (fieldClass.equals(Set.class) || fieldClass.equals(List.class)) {
-                                String enumName = RecordFormSectionManager.MODEL_PACKAGE +
-                                        StringUtils.capitalize(fieldName) + "Enum";
-                                try {
-                                    enumClass = DriverApp.getSchemaClassLoader().loadClass(enumName);
-                                    SelectListInfo enumListInfo = buildSelectEnumInfo(enumClass);
-                                    control = new CheckBoxController(this, fieldName, fieldLabel, isRequired,
-                                            enumListInfo.labels, enumListInfo.items);
-                                } catch (ClassNotFoundException e) {
-                                    e.printStackTrace();
-                                    Log.e(LOG_LABEL, "selectlist enumeration class " + enumName + " not found for " + fieldClass);
-                                    continue;
-                                }
-                            } else {
-                                Log.e(LOG_LABEL, "selectlist enumeration not found for " + fieldClass);
-                                continue;
-                            }
-                        } else {
-                            SelectListInfo enumListInfo = buildSelectEnumInfo(enumClass);
-                            if (!isRequired) {
-                                Log.d(LOG_LABEL, "Adding empty option to list for " + fieldClass);
-                                enumListInfo.labels.add(0, "");
-                                enumListInfo.items.add(0, "");
-                            }
-                            control = new SelectionController(this, fieldName, fieldLabel, isRequired, "",
-                                    enumListInfo.labels, enumListInfo.items);
-                        }
-
-                        break;
-                    case text:
-                        // check the field format for setting the text field input type
-                        int inputType = InputType.TYPE_CLASS_TEXT;
-                        if (format != null) {
-                            if (format.equals(FieldFormats.number)) {
-                                inputType = InputType.TYPE_NUMBER_FLAG_DECIMAL |
-                                        InputType.TYPE_NUMBER_FLAG_SIGNED |
-                                        InputType.TYPE_CLASS_NUMBER;
-                            } else if (format.equals(FieldFormats.integer)) {
-                                inputType = InputType.TYPE_CLASS_NUMBER |
-                                        InputType.TYPE_NUMBER_FLAG_SIGNED;
-                            } else if (format.equals(FieldFormats.textarea)) {
-                                inputType |= InputType.TYPE_TEXT_FLAG_MULTI_LINE;
-                            } else if (format.equals(FieldFormats.tel)) {
-                                inputType |= InputType.TYPE_CLASS_PHONE;
-                            } else if (format.equals(FieldFormats.email)) {
-                                inputType |= InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS;
-                            } else if (format.equals(FieldFormats.url)) {
-                                inputType |= InputType.TYPE_TEXT_VARIATION_URI;
-                            }
-                        }
-                        control = new EditTextController(this, fieldName, fieldLabel, "", isRequired, inputType);
-                        break;
-                    case reference:
-                        if (watchTarget == null) {
-                            Log.e(LOG_LABEL, "Found a reference field without a watch target! Cannot use field " + fieldName);
-                            continue;
-                        }
-                        SelectListInfo refSelectInfo = buildReferencedFieldInfo(watchTarget);
-                        if (refSelectInfo == null) {
-                            Log.e(LOG_LABEL, "Could not find referenced watch target! Skipping field.");
-                            break;
-                        }
-                        if (!isRequired) {
-                            Log.d(LOG_LABEL, "Adding empty option to reference list for " + fieldName);
-                            refSelectInfo.labels.add(0, "");
-                            refSelectInfo.items.add(0, "");
-                        }
-                        control = new SelectionController(this, fieldName, fieldLabel, isRequired, "",
-                                refSelectInfo.labels, refSelectInfo.items);
+            String fieldName = field.name;
+            String fieldLabel = field.label;
+            boolean isRequired = field.isRequired;
+
+            switch (field.controlType) {
+                case IMAGE:
+                    control = new DriverImageController(this, fieldName, fieldLabel, isRequired);
+                    break;
+                case CHECKBOX:
+                    control = new CheckBoxController(this, fieldName, fieldLabel, isRequired,
+                            new ArrayList<>(field.optionLabels), new ArrayList<>(field.optionItems));
+                    break;
+                case SELECT:
+                    control = new SelectionController(this, fieldName, fieldLabel, isRequired, "",
+                            new ArrayList<>(field.optionLabels), new ArrayList<>(field.optionItems));
+                    break;
+                case TEXT:
+                    control = new EditTextController(this, fieldName, fieldLabel, "", isRequired, field.inputType);
+                    break;
+                case REFERENCE:
+                    SelectListInfo refSelectInfo = buildReferencedFieldInfo(field.watchTarget);
+                    if (refSelectInfo == null) {
+                        Log.e(LOG_LABEL, "Could not find referenced watch target! Skipping field.");
                         break;
-                    case integer:
-                        inputType = InputType.TYPE_CLASS_NUMBER |
-                                InputType.TYPE_NUMBER_FLAG_SIGNED;
-                        control = new EditTextController(this, fieldName, fieldLabel, "", isRequired, inputType);
-                        break;
-                    case number:
-                        inputType = InputType.TYPE_NUMBER_FLAG_DECIMAL |
-                                InputType.TYPE_NUMBER_FLAG_SIGNED |
-                                InputType.TYPE_CLASS_NUMBER;
-                        control = new EditTextController(this, fieldName, fieldLabel, "", isRequired, inputType);
-                        break;
-                    default:
-                        Log.e(LOG_LABEL, "Don't know what to do with field type " + fieldType.toString());
-                        break;
-                }
-            } else {
-                if (constantFieldType == null) {
-                    // In this case, it's probably a subsection, which doesn't happen in our usage.
-                    Log.e(LOG_LABEL, "No field type found for field " + fieldName);
-                    continue;
-                } else {
-                    // have a constant field type
-                    switch (constantFieldType) {
-                        case date:
-                            DatePickerController datePickerController =
-                                    new DatePickerController(this, fieldName, fieldLabel, isRequired, DEFAULT_DATE_FORMAT, true);
-                            if (app.useHijri()) {
-                                datePickerController.setUseHijri();
-                            }
-
-                            control = datePickerController;
-                            break;
-                        default:
-                            Log.e(LOG_LABEL, "Unrecognized constant field type " + constantFieldType);
-                            break;
                     }
-                }
-            }
+                    if (!isRequired) {
+                        Log.d(LOG_LABEL, "Adding empty option to reference list for " + fieldName);
+                        refSelectInfo.labels.add(0, "");
+                        refSelectInfo.items.add(0, "");
+                    }
+                    control = new SelectionController(this, fieldName, fieldLabel, isRequired, "",
+                            refSelectInfo.labels, refSelectInfo.items);
+                    break;
+                case DATE:
+                    DatePickerController datePickerController =
+                            new DatePickerController(this, fieldName, fieldLabel, isRequired, DEFAULT_DATE_FORMAT, true);
+                    if (app.useHijri()) {
+                        datePickerController.setUseHijri();
+                    }
 
-            if (control != null) {
-                fieldControls.put(fieldName, control);
+                    control = datePickerController;
+                    break;
             }
-        }
 
-        // read/respect JsonPropertyOrder annotation of fields, if present
-        String[] orderedFields = DriverUtilities.getFieldOrder(sectionClass);
-
-        // add form controls in order
-        for (String nextField : orderedFields) {
-            LabeledFieldController control = fieldControls.get(nextField);
             if (control != null) {
                 section.addElement(control);
-            } else {
-                Log.w(LOG_LABEL, "No control found for ordered field " + nextField);
             }
         }
 
@@ -447,46 +303,6 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
         }
     }
 
-    /**
-     * Helper to build the labels and items to go in a select control for a field of enums.
-     *
-     * @param enumClass Enum class containing options to put in the control
-     * @return SelectListInfo structure with labels and items to use in select field
-     */
-    private SelectListInfo buildSelectEnumInfo(Class enumClass) {
-        ArrayList<Object> enumValueObjectList = new ArrayList<>(Arrays.asList(enumClass.getEnumConstants()));
-        ArrayList<String> enumLabels = new ArrayList<>(enumValueObjectList.size());
-
-        for (Object enumConstant : enumValueObjectList) {
-            String prettyLabel = enumConstant.toString();
-
-            Enum myEnum = (Enum) enumConstant;
-
-            // Find the field of the same name as the enum constant, to get its label from
-            // the SerializedName annotation.
-            try {
-                Field enumField = enumClass.getField(myEnum.name());
-                if (isConstants) {
-                    // labels are in strings.xml for translation
-                    // hyphens are not valid in strings.xml identifiers; replaced with underscores
-                    String resourceLabel = prettyLabel.replace("-", "_");
-                    prettyLabel = getString(resources.getIdentifier(resourceLabel, "string", packageName));
-                } else {
-                    SerializedName serializedName = enumField.getAnnotation(SerializedName.class);
-                    if (serializedName != null) {
-                        prettyLabel = serializedName.value();
-                    }
-                }
-            } catch (NoSuchFieldException e) {
-                Log.e(LOG_LABEL, "Failed to find enum field to build label for " + prettyLabel);
-                e.printStackTrace();
-            }
-            enumLabels.add(prettyLabel);
-        }
-
-        return new SelectListInfo(enumLabels, enumValueObjectList);
-    }
-
     /**
      * Helper to build the labels and items to go in a select control for a referenced field.
      *
@@ -503,6 +319,15 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
             return null;
         }
 
+        // options are kept with the record until items in the referenced section change
+        ReferenceOptionCache referenceOptions = DriverApp.getReferenceOptions(currentlyEditing);
+        if (referenceOptions != null) {
+            ReferenceOptionCache.Options cached = referenceOptions.get(refField.getName());
+            if (cached != null) {
+                return new SelectListInfo(new ArrayList<>(cached.labels), new ArrayList<>(cached.ids));
+            }
+        }
+
         Class refClass = RecordFormSectionManager.getSectionClass(watchTarget);
 
         if (refClass == null) {
@@ -521,11 +346,8 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
         ArrayList refList = RecordFormSectionManager.getSectionList(refObj);
         ArrayList<String> refLabels = DriverUtilities.getListItemLabels(refList, refClass, prettyRefLabel).labels;
 
-        Field refIdField;
-        try {
-            refIdField = refClass.getField("localId");
-        } catch (NoSuchFieldException e) {
-            e.printStackTrace();
+        FieldAccessor refIdField = FieldAccessor.forField(refClass, "localId");
+        if (refIdField == null) {
             Log.e(LOG_LABEL, "Failed to find localId field on referenced field " + watchTarget);
             return null;
         }
@@ -548,7 +370,12 @@ public abstract class RecordFormActivity extends FormWithAppCompatActivity {
             return null;
         }
 
-        return new SelectListInfo(refLabels, refIDs);
+        if (referenceOptions != null) {
+            referenceOptions.put(refField.getName(), new ReferenceOptionCache.Options(refLabels, refIDs));
+        }
+
+        // copy, as the empty option may be added
+        return new SelectListInfo(new ArrayList<>(refLabels), new ArrayList<>(refIDs));
     }
 
     @Override
@@ -11,6 +11,7 @@ import android.widget.Toast;
 import com.azavea.androidvalidatedforms.tasks.ValidationTask;
 
 import org.worldbank.transport.driver.R;
+import org.worldbank.transport.driver.staticmodels.DriverApp;
 import org.worldbank.transport.driver.staticmodels.DriverAppContext;
 import org.worldbank.transport.driver.utilities.DriverUtilities;
 import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
@@ -49,6 +50,16 @@ public class RecordFormItemActivity extends RecordFormActivity {
         return RecordFormSectionManager.getOrCreateListItem(sectionField, sectionClass, currentlyEditing, itemIndex);
     }
 
+    @Override
+    protected void onPause() {
+        // edits are set on the item as they are made, so however the form is left, label the
+        // item again wherever it is referenced
+        if (sectionField != null) {
+            DriverApp.invalidateReferenceOptions(currentlyEditing, sectionField);
+        }
+        super.onPause();
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         Bundle bundle = getIntent().getExtras();
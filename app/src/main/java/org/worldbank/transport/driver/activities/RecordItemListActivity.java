@@ -42,7 +42,6 @@ public class RecordItemListActivity extends AppCompatActivity {
         // set up some state before calling super
         DriverAppContext mAppContext = new DriverAppContext((DriverApp) getApplicationContext());
         app = mAppContext.getDriverApp();
-        currentlyEditing = app.getEditObject();
         Bundle bundle = getIntent().getExtras();
         sectionId = bundle.getInt(RecordFormActivity.SECTION_ID);
 
@@ -58,6 +57,9 @@ public class RecordItemListActivity extends AppCompatActivity {
         fab.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                if (sectionItems == null) {
+                    return; // cannot add items until the list is built
+                }
                 int newItemIndex = sectionItems.size();
                 launchItemForm(newItemIndex);
             }
@@ -67,6 +69,20 @@ public class RecordItemListActivity extends AppCompatActivity {
         recyclerView = (RecyclerView) findViewById(R.id.record_item_recycler_view);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
 
+        if (app.isRestoringJournaledRecord()) {
+            // shown again after the app was killed; list the items once the record is read back in
+            app.afterJournalRestore(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isFinishing()) {
+                        recreate();
+                    }
+                }
+            });
+            return;
+        }
+
+        currentlyEditing = app.getEditObject();
         buildItemList();
     }
 
@@ -81,6 +97,9 @@ public class RecordItemListActivity extends AppCompatActivity {
     protected void onPostResume() {
         super.onPostResume();
         Log.d(LOG_LABEL, "in onPostResume for RecordItemList");
+        if (recyclerViewAdapter == null) {
+            return;
+        }
         // set item list whenever activity created or comes back into view
         recyclerViewAdapter.buildLabelList(sectionItems, sectionClass);
         if (recyclerViewAdapter.getItemCount() == 0) {
@@ -90,6 +109,12 @@ public class RecordItemListActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        DriverApp.getRecordWriteQueue().flush();
+    }
+
     private void buildItemList() {
         Log.d(LOG_LABEL, "buildItemList called");
         String sectionName = RecordFormSectionManager.getSectionName(sectionId);
@@ -129,6 +154,8 @@ public class RecordItemListActivity extends AppCompatActivity {
             @Override
             public void clickedItem(View view, int position) {
                 Log.d(LOG_LABEL, "Clicked item at position " + position);
+                // label it again on return, whether its form is saved or backed out of
+                recyclerViewAdapter.noteItemEdited(position);
                 launchItemForm(position);
             }
         };
@@ -157,6 +184,10 @@ public class RecordItemListActivity extends AppCompatActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
 
+        if (currentlyEditing == null && id != android.R.id.home) {
+            return true; // cannot leave for another section until the record is restored
+        }
+
         switch (id) {
             // up/home button
             case android.R.id.home:
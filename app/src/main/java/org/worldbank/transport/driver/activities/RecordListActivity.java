@@ -5,7 +5,6 @@ import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -13,18 +12,19 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.ProgressBar;
-import android.widget.SimpleCursorAdapter;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.auth.api.Auth;
@@ -32,43 +32,49 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
 
 import org.worldbank.transport.driver.R;
-import org.worldbank.transport.driver.datastore.DriverRecordContract;
+import org.worldbank.transport.driver.adapters.RecordListAdapter;
+import org.worldbank.transport.driver.datastore.RecordSummary;
+import org.worldbank.transport.driver.datastore.RecordWriteQueue;
 import org.worldbank.transport.driver.staticmodels.DriverApp;
 import org.worldbank.transport.driver.staticmodels.DriverAppContext;
 import org.worldbank.transport.driver.tasks.CheckSchemaTask;
 import org.worldbank.transport.driver.tasks.PostRecordsTask;
 import org.worldbank.transport.driver.tasks.UpdateSchemaTask;
-import org.worldbank.transport.driver.utilities.DriverUtilities;
+import org.worldbank.transport.driver.tasks.ValidateRecordsTask;
+import org.worldbank.transport.driver.utilities.DisplayDateFormatter;
 import org.worldbank.transport.driver.utilities.LocationServiceManager;
 import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 
 public class RecordListActivity extends AppCompatActivity implements CheckSchemaTask.CheckSchemaCallbackListener,
-        PostRecordsTask.PostRecordsListener, UpdateSchemaTask.UpdateSchemaCallbackListener {
+        PostRecordsTask.PostRecordsListener, UpdateSchemaTask.UpdateSchemaCallbackListener,
+        RecordWriteQueue.RecordWriteListener, ValidateRecordsTask.ValidateRecordsListener {
 
     private static final String LOG_LABEL = "RecordListActivity";
     private static final int WRITE_EXTERNAL_STORAGE_CODE = 1;
 
-    private static final DateFormat sourceDateFormat =
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    // records to read at a time for the list
+    private static final int PAGE_SIZE = 50;
 
-    SimpleCursorAdapter adapter;
+    RecordListAdapter adapter;
     DriverApp app;
     CheckSchemaTask checkSchemaTask;
     PostRecordsTask postRecordsTask;
+    ValidateRecordsTask validateRecordsTask;
     UpdateSchemaTask updateSchemaTask;
     ProgressBar progressBar;
     FloatingActionButton fab;
-    ListView recordListView;
+    RecyclerView recordListView;
+    View emptyView;
+    LoadRecordPageTask loadPageTask;
     boolean useUmmalqura;
+    DisplayDateFormatter dateFormatter;
+
+    // text in the search box, used to filter the list; empty to show all records
+    String searchText = "";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -98,83 +104,61 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
         });
 
         // set up list view
-        recordListView = (ListView) findViewById(R.id.record_list_view);
-        String[] useColumns = { DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT };
-        int[] toViews = { R.id.record_list_item_entered_at };
-        adapter = new SimpleCursorAdapter(
-                getApplicationContext(),
-                R.layout.record_list_item,
-                app.getAllRecords(),
-                useColumns,
-                toViews,
-                0);
-
-        // use 24-hour date format if system does so
-        final SimpleDateFormat displayDateFormatter;
-        String dateFormatString = "EEEE d MMMM, y ";
-        final Locale locale = Locale.getDefault();
-        if (android.text.format.DateFormat.is24HourFormat(this)) {
-            dateFormatString += "HH:mm:ss z";
-        } else {
-            dateFormatString += "hh:mm:ss z";
-        }
-
-        displayDateFormatter = new SimpleDateFormat(dateFormatString, locale);
-        displayDateFormatter.setTimeZone(TimeZone.getDefault());
-
-        sourceDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        recordListView = (RecyclerView) findViewById(R.id.record_list_view);
+        recordListView.setLayoutManager(new LinearLayoutManager(this));
+        emptyView = findViewById(android.R.id.empty);
+        emptyView.setVisibility(View.GONE);
 
-        adapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+        dateFormatter = DisplayDateFormatter.getDateTimeInstance(this, useUmmalqura);
+        adapter = new RecordListAdapter(this, dateFormatter, new RecordListAdapter.RecordListListener() {
             @Override
-            public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-                // format created at date
-                if (columnIndex == 1) {
-                    TextView textView = (TextView) view;
-                    // stored in SQLite as yyyy-mm-dd hh:mm:ss
-                    String createdAt = cursor.getString(1);
-                    try {
-                        Date date = sourceDateFormat.parse(createdAt);
-                        String dateString;
-                        if (useUmmalqura) {
-                            // format in Umm al-Qura Hijri calendar
-                            dateString = DriverUtilities.formatDateAsUmmalqura(date, displayDateFormatter, locale);
+            public void clickedRecord(long recordId) {
+                Log.d(LOG_LABEL, "Going to edit record with ID: " + recordId);
+                // read behind any save of the record still being written, then open the form
+                app.setCurrentlyEditingRecord(recordId, new DriverApp.RecordOpenedListener() {
+                    @Override
+                    public void recordOpened(boolean opened) {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        if (opened) {
+                            loadRecordForm();
                         } else {
-                            dateString = displayDateFormatter.format(date);
+                            showToast(getString(R.string.record_open_failure), true);
                         }
-                        textView.setText(dateString);
-                    } catch (ParseException e) {
-                        Log.e(LOG_LABEL, "Failed to parse date string " + createdAt);
-                        e.printStackTrace();
-                        textView.setText(createdAt);
                     }
-                    return true;
-                }
-                return false;
-            }
-        });
-        recordListView.setAdapter(adapter);
-	recordListView.setEmptyView(findViewById(android.R.id.empty));
-
-        recordListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // id here is database _ID
-                Log.d(LOG_LABEL, "Going to edit record with ID: " + id);
-                app.setCurrentlyEditingRecord(id);
-                loadRecordForm();
+                });
             }
-        });
 
-        recordListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
             @Override
-            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-                Log.d(LOG_LABEL, "Long-pressed record with ID: " + id);
+            public void longPressedRecord(long recordId) {
+                Log.d(LOG_LABEL, "Long-pressed record with ID: " + recordId);
                 RecordLongPressDialog dialog = new RecordLongPressDialog();
                 Bundle dialogBundle = new Bundle();
-                dialogBundle.putLong("recordId", id);
+                dialogBundle.putLong("recordId", recordId);
                 dialog.setArguments(dialogBundle);
                 dialog.show(getSupportFragmentManager(), "RecordLongPressDialog");
-                return true;
+            }
+
+            @Override
+            public void needNextPage(RecordSummary.ListEntry lastEntry) {
+                loadPage(lastEntry, PAGE_SIZE);
+            }
+        });
+        recordListView.setAdapter(adapter);
+
+        // saves and deletes from the forms finish after this activity is back in front, or while
+        // it is stopped; update their rows when they do
+        DriverApp.getRecordWriteQueue().addListener(this);
+
+        // app was killed while a record was being edited; go back to it once it is read back in
+        app.restoreJournaledRecord(new DriverApp.RecordOpenedListener() {
+            @Override
+            public void recordOpened(boolean opened) {
+                if (opened && !isFinishing()) {
+                    showToast(getString(R.string.record_edit_restored), false);
+                    loadRecordForm();
+                }
             }
         });
 
@@ -198,19 +182,115 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
 
     @Override
     protected void onPostResume() {
-        Log.d(LOG_LABEL, "in onPostResume for record list; refresh list");
         super.onPostResume();
-        if (adapter != null) {
-            Log.d(LOG_LABEL, "Updating cursor");
-            adapter.changeCursor(app.getAllRecords());
-            adapter.notifyDataSetChanged();
+        // later changes come through the write queue listener, so the list is read only once
+        if (!adapter.isLoaded() && loadPageTask == null) {
+            Log.d(LOG_LABEL, "in onPostResume for record list; load list");
+            refreshList();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        DriverApp.getRecordWriteQueue().flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        DriverApp.getRecordWriteQueue().removeListener(this);
+        if (loadPageTask != null) {
+            loadPageTask.cancel(true);
+            loadPageTask = null;
         }
     }
 
+    @Override
+    public void recordSaveFinished(long recordId, boolean succeeded) {
+        if (!searchText.isEmpty()) {
+            // saved record may no longer match the search
+            refreshList();
+        } else if (recordId > -1) {
+            new LoadRecordEntryTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, recordId);
+        }
+    }
+
+    @Override
+    public void recordDeleteFinished(long recordId, boolean succeeded) {
+        if (succeeded) {
+            adapter.removeRecord(recordId);
+            updateEmptyView();
+        }
+        if (postRecordsTask != null) {
+            return; // uploaded records are deleted in batches; the list is read again once done
+        }
+        new LoadRecordEntryTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, recordId);
+    }
+
+    /**
+     * Read the list again from the first page, in the background, keeping as many rows as are
+     * loaded now so the list stays where it is scrolled to.
+     */
+    private void refreshList() {
+        int limit = Math.max(PAGE_SIZE, adapter.getItemCount());
+        loadPage(null, limit);
+    }
+
+    /**
+     * Read a page of the list in the background. Reading the first page replaces any page
+     * still being read.
+     *
+     * @param after Last row of the page before, or null to read the first page
+     * @param limit Most rows to read
+     */
+    private void loadPage(RecordSummary.ListEntry after, int limit) {
+        if (loadPageTask != null) {
+            if (after != null) {
+                return; // already reading
+            }
+            loadPageTask.cancel(true);
+        }
+        loadPageTask = new LoadRecordPageTask(searchText, after, limit);
+        // not queued behind uploads and schema checks on the serial executor
+        loadPageTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void showTotals(RecordSummary.Totals totals) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null && totals != null) {
+            actionBar.setSubtitle(getString(R.string.record_list_totals, totals.recordCount, totals.uploadReadyCount));
+        }
+    }
+
+    private void updateEmptyView() {
+        boolean empty = adapter.isLoaded() && adapter.getItemCount() == 0 && !adapter.hasMore();
+        emptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                if (newText.equals(searchText)) {
+                    return true;
+                }
+                searchText = newText;
+                loadPage(null, PAGE_SIZE);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -222,8 +302,8 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
         int id = item.getItemId();
 
         if (id == R.id.action_upload) {
-            // attempt record upload, which will then check for a new schema when done
-            startRecordUpload();
+            // check records, then attempt record upload, which will then check for a new schema when done
+            checkRecordsBeforeUpload();
             return true;
         } else if (id == R.id.action_update_schema) {
             startSchemaUpdateCheck();
@@ -280,6 +360,37 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
         });
     }
 
+    /**
+     * Check all stored records against the schema in the background, and ask the user before
+     * uploading if any have problems.
+     */
+    private void checkRecordsBeforeUpload() {
+        if (postRecordsTask != null || validateRecordsTask != null) {
+            Log.d(LOG_LABEL, "Already uploading records");
+            return;
+        }
+
+        showProgressBar(true);
+        validateRecordsTask = new ValidateRecordsTask(this);
+        validateRecordsTask.execute();
+    }
+
+    @Override
+    public void recordsValidated(ValidateRecordsTask.Result result) {
+        validateRecordsTask = null;
+        if (result.getInvalidCount() == 0) {
+            startRecordUpload();
+            return;
+        }
+
+        showProgressBar(false);
+        WarnInvalidRecordsDialog dialog = new WarnInvalidRecordsDialog();
+        Bundle args = new Bundle();
+        args.putInt("invalidCount", result.getInvalidCount());
+        dialog.setArguments(args);
+        dialog.show(getSupportFragmentManager(), "warninvalidrecords");
+    }
+
     private void startRecordUpload() {
         if (postRecordsTask != null) {
             Log.d(LOG_LABEL, "Already uploading records");
@@ -331,7 +442,7 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
                 Log.w(LOG_LABEL, "Schema update task already running! Doing nothing.");
             } else {
                 // be sure there are no records around before updating
-                if (adapter.getCount() == 0) {
+                if (app.getRecordTotals().recordCount == 0) {
                     Log.d(LOG_LABEL, "Starting schema update task");
                     updateSchemaTask = new UpdateSchemaTask(this, app.getUserInfo());
                     updateSchemaTask.execute(currentSchema);
@@ -419,8 +530,7 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
         }
 
         // clear now-outdated list view of the uploaded records
-        adapter.changeCursor(app.getAllRecords());
-        adapter.notifyDataSetChanged();
+        refreshList();
     }
 
     @Override
@@ -429,6 +539,9 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
         showProgressBar(false);
         postRecordsTask = null;
         showToast(errorMessage, true);
+
+        // records uploaded before the failure have been deleted
+        refreshList();
     }
 
     @Override
@@ -526,6 +639,32 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
         });
     }
 
+    /**
+     * Let user choose whether to upload when some records have missing or invalid fields.
+     */
+    public static class WarnInvalidRecordsDialog extends DialogFragment {
+        @NonNull
+        @Override
+        public Dialog onCreateDialog(Bundle savedInstanceState) {
+            int invalidCount = getArguments().getInt("invalidCount");
+            AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+            builder.setTitle(R.string.invalid_records_dialog_title)
+                    .setMessage(getString(R.string.invalid_records_dialog_message, invalidCount))
+                    .setPositiveButton(R.string.confirm_action, new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int id) {
+                            Log.d(LOG_LABEL, "User chose to upload records with problems");
+                            ((RecordListActivity) getActivity()).startRecordUpload();
+                        }
+                    })
+                    .setNegativeButton(R.string.stop_action, new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int id) {
+                            Log.d(LOG_LABEL, "User cancelled upload of records with problems");
+                        }
+                    });
+            return builder.create();
+        }
+    }
+
     /**
      * Prompt user to save or lose unsaved changes to currently editing record before exiting.
      * Validation should be run before opening this dialog.
@@ -554,6 +693,82 @@ public class RecordListActivity extends AppCompatActivity implements CheckSchema
         }
     }
 
+    /**
+     * Read a page of the record list in the background. The first page comes with the totals
+     * for the subtitle.
+     */
+    private class LoadRecordPageTask extends AsyncTask<Void, Void, List<RecordSummary.ListEntry>> {
+
+        private final String pageSearchText;
+        private final RecordSummary.ListEntry after;
+        private final int limit;
+        private RecordSummary.Totals totals;
+
+        public LoadRecordPageTask(String searchText, RecordSummary.ListEntry after, int limit) {
+            this.pageSearchText = searchText;
+            this.after = after;
+            this.limit = limit;
+        }
+
+        @Override
+        protected List<RecordSummary.ListEntry> doInBackground(Void... params) {
+            List<RecordSummary.ListEntry> page = app.getRecordSummaryPage(pageSearchText, after, limit);
+            // format dates here, so binding the rows finds them already formatted
+            for (RecordSummary.ListEntry entry : page) {
+                dateFormatter.format(entry.enteredAt);
+            }
+            if (after == null && !isCancelled()) {
+                totals = app.getRecordTotals();
+            }
+            return page;
+        }
+
+        @Override
+        protected void onPostExecute(List<RecordSummary.ListEntry> page) {
+            loadPageTask = null;
+            boolean more = page.size() == limit;
+            if (after == null) {
+                Log.d(LOG_LABEL, "Read first " + page.size() + " records for list");
+                adapter.setRecords(page, more);
+                showTotals(totals);
+            } else {
+                Log.d(LOG_LABEL, "Read next " + page.size() + " records for list");
+                adapter.addPage(page, more);
+            }
+            updateEmptyView();
+        }
+    }
+
+    /**
+     * Read the row for a record that was saved or deleted, and the new totals, in the background.
+     */
+    private class LoadRecordEntryTask extends AsyncTask<Long, Void, RecordSummary.ListEntry> {
+
+        private long recordId;
+        private RecordSummary.Totals totals;
+
+        @Override
+        protected RecordSummary.ListEntry doInBackground(Long... params) {
+            recordId = params[0];
+            totals = app.getRecordTotals();
+            return app.getRecordSummaryEntry(recordId);
+        }
+
+        @Override
+        protected void onPostExecute(RecordSummary.ListEntry entry) {
+            if (!adapter.isLoaded()) {
+                return; // will be in the first page
+            }
+            if (entry != null) {
+                adapter.updateRecord(entry);
+            } else {
+                adapter.removeRecord(recordId);
+            }
+            showTotals(totals);
+            updateEmptyView();
+        }
+    }
+
     /**
      * Create a background thread for making a blocking connection call to the Google API client,
      * then using it to log out. Doing this instead of connecting/disconnecting to API client
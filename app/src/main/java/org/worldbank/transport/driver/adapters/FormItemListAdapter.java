@@ -1,6 +1,8 @@
 package org.worldbank.transport.driver.adapters;
 
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,21 +11,28 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
-import com.azavea.androidvalidatedforms.tasks.ResizeImageTask;
-
 import org.worldbank.transport.driver.R;
-import org.worldbank.transport.driver.utilities.DriverUtilities;
+import org.worldbank.transport.driver.utilities.ListItemLabeler;
 import org.worldbank.transport.driver.utilities.ListItemLabels;
+import org.worldbank.transport.driver.utilities.ThumbnailLoader;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * Manages form list section item presentation.
  *
+ * Labels are kept for each item, and only built again for items that are new or have been
+ * opened for editing since. Changes to the list are found with a diff, so only the rows
+ * that changed are bound again. Images are loaded through the shared thumbnail loader, which keeps
+ * them in memory and drops the request for a row when it is recycled.
+ *
  * Created by kathrynkillebrew on 12/31/15.
  */
 public class FormItemListAdapter extends RecyclerView.Adapter<FormItemListAdapter.ViewHolder>
-    implements ResizeImageTask.ResizeImageCallback {
+    implements ThumbnailLoader.ThumbnailCallback {
 
     private static final String LOG_LABEL = "FormItemListAdapter";
 
@@ -34,6 +43,14 @@ public class FormItemListAdapter extends RecyclerView.Adapter<FormItemListAdapte
     private ListItemLabels listItemLabels;
     private FormItemClickListener clickListener;
 
+    private ListItemLabeler labeler;
+    // items currently shown, in order
+    private ArrayList<Object> shownItems;
+    // labels built from field values, by item; empty where the item has no values to show
+    private IdentityHashMap<Object, String> valueLabels = new IdentityHashMap<>();
+    // items opened for editing since labels were last built, so their labels may be out of date
+    private final Set<Object> editedItems = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
     public interface FormItemClickListener {
         void clickedItem(View view, int position);
     }
@@ -62,9 +79,128 @@ public class FormItemListAdapter extends RecyclerView.Adapter<FormItemListAdapte
         this.clickListener = clickListener;
     }
 
+    /**
+     * Note that an item is being opened for editing, so its label is built again when the list
+     * is next built, however its form is left.
+     *
+     * @param position Offset of the item in the list shown
+     */
+    public void noteItemEdited(int position) {
+        if (shownItems == null || position < 0 || position >= shownItems.size()) {
+            return;
+        }
+        editedItems.add(shownItems.get(position));
+    }
+
+    /**
+     * Set the items to list, and update the rows for any that have been added, removed, or
+     * changed since the last call.
+     *
+     * @param items Items to list
+     * @param itemClass Class of the items
+     */
     public void buildLabelList(ArrayList items, Class itemClass) {
-        this.listItemLabels = DriverUtilities.getListItemLabels(items, itemClass, defaultLabel);
-        notifyDataSetChanged();
+        if (labeler == null || !labeler.getItemClass().equals(itemClass)) {
+            labeler = new ListItemLabeler(itemClass);
+            valueLabels.clear();
+        }
+
+        int itemsSize = items.size();
+        ArrayList<Object> newItems = new ArrayList<>(itemsSize);
+        ArrayList<String> labels = new ArrayList<>(itemsSize);
+        ArrayList<String> imagePaths = null;
+        if (labeler.hasImages()) {
+            imagePaths = new ArrayList<>(itemsSize);
+        }
+
+        // keep labels only for items still in the list
+        IdentityHashMap<Object, String> newValueLabels = new IdentityHashMap<>(itemsSize);
+        int rebuilt = 0;
+
+        for (int i = 0; i < itemsSize; i++) {
+            Object item = items.get(i);
+            newItems.add(item);
+
+            String valueLabel = valueLabels.get(item);
+            if (valueLabel == null || editedItems.contains(item)) {
+                valueLabel = labeler.getValueLabel(item);
+                rebuilt++;
+            }
+            newValueLabels.put(item, valueLabel);
+
+            // default labels are numbered by position, so are not kept
+            if (valueLabel.length() == 0) {
+                labels.add(ListItemLabeler.getDefaultLabel(defaultLabel, i));
+            } else {
+                labels.add(valueLabel);
+            }
+
+            if (imagePaths != null) {
+                imagePaths.add(labeler.getImagePath(item));
+            }
+        }
+
+        Log.d(LOG_LABEL, "Built " + rebuilt + " of " + itemsSize + " item labels");
+        editedItems.clear();
+
+        ListItemLabels oldLabels = listItemLabels;
+        ArrayList<Object> oldItems = shownItems;
+
+        valueLabels = newValueLabels;
+        shownItems = newItems;
+        listItemLabels = new ListItemLabels(labels, imagePaths);
+
+        if (oldLabels == null || oldItems == null) {
+            notifyDataSetChanged();
+        } else {
+            DiffUtil.calculateDiff(new LabelDiffCallback(oldItems, oldLabels, newItems, listItemLabels))
+                    .dispatchUpdatesTo(this);
+        }
+    }
+
+    /**
+     * Compares items by identity, and their rows by label and image.
+     */
+    private static class LabelDiffCallback extends DiffUtil.Callback {
+        private final ArrayList<Object> oldItems;
+        private final ListItemLabels oldLabels;
+        private final ArrayList<Object> newItems;
+        private final ListItemLabels newLabels;
+
+        LabelDiffCallback(ArrayList<Object> oldItems, ListItemLabels oldLabels,
+                          ArrayList<Object> newItems, ListItemLabels newLabels) {
+            this.oldItems = oldItems;
+            this.oldLabels = oldLabels;
+            this.newItems = newItems;
+            this.newLabels = newLabels;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldItems.get(oldItemPosition) == newItems.get(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            if (!TextUtils.equals(oldLabels.labels.get(oldItemPosition), newLabels.labels.get(newItemPosition))) {
+                return false;
+            }
+            if (oldLabels.imagePaths == null || newLabels.imagePaths == null) {
+                return oldLabels.imagePaths == newLabels.imagePaths;
+            }
+            // media set without a path has a null path
+            return TextUtils.equals(oldLabels.imagePaths.get(oldItemPosition), newLabels.imagePaths.get(newItemPosition));
+        }
     }
 
     @Override
@@ -81,14 +217,20 @@ public class FormItemListAdapter extends RecyclerView.Adapter<FormItemListAdapte
         if (listItemLabels.hasImages) {
             holder.imageView.setVisibility(View.VISIBLE);
 
-            // set image in background task
-            ResizeImageTask resizeImageTask = new ResizeImageTask(holder.imageView, IMAGE_SIZE, IMAGE_SIZE, this);
-            resizeImageTask.execute(listItemLabels.imagePaths.get(position));
+            // set image in background, or from memory if it has been shown already
+            ThumbnailLoader.getInstance().load(listItemLabels.imagePaths.get(position), holder.imageView,
+                    IMAGE_SIZE, IMAGE_SIZE, this);
         }
     }
 
     @Override
-    public void imageNotSet() {
+    public void onViewRecycled(FormItemListAdapter.ViewHolder holder) {
+        super.onViewRecycled(holder);
+        ThumbnailLoader.getInstance().cancel(holder.imageView);
+    }
+
+    @Override
+    public void thumbnailNotSet(String path) {
         Log.w(LOG_LABEL, "Could not set image on list view");
     }
 
@@ -0,0 +1,354 @@
+package org.worldbank.transport.driver.adapters;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.jsonschema2pojo.annotations.Multiple;
+import org.worldbank.transport.driver.R;
+import org.worldbank.transport.driver.datastore.RecordSummary;
+import org.worldbank.transport.driver.utilities.DisplayDateFormatter;
+import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Presents the stored records, most recently entered first, a page at a time.
+ *
+ * Rows are read in the background by the owner of the adapter, which is asked for the next page
+ * as the list nears the end of the rows it has. Single records may be updated, added, or removed
+ * as they are saved or deleted, without reading the rest of the list again.
+ */
+public class RecordListAdapter extends RecyclerView.Adapter<RecordListAdapter.ViewHolder> {
+
+    private static final String SUMMARY_SEPARATOR = ", ";
+
+    // ask for the next page when a row this close to the end of the loaded rows is shown
+    private static final int PREFETCH_DISTANCE = 10;
+
+    public interface RecordListListener {
+        void clickedRecord(long recordId);
+        void longPressedRecord(long recordId);
+
+        /**
+         * Read the page after the last row. The page should be passed to {@link #addPage(List, boolean)}.
+         *
+         * @param lastEntry Last row in the list
+         */
+        void needNextPage(RecordSummary.ListEntry lastEntry);
+    }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener,
+            View.OnLongClickListener {
+        public TextView enteredAtView;
+        public TextView labelView;
+        public TextView detailsView;
+        public long recordId;
+        private final RecordListListener listener;
+
+        public ViewHolder(LinearLayout v, RecordListListener listener) {
+            super(v);
+            this.enteredAtView = (TextView) v.findViewById(R.id.record_list_item_entered_at);
+            this.labelView = (TextView) v.findViewById(R.id.record_list_item_label);
+            this.detailsView = (TextView) v.findViewById(R.id.record_list_item_details);
+            this.listener = listener;
+            v.setOnClickListener(this);
+            v.setOnLongClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            listener.clickedRecord(recordId);
+        }
+
+        @Override
+        public boolean onLongClick(View v) {
+            listener.longPressedRecord(recordId);
+            return true;
+        }
+    }
+
+    private final RecordListListener listener;
+    private final Resources resources;
+    private final DisplayDateFormatter dateFormatter;
+
+    // titles the form shows for each section, by serialized section name
+    private final Map<String, String> sectionTitles = new HashMap<>();
+
+    private ArrayList<RecordSummary.ListEntry> entries = new ArrayList<>();
+    private boolean loaded = false;
+    private boolean hasMore = false;
+    private boolean pageRequested = false;
+
+    /**
+     * @param context Context to read strings from
+     * @param dateFormatter Formatter for the entered at dates
+     * @param listener Listener for selected records and page requests
+     */
+    public RecordListAdapter(Context context, DisplayDateFormatter dateFormatter, RecordListListener listener) {
+        this.listener = listener;
+        this.resources = context.getResources();
+        this.dateFormatter = dateFormatter;
+        setHasStableIds(true);
+    }
+
+    /**
+     * @return True once the first page has been set
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return True if there may be records after the last row
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Replace the rows, as when the list is first read or the search changes, and update only
+     * the rows that have changed.
+     *
+     * @param newEntries First rows of the list, in order
+     * @param more True if there may be records after these
+     */
+    public void setRecords(List<RecordSummary.ListEntry> newEntries, boolean more) {
+        ArrayList<RecordSummary.ListEntry> oldEntries = entries;
+        entries = new ArrayList<>(newEntries);
+        hasMore = more;
+        pageRequested = false;
+
+        if (!loaded) {
+            loaded = true;
+            notifyDataSetChanged();
+        } else {
+            DiffUtil.calculateDiff(new EntryDiffCallback(oldEntries, entries)).dispatchUpdatesTo(this);
+        }
+    }
+
+    /**
+     * Add the page after the last row.
+     *
+     * @param page Rows read after the last row, in order
+     * @param more True if there may be records after these
+     */
+    public void addPage(List<RecordSummary.ListEntry> page, boolean more) {
+        int start = entries.size();
+        entries.addAll(page);
+        hasMore = more;
+        pageRequested = false;
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    /**
+     * Show a record that has been saved: change its row, or add one for it if it is new. Records
+     * that belong after the last row are left to be read with the next page.
+     *
+     * @param entry Row read for the saved record
+     */
+    public void updateRecord(RecordSummary.ListEntry entry) {
+        int oldPosition = findRecord(entry.recordId);
+        if (oldPosition > -1) {
+            RecordSummary.ListEntry oldEntry = entries.get(oldPosition);
+            if (oldEntry.enteredAt == entry.enteredAt) {
+                // still in the same place
+                if (!oldEntry.hasSameContents(entry)) {
+                    entries.set(oldPosition, entry);
+                    notifyItemChanged(oldPosition);
+                }
+                return;
+            }
+            entries.remove(oldPosition);
+            notifyItemRemoved(oldPosition);
+        }
+
+        int position = 0;
+        int size = entries.size();
+        while (position < size && isBefore(entries.get(position), entry)) {
+            position++;
+        }
+
+        if (position == size && hasMore) {
+            return;
+        }
+        entries.add(position, entry);
+        notifyItemInserted(position);
+    }
+
+    /**
+     * Remove the row for a record, if it is shown.
+     *
+     * @param recordId Database ID of the record
+     */
+    public void removeRecord(long recordId) {
+        int position = findRecord(recordId);
+        if (position > -1) {
+            entries.remove(position);
+            notifyItemRemoved(position);
+        }
+    }
+
+    private int findRecord(long recordId) {
+        int size = entries.size();
+        for (int i = 0; i < size; i++) {
+            if (entries.get(i).recordId == recordId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // list order: most recently entered first, then most recently added
+    private static boolean isBefore(RecordSummary.ListEntry first, RecordSummary.ListEntry second) {
+        if (first.enteredAt != second.enteredAt) {
+            return first.enteredAt > second.enteredAt;
+        }
+        return first.recordId > second.recordId;
+    }
+
+    /**
+     * Compares rows by record, and their contents by what they show.
+     */
+    private static class EntryDiffCallback extends DiffUtil.Callback {
+        private final List<RecordSummary.ListEntry> oldEntries;
+        private final List<RecordSummary.ListEntry> newEntries;
+
+        EntryDiffCallback(List<RecordSummary.ListEntry> oldEntries, List<RecordSummary.ListEntry> newEntries) {
+            this.oldEntries = oldEntries;
+            this.newEntries = newEntries;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldEntries.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newEntries.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldEntries.get(oldItemPosition).recordId == newEntries.get(newItemPosition).recordId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldEntries.get(oldItemPosition).hasSameContents(newEntries.get(newItemPosition));
+        }
+    }
+
+    @Override
+    public RecordListAdapter.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        LinearLayout view = (LinearLayout) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.record_list_item, parent, false);
+        return new ViewHolder(view, listener);
+    }
+
+    @Override
+    public void onBindViewHolder(RecordListAdapter.ViewHolder holder, int position) {
+        RecordSummary.ListEntry entry = entries.get(position);
+        holder.recordId = entry.recordId;
+
+        // stored in SQLite as epoch milliseconds
+        holder.enteredAtView.setText(dateFormatter.format(entry.enteredAt));
+
+        // records with no text to show have no label
+        String label = entry.label;
+        holder.labelView.setVisibility(label == null || label.isEmpty() ? View.GONE : View.VISIBLE);
+        holder.labelView.setText(label);
+
+        holder.detailsView.setText(buildSummaryDetails(entry));
+
+        if (hasMore && !pageRequested && position >= entries.size() - PREFETCH_DISTANCE) {
+            pageRequested = true;
+            listener.needNextPage(entries.get(entries.size() - 1));
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return entries.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return entries.get(position).recordId;
+    }
+
+    /**
+     * Build the line under a record in the list: item counts by section, photos attached, and
+     * whether the record is missing the location it needs to upload.
+     *
+     * @param entry Row for the record to describe
+     * @return Text to show
+     */
+    private String buildSummaryDetails(RecordSummary.ListEntry entry) {
+        StringBuilder details = new StringBuilder();
+        for (Map.Entry<String, Integer> count : entry.itemCounts.entrySet()) {
+            if (count.getValue() == 0) {
+                continue;
+            }
+            if (details.length() > 0) {
+                details.append(SUMMARY_SEPARATOR);
+            }
+            details.append(resources.getString(R.string.record_list_item_count, getSectionTitle(count.getKey()),
+                    count.getValue()));
+        }
+
+        if (entry.photoCount > 0) {
+            if (details.length() > 0) {
+                details.append(SUMMARY_SEPARATOR);
+            }
+            details.append(resources.getQuantityString(R.plurals.record_list_photos, entry.photoCount, entry.photoCount));
+        }
+
+        if (!entry.uploadReady) {
+            if (details.length() > 0) {
+                details.append(SUMMARY_SEPARATOR);
+            }
+            details.append(resources.getString(R.string.record_list_needs_location));
+        }
+        return details.toString();
+    }
+
+    /**
+     * Get the title a section is shown with in the form: the plural title for a section with
+     * multiple items, or the single title otherwise.
+     *
+     * @param sectionName Serialized name of the section field, as item counts are stored by
+     * @return Title for the section, or its name if it has none
+     */
+    private String getSectionTitle(String sectionName) {
+        String title = sectionTitles.get(sectionName);
+        if (title != null) {
+            return title;
+        }
+
+        Field sectionField = RecordFormSectionManager.getFieldForSectionName(sectionName);
+        if (sectionField == null) {
+            title = sectionName;
+        } else {
+            Multiple multiple = sectionField.getAnnotation(Multiple.class);
+            if (multiple != null && multiple.value()) {
+                title = RecordFormSectionManager.getPluralTitle(sectionField, sectionName);
+            } else {
+                title = RecordFormSectionManager.getSingleTitle(sectionField, sectionName);
+            }
+        }
+        sectionTitles.put(sectionName, title);
+        return title;
+    }
+}
@@ -15,6 +15,7 @@ import com.azavea.androidvalidatedforms.tasks.ResizeImageTask;
 
 import org.jsonschema2pojo.media.SerializableMedia;
 import org.worldbank.transport.driver.R;
+import org.worldbank.transport.driver.utilities.ThumbnailStore;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -45,7 +46,9 @@ public class DriverImageController extends ImageController {
         final int thumbSize = 64;
         Bitmap thumbImage = ThumbnailUtils.extractThumbnail(placeholderBitmap, thumbSize, thumbSize);
         File placeholderFile = storeImage(thumbImage);
-        setModelValue(placeholderFile.getAbsolutePath());
+        if (placeholderFile != null) {
+            setModelValue(placeholderFile.getAbsolutePath());
+        }
 
         return null;
     }
@@ -59,6 +62,13 @@ public class DriverImageController extends ImageController {
             Bitmap bitmap = resizeBitMapImage(newImagePath, 768, 768);
             Bitmap rotatedBitmap = rotateImage(bitmap, newImagePath);
             File rescaledImageFile = storeImage(rotatedBitmap);
+            if (rescaledImageFile == null) {
+                Log.e("TAG", "Could not store image from " + newImagePath);
+                rotatedBitmap.recycle();
+                return;
+            }
+            // small copy for lists to show, so they need not decode the whole image
+            ThumbnailStore.writeThumbnailInBackground(rotatedBitmap, rescaledImageFile);
             media = new SerializableMedia();
             media.path = rescaledImageFile.getAbsolutePath();
         }
@@ -139,20 +149,31 @@ public class DriverImageController extends ImageController {
         return outputImage;
     }
 
+    /**
+     * @param image Image to write
+     * @return File the image was stored in, or null if it could not be stored
+     */
     private File storeImage(Bitmap image) {
         File pictureFile = getOutputMediaFile();
         if (pictureFile == null) {
             Log.d("TAG",
                     "Error creating media file, check storage permissions: ");// e.getMessage());
+            return null;
         }
         try {
             FileOutputStream fos = new FileOutputStream(pictureFile);
-            image.compress(Bitmap.CompressFormat.JPEG, 90, fos);
+            boolean written = image.compress(Bitmap.CompressFormat.JPEG, 90, fos);
             fos.close();
+            if (!written) {
+                Log.e("TAG", "Could not compress image to " + pictureFile);
+                return null;
+            }
         } catch (FileNotFoundException e) {
             Log.e("TAG", "File not found: " + e.getMessage());
+            return null;
         } catch (IOException e) {
             Log.e("TAG", "Error accessing file: " + e.getMessage());
+            return null;
         }
         return pictureFile;
     }
@@ -6,7 +6,7 @@ import android.provider.BaseColumns;
 /**
  * Schema for database table used to store records.
  * The record itself is serialized to JSON before being stored as a string;
- * the other columns are metadata.
+ * the other columns are metadata. Timestamps are stored as milliseconds since the epoch.
  *
  * Created by kathrynkillebrew on 1/5/16.
  */
@@ -26,6 +26,14 @@ public final class DriverRecordContract {
         public static final String COLUMN_SCHEMA_VERSION = "schema_version";
         public static final String COLUMN_DATA = "data";
 
+        // how the data column is encoded; JSON rows are text, binary formats are blobs
+        public static final String COLUMN_DATA_FORMAT = "data_format";
+        public static final int DATA_FORMAT_JSON = 0;
+        public static final int DATA_FORMAT_SMILE = 1;
+
+        // data column is empty; each section is stored in the sections table in its own format
+        public static final int DATA_FORMAT_SECTIONS = 2;
+
         // fields for record constants
         public static final String COLUMN_OCCURRED_FROM = "occurred_from";
         public static final String COLUMN_OCCURRED_TO = "occurred_to";
@@ -33,24 +41,172 @@ public final class DriverRecordContract {
         public static final String COLUMN_LONGITUDE = "longitude";
         public static final String COLUMN_WEATHER = "weather";
         public static final String COLUMN_LIGHT = "light";
+
+        // spatial index; null for records without a location
+        public static final String COLUMN_GEOHASH = "geohash";
     }
 
+    private static final String CURRENT_EPOCH_MILLIS = "CAST(strftime('%s', 'now') AS INTEGER) * 1000";
+
     public static final String RECORD_TABLE_CREATE = "CREATE TABLE " + RecordEntry.TABLE_NAME + " (" +
             RecordEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
-            RecordEntry.COLUMN_ENTERED_AT + " TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL, " +
-            RecordEntry.COLUMN_UPDATED_AT + " TIMESTAMP, " +
+            RecordEntry.COLUMN_ENTERED_AT + " INTEGER DEFAULT (" + CURRENT_EPOCH_MILLIS + ") NOT NULL, " +
+            RecordEntry.COLUMN_UPDATED_AT + " INTEGER, " +
             RecordEntry.COLUMN_SCHEMA_VERSION + " TEXT NOT NULL, " +
             RecordEntry.COLUMN_DATA + " TEXT NOT NULL, " +
-            RecordEntry.COLUMN_OCCURRED_FROM + " TIMESTAMP NOT NULL, " +
-            RecordEntry.COLUMN_OCCURRED_TO + " TIMESTAMP NOT NULL, " +
+            RecordEntry.COLUMN_OCCURRED_FROM + " INTEGER NOT NULL, " +
+            RecordEntry.COLUMN_OCCURRED_TO + " INTEGER NOT NULL, " +
 
             // TODO: require these to be non-null when UI figured out?
             RecordEntry.COLUMN_LATITUDE + " DOUBLE, " +
             RecordEntry.COLUMN_LONGITUDE + " DOUBLE, " +
 
             RecordEntry.COLUMN_WEATHER + " TEXT, " +
-            RecordEntry.COLUMN_LIGHT + " TEXT" +
+            RecordEntry.COLUMN_LIGHT + " TEXT, " +
+            RecordEntry.COLUMN_GEOHASH + " TEXT, " +
+            RecordEntry.COLUMN_DATA_FORMAT + " INTEGER DEFAULT " + RecordEntry.DATA_FORMAT_JSON + " NOT NULL" +
             ");";
 
     public static final String RECORD_TABLE_DROP = "DROP TABLE IF EXISTS " + RecordEntry.TABLE_NAME;
+
+    // Top-level sections of records (the fields of DriverSchema), stored separately so a section
+    // can be read or rewritten without the rest of its record.
+    public static abstract class SectionEntry {
+        public static final String TABLE_NAME = "record_sections";
+
+        // _ID of the record the section belongs to
+        public static final String COLUMN_RECORD_ID = "record_id";
+
+        // serialized name of the section field on DriverSchema
+        public static final String COLUMN_SECTION_NAME = "section_name";
+
+        // position of the section in form order, when written
+        public static final String COLUMN_SECTION_INDEX = "section_index";
+
+        public static final String COLUMN_DATA = "data";
+        public static final String COLUMN_DATA_FORMAT = "data_format";
+
+        // text values from the section data, for the record's full-text index
+        public static final String COLUMN_SEARCH_TEXT = "search_text";
+
+        // stats for the record summary; see RecordSummary.SectionStats
+        public static final String COLUMN_ITEM_COUNT = "item_count";
+        public static final String COLUMN_PHOTO_COUNT = "photo_count";
+        public static final String COLUMN_LABEL = "label";
+        public static final String COLUMN_PAYLOAD_BYTES = "payload_bytes";
+    }
+
+    public static final String SECTION_TABLE_CREATE = "CREATE TABLE " + SectionEntry.TABLE_NAME + " (" +
+            SectionEntry.COLUMN_RECORD_ID + " INTEGER NOT NULL, " +
+            SectionEntry.COLUMN_SECTION_NAME + " TEXT NOT NULL, " +
+            SectionEntry.COLUMN_SECTION_INDEX + " INTEGER NOT NULL, " +
+            SectionEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+            SectionEntry.COLUMN_DATA_FORMAT + " INTEGER NOT NULL, " +
+            SectionEntry.COLUMN_SEARCH_TEXT + " TEXT, " +
+            SectionEntry.COLUMN_ITEM_COUNT + " INTEGER DEFAULT 0 NOT NULL, " +
+            SectionEntry.COLUMN_PHOTO_COUNT + " INTEGER DEFAULT 0 NOT NULL, " +
+            SectionEntry.COLUMN_LABEL + " TEXT, " +
+            SectionEntry.COLUMN_PAYLOAD_BYTES + " INTEGER DEFAULT 0 NOT NULL, " +
+            "UNIQUE (" + SectionEntry.COLUMN_RECORD_ID + ", " + SectionEntry.COLUMN_SECTION_NAME + ") ON CONFLICT REPLACE" +
+            ");";
+
+    public static final String SECTION_TABLE_DROP = "DROP TABLE IF EXISTS " + SectionEntry.TABLE_NAME;
+
+    // Denormalized summary of each record for the record list, rewritten whenever the record is
+    // written, so the list can show and count records without reading their data.
+    public static abstract class SummaryEntry {
+        public static final String TABLE_NAME = "record_summaries";
+
+        // _ID of the record summarized
+        public static final String COLUMN_RECORD_ID = "record_id";
+
+        // text from the start of the record to show in the list; may be empty
+        public static final String COLUMN_LABEL = "label";
+
+        // JSON object of the number of items in each section, by section name
+        public static final String COLUMN_ITEM_COUNTS = "item_counts";
+
+        public static final String COLUMN_PHOTO_COUNT = "photo_count";
+
+        // 1 if the record has a location, and so can be uploaded; 0 if not
+        public static final String COLUMN_UPLOAD_READY = "upload_ready";
+
+        // estimated size of the record upload, including photos
+        public static final String COLUMN_PAYLOAD_BYTES = "payload_bytes";
+    }
+
+    public static final String SUMMARY_TABLE_CREATE = "CREATE TABLE " + SummaryEntry.TABLE_NAME + " (" +
+            SummaryEntry.COLUMN_RECORD_ID + " INTEGER PRIMARY KEY NOT NULL, " +
+            SummaryEntry.COLUMN_LABEL + " TEXT, " +
+            SummaryEntry.COLUMN_ITEM_COUNTS + " TEXT, " +
+            SummaryEntry.COLUMN_PHOTO_COUNT + " INTEGER DEFAULT 0 NOT NULL, " +
+            SummaryEntry.COLUMN_UPLOAD_READY + " INTEGER DEFAULT 0 NOT NULL, " +
+            SummaryEntry.COLUMN_PAYLOAD_BYTES + " INTEGER DEFAULT 0 NOT NULL" +
+            ");";
+
+    public static final String SUMMARY_TABLE_DROP = "DROP TABLE IF EXISTS " + SummaryEntry.TABLE_NAME;
+
+    // Append-only journal of changes to the record being edited, since it was opened or last
+    // saved. Replayed to restore the editing session if the app is killed before the record is
+    // saved; cleared when the record is saved. The _ID orders the changes.
+    public static abstract class JournalEntry implements BaseColumns {
+        public static final String TABLE_NAME = "record_journal";
+
+        // _ID of the record being edited, or -1 for a record not yet saved
+        public static final String COLUMN_RECORD_ID = "record_id";
+
+        // UUID of the schema the record was being edited with
+        public static final String COLUMN_SCHEMA_VERSION = "schema_version";
+
+        // serialized name of the section field on DriverSchema changed, or
+        // CONSTANTS_SECTION for the constant fields
+        public static final String COLUMN_SECTION_NAME = "section_name";
+
+        // JSON array of the member names and array offsets to the changed value in the section
+        public static final String COLUMN_PATH = "path";
+
+        // new value as JSON; null if the value was removed
+        public static final String COLUMN_VALUE = "value";
+
+        public static final String CONSTANTS_SECTION = "_constants";
+    }
+
+    public static final String JOURNAL_TABLE_CREATE = "CREATE TABLE " + JournalEntry.TABLE_NAME + " (" +
+            JournalEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+            JournalEntry.COLUMN_RECORD_ID + " INTEGER NOT NULL, " +
+            JournalEntry.COLUMN_SCHEMA_VERSION + " TEXT, " +
+            JournalEntry.COLUMN_SECTION_NAME + " TEXT NOT NULL, " +
+            JournalEntry.COLUMN_PATH + " TEXT NOT NULL, " +
+            JournalEntry.COLUMN_VALUE + " TEXT" +
+            ");";
+
+    public static final String JOURNAL_TABLE_DROP = "DROP TABLE IF EXISTS " + JournalEntry.TABLE_NAME;
+
+    // Full-text index of record text. The docid of each row is the _ID of the record it indexes.
+    public static abstract class SearchEntry {
+        public static final String TABLE_NAME = "record_search";
+
+        // text values from the record data
+        public static final String COLUMN_DATA_TEXT = "data_text";
+
+        // text of the constant fields
+        public static final String COLUMN_CONSTANTS_TEXT = "constants_text";
+    }
+
+    public static final String SEARCH_TABLE_CREATE = "CREATE VIRTUAL TABLE " + SearchEntry.TABLE_NAME +
+            " USING fts3(" + SearchEntry.COLUMN_DATA_TEXT + ", " + SearchEntry.COLUMN_CONSTANTS_TEXT + ");";
+
+    public static final String SEARCH_TABLE_DROP = "DROP TABLE IF EXISTS " + SearchEntry.TABLE_NAME;
+
+    // indexes for sorting by entry time, date range queries, and location queries
+    public static final String[] RECORD_INDEXES_CREATE = {
+            "CREATE INDEX IF NOT EXISTS record_entered_at_idx ON " + RecordEntry.TABLE_NAME +
+                    " (" + RecordEntry.COLUMN_ENTERED_AT + ");",
+            "CREATE INDEX IF NOT EXISTS record_occurred_from_idx ON " + RecordEntry.TABLE_NAME +
+                    " (" + RecordEntry.COLUMN_OCCURRED_FROM + ");",
+            "CREATE INDEX IF NOT EXISTS record_occurred_to_idx ON " + RecordEntry.TABLE_NAME +
+                    " (" + RecordEntry.COLUMN_OCCURRED_TO + ");",
+            "CREATE INDEX IF NOT EXISTS record_geohash_idx ON " + RecordEntry.TABLE_NAME +
+                    " (" + RecordEntry.COLUMN_GEOHASH + ");"
+    };
 }
@@ -4,16 +4,27 @@ import android.util.Log;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.jsonschema2pojo.media.SerializableMedia;
 import org.worldbank.transport.driver.staticmodels.DriverApp;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
 import java.util.Set;
 
 
 /**
- * Handles reading and writing records to and from JSON strings.
+ * Handles reading and writing records to and from JSON strings, and to and from the encoded
+ * bytes stored in the database.
+ *
+ * Stored data is written with the storage codec (Smile binary JSON by default). Each row is
+ * tagged with the format it was written in, so rows written as JSON text remain readable.
  *
  * Created by kathrynkillebrew on 1/6/16.
  */
@@ -21,15 +32,25 @@ public class DriverSchemaSerializer {
 
     public static final String LOG_LABEL = "SchemaSerializer";
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Gson instances are thread-safe; build once instead of for every record
+    private static final Gson READ_GSON = new GsonBuilder()
+            .registerTypeAdapter(SerializableMedia.class, new SerializableMedia.SerializableMediaPathStringAdapter())
+            .registerTypeAdapter(Set.class, new GsonSetDeserializer())
+            .create();
+
+    private static final Gson WRITE_GSON = new GsonBuilder()
+            .registerTypeAdapter(SerializableMedia.class, new SerializableMedia.SerializableMediaPathStringAdapter())
+            .create();
+
+    private static volatile RecordDataCodec storageCodec = JacksonRecordDataCodec.SMILE;
+
     public static Object readRecord(String jsonData) {
-        GsonBuilder builder = new GsonBuilder();
-        builder.registerTypeAdapter(SerializableMedia.class, new SerializableMedia.SerializableMediaPathStringAdapter());
-        builder.registerTypeAdapter(Set.class, new GsonSetDeserializer());
-        Gson gson = builder.create();
         try {
             Class driverClass = DriverApp.getSchemaClass();
             if (driverClass != null) {
-                return gson.fromJson(jsonData, driverClass);
+                return READ_GSON.fromJson(jsonData, driverClass);
             } else {
                 Log.e(LOG_LABEL, "Could not read record; driver schema undefined");
             }
@@ -42,13 +63,10 @@ public class DriverSchemaSerializer {
     }
 
     public static String serializeRecordForStorage(Object object) {
-        GsonBuilder builder = new GsonBuilder();
-        builder.registerTypeAdapter(SerializableMedia.class, new SerializableMedia.SerializableMediaPathStringAdapter());
-        Gson gson = builder.create();
         try {
             Class driverSchemaClass = DriverApp.getSchemaClass();
             if (driverSchemaClass != null) {
-                return gson.toJson(object, driverSchemaClass);
+                return WRITE_GSON.toJson(object, driverSchemaClass);
             } else {
                 Log.e(LOG_LABEL, "No driver schema class to serialize!");
                 return null;
@@ -60,4 +78,263 @@ public class DriverSchemaSerializer {
         }
     }
 
+    /**
+     * @return Codec new and updated records are stored with
+     */
+    public static RecordDataCodec getStorageCodec() {
+        return storageCodec;
+    }
+
+    /**
+     * Change the codec records are stored with. Rows already stored keep their format.
+     *
+     * @param codec Codec to use for writes from now on
+     */
+    public static void setStorageCodec(RecordDataCodec codec) {
+        storageCodec = codec;
+    }
+
+    /**
+     * Find the codec for a stored data format.
+     *
+     * @param format Value of the data format column
+     * @return Codec for the format, or null if the format is unknown
+     */
+    public static RecordDataCodec getCodec(int format) {
+        switch (format) {
+            case DriverRecordContract.RecordEntry.DATA_FORMAT_JSON:
+                return JacksonRecordDataCodec.JSON;
+            case DriverRecordContract.RecordEntry.DATA_FORMAT_SMILE:
+                return JacksonRecordDataCodec.SMILE;
+            default:
+                Log.e(LOG_LABEL, "Unknown record data format " + format);
+                return null;
+        }
+    }
+
+    /**
+     * Serialize a record and encode it for storage.
+     *
+     * @param object Record to serialize; an instance of the current schema class
+     * @param codec Codec to encode with
+     * @return Encoded bytes, or null on failure
+     */
+    public static byte[] encodeRecordForStorage(Object object, RecordDataCodec codec) {
+        try {
+            Class driverSchemaClass = DriverApp.getSchemaClass();
+            if (driverSchemaClass == null) {
+                Log.e(LOG_LABEL, "No driver schema class to serialize!");
+                return null;
+            }
+            return codec.encode(WRITE_GSON.toJsonTree(object, driverSchemaClass));
+        } catch (JsonParseException ex) {
+            Log.e(LOG_LABEL, "Failed to serialize record");
+            ex.printStackTrace();
+        } catch (IOException ex) {
+            Log.e(LOG_LABEL, "Failed to encode record for storage");
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Decode stored record data into an instance of the current schema class.
+     *
+     * @param data Encoded bytes, as read from the database
+     * @param format Value of the data format column
+     * @return Record object, or null on failure
+     */
+    public static Object readRecord(byte[] data, int format) {
+        Class driverClass = DriverApp.getSchemaClass();
+        if (driverClass == null) {
+            Log.e(LOG_LABEL, "Could not read record; driver schema undefined");
+            return null;
+        }
+        return readRecord(data, format, driverClass);
+    }
+
+    /**
+     * Decode stored record data.
+     *
+     * @param data Encoded bytes, as read from the database
+     * @param format Value of the data format column
+     * @param recordClass Class to deserialize to
+     * @return Record object, or null on failure
+     */
+    public static <T> T readRecord(byte[] data, int format, Class<T> recordClass) {
+        RecordDataCodec codec = getCodec(format);
+        if (codec == null || data == null) {
+            return null;
+        }
+
+        try {
+            return readStoredData(codec, data, recordClass);
+        } catch (JsonParseException ex) {
+            Log.e(LOG_LABEL, "Failed to parse record from stored data");
+            ex.printStackTrace();
+        } catch (IOException ex) {
+            Log.e(LOG_LABEL, "Failed to decode stored record data");
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Get stored record data as a JSON string, whatever format it is stored in.
+     *
+     * @param data Encoded bytes, as read from the database
+     * @param format Value of the data format column
+     * @return JSON string, or null on failure
+     */
+    public static String toJson(byte[] data, int format) {
+        RecordDataCodec codec = getCodec(format);
+        if (codec == null || data == null) {
+            return null;
+        }
+
+        if (codec.isText()) {
+            // text read from the database as bytes may have a terminating null
+            int length = data.length;
+            while (length > 0 && data[length - 1] == 0) {
+                length--;
+            }
+            return new String(data, 0, length, UTF_8);
+        }
+
+        try {
+            JsonElement tree = codec.decode(data);
+            return WRITE_GSON.toJson(tree);
+        } catch (IOException ex) {
+            Log.e(LOG_LABEL, "Failed to decode stored record data");
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Serialize one section of a record and encode it for storage.
+     *
+     * @param section Value of the section field on the record; may be null
+     * @param sectionType Generic type of the section field
+     * @param codec Codec to encode with
+     * @return Encoded bytes, or null on failure
+     */
+    public static byte[] encodeSectionForStorage(Object section, Type sectionType, RecordDataCodec codec) {
+        try {
+            return codec.encode(WRITE_GSON.toJsonTree(section, sectionType));
+        } catch (JsonParseException ex) {
+            Log.e(LOG_LABEL, "Failed to serialize record section");
+            ex.printStackTrace();
+        } catch (IOException ex) {
+            Log.e(LOG_LABEL, "Failed to encode record section for storage");
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Decode one stored section of a record.
+     *
+     * @param data Encoded bytes, as read from the database
+     * @param format Value of the section's data format column
+     * @param sectionType Generic type of the section field to deserialize to
+     * @return Section object; null only if the stored section is itself null
+     * @throws IOException if the data cannot be decoded, or does not fit the section type
+     */
+    public static Object readSection(byte[] data, int format, Type sectionType) throws IOException {
+        RecordDataCodec codec = getCodec(format);
+        if (codec == null) {
+            throw new IOException("Unknown record section data format " + format);
+        }
+        if (data == null) {
+            throw new IOException("No stored data for record section");
+        }
+
+        try {
+            return readStoredData(codec, data, sectionType);
+        } catch (JsonParseException ex) {
+            throw new IOException("Failed to parse record section from stored data", ex);
+        }
+    }
+
+    /**
+     * Deserialize stored data straight from a reader over its bytes, without building a tree.
+     *
+     * @param codec Codec the data was stored with
+     * @param data Encoded bytes, as read from the database
+     * @param type Type to deserialize to
+     * @return Deserialized object; null if the stored value is null
+     * @throws IOException if there is no data, or it cannot be decoded
+     */
+    private static <T> T readStoredData(RecordDataCodec codec, byte[] data, Type type) throws IOException {
+        JsonReader reader = codec.createReader(data);
+        try {
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                throw new IOException("No record data to decode");
+            }
+            return READ_GSON.fromJson(reader, type);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Deserialize a whole record from a tree, as assembled from its stored sections.
+     *
+     * @param tree Record data as a Gson tree
+     * @return Record object, or null on failure
+     */
+    public static Object readRecord(JsonElement tree) {
+        try {
+            Class driverClass = DriverApp.getSchemaClass();
+            if (driverClass != null) {
+                return READ_GSON.fromJson(tree, driverClass);
+            } else {
+                Log.e(LOG_LABEL, "Could not read record; driver schema undefined");
+            }
+        } catch (JsonParseException ex) {
+            Log.e(LOG_LABEL, "Failed to parse record from stored sections");
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @param tree Record data as a Gson tree
+     * @return JSON string for the tree
+     */
+    public static String toJson(JsonElement tree) {
+        return WRITE_GSON.toJson(tree);
+    }
+
+    /**
+     * Serialize one section of a record to a tree, as for the edit journal.
+     *
+     * @param section Value of the section field on the record; may be null
+     * @param sectionType Generic type of the section field
+     * @return Tree for the section; JsonNull if the section is unset
+     */
+    public static JsonElement toSectionTree(Object section, Type sectionType) {
+        if (section == null) {
+            return JsonNull.INSTANCE;
+        }
+        return WRITE_GSON.toJsonTree(section, sectionType);
+    }
+
+    /**
+     * Deserialize one section of a record from a tree.
+     *
+     * @param tree Tree for the section
+     * @param sectionType Generic type of the section field to deserialize to
+     * @return Section object, or null on failure
+     */
+    public static Object readSection(JsonElement tree, Type sectionType) {
+        try {
+            return READ_GSON.fromJson(tree, sectionType);
+        } catch (JsonParseException ex) {
+            Log.e(LOG_LABEL, "Failed to parse record section from tree");
+            ex.printStackTrace();
+        }
+        return null;
+    }
 }
@@ -0,0 +1,114 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.util.Log;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Lookup tables from serialized value to constant for the schema's select list enums, so sets of
+ * them can be read without reflection.
+ *
+ * Enums are registered as the schema classes are loaded. An enum not registered by then, such
+ * as one of the built-in models, gets its table built the first time a set of it is read.
+ */
+public class EnumCodecRegistry {
+
+    private static final String LOG_LABEL = "EnumCodecRegistry";
+
+    // keyed by enum class, and by the set types seen for each enum
+    private static final Map<Class, EnumCodec> codecsByClass = new ConcurrentHashMap<>();
+    private static final Map<Type, EnumCodec> codecsBySetType = new ConcurrentHashMap<>();
+
+    /**
+     * Constants of an enum, by the value each serializes to.
+     */
+    public static class EnumCodec {
+        public final Class enumClass;
+        private final Map<String, Object> constants;
+
+        EnumCodec(Class enumClass) {
+            this.enumClass = enumClass;
+
+            // generated enums serialize to, and parse from, the value given by toString
+            Object[] enumConstants = enumClass.getEnumConstants();
+            Map<String, Object> byValue = new HashMap<>(enumConstants.length * 2);
+            for (Object constant : enumConstants) {
+                byValue.put(constant.toString(), constant);
+            }
+            constants = Collections.unmodifiableMap(byValue);
+        }
+
+        /**
+         * @param value Serialized value
+         * @return Matching constant, or null if the enum has no constant with the value
+         */
+        public Object fromValue(String value) {
+            return constants.get(value);
+        }
+    }
+
+    /**
+     * Build the table for an enum. Does nothing for classes that are not enums.
+     *
+     * @param enumClass Enum class, as loaded by the schema class loader
+     */
+    public static void register(Class enumClass) {
+        if (enumClass == null || !enumClass.isEnum()) {
+            return;
+        }
+        codecsByClass.put(enumClass, new EnumCodec(enumClass));
+    }
+
+    /**
+     * Forget registered enums, as when a new schema is loaded with a new class loader.
+     */
+    public static void clear() {
+        codecsByClass.clear();
+        codecsBySetType.clear();
+    }
+
+    /**
+     * Find the table for the element type of a set of enums.
+     *
+     * @param setType Generic type of the set field, such as Set&lt;SomeEnum&gt;
+     * @return Table for the enum, or null if the set's elements are not an enum
+     */
+    public static EnumCodec forSetType(Type setType) {
+        EnumCodec codec = codecsBySetType.get(setType);
+        if (codec != null) {
+            return codec;
+        }
+
+        Class elementClass = getElementClass(setType);
+        if (elementClass == null || !elementClass.isEnum()) {
+            Log.e(LOG_LABEL, "Set type " + setType + " does not hold an enum");
+            return null;
+        }
+
+        codec = codecsByClass.get(elementClass);
+        if (codec == null) {
+            Log.d(LOG_LABEL, "Registering enum not seen at schema load: " + elementClass.getName());
+            codec = new EnumCodec(elementClass);
+            codecsByClass.put(elementClass, codec);
+        }
+        codecsBySetType.put(setType, codec);
+        return codec;
+    }
+
+    private static Class getElementClass(Type setType) {
+        if (!(setType instanceof ParameterizedType)) {
+            return null;
+        }
+        Type[] arguments = ((ParameterizedType) setType).getActualTypeArguments();
+        if (arguments.length != 1 || !(arguments[0] instanceof Class)) {
+            return null;
+        }
+        return (Class) arguments[0];
+    }
+}
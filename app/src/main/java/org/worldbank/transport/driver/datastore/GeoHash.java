@@ -0,0 +1,118 @@
+package org.worldbank.transport.driver.datastore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+
+/**
+ * Geohash encoding for the spatial index on stored records. Nearby points share geohash prefixes,
+ * so an index on the geohash column can find the records in an area with a few range scans.
+ */
+public final class GeoHash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    // precision of stored geohashes; cells are about 5 meters across
+    public static final int STORED_PRECISION = 9;
+
+    // sorts after every base 32 character; appended to a prefix for the end of its range
+    static final String PREFIX_RANGE_END = "{";
+
+    private GeoHash() {}
+
+    /**
+     * Encode a point as a geohash.
+     *
+     * @param latitude Latitude of point
+     * @param longitude Longitude of point
+     * @param precision Number of characters in the geohash
+     * @return Geohash string
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90;
+        double maxLat = 90;
+        double minLon = -180;
+        double maxLon = 180;
+
+        char[] hash = new char[precision];
+        boolean isLongitudeBit = true;
+        int charIndex = 0;
+
+        for (int i = 0; i < precision; i++) {
+            for (int j = 0; j < 5; j++) {
+                charIndex <<= 1;
+                if (isLongitudeBit) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (longitude >= mid) {
+                        charIndex |= 1;
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (latitude >= mid) {
+                        charIndex |= 1;
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                isLongitudeBit = !isLongitudeBit;
+            }
+            hash[i] = BASE32[charIndex];
+            charIndex = 0;
+        }
+
+        return new String(hash);
+    }
+
+    /**
+     * Find geohash prefixes whose cells together cover a bounding box, using the longest prefixes
+     * that need no more than the given number of cells. The box must not cross the antimeridian.
+     *
+     * @param south Minimum latitude
+     * @param west Minimum longitude
+     * @param north Maximum latitude
+     * @param east Maximum longitude
+     * @param maxCells Most prefixes to return
+     * @return Sorted geohash prefixes, or null if the box is too big to cover with maxCells
+     */
+    public static List<String> coverBoundingBox(double south, double west, double north, double east, int maxCells) {
+        for (int precision = STORED_PRECISION; precision > 0; precision--) {
+            int lonBits = (5 * precision + 1) / 2;
+            int latBits = (5 * precision) / 2;
+            double cellWidth = 360.0 / (1L << lonBits);
+            double cellHeight = 180.0 / (1L << latBits);
+
+            long firstLat = cellIndex(south, -90, cellHeight, latBits);
+            long lastLat = cellIndex(north, -90, cellHeight, latBits);
+            long firstLon = cellIndex(west, -180, cellWidth, lonBits);
+            long lastLon = cellIndex(east, -180, cellWidth, lonBits);
+
+            if ((lastLat - firstLat + 1) * (lastLon - firstLon + 1) > maxCells) {
+                continue;
+            }
+
+            // encode the center of each covering cell
+            TreeSet<String> prefixes = new TreeSet<>();
+            for (long latIndex = firstLat; latIndex <= lastLat; latIndex++) {
+                double latitude = -90 + (latIndex + 0.5) * cellHeight;
+                for (long lonIndex = firstLon; lonIndex <= lastLon; lonIndex++) {
+                    double longitude = -180 + (lonIndex + 0.5) * cellWidth;
+                    prefixes.add(encode(latitude, longitude, precision));
+                }
+            }
+            return new ArrayList<>(prefixes);
+        }
+
+        return null;
+    }
+
+    private static long cellIndex(double value, double min, double cellSize, int bits) {
+        long index = (long) Math.floor((value - min) / cellSize);
+        long maxIndex = (1L << bits) - 1;
+        return Math.max(0, Math.min(index, maxIndex));
+    }
+}
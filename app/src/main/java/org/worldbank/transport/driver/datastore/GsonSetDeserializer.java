@@ -8,19 +8,17 @@ import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 
-import org.worldbank.transport.driver.staticmodels.DriverApp;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
-import it.necst.grabnrun.SecureDexClassLoader;
-
 /**
  * Custom deserializer to deal with Gson being able to serialize but not deserialize some collections.
  * https://sites.google.com/site/gson/gson-user-guide#TOC-Collections-Examples
+ *
+ * Sets in the schema hold select list enums; their constants are looked up in the
+ * {@link EnumCodecRegistry}.
+ *
  * Created by kathrynkillebrew on 3/14/16.
  */
 public class GsonSetDeserializer implements JsonDeserializer<Set> {
@@ -30,43 +28,24 @@ public class GsonSetDeserializer implements JsonDeserializer<Set> {
     @SuppressWarnings("unchecked")
     @Override
     public Set deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-        JsonArray array = json.getAsJsonArray();
-        Log.d(LOG_LABEL, "Type of set json: " + typeOfT.toString());
-
-        String typeString = typeOfT.toString();
-        String typeParam = typeString.substring(typeString.indexOf("<") + 1, typeString.lastIndexOf(">"));
-        Log.d(LOG_LABEL, "extracted type param: " + typeParam);
-
-        SecureDexClassLoader classLoader = DriverApp.getSchemaClassLoader();
-        try {
-            Class loadedClass = classLoader.loadClass(typeParam);
-            Method fromValueMethod = loadedClass.getDeclaredMethod("fromValue", String.class);
-
-            Set set = new LinkedHashSet(array.size());
+        EnumCodecRegistry.EnumCodec codec = EnumCodecRegistry.forSetType(typeOfT);
+        if (codec == null) {
+            return null;
+        }
 
-            int size = array.size();
-            for (int i = 0; i < size; i++) {
-                Log.d(LOG_LABEL, "Checked value found: " + array.get(i).getAsString());
-                Object checkedEnum = fromValueMethod.invoke(loadedClass, array.get(i).getAsString());
-                set.add(checkedEnum);
+        JsonArray array = json.getAsJsonArray();
+        int size = array.size();
+        Set set = new LinkedHashSet(size);
+        for (int i = 0; i < size; i++) {
+            String value = array.get(i).getAsString();
+            Object checkedEnum = codec.fromValue(value);
+            if (checkedEnum == null) {
+                Log.e(LOG_LABEL, "No constant for value " + value + " on enum class " + codec.enumClass.getName());
+                return null;
             }
-
-            return set;
-
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            Log.e(LOG_LABEL, "Failed to find extracted set class type " + typeParam);
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-            Log.e(LOG_LABEL, "Failed to find fromValue method on enum type " + typeParam);
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            Log.e(LOG_LABEL, "Could not invoke static fromValue method on enum class " + typeParam);
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            Log.e(LOG_LABEL, "Do not have access to invoke fromValue method on enum class " + typeParam);
+            set.add(checkedEnum);
         }
 
-        return null;
+        return set;
     }
 }
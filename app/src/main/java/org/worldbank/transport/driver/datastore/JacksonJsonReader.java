@@ -0,0 +1,227 @@
+package org.worldbank.transport.driver.datastore;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+
+/**
+ * Gson reader over the tokens of a Jackson parser, so Gson type adapters can read stored binary
+ * data straight into record objects, without building a Gson tree first.
+ *
+ * Gson reads the keys of map fields through internals of its own reader, which this reader
+ * cannot provide; such fields fail to read. Schema models do not have map fields.
+ */
+class JacksonJsonReader extends JsonReader {
+
+    private final JsonParser parser;
+
+    // token at the front of the reader, not yet consumed; null at the end of the data
+    private com.fasterxml.jackson.core.JsonToken current;
+
+    /**
+     * @param parser Parser positioned before the first token; closed with this reader
+     * @throws IOException if the first token cannot be read
+     */
+    JacksonJsonReader(JsonParser parser) throws IOException {
+        super(new StringReader(""));
+        this.parser = parser;
+        current = parser.nextToken();
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (current == null) {
+            return JsonToken.END_DOCUMENT;
+        }
+
+        switch (current) {
+            case START_OBJECT:
+                return JsonToken.BEGIN_OBJECT;
+            case END_OBJECT:
+                return JsonToken.END_OBJECT;
+            case START_ARRAY:
+                return JsonToken.BEGIN_ARRAY;
+            case END_ARRAY:
+                return JsonToken.END_ARRAY;
+            case FIELD_NAME:
+                return JsonToken.NAME;
+            case VALUE_STRING:
+                return JsonToken.STRING;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return JsonToken.NUMBER;
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return JsonToken.BOOLEAN;
+            case VALUE_NULL:
+                return JsonToken.NULL;
+            default:
+                throw new IOException("Unexpected token in record data: " + current);
+        }
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        advance();
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        advance();
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        advance();
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        String name = parser.getCurrentName();
+        advance();
+        return name;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+            throw new IllegalStateException("Expected a string but was " + token + " at " + getPath());
+        }
+        String value = parser.getText();
+        advance();
+        return value;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        boolean value = current == com.fasterxml.jackson.core.JsonToken.VALUE_TRUE;
+        advance();
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        advance();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        JsonToken token = peek();
+        double value;
+        if (token == JsonToken.NUMBER) {
+            value = parser.getDoubleValue();
+        } else if (token == JsonToken.STRING) {
+            value = Double.parseDouble(parser.getText());
+        } else {
+            throw new IllegalStateException("Expected a double but was " + token + " at " + getPath());
+        }
+        advance();
+        return value;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        long value;
+        if (current == com.fasterxml.jackson.core.JsonToken.VALUE_NUMBER_INT) {
+            value = parser.getLongValue();
+        } else {
+            double asDouble = nextDoubleValue("long");
+            value = (long) asDouble;
+            if (value != asDouble) {
+                throw new NumberFormatException("Expected a long but was " + asDouble + " at " + getPath());
+            }
+        }
+        advance();
+        return value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        int value;
+        if (current == com.fasterxml.jackson.core.JsonToken.VALUE_NUMBER_INT) {
+            value = parser.getIntValue();
+        } else {
+            double asDouble = nextDoubleValue("int");
+            value = (int) asDouble;
+            if (value != asDouble) {
+                throw new NumberFormatException("Expected an int but was " + asDouble + " at " + getPath());
+            }
+        }
+        advance();
+        return value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        if (current == com.fasterxml.jackson.core.JsonToken.START_OBJECT ||
+                current == com.fasterxml.jackson.core.JsonToken.START_ARRAY) {
+            // moves to the matching end token
+            parser.skipChildren();
+        }
+        advance();
+    }
+
+    @Override
+    public String getPath() {
+        return parser.getParsingContext().toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        current = null;
+        parser.close();
+        super.close();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at " + getPath();
+    }
+
+    /**
+     * Read the current number or string as a double, without consuming it.
+     */
+    private double nextDoubleValue(String expected) throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.NUMBER) {
+            return parser.getDoubleValue();
+        } else if (token == JsonToken.STRING) {
+            return Double.parseDouble(parser.getText());
+        }
+        throw new IllegalStateException("Expected " + expected + " but was " + token + " at " + getPath());
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (token != expected) {
+            throw new IllegalStateException("Expected " + expected + " but was " + token + " at " + getPath());
+        }
+    }
+
+    private void advance() throws IOException {
+        current = parser.nextToken();
+    }
+}
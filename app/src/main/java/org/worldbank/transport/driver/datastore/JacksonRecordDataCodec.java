@@ -0,0 +1,194 @@
+package org.worldbank.transport.driver.datastore;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+import org.worldbank.transport.driver.datastore.DriverRecordContract.RecordEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+
+/**
+ * Record data codecs backed by Jackson streaming parsers and generators. Gson trees are
+ * written token by token, so no intermediate JSON string is built for binary formats. Records are
+ * read through a Gson reader straight from the stored bytes.
+ */
+public class JacksonRecordDataCodec implements RecordDataCodec {
+
+    /**
+     * Plain JSON text. Rows stored before data formats were tracked are in this format.
+     */
+    public static final JacksonRecordDataCodec JSON = new JacksonRecordDataCodec(RecordEntry.DATA_FORMAT_JSON,
+            new JsonFactory(), true);
+
+    /**
+     * Smile binary JSON. Field names and short values repeated within a record, like the names of
+     * fields in each list item and their enum values, are written once and back-referenced.
+     */
+    public static final JacksonRecordDataCodec SMILE = new JacksonRecordDataCodec(RecordEntry.DATA_FORMAT_SMILE,
+            new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES), false);
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int format;
+    private final JsonFactory factory;
+    private final boolean isText;
+
+    private JacksonRecordDataCodec(int format, JsonFactory factory, boolean isText) {
+        this.format = format;
+        this.factory = factory;
+        this.isText = isText;
+    }
+
+    @Override
+    public int getFormat() {
+        return format;
+    }
+
+    @Override
+    public boolean isText() {
+        return isText;
+    }
+
+    @Override
+    public byte[] encode(JsonElement tree) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        JsonGenerator generator = factory.createGenerator(out);
+        try {
+            writeElement(generator, tree);
+        } finally {
+            generator.close();
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public JsonElement decode(byte[] data) throws IOException {
+        JsonParser parser = createParser(data);
+        try {
+            if (parser.nextToken() == null) {
+                throw new IOException("No record data to decode");
+            }
+            return readElement(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    @Override
+    public JsonParser createParser(byte[] data) throws IOException {
+        return factory.createParser(data);
+    }
+
+    @Override
+    public JsonReader createReader(byte[] data) throws IOException {
+        if (!isText) {
+            return new JacksonJsonReader(createParser(data));
+        }
+
+        // Gson reads JSON text itself, so every type adapter works as it does for any JSON
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(data), UTF_8));
+        // sections that are unset are stored as a bare null
+        reader.setLenient(true);
+        return reader;
+    }
+
+    private static void writeElement(JsonGenerator generator, JsonElement element) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            generator.writeNull();
+        } else if (element.isJsonObject()) {
+            generator.writeStartObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                writeElement(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (element.isJsonArray()) {
+            generator.writeStartArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                writeElement(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            writePrimitive(generator, element.getAsJsonPrimitive());
+        }
+    }
+
+    private static void writePrimitive(JsonGenerator generator, JsonPrimitive primitive) throws IOException {
+        if (primitive.isString()) {
+            generator.writeString(primitive.getAsString());
+        } else if (primitive.isBoolean()) {
+            generator.writeBoolean(primitive.getAsBoolean());
+        } else {
+            Number number = primitive.getAsNumber();
+            if (number instanceof Integer || number instanceof Long ||
+                    number instanceof Short || number instanceof Byte) {
+                generator.writeNumber(number.longValue());
+            } else if (number instanceof Double || number instanceof Float) {
+                generator.writeNumber(number.doubleValue());
+            } else if (number instanceof BigInteger) {
+                generator.writeNumber((BigInteger) number);
+            } else if (number instanceof BigDecimal) {
+                generator.writeNumber((BigDecimal) number);
+            } else {
+                // numbers parsed by Gson keep their original text
+                generator.writeNumber(new BigDecimal(number.toString()));
+            }
+        }
+    }
+
+    /**
+     * Read the value at the parser's current token.
+     */
+    private static JsonElement readElement(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        switch (token) {
+            case START_OBJECT:
+                JsonObject object = new JsonObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    object.add(name, readElement(parser));
+                }
+                return object;
+            case START_ARRAY:
+                JsonArray array = new JsonArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(readElement(parser));
+                }
+                return array;
+            case VALUE_STRING:
+                return new JsonPrimitive(parser.getText());
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return new JsonPrimitive(parser.getNumberValue());
+            case VALUE_TRUE:
+                return new JsonPrimitive(true);
+            case VALUE_FALSE:
+                return new JsonPrimitive(false);
+            case VALUE_NULL:
+                return JsonNull.INSTANCE;
+            default:
+                throw new IOException("Unexpected token in record data: " + token);
+        }
+    }
+}
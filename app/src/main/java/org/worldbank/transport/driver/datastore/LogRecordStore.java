@@ -0,0 +1,947 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.location.Location;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+/**
+ * Record store that only ever appends to its files, for capturing many records quickly.
+ *
+ * Every write appends an entry to the active segment file: the whole record for an add or
+ * update, or a tombstone for a delete. Writes of several records are appended as one batch
+ * entry, so they land together or not at all. An in-memory index maps each record ID to its
+ * latest entry, and is rebuilt by reading the segments when the store is opened; a torn entry
+ * at the end of a segment, from being killed mid-write, is cut off then.
+ *
+ * Once the active segment fills, a new one is started. When enough of the full segments is
+ * taken up by replaced or deleted records, they are compacted on a background thread: the
+ * entries still in use are copied into one new segment, and the old segments are removed.
+ * Each entry has a sequence number, so the latest entry for a record wins however the
+ * segments are ordered.
+ *
+ * There are no secondary indexes; use {@link RecordDatabaseManager} where the record list,
+ * search, or location queries are needed.
+ */
+public class LogRecordStore implements RecordStore {
+
+    private static final String LOG_LABEL = "LogRecordStore";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final long DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    // compact full segments once at least this much of them, and at least this share, is dead
+    private static final long COMPACTION_MIN_DEAD_BYTES = 256 * 1024;
+    private static final double COMPACTION_DEAD_RATIO = 0.5;
+
+    // how long close waits for a compaction in progress
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTING_SUFFIX = ".tmp";
+
+    private static final byte ENTRY_PUT = 1;
+    private static final byte ENTRY_DELETE = 2;
+    // holds other entries, which are applied together
+    private static final byte ENTRY_BATCH = 3;
+    // keeps the highest record ID and sequence assigned, when compaction drops the entries for them
+    private static final byte ENTRY_MARK = 4;
+
+    // type, sequence, record ID, payload length; followed by payload and CRC of it all
+    private static final int HEADER_BYTES = 1 + 8 + 8 + 4;
+    private static final int CRC_BYTES = 4;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final ExecutorService compactor;
+    // held for the whole of a compaction, so only one runs at a time
+    private final Object compactionLock = new Object();
+
+    // everything below is guarded by lock
+    private final Object lock = new Object();
+    private final Map<Long, EntryLocation> index = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private int nextSegmentNumber;
+    private long nextSequence = 1;
+    private long nextRecordId = 1;
+    private boolean compactionScheduled;
+    private boolean closed;
+
+    /**
+     * One segment file. Only the active segment is appended to; the others do not change
+     * until they are compacted away.
+     */
+    private static class Segment {
+        final int number;
+        final File file;
+        final RandomAccessFile randomAccessFile;
+        final FileChannel channel;
+        long size;
+        // bytes of entries the index points to
+        long liveBytes;
+
+        Segment(int number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+            size = channel.size();
+        }
+
+        void close() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                Log.e(LOG_LABEL, "Failed to close segment " + file.getName());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Where the latest entry for a record is.
+     */
+    private static class EntryLocation {
+        final Segment segment;
+        final long offset;
+        final int length;
+        final long sequence;
+        final boolean deleted;
+
+        EntryLocation(Segment segment, long offset, int length, long sequence, boolean deleted) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.sequence = sequence;
+            this.deleted = deleted;
+        }
+    }
+
+    /**
+     * Record fields as kept in a put entry.
+     */
+    private static class Payload {
+        String schemaVersion;
+        long enteredAt;
+        long updatedAt;
+        DriverConstantFields constants;
+        int dataFormat;
+        byte[] data;
+    }
+
+    /**
+     * Open the store in a directory, reading any segments already there.
+     *
+     * @param directory Directory for the segment files; created if missing
+     * @throws IOException if the directory or its segments cannot be opened
+     */
+    public LogRecordStore(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param directory Directory for the segment files; created if missing
+     * @param segmentBytes Size at which to start a new segment
+     * @throws IOException if the directory or its segments cannot be opened
+     */
+    public LogRecordStore(File directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create record log directory " + directory);
+        }
+
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "RecordLogCompactor");
+            }
+        });
+
+        synchronized (lock) {
+            openSegments();
+        }
+    }
+
+    ////////////////////////////////////
+    // Reading segments back
+    ////////////////////////////////////
+
+    private void openSegments() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(COMPACTING_SUFFIX)) {
+                    // compaction did not finish; the segments it was replacing are still there
+                    Log.w(LOG_LABEL, "Removing unfinished compacted segment " + name);
+                    if (!file.delete()) {
+                        Log.e(LOG_LABEL, "Could not remove " + name);
+                    }
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(number, new Segment(number, file));
+                }
+            }
+        }
+
+        // latest entry for each record, including deletes, until every segment has been read
+        Map<Long, EntryLocation> latest = new HashMap<>();
+        for (Segment segment : segments.values()) {
+            replaySegment(segment, latest);
+        }
+
+        for (Map.Entry<Long, EntryLocation> entry : latest.entrySet()) {
+            EntryLocation location = entry.getValue();
+            if (!location.deleted) {
+                index.put(entry.getKey(), location);
+                location.segment.liveBytes += location.length;
+            }
+        }
+
+        if (segments.isEmpty()) {
+            nextSegmentNumber = 1;
+            active = startSegment();
+        } else {
+            active = segments.lastEntry().getValue();
+            nextSegmentNumber = active.number + 1;
+        }
+
+        Log.d(LOG_LABEL, "Opened " + segments.size() + " segments with " + index.size() + " records");
+    }
+
+    /**
+     * Read every entry in a segment into the map of latest entries. Cuts the segment off at
+     * the first entry that is incomplete or fails its check.
+     */
+    private void replaySegment(Segment segment, Map<Long, EntryLocation> latest) throws IOException {
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+
+        while (offset < segment.size) {
+            header.clear();
+            if (!readFully(segment.channel, header, offset)) {
+                break;
+            }
+            header.flip();
+            byte type = header.get();
+            header.getLong();
+            header.getLong();
+            int payloadLength = header.getInt();
+
+            long entryLength = (long) HEADER_BYTES + payloadLength + CRC_BYTES;
+            if (payloadLength < 0 || offset + entryLength > segment.size) {
+                break;
+            }
+
+            byte[] entry = new byte[(int) entryLength];
+            if (!readFully(segment.channel, ByteBuffer.wrap(entry), offset) || !checkEntry(entry, 0, entry.length)) {
+                break;
+            }
+
+            if (type == ENTRY_BATCH) {
+                int innerOffset = HEADER_BYTES;
+                while (innerOffset < HEADER_BYTES + payloadLength) {
+                    int innerLength = getEntryLength(entry, innerOffset);
+                    replayEntry(segment, offset + innerOffset, entry, innerOffset, innerLength, latest);
+                    innerOffset += innerLength;
+                }
+            } else {
+                replayEntry(segment, offset, entry, 0, entry.length, latest);
+            }
+            offset += entryLength;
+        }
+
+        if (offset < segment.size) {
+            Log.w(LOG_LABEL, "Cutting off torn entry at " + offset + " in " + segment.file.getName());
+            segment.channel.truncate(offset);
+            segment.size = offset;
+        }
+    }
+
+    private void replayEntry(Segment segment, long segmentOffset, byte[] buffer, int start, int length,
+                             Map<Long, EntryLocation> latest) {
+        ByteBuffer header = ByteBuffer.wrap(buffer, start, HEADER_BYTES);
+        byte type = header.get();
+        long sequence = header.getLong();
+        long recordId = header.getLong();
+
+        nextSequence = Math.max(nextSequence, sequence + 1);
+        nextRecordId = Math.max(nextRecordId, recordId + 1);
+        if (type == ENTRY_MARK) {
+            segment.liveBytes += length;
+            return;
+        }
+
+        EntryLocation existing = latest.get(recordId);
+        if (existing == null || existing.sequence < sequence) {
+            latest.put(recordId, new EntryLocation(segment, segmentOffset, length, sequence, type == ENTRY_DELETE));
+        }
+    }
+
+    private static int getEntryLength(byte[] buffer, int start) {
+        return HEADER_BYTES + ByteBuffer.wrap(buffer, start + HEADER_BYTES - 4, 4).getInt() + CRC_BYTES;
+    }
+
+    private static boolean checkEntry(byte[] buffer, int start, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer, start, length - CRC_BYTES);
+        int stored = ByteBuffer.wrap(buffer, start + length - CRC_BYTES, CRC_BYTES).getInt();
+        return stored == (int) crc.getValue();
+    }
+
+    /**
+     * Read until the buffer is full.
+     *
+     * @return False if the end of the file came first
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    ////////////////////////////////////
+    // Writing
+    ////////////////////////////////////
+
+    @Override
+    public long addRecord(RecordDatabaseManager.RecordRow row) {
+        List<RecordDatabaseManager.RecordRow> rows = new ArrayList<>(1);
+        rows.add(row);
+        long[] ids = addRecords(rows);
+        return ids != null ? ids[0] : -1;
+    }
+
+    @Override
+    public long[] addRecords(List<RecordDatabaseManager.RecordRow> rows) {
+        synchronized (lock) {
+            long[] ids = new long[rows.size()];
+            List<byte[]> entries = new ArrayList<>(rows.size());
+            long now = System.currentTimeMillis();
+
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    RecordDatabaseManager.RecordRow row = rows.get(i);
+                    Payload payload = new Payload();
+                    payload.schemaVersion = row.schemaVersion;
+                    payload.enteredAt = now;
+                    payload.constants = row.constants;
+                    setData(payload, row, null);
+
+                    ids[i] = nextRecordId + i;
+                    entries.add(buildEntry(ENTRY_PUT, nextSequence + i, ids[i], encodePayload(payload)));
+                }
+                appendEntries(entries, ids, false);
+            } catch (Exception e) {
+                Log.e(LOG_LABEL, "Failed to add records to log");
+                e.printStackTrace();
+                return null;
+            }
+
+            nextRecordId += ids.length;
+            return ids;
+        }
+    }
+
+    @Override
+    public int updateRecord(RecordDatabaseManager.RecordRow row, long recordId) {
+        synchronized (lock) {
+            EntryLocation location = index.get(recordId);
+            if (location == null) {
+                Log.e(LOG_LABEL, "No record to update with ID " + recordId);
+                return 0;
+            }
+
+            try {
+                Payload previous = readPayload(location);
+                Payload payload = new Payload();
+                payload.schemaVersion = previous.schemaVersion;
+                payload.enteredAt = previous.enteredAt;
+                payload.updatedAt = System.currentTimeMillis();
+                payload.constants = mergeConstants(previous.constants, row.constants);
+                setData(payload, row, previous);
+
+                List<byte[]> entries = new ArrayList<>(1);
+                entries.add(buildEntry(ENTRY_PUT, nextSequence, recordId, encodePayload(payload)));
+                appendEntries(entries, new long[] { recordId }, false);
+                return 1;
+            } catch (Exception e) {
+                Log.e(LOG_LABEL, "Failed to update record " + recordId + " in log");
+                e.printStackTrace();
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public boolean deleteRecord(long recordId) {
+        return deleteRecords(new long[] { recordId }) == 1;
+    }
+
+    @Override
+    public int deleteRecords(long[] recordIds) {
+        synchronized (lock) {
+            List<byte[]> entries = new ArrayList<>(recordIds.length);
+            List<Long> deletedIds = new ArrayList<>(recordIds.length);
+            for (long recordId : recordIds) {
+                if (index.containsKey(recordId) && !deletedIds.contains(recordId)) {
+                    entries.add(buildEntry(ENTRY_DELETE, nextSequence + entries.size(), recordId, new byte[0]));
+                    deletedIds.add(recordId);
+                }
+            }
+
+            long[] ids = new long[deletedIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = deletedIds.get(i);
+            }
+
+            try {
+                appendEntries(entries, ids, true);
+            } catch (IOException e) {
+                Log.e(LOG_LABEL, "Failed to delete records from log");
+                e.printStackTrace();
+                return -1;
+            }
+            return ids.length;
+        }
+    }
+
+    /**
+     * Set the data of a payload from a row to write. Sections are applied to the previous data.
+     */
+    private static void setData(Payload payload, RecordDatabaseManager.RecordRow row, Payload previous) throws IOException {
+        if (row.sections == null) {
+            if (row.data != null) {
+                payload.dataFormat = DriverRecordContract.RecordEntry.DATA_FORMAT_JSON;
+                payload.data = row.data.getBytes(UTF_8);
+            } else {
+                payload.dataFormat = row.codec.getFormat();
+                payload.data = row.encodedData;
+            }
+            return;
+        }
+
+        JsonObject tree = null;
+        if (previous != null) {
+            JsonElement previousTree = decodeData(previous);
+            if (previousTree != null && previousTree.isJsonObject()) {
+                tree = previousTree.getAsJsonObject();
+            }
+        }
+        if (tree == null) {
+            tree = new JsonObject();
+        }
+
+        for (RecordDatabaseManager.SectionRow section : row.sections) {
+            if (section.data == null) {
+                tree.remove(section.name);
+            } else {
+                tree.add(section.name, row.codec.decode(section.data));
+            }
+        }
+        payload.dataFormat = row.codec.getFormat();
+        payload.data = row.codec.encode(tree);
+    }
+
+    /**
+     * Unset nullable fields are left as they were, as for an update in the database.
+     */
+    private static DriverConstantFields mergeConstants(DriverConstantFields previous, DriverConstantFields update) {
+        DriverConstantFields merged = new DriverConstantFields();
+        merged.occurredFrom = update.occurredFrom;
+        merged.location = update.location != null ? update.location : previous.location;
+        merged.Weather = update.Weather != null ? update.Weather : previous.Weather;
+        merged.Light = update.Light != null ? update.Light : previous.Light;
+        return merged;
+    }
+
+    /**
+     * Append entries to the active segment, as one batch entry if there are several, and point
+     * the index at them. Call holding the lock.
+     *
+     * @param entries Entries to append, with sequence numbers from nextSequence on
+     * @param recordIds Record ID for each entry
+     * @param deletes True if the entries are deletes
+     */
+    private void appendEntries(List<byte[]> entries, long[] recordIds, boolean deletes) throws IOException {
+        if (closed) {
+            throw new IOException("Record log is closed");
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        byte[] toWrite;
+        int firstEntryOffset;
+        if (entries.size() == 1) {
+            toWrite = entries.get(0);
+            firstEntryOffset = 0;
+        } else {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            for (byte[] entry : entries) {
+                batch.write(entry);
+            }
+            toWrite = buildEntry(ENTRY_BATCH, nextSequence + entries.size() - 1, -1, batch.toByteArray());
+            firstEntryOffset = HEADER_BYTES;
+        }
+
+        long writeOffset = active.size;
+        ByteBuffer buffer = ByteBuffer.wrap(toWrite);
+        while (buffer.hasRemaining()) {
+            active.channel.write(buffer, writeOffset + buffer.position());
+        }
+        active.size += toWrite.length;
+
+        long entryOffset = writeOffset + firstEntryOffset;
+        for (int i = 0; i < entries.size(); i++) {
+            int length = entries.get(i).length;
+            EntryLocation previous;
+            if (deletes) {
+                previous = index.remove(recordIds[i]);
+            } else {
+                EntryLocation location = new EntryLocation(active, entryOffset, length, nextSequence + i, false);
+                previous = index.put(recordIds[i], location);
+                active.liveBytes += length;
+            }
+            if (previous != null) {
+                previous.segment.liveBytes -= previous.length;
+            }
+            entryOffset += length;
+        }
+        nextSequence += entries.size();
+
+        if (active.size >= segmentBytes) {
+            active = startSegment();
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    private Segment startSegment() throws IOException {
+        int number = nextSegmentNumber++;
+        Segment segment = new Segment(number, segmentFile(number, false));
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private File segmentFile(int number, boolean compacting) {
+        String name = SEGMENT_PREFIX + String.format("%06d", number) + SEGMENT_SUFFIX;
+        if (compacting) {
+            name += COMPACTING_SUFFIX;
+        }
+        return new File(directory, name);
+    }
+
+    private static byte[] buildEntry(byte type, long sequence, long recordId, byte[] payload) {
+        ByteBuffer entry = ByteBuffer.allocate(HEADER_BYTES + payload.length + CRC_BYTES);
+        entry.put(type);
+        entry.putLong(sequence);
+        entry.putLong(recordId);
+        entry.putInt(payload.length);
+        entry.put(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), 0, entry.position());
+        entry.putInt((int) crc.getValue());
+        return entry.array();
+    }
+
+    private static byte[] encodePayload(Payload payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.data.length + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(payload.schemaVersion);
+        out.writeLong(payload.enteredAt);
+        out.writeLong(payload.updatedAt);
+
+        DriverConstantFields constants = payload.constants;
+        out.writeLong(constants.occurredFrom.getTime());
+        out.writeBoolean(constants.location != null);
+        if (constants.location != null) {
+            out.writeDouble(constants.location.getLatitude());
+            out.writeDouble(constants.location.getLongitude());
+        }
+        out.writeUTF(constants.Weather != null ? constants.Weather.toString() : "");
+        out.writeUTF(constants.Light != null ? constants.Light.toString() : "");
+
+        out.writeInt(payload.dataFormat);
+        out.writeInt(payload.data.length);
+        out.write(payload.data);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    ////////////////////////////////////
+    // Reading
+    ////////////////////////////////////
+
+    @Override
+    public StoredRecord readRecord(long recordId) {
+        synchronized (lock) {
+            EntryLocation location = index.get(recordId);
+            if (location == null) {
+                return null;
+            }
+            return readStoredRecord(recordId, location);
+        }
+    }
+
+    @Override
+    public void scanRecords(RecordVisitor visitor) {
+        Long[] recordIds;
+        synchronized (lock) {
+            recordIds = index.keySet().toArray(new Long[index.size()]);
+        }
+        // by ID, so records come back in the order added
+        Arrays.sort(recordIds);
+
+        for (Long recordId : recordIds) {
+            // look up again, as a write or compaction may have moved the record since
+            StoredRecord record = readRecord(recordId);
+            if (record != null && !visitor.visit(record)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getRecordCount() {
+        synchronized (lock) {
+            return index.size();
+        }
+    }
+
+    /**
+     * Call holding the lock.
+     */
+    private StoredRecord readStoredRecord(long recordId, EntryLocation location) {
+        try {
+            Payload payload = readPayload(location);
+            return new StoredRecord(recordId, payload.schemaVersion, payload.constants, decodeData(payload),
+                    payload.enteredAt, payload.updatedAt);
+        } catch (IOException e) {
+            Log.e(LOG_LABEL, "Failed to read record " + recordId + " from log");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static Payload readPayload(EntryLocation location) throws IOException {
+        byte[] entry = new byte[location.length];
+        if (!readFully(location.segment.channel, ByteBuffer.wrap(entry), location.offset)) {
+            throw new IOException("Record entry runs past the end of " + location.segment.file.getName());
+        }
+        if (!checkEntry(entry, 0, entry.length)) {
+            throw new IOException("Record entry in " + location.segment.file.getName() + " is corrupt");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry, HEADER_BYTES,
+                entry.length - HEADER_BYTES - CRC_BYTES));
+        Payload payload = new Payload();
+        payload.schemaVersion = in.readUTF();
+        payload.enteredAt = in.readLong();
+        payload.updatedAt = in.readLong();
+
+        DriverConstantFields constants = new DriverConstantFields();
+        constants.occurredFrom = new Date(in.readLong());
+        if (in.readBoolean()) {
+            constants.location = new Location("");
+            constants.location.setLatitude(in.readDouble());
+            constants.location.setLongitude(in.readDouble());
+        }
+        String weather = in.readUTF();
+        String light = in.readUTF();
+        try {
+            if (!weather.isEmpty()) {
+                constants.Weather = DriverConstantFields.WeatherEnum.fromValue(weather);
+            }
+            if (!light.isEmpty()) {
+                constants.Light = DriverConstantFields.LightEnum.fromValue(light);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_LABEL, "Unrecognized weather or light value in log");
+            e.printStackTrace();
+        }
+        payload.constants = constants;
+
+        payload.dataFormat = in.readInt();
+        payload.data = new byte[in.readInt()];
+        in.readFully(payload.data);
+        return payload;
+    }
+
+    private static JsonElement decodeData(Payload payload) {
+        RecordDataCodec codec = DriverSchemaSerializer.getCodec(payload.dataFormat);
+        if (codec == null) {
+            return null;
+        }
+        try {
+            return codec.decode(payload.data);
+        } catch (IOException e) {
+            Log.e(LOG_LABEL, "Failed to decode record data from log");
+            return null;
+        }
+    }
+
+    ////////////////////////////////////
+    // Compaction
+    ////////////////////////////////////
+
+    /**
+     * @return Bytes of full segments taken up by replaced and deleted records
+     */
+    public long getDeadBytes() {
+        synchronized (lock) {
+            long dead = 0;
+            for (Segment segment : segments.values()) {
+                if (segment != active) {
+                    dead += segment.size - segment.liveBytes;
+                }
+            }
+            return dead;
+        }
+    }
+
+    /**
+     * @return Number of segment files
+     */
+    public int getSegmentCount() {
+        synchronized (lock) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Call holding the lock.
+     */
+    private void scheduleCompactionIfNeeded() {
+        long total = 0;
+        long dead = 0;
+        for (Segment segment : segments.values()) {
+            if (segment != active) {
+                total += segment.size;
+                dead += segment.size - segment.liveBytes;
+            }
+        }
+
+        if (!compactionScheduled && dead >= COMPACTION_MIN_DEAD_BYTES && dead >= total * COMPACTION_DEAD_RATIO) {
+            Log.d(LOG_LABEL, "Scheduling compaction of " + dead + " dead bytes of " + total);
+            compactionScheduled = true;
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        compactionScheduled = false;
+                    }
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Copy the records still in use in the full segments into one new segment, and remove the
+     * full segments. Reads and writes carry on while the records are copied. Runs in the
+     * background when enough of the full segments is dead; call directly to compact now, after
+     * any compaction already running.
+     *
+     * @return True if segments were compacted
+     */
+    public boolean compact() {
+        synchronized (compactionLock) {
+            return compactSegments();
+        }
+    }
+
+    private boolean compactSegments() {
+        List<Segment> toCompact = new ArrayList<>();
+        List<Long> liveIds = new ArrayList<>();
+        List<EntryLocation> liveLocations = new ArrayList<>();
+        int number;
+        long markRecordId;
+        long markSequence;
+
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            for (Segment segment : segments.values()) {
+                if (segment != active) {
+                    toCompact.add(segment);
+                }
+            }
+            if (toCompact.isEmpty()) {
+                return false;
+            }
+
+            for (Map.Entry<Long, EntryLocation> entry : index.entrySet()) {
+                if (entry.getValue().segment != active) {
+                    liveIds.add(entry.getKey());
+                    liveLocations.add(entry.getValue());
+                }
+            }
+            number = nextSegmentNumber++;
+            markRecordId = nextRecordId - 1;
+            markSequence = nextSequence - 1;
+        }
+
+        long startTime = System.nanoTime();
+        Segment compacted = null;
+        try {
+            File compactingFile = segmentFile(number, true);
+            RandomAccessFile out = new RandomAccessFile(compactingFile, "rw");
+            long[] newOffsets = new long[liveLocations.size()];
+            try {
+                FileChannel outChannel = out.getChannel();
+                // deletes are not copied, so keep the highest ID and sequence assigned
+                long offset = writeFully(outChannel, buildEntry(ENTRY_MARK, markSequence, markRecordId, new byte[0]), 0);
+
+                // full segments do not change, so their entries can be read without the lock
+                for (int i = 0; i < liveLocations.size(); i++) {
+                    EntryLocation location = liveLocations.get(i);
+                    byte[] entry = new byte[location.length];
+                    if (!readFully(location.segment.channel, ByteBuffer.wrap(entry), location.offset)) {
+                        throw new IOException("Entry to compact runs past the end of its segment");
+                    }
+                    newOffsets[i] = offset;
+                    offset += writeFully(outChannel, entry, offset);
+                }
+                outChannel.force(true);
+            } finally {
+                out.close();
+            }
+
+            File segmentFile = segmentFile(number, false);
+            if (!compactingFile.renameTo(segmentFile)) {
+                throw new IOException("Could not rename compacted segment");
+            }
+            compacted = new Segment(number, segmentFile);
+            compacted.liveBytes = newOffsets.length > 0 ? newOffsets[0] : compacted.size;
+
+            synchronized (lock) {
+                for (int i = 0; i < liveIds.size(); i++) {
+                    // records written since the copy started keep their newer entries
+                    EntryLocation location = liveLocations.get(i);
+                    if (index.get(liveIds.get(i)) == location) {
+                        index.put(liveIds.get(i), new EntryLocation(compacted, newOffsets[i], location.length,
+                                location.sequence, false));
+                        compacted.liveBytes += location.length;
+                    }
+                }
+                for (Segment segment : toCompact) {
+                    segments.remove(segment.number);
+                    segment.close();
+                    if (!segment.file.delete()) {
+                        Log.e(LOG_LABEL, "Could not remove compacted segment " + segment.file.getName());
+                    }
+                }
+                segments.put(number, compacted);
+            }
+
+            Log.d(LOG_LABEL, "Compacted " + toCompact.size() + " segments to " + liveIds.size() + " records in " +
+                    ((System.nanoTime() - startTime) / 1000000) + " ms");
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_LABEL, "Record log compaction failed");
+            e.printStackTrace();
+            if (compacted != null) {
+                compacted.close();
+            }
+            return false;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, byte[] bytes, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        return bytes.length;
+    }
+
+    ////////////////////////////////////
+    // Lifecycle
+    ////////////////////////////////////
+
+    @Override
+    public void checkpoint() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            try {
+                active.channel.force(false);
+            } catch (IOException e) {
+                Log.e(LOG_LABEL, "Failed to sync record log");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Log.w(LOG_LABEL, "Interrupted waiting for compaction to finish");
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            checkpoint();
+            closed = true;
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            index.clear();
+        }
+    }
+}
@@ -0,0 +1,557 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * Moves records between devices without a network, as a single zip archive.
+ *
+ * The archive holds a compressed records entry of newline-delimited JSON, one record per line
+ * after a header line, followed by an entry for each media file the records refer to. Values of
+ * the media fields in the record data are replaced with the names of their archive entries, and
+ * resolved against the media directory on import. Media fields are those of the database
+ * manager's schema; see {@link RecordDatabaseManager#getMediaFields()}.
+ *
+ * Records are streamed through one at a time on export and in batches on import, so memory use
+ * does not grow with the number of records.
+ */
+public class RecordArchive {
+
+    private static final String LOG_LABEL = "RecordArchive";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String RECORDS_ENTRY = "records.ndjson";
+    static final String MEDIA_PREFIX = "media/";
+
+    private static final int ARCHIVE_VERSION = 1;
+
+    // records added per transaction on import
+    public static final int IMPORT_BATCH_SIZE = 50;
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    // members of the header line
+    private static final String KEY_VERSION = "archive_version";
+    private static final String KEY_RECORD_COUNT = "record_count";
+
+    // members of each record line
+    private static final String KEY_SCHEMA_VERSION = "schema_version";
+    private static final String KEY_CONSTANTS = "constants";
+    private static final String KEY_DATA = "data";
+
+    /**
+     * Counts and timing for an export or import.
+     */
+    public static class Stats {
+        public int records;
+        public int mediaFiles;
+        // archive bytes written or read
+        public long bytes;
+        public long elapsedMillis;
+
+        public double getRecordsPerSecond() {
+            return elapsedMillis > 0 ? records * 1000.0 / elapsedMillis : 0;
+        }
+
+        public double getBytesPerSecond() {
+            return elapsedMillis > 0 ? bytes * 1000.0 / elapsedMillis : 0;
+        }
+
+        @Override
+        public String toString() {
+            return records + " records and " + mediaFiles + " media files, " + bytes + " bytes in " +
+                    elapsedMillis + " ms (" + Math.round(getRecordsPerSecond()) + " records/s, " +
+                    Math.round(getBytesPerSecond() / 1024) + " KB/s)";
+        }
+    }
+
+    private RecordArchive() {}
+
+    /**
+     * Write records and their media to an archive. Closes the stream when done.
+     *
+     * @param manager Database manager to read record data with
+     * @param records Cursor from one of the record queries over the records to export; not closed
+     * @param out Stream to write the archive to
+     * @return Counts and timing of the export
+     * @throws IOException on failure to write the archive
+     */
+    public static Stats export(RecordDatabaseManager manager, Cursor records, OutputStream out) throws IOException {
+        Stats stats = new Stats();
+        long startTime = SystemClock.elapsedRealtime();
+
+        RecordSummary.MediaFields mediaFields = manager.getMediaFields();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(counter));
+        try {
+            MediaExport mediaExport = new MediaExport();
+
+            zip.putNextEntry(new ZipEntry(RECORDS_ENTRY));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(zip, UTF_8));
+
+            JsonObject header = new JsonObject();
+            header.addProperty(KEY_VERSION, ARCHIVE_VERSION);
+            header.addProperty(KEY_RECORD_COUNT, records.getCount());
+            writeLine(writer, header);
+
+            int schemaColumn = records.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION);
+            int idColumn = records.getColumnIndexOrThrow(DriverRecordContract.RecordEntry._ID);
+            records.moveToPosition(-1);
+            while (records.moveToNext()) {
+                JsonElement data = manager.readRecordTree(records);
+                if (data == null) {
+                    Log.e(LOG_LABEL, "Skipping record " + records.getLong(idColumn) + " with unreadable data");
+                    continue;
+                }
+
+                JsonObject line = new JsonObject();
+                line.addProperty(KEY_SCHEMA_VERSION, records.getString(schemaColumn));
+                line.add(KEY_CONSTANTS, RecordJournal.constantsTree(manager.readStoredConstants(records)));
+                mapMediaValues(data, mediaFields, mediaExport);
+                line.add(KEY_DATA, data);
+                writeLine(writer, line);
+                stats.records++;
+            }
+
+            // flush without closing, which would close the archive
+            writer.flush();
+            zip.closeEntry();
+
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            for (Map.Entry<String, String> media : mediaExport.entriesByPath.entrySet()) {
+                InputStream mediaIn = new FileInputStream(media.getKey());
+                try {
+                    zip.putNextEntry(new ZipEntry(media.getValue()));
+                    copy(mediaIn, zip, buffer);
+                    zip.closeEntry();
+                    stats.mediaFiles++;
+                } finally {
+                    mediaIn.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+
+        stats.bytes = counter.count;
+        stats.elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+        Log.d(LOG_LABEL, "Exported " + stats);
+        return stats;
+    }
+
+    /**
+     * Add the records in an archive to the database, and copy its media into the media
+     * directory. Records are added in batches of {@link #IMPORT_BATCH_SIZE}, each in its own
+     * transaction; if a batch fails, the batches before it stay imported. A media file whose
+     * name is already taken in the media directory is imported under a new name, and the records
+     * refer to it by that name. Closes the stream when done.
+     *
+     * @param manager Database manager to add records with
+     * @param in Stream to read the archive from
+     * @param mediaDir Directory to copy media into; created if missing
+     * @return Counts and timing of the import
+     * @throws IOException on failure to read the archive, or to add records or media from it
+     */
+    public static Stats importArchive(RecordDatabaseManager manager, InputStream in, File mediaDir) throws IOException {
+        Stats stats = new Stats();
+        long startTime = SystemClock.elapsedRealtime();
+
+        if (!mediaDir.isDirectory() && !mediaDir.mkdirs()) {
+            throw new IOException("Could not create media directory " + mediaDir);
+        }
+
+        MediaImport mediaImport = new MediaImport(mediaDir);
+        CountingInputStream counter = new CountingInputStream(in);
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(counter));
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (RECORDS_ENTRY.equals(name)) {
+                    stats.records += importRecords(manager, zip, mediaImport);
+                } else if (name.startsWith(MEDIA_PREFIX) && !entry.isDirectory()) {
+                    importMedia(zip, mediaImport.getFile(name), buffer);
+                    stats.mediaFiles++;
+                } else {
+                    Log.w(LOG_LABEL, "Skipping unrecognized archive entry " + name);
+                }
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+
+        stats.bytes = counter.count;
+        stats.elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+        Log.d(LOG_LABEL, "Imported " + stats);
+        return stats;
+    }
+
+    /**
+     * Read the records entry line by line, adding records in batches.
+     *
+     * @return Number of records added
+     */
+    private static int importRecords(RecordDatabaseManager manager, InputStream entryIn, MediaImport mediaImport)
+            throws IOException {
+        // not closed; closing would close the archive
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entryIn, UTF_8));
+        RecordDataCodec codec = DriverSchemaSerializer.getStorageCodec();
+        RecordSummary.MediaFields mediaFields = manager.getMediaFields();
+        JsonParser parser = new JsonParser();
+        List<RecordDatabaseManager.RecordRow> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        int imported = 0;
+
+        String line;
+        boolean haveHeader = false;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            JsonObject object;
+            try {
+                object = parser.parse(line).getAsJsonObject();
+            } catch (JsonParseException e) {
+                throw new IOException("Archive has a line that is not JSON", e);
+            } catch (IllegalStateException e) {
+                throw new IOException("Archive has a line that is not an object", e);
+            }
+
+            if (!haveHeader) {
+                checkHeader(object);
+                haveHeader = true;
+                continue;
+            }
+
+            batch.add(readRecordLine(object, mediaFields, mediaImport, codec));
+            if (batch.size() == IMPORT_BATCH_SIZE) {
+                imported += addBatch(manager, batch);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            imported += addBatch(manager, batch);
+        }
+        return imported;
+    }
+
+    private static void checkHeader(JsonObject header) throws IOException {
+        if (!header.has(KEY_VERSION)) {
+            throw new IOException("Archive records have no header");
+        }
+        int version = header.get(KEY_VERSION).getAsInt();
+        if (version > ARCHIVE_VERSION) {
+            throw new IOException("Archive version " + version + " is newer than this app can read");
+        }
+    }
+
+    private static RecordDatabaseManager.RecordRow readRecordLine(JsonObject line, RecordSummary.MediaFields mediaFields,
+                                                                   MediaImport mediaImport, RecordDataCodec codec)
+            throws IOException {
+        if (!line.has(KEY_SCHEMA_VERSION) || !line.has(KEY_DATA) || !line.has(KEY_CONSTANTS)) {
+            throw new IOException("Archive record is missing fields");
+        }
+
+        DriverConstantFields constants = new DriverConstantFields();
+        RecordJournal.readConstantsTree(line.get(KEY_CONSTANTS), constants);
+        if (constants.occurredFrom == null) {
+            throw new IOException("Archive record has no occurred time");
+        }
+
+        JsonElement data = line.get(KEY_DATA);
+        mapMediaValues(data, mediaFields, mediaImport);
+        return new RecordDatabaseManager.RecordRow(line.get(KEY_SCHEMA_VERSION).getAsString(),
+                codec.encode(data), codec, constants);
+    }
+
+    /**
+     * Add a batch of records in one transaction, then empty the batch.
+     *
+     * @return Number of records added
+     */
+    private static int addBatch(RecordDatabaseManager manager, List<RecordDatabaseManager.RecordRow> batch)
+            throws IOException {
+        if (manager.addRecords(batch) == null) {
+            throw new IOException("Failed to add a batch of " + batch.size() + " archived records");
+        }
+        int added = batch.size();
+        batch.clear();
+        return added;
+    }
+
+    /**
+     * Copy a media entry to its file.
+     */
+    private static void importMedia(InputStream entryIn, File mediaFile, byte[] buffer) throws IOException {
+        OutputStream mediaOut = new FileOutputStream(mediaFile);
+        try {
+            copy(entryIn, mediaOut, buffer);
+        } finally {
+            mediaOut.close();
+        }
+    }
+
+    /**
+     * Replaces the value of a media field in record data.
+     */
+    private interface MediaValueMapper {
+        /**
+         * @param value Value of a media field; not empty
+         * @return Value to put in its place
+         */
+        String map(String value);
+    }
+
+    /**
+     * Replace the values of the media fields in record data. Other values are left as they are,
+     * however much they look like paths.
+     *
+     * @param data Record data, with a member for each section; modified in place
+     * @param mediaFields Media fields of the record's schema
+     * @param mapper Gives the value to replace each media value with
+     */
+    private static void mapMediaValues(JsonElement data, RecordSummary.MediaFields mediaFields,
+                                       MediaValueMapper mapper) {
+        if (!data.isJsonObject()) {
+            return;
+        }
+
+        for (Map.Entry<String, JsonElement> section : data.getAsJsonObject().entrySet()) {
+            Set<String> fields = mediaFields.forSection(section.getKey());
+            if (fields.isEmpty()) {
+                continue;
+            }
+
+            JsonElement sectionValue = section.getValue();
+            if (sectionValue.isJsonArray()) {
+                for (JsonElement item : sectionValue.getAsJsonArray()) {
+                    mapItemMediaValues(item, fields, mapper);
+                }
+            } else {
+                mapItemMediaValues(sectionValue, fields, mapper);
+            }
+        }
+    }
+
+    private static void mapItemMediaValues(JsonElement item, Set<String> fields, MediaValueMapper mapper) {
+        if (!item.isJsonObject()) {
+            return;
+        }
+
+        JsonObject itemObject = item.getAsJsonObject();
+        for (String field : fields) {
+            JsonElement value = itemObject.get(field);
+            if (value == null) {
+                continue;
+            }
+
+            if (value.isJsonArray()) {
+                JsonArray values = value.getAsJsonArray();
+                for (int i = 0; i < values.size(); i++) {
+                    values.set(i, mapMediaValue(values.get(i), mapper));
+                }
+            } else {
+                itemObject.add(field, mapMediaValue(value, mapper));
+            }
+        }
+    }
+
+    private static JsonElement mapMediaValue(JsonElement value, MediaValueMapper mapper) {
+        if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isString()) {
+            return value;
+        }
+        String media = value.getAsString();
+        if (media.isEmpty()) {
+            return value;
+        }
+        return new JsonPrimitive(mapper.map(media));
+    }
+
+    /**
+     * Replaces media paths in record data with the names of the archive entries they will be
+     * written to, and keeps the files to write. Paths to files that are missing are left as they are.
+     */
+    private static class MediaExport implements MediaValueMapper {
+        // entry names by path of the media found so far, in the order found
+        final Map<String, String> entriesByPath = new LinkedHashMap<>();
+        private final Set<String> entryNames = new HashSet<>();
+
+        @Override
+        public String map(String path) {
+            String entryName = entriesByPath.get(path);
+            if (entryName != null) {
+                return entryName;
+            }
+
+            File mediaFile = new File(path);
+            if (!mediaFile.isFile()) {
+                Log.w(LOG_LABEL, "Media file for record is missing: " + path);
+                return path;
+            }
+
+            String fileName = mediaFile.getName();
+            entryName = MEDIA_PREFIX + fileName;
+            for (int i = 1; entryNames.contains(entryName); i++) {
+                entryName = MEDIA_PREFIX + i + "_" + fileName;
+            }
+            entryNames.add(entryName);
+            entriesByPath.put(path, entryName);
+            return entryName;
+        }
+    }
+
+    /**
+     * Replaces archive entry names in record data with the paths the media are imported to, and
+     * picks those paths. Records are read before the media entries, so a file is picked for an
+     * entry when it is first seen, and never one already in the media directory.
+     */
+    private static class MediaImport implements MediaValueMapper {
+        private final File mediaDir;
+        // files picked so far, by entry name
+        private final Map<String, File> filesByEntry = new HashMap<>();
+        private final Set<String> fileNames = new HashSet<>();
+
+        MediaImport(File mediaDir) {
+            this.mediaDir = mediaDir;
+        }
+
+        @Override
+        public String map(String value) {
+            if (!value.startsWith(MEDIA_PREFIX)) {
+                return value;
+            }
+            return getFile(value).getAbsolutePath();
+        }
+
+        /**
+         * Get the file to import a media entry to. Only the last part of the name is used, so
+         * entries cannot be written outside the media directory. A name already taken gets a
+         * number in front of it.
+         */
+        File getFile(String entryName) {
+            File file = filesByEntry.get(entryName);
+            if (file != null) {
+                return file;
+            }
+
+            String fileName = new File(entryName).getName();
+            file = new File(mediaDir, fileName);
+            for (int i = 1; file.exists() || fileNames.contains(file.getName()); i++) {
+                file = new File(mediaDir, i + "_" + fileName);
+            }
+            if (!file.getName().equals(fileName)) {
+                Log.d(LOG_LABEL, "Already have a media file named " + fileName + "; importing as " + file.getName());
+            }
+            fileNames.add(file.getName());
+            filesByEntry.put(entryName, file);
+            return file;
+        }
+    }
+
+    private static void writeLine(Writer writer, JsonElement line) throws IOException {
+        // compact JSON escapes any line breaks within strings, so each record stays on one line
+        writer.write(line.toString());
+        writer.write('\n');
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
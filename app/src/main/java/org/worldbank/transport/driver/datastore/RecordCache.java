@@ -0,0 +1,192 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+
+/**
+ * Least-recently-used cache of record rows read from the database, so opening the same record
+ * again does not query it again.
+ *
+ * Entries are keyed by database ID and checked against the record's last updated stamp, so a
+ * record changed by any other write is read afresh. Only the stored fields are kept, never the
+ * Record handed out for editing, so changes made to an opened record cannot leak into the next
+ * read of it.
+ */
+public class RecordCache {
+
+    private static final String LOG_LABEL = "RecordCache";
+
+    public static final int DEFAULT_MAX_RECORDS = 16;
+    private static final int MIN_RECORDS = 8;
+    private static final int MAX_RECORDS = 64;
+
+    // megabytes of app heap per cached record
+    private static final int HEAP_MB_PER_RECORD = 4;
+
+    private final LruCache<Long, Row> cache;
+
+    // counted here rather than by the LruCache, so stale entries count as misses
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * Stored fields of a record, as read. Not changed once built; build a new Record from it for
+     * each read.
+     */
+    public static class Row {
+        public final long recordId;
+        public final long lastUpdated;
+        public final String schemaVersion;
+        public final int dataFormat;
+
+        // encoded record data; null for records stored by section
+        private final byte[] data;
+        private final DriverConstantFields constants;
+
+        /**
+         * @param recordId Database ID of the record
+         * @param lastUpdated Last updated stamp of the record when read
+         * @param schemaVersion UUID of the schema used to create the record
+         * @param dataFormat Value of the data format column
+         * @param data Encoded record data, as read; not to be modified after
+         * @param constants Constant fields as read; copied, so may be modified after
+         */
+        public Row(long recordId, long lastUpdated, String schemaVersion, int dataFormat, byte[] data,
+                   DriverConstantFields constants) {
+            this.recordId = recordId;
+            this.lastUpdated = lastUpdated;
+            this.schemaVersion = schemaVersion;
+            this.dataFormat = dataFormat;
+            this.data = data;
+            this.constants = constants.copy();
+        }
+
+        /**
+         * @return Encoded record data; not to be modified
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return New copy of the constant fields, free to edit
+         */
+        public DriverConstantFields getConstants() {
+            return constants.copy();
+        }
+    }
+
+    /**
+     * @param maxRecords Most records to keep
+     */
+    public RecordCache(int maxRecords) {
+        cache = new LruCache<>(maxRecords);
+    }
+
+    /**
+     * Pick a cache size for the heap available to the app.
+     *
+     * @param context Context to get the activity manager from
+     * @return Number of records to cache
+     */
+    public static int maxRecordsFor(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return DEFAULT_MAX_RECORDS;
+        }
+        int maxRecords = activityManager.getMemoryClass() / HEAP_MB_PER_RECORD;
+        return Math.max(MIN_RECORDS, Math.min(MAX_RECORDS, maxRecords));
+    }
+
+    /**
+     * Get a cached record row, if the record has not been updated since it was cached.
+     *
+     * @param recordId Database ID of the record
+     * @param lastUpdated Last updated stamp of the record as stored now
+     * @return Cached row, or null if there is none or it is out of date
+     */
+    public Row get(long recordId, long lastUpdated) {
+        Row row = cache.get(recordId);
+        synchronized (this) {
+            if (row != null && row.lastUpdated == lastUpdated) {
+                hitCount++;
+                return row;
+            }
+            missCount++;
+        }
+
+        if (row != null) {
+            cache.remove(recordId);
+        }
+        return null;
+    }
+
+    /**
+     * @param row Record row as read from the database
+     */
+    public void put(Row row) {
+        cache.put(row.recordId, row);
+    }
+
+    /**
+     * Drop a record from the cache, as when it is updated or deleted.
+     *
+     * @param recordId Database ID of the record
+     */
+    public void invalidate(long recordId) {
+        cache.remove(recordId);
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * Release cached records when the system is short on memory.
+     *
+     * @param level Level passed to onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            Log.d(LOG_LABEL, "Releasing all cached records");
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            Log.d(LOG_LABEL, "Releasing half of cached records");
+            // snapshot is ordered from least to most recently used
+            int toRemove = cache.size() / 2;
+            for (Long recordId : cache.snapshot().keySet()) {
+                if (toRemove-- <= 0) {
+                    break;
+                }
+                cache.remove(recordId);
+            }
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordCache[size=" + cache.size() + "/" + cache.maxSize() + ", hits=" + hitCount +
+                ", misses=" + missCount + "]";
+    }
+}
@@ -0,0 +1,63 @@
+package org.worldbank.transport.driver.datastore;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+
+/**
+ * Encoding for the stored record data column. Records are written from a Gson tree, and read
+ * through a Gson reader, by {@link DriverSchemaSerializer}, so the type adapters used for JSON
+ * apply to every encoding.
+ */
+public interface RecordDataCodec {
+
+    /**
+     * @return Value stored in the data format column for data in this encoding
+     */
+    int getFormat();
+
+    /**
+     * @return True if encoded data is UTF-8 text, and should be stored as a string
+     */
+    boolean isText();
+
+    /**
+     * Encode serialized record data.
+     *
+     * @param tree Record data as a Gson tree
+     * @return Encoded bytes
+     * @throws IOException on encoding failure
+     */
+    byte[] encode(JsonElement tree) throws IOException;
+
+    /**
+     * Decode stored record data.
+     *
+     * @param data Encoded bytes, as read from the database
+     * @return Record data as a Gson tree
+     * @throws IOException if the data cannot be parsed
+     */
+    JsonElement decode(byte[] data) throws IOException;
+
+    /**
+     * Get a streaming parser over stored record data, to read parts of it without building the
+     * whole tree.
+     *
+     * @param data Encoded bytes, as read from the database
+     * @return Parser positioned before the first token
+     * @throws IOException if the data cannot be read
+     */
+    JsonParser createParser(byte[] data) throws IOException;
+
+    /**
+     * Get a Gson reader over stored record data, to deserialize it straight into record objects.
+     *
+     * @param data Encoded bytes, as read from the database
+     * @return Reader positioned before the first value
+     * @throws IOException if the data cannot be read
+     */
+    JsonReader createReader(byte[] data) throws IOException;
+}
@@ -1,10 +1,15 @@
 package org.worldbank.transport.driver.datastore;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import java.util.List;
+
 
 /**
  * Handles creation and version management of database.
@@ -15,7 +20,23 @@ public class RecordDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String LOG_LABEL = "DatabaseHelper";
 
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 9;
+
+    // Record table as of version 3. Migrations from earlier versions build this, then apply
+    // later migrations, so they must not use the current table definition.
+    private static final String RECORD_TABLE_CREATE_V3 = "CREATE TABLE " + DriverRecordContract.RecordEntry.TABLE_NAME + " (" +
+            DriverRecordContract.RecordEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+            DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " INTEGER DEFAULT (CAST(strftime('%s', 'now') AS INTEGER) * 1000) NOT NULL, " +
+            DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT + " INTEGER, " +
+            DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION + " TEXT NOT NULL, " +
+            DriverRecordContract.RecordEntry.COLUMN_DATA + " TEXT NOT NULL, " +
+            DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM + " INTEGER NOT NULL, " +
+            DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO + " INTEGER NOT NULL, " +
+            DriverRecordContract.RecordEntry.COLUMN_LATITUDE + " DOUBLE, " +
+            DriverRecordContract.RecordEntry.COLUMN_LONGITUDE + " DOUBLE, " +
+            DriverRecordContract.RecordEntry.COLUMN_WEATHER + " TEXT, " +
+            DriverRecordContract.RecordEntry.COLUMN_LIGHT + " TEXT" +
+            ");";
 
     /**
      * Set up database. If databaseName is null, will use in-memory DB. Only do so when testing!
@@ -34,19 +55,273 @@ public class RecordDatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(DriverRecordContract.RECORD_TABLE_CREATE);
+        for (String createIndex : DriverRecordContract.RECORD_INDEXES_CREATE) {
+            db.execSQL(createIndex);
+        }
+        db.execSQL(DriverRecordContract.SEARCH_TABLE_CREATE);
+        db.execSQL(DriverRecordContract.SECTION_TABLE_CREATE);
+        db.execSQL(DriverRecordContract.JOURNAL_TABLE_CREATE);
+        db.execSQL(DriverRecordContract.SUMMARY_TABLE_CREATE);
     }
 
+    /**
+     * Migrate stored records one version at a time. Runs within a transaction.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Handle migrations here.
-        // This drops any existing entries and recreates the table.
-        db.execSQL(DriverRecordContract.RECORD_TABLE_DROP);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // no migration from the first version; drop any existing entries and recreate the table
+            recreate(db);
+            return;
+        }
+
+        if (oldVersion < 3) {
+            migrateToEpochTimestamps(db);
+        }
+
+        if (oldVersion < 4) {
+            addGeohashColumn(db);
+        }
+
+        if (oldVersion < 5) {
+            addSearchIndex(db);
+        }
+
+        if (oldVersion < 6) {
+            addDataFormatColumn(db);
+        }
+
+        if (oldVersion < 7) {
+            // existing records keep their whole-record data until next saved
+            Log.d(LOG_LABEL, "Adding record sections table");
+            db.execSQL(DriverRecordContract.SECTION_TABLE_CREATE);
+        }
+
+        if (oldVersion < 8) {
+            Log.d(LOG_LABEL, "Adding record edit journal table");
+            db.execSQL(DriverRecordContract.JOURNAL_TABLE_CREATE);
+        }
+
+        if (oldVersion < 9) {
+            addRecordSummaries(db);
+        }
+
+        // indexes are created if missing, so any added by a migration above exist now
+        for (String createIndex : DriverRecordContract.RECORD_INDEXES_CREATE) {
+            db.execSQL(createIndex);
+        }
     }
 
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // handle migrations here
-        onUpgrade(db, oldVersion, newVersion);
+        // cannot read stored records from a newer version
+        recreate(db);
+    }
+
+    private void recreate(SQLiteDatabase db) {
+        db.execSQL(DriverRecordContract.SUMMARY_TABLE_DROP);
+        db.execSQL(DriverRecordContract.JOURNAL_TABLE_DROP);
+        db.execSQL(DriverRecordContract.SECTION_TABLE_DROP);
+        db.execSQL(DriverRecordContract.SEARCH_TABLE_DROP);
+        db.execSQL(DriverRecordContract.RECORD_TABLE_DROP);
+        onCreate(db);
+    }
+
+    /**
+     * Version 3 stores timestamps as epoch milliseconds instead of "yyyy-MM-dd HH:mm:ss" strings.
+     * Entry time was stored in UTC; the other timestamps were stored in device local time.
+     */
+    private void migrateToEpochTimestamps(SQLiteDatabase db) {
+        Log.d(LOG_LABEL, "Migrating record timestamps to epoch milliseconds");
+        final String oldTable = DriverRecordContract.RecordEntry.TABLE_NAME + "_v2";
+
+        db.execSQL("ALTER TABLE " + DriverRecordContract.RecordEntry.TABLE_NAME + " RENAME TO " + oldTable);
+        db.execSQL(RECORD_TABLE_CREATE_V3);
+
+        db.execSQL("INSERT INTO " + DriverRecordContract.RecordEntry.TABLE_NAME + " (" +
+                DriverRecordContract.RecordEntry._ID + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_DATA + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_LATITUDE + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_LONGITUDE + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_WEATHER + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_LIGHT + ") SELECT " +
+                DriverRecordContract.RecordEntry._ID + ", " +
+                epochMillis(DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT, false) + ", " +
+                epochMillis(DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT, true) + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_DATA + ", " +
+                epochMillis(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM, true) + ", " +
+                epochMillis(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO, true) + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_LATITUDE + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_LONGITUDE + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_WEATHER + ", " +
+                DriverRecordContract.RecordEntry.COLUMN_LIGHT +
+                " FROM " + oldTable);
+
+        db.execSQL("DROP TABLE " + oldTable);
+    }
+
+    /**
+     * Version 4 adds a geohash column for location queries. Fill it in for existing records.
+     */
+    private void addGeohashColumn(SQLiteDatabase db) {
+        Log.d(LOG_LABEL, "Adding geohash column to records");
+        db.execSQL("ALTER TABLE " + DriverRecordContract.RecordEntry.TABLE_NAME + " ADD COLUMN " +
+                DriverRecordContract.RecordEntry.COLUMN_GEOHASH + " TEXT");
+
+        String[] columns = {
+                DriverRecordContract.RecordEntry._ID,
+                DriverRecordContract.RecordEntry.COLUMN_LATITUDE,
+                DriverRecordContract.RecordEntry.COLUMN_LONGITUDE
+        };
+
+        Cursor cursor = db.query(DriverRecordContract.RecordEntry.TABLE_NAME, columns,
+                DriverRecordContract.RecordEntry.COLUMN_LATITUDE + " IS NOT NULL AND " +
+                DriverRecordContract.RecordEntry.COLUMN_LONGITUDE + " IS NOT NULL",
+                null, null, null, null);
+
+        ContentValues values = new ContentValues(1);
+        String[] whereArgs = new String[1];
+        try {
+            while (cursor.moveToNext()) {
+                String geohash = RecordDatabaseManager.getGeohash(cursor.getDouble(1), cursor.getDouble(2));
+                if (geohash == null) {
+                    continue;
+                }
+                values.put(DriverRecordContract.RecordEntry.COLUMN_GEOHASH, geohash);
+                whereArgs[0] = String.valueOf(cursor.getLong(0));
+                db.update(DriverRecordContract.RecordEntry.TABLE_NAME, values,
+                        DriverRecordContract.RecordEntry._ID + "= ?", whereArgs);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Version 5 adds a full-text search index. Index existing records.
+     */
+    private void addSearchIndex(SQLiteDatabase db) {
+        Log.d(LOG_LABEL, "Adding search index for records");
+        db.execSQL(DriverRecordContract.SEARCH_TABLE_CREATE);
+
+        String[] columns = { DriverRecordContract.RecordEntry._ID, DriverRecordContract.RecordEntry.COLUMN_DATA };
+        Cursor cursor = db.query(DriverRecordContract.RecordEntry.TABLE_NAME, columns, null, null, null, null, null);
+        SQLiteStatement searchInsert = db.compileStatement(RecordDatabaseManager.SEARCH_INSERT);
+        try {
+            while (cursor.moveToNext()) {
+                searchInsert.bindString(1, RecordSearchText.fromRecordData(cursor.getString(1)));
+                searchInsert.bindLong(2, cursor.getLong(0));
+                searchInsert.executeInsert();
+            }
+        } finally {
+            cursor.close();
+            searchInsert.close();
+        }
+    }
+
+    /**
+     * Version 6 tags the encoding of the data column, so records can be stored in a binary format.
+     * Existing records are JSON text; they are re-encoded when next saved.
+     */
+    private void addDataFormatColumn(SQLiteDatabase db) {
+        Log.d(LOG_LABEL, "Adding data format column to records");
+        db.execSQL("ALTER TABLE " + DriverRecordContract.RecordEntry.TABLE_NAME + " ADD COLUMN " +
+                DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT + " INTEGER DEFAULT " +
+                DriverRecordContract.RecordEntry.DATA_FORMAT_JSON + " NOT NULL");
+    }
+
+    /**
+     * Version 9 keeps a summary row for each record, built from stats stored with each section.
+     * Fill in the stats for stored sections, then summarize every record.
+     */
+    private void addRecordSummaries(SQLiteDatabase db) {
+        Log.d(LOG_LABEL, "Adding record summaries");
+        String sectionTable = DriverRecordContract.SectionEntry.TABLE_NAME;
+        db.execSQL("ALTER TABLE " + sectionTable + " ADD COLUMN " +
+                DriverRecordContract.SectionEntry.COLUMN_ITEM_COUNT + " INTEGER DEFAULT 0 NOT NULL");
+        db.execSQL("ALTER TABLE " + sectionTable + " ADD COLUMN " +
+                DriverRecordContract.SectionEntry.COLUMN_PHOTO_COUNT + " INTEGER DEFAULT 0 NOT NULL");
+        db.execSQL("ALTER TABLE " + sectionTable + " ADD COLUMN " +
+                DriverRecordContract.SectionEntry.COLUMN_LABEL + " TEXT");
+        db.execSQL("ALTER TABLE " + sectionTable + " ADD COLUMN " +
+                DriverRecordContract.SectionEntry.COLUMN_PAYLOAD_BYTES + " INTEGER DEFAULT 0 NOT NULL");
+        db.execSQL(DriverRecordContract.SUMMARY_TABLE_CREATE);
+
+        String[] sectionColumns = {
+                "rowid",
+                DriverRecordContract.SectionEntry.COLUMN_SECTION_NAME,
+                DriverRecordContract.SectionEntry.COLUMN_SECTION_INDEX,
+                DriverRecordContract.SectionEntry.COLUMN_DATA,
+                DriverRecordContract.SectionEntry.COLUMN_DATA_FORMAT
+        };
+        Cursor cursor = db.query(sectionTable, sectionColumns, null, null, null, null, null);
+        SQLiteStatement statsUpdate = db.compileStatement("UPDATE " + sectionTable + " SET " +
+                DriverRecordContract.SectionEntry.COLUMN_ITEM_COUNT + " = ?, " +
+                DriverRecordContract.SectionEntry.COLUMN_PHOTO_COUNT + " = ?, " +
+                DriverRecordContract.SectionEntry.COLUMN_LABEL + " = ?, " +
+                DriverRecordContract.SectionEntry.COLUMN_PAYLOAD_BYTES + " = ? WHERE rowid = ?");
+        try {
+            while (cursor.moveToNext()) {
+                RecordDataCodec codec = DriverSchemaSerializer.getCodec(cursor.getInt(4));
+                if (codec == null) {
+                    continue;
+                }
+                RecordSummary.SectionStats stats = RecordSummary.sectionStats(cursor.getString(1),
+                        cursor.getInt(2), cursor.getBlob(3), codec);
+                RecordDatabaseManager.bindSectionStats(statsUpdate, 1, stats);
+                statsUpdate.bindLong(5, cursor.getLong(0));
+                statsUpdate.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statsUpdate.close();
+        }
+
+        String[] recordColumns = {
+                DriverRecordContract.RecordEntry._ID,
+                DriverRecordContract.RecordEntry.COLUMN_DATA,
+                DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT
+        };
+        cursor = db.query(DriverRecordContract.RecordEntry.TABLE_NAME, recordColumns, null, null, null, null, null);
+        SQLiteStatement summaryWrite = db.compileStatement(RecordDatabaseManager.SUMMARY_WRITE);
+        try {
+            while (cursor.moveToNext()) {
+                long recordId = cursor.getLong(0);
+                int dataFormat = cursor.getInt(2);
+                List<RecordSummary.SectionStats> sections;
+                if (dataFormat == DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS) {
+                    sections = RecordDatabaseManager.readSectionStats(db, recordId);
+                } else {
+                    RecordDataCodec codec = DriverSchemaSerializer.getCodec(dataFormat);
+                    if (codec == null) {
+                        continue;
+                    }
+                    sections = RecordSummary.recordStats(cursor.getBlob(1), codec);
+                }
+                RecordDatabaseManager.bindSummary(summaryWrite, recordId, RecordSummary.fromSections(sections));
+                summaryWrite.executeInsert();
+            }
+        } finally {
+            cursor.close();
+            summaryWrite.close();
+        }
+    }
+
+    /**
+     * Build SQL expression to convert a timestamp string column to epoch milliseconds.
+     *
+     * @param column Column with a "yyyy-MM-dd HH:mm:ss" string
+     * @param isLocalTime True if the string is in device local time; false if it is in UTC
+     * @return SQL expression for the column value in epoch milliseconds (null if column is null)
+     */
+    private static String epochMillis(String column, boolean isLocalTime) {
+        String utcModifier = isLocalTime ? ", 'utc'" : "";
+        return "CAST(strftime('%s', " + column + utcModifier + ") AS INTEGER) * 1000";
     }
 }
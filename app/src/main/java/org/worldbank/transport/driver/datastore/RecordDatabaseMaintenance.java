@@ -0,0 +1,370 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Keeps the records database compact and its query plans current, and reports on its size.
+ *
+ * Records are deleted once uploaded, which leaves free pages in the database file. The first
+ * maintenance pass switches the database to incremental auto-vacuum, which takes a full VACUUM
+ * once; later passes hand free pages back to the file system a batch at a time. ANALYZE is run
+ * again once the number of records has changed enough to matter to the query planner. When the
+ * last pass ran, and how many records were last analyzed, are kept in shared preferences, so a
+ * pass is not run on every launch.
+ *
+ * Maintenance must run on the record writer thread, outside any transaction; it is queued there
+ * by {@link RecordWriteQueue} once writes have been idle for a while.
+ */
+public class RecordDatabaseMaintenance {
+
+    private static final String LOG_LABEL = "DatabaseMaintenance";
+
+    // values of PRAGMA auto_vacuum
+    public static final int AUTO_VACUUM_NONE = 0;
+    public static final int AUTO_VACUUM_FULL = 1;
+    public static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // page cache for the writing connection, as a share of the app heap
+    private static final int HEAP_SHARE_FOR_PAGE_CACHE = 32;
+    private static final int MIN_CACHE_BYTES = 1024 * 1024;
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    // free pages to leave alone, and most to release in one pass, to keep passes short
+    private static final long MIN_FREE_PAGES_TO_VACUUM = 16;
+    private static final long MAX_PAGES_PER_PASS = 2048;
+
+    // run a pass after this long, or sooner once this many records have been deleted
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 6 * 60 * 60 * 1000;
+    private static final int DELETES_BEFORE_MAINTENANCE = 50;
+
+    // re-analyze once the record count has changed by this fraction
+    private static final double ANALYZE_CHANGE_RATIO = 0.25;
+
+    // shared preferences keys for the state kept between launches
+    private static final String LAST_RUN_AT_KEY = "db_maintenance_last_run_at";
+    private static final String LAST_RUN_MILLIS_KEY = "db_maintenance_last_run_millis";
+    private static final String LAST_PAGES_FREED_KEY = "db_maintenance_last_pages_freed";
+    private static final String ANALYZED_RECORD_COUNT_KEY = "db_maintenance_analyzed_record_count";
+
+    private final SQLiteDatabase db;
+    private final String databasePath;
+
+    // guarded by this
+    private final Map<String, QueryTiming> queryTimings = new LinkedHashMap<>();
+    private long lastRunAt;
+    private long lastRunMillis;
+    private long lastPagesFreed;
+    private long analyzedRecordCount = -1;
+    private int deletesSinceRun;
+    // where state is kept between launches; null to keep it in memory only
+    private SharedPreferences preferences;
+
+    /**
+     * Time taken by one kind of query, in total over all the times it has run.
+     */
+    public static class QueryTiming {
+        public final String name;
+        public int count;
+        public long totalNanos;
+        public long maxNanos;
+
+        QueryTiming(String name) {
+            this.name = name;
+        }
+
+        QueryTiming(QueryTiming other) {
+            this(other.name);
+            count = other.count;
+            totalNanos = other.totalNanos;
+            maxNanos = other.maxNanos;
+        }
+
+        public double getAverageMillis() {
+            return count > 0 ? totalNanos / (count * 1000000.0) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + count + " runs, avg " + String.format("%.2f", getAverageMillis()) + " ms, max " +
+                    String.format("%.2f", maxNanos / 1000000.0) + " ms";
+        }
+    }
+
+    /**
+     * Snapshot of the database's size and upkeep.
+     */
+    public static class Diagnostics {
+        public long pageSize;
+        public long pageCount;
+        public long freePages;
+        public long cacheSizePages;
+        public int autoVacuum;
+        public String journalMode;
+        public long databaseBytes;
+        // size of the write-ahead log file, if there is one
+        public long walBytes;
+        public int recordCount;
+
+        // 0 if maintenance has never run
+        public long lastRunAt;
+        public long lastRunMillis;
+        public long lastPagesFreed;
+
+        public Map<String, QueryTiming> queryTimings;
+
+        public long getFreeBytes() {
+            return freePages * pageSize;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("Database ").append(databaseBytes).append(" bytes in ").append(pageCount)
+                    .append(" pages of ").append(pageSize).append(", ").append(freePages).append(" free; ")
+                    .append("WAL ").append(walBytes).append(" bytes; journal ").append(journalMode)
+                    .append(", auto_vacuum ").append(autoVacuum).append(", cache ").append(cacheSizePages)
+                    .append(" pages; ").append(recordCount).append(" records. ");
+            if (lastRunAt > 0) {
+                builder.append("Last maintenance took ").append(lastRunMillis).append(" ms and freed ")
+                        .append(lastPagesFreed).append(" pages.");
+            } else {
+                builder.append("No maintenance run yet.");
+            }
+            for (QueryTiming timing : queryTimings.values()) {
+                builder.append('\n').append(timing);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * @param db Database to look after
+     * @param databasePath Path of the database file, or null for an in-memory database
+     */
+    public RecordDatabaseMaintenance(SQLiteDatabase db, String databasePath) {
+        this.db = db;
+        this.databasePath = databasePath;
+    }
+
+    /**
+     * Read the state kept from earlier launches, and keep it there from now on.
+     *
+     * @param preferences Shared preferences to keep maintenance state in
+     */
+    public synchronized void restoreState(SharedPreferences preferences) {
+        this.preferences = preferences;
+        lastRunAt = preferences.getLong(LAST_RUN_AT_KEY, 0);
+        lastRunMillis = preferences.getLong(LAST_RUN_MILLIS_KEY, 0);
+        lastPagesFreed = preferences.getLong(LAST_PAGES_FREED_KEY, 0);
+        analyzedRecordCount = preferences.getLong(ANALYZED_RECORD_COUNT_KEY, -1);
+    }
+
+    /**
+     * Size the page cache of the writing connection for the device. Readers keep the default.
+     *
+     * @param context Context to find the app's memory class with
+     */
+    public void applyCacheSize(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return;
+        }
+        int cacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / HEAP_SHARE_FOR_PAGE_CACHE;
+        cacheBytes = Math.max(MIN_CACHE_BYTES, Math.min(MAX_CACHE_BYTES, cacheBytes));
+        long cachePages = cacheBytes / readPragma("page_size");
+        db.execSQL("PRAGMA cache_size = " + cachePages);
+        Log.d(LOG_LABEL, "Page cache set to " + cachePages + " pages");
+    }
+
+    /**
+     * Note records deleted, which leave free pages behind.
+     *
+     * @param count Number of records deleted
+     */
+    public synchronized void noteDeleted(int count) {
+        deletesSinceRun += count;
+    }
+
+    /**
+     * @return True if a maintenance pass should be run now. Cheap enough to check on the UI thread.
+     */
+    public synchronized boolean isDue() {
+        return lastRunAt == 0 || deletesSinceRun >= DELETES_BEFORE_MAINTENANCE ||
+                System.currentTimeMillis() - lastRunAt >= MAINTENANCE_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Run a maintenance pass. Must be called outside of any transaction, and not on the UI thread;
+     * the first pass rewrites the whole database.
+     *
+     * @return Pages handed back to the file system
+     */
+    public long run() {
+        long startTime = System.nanoTime();
+        long pagesFreed = 0;
+        int deletesAtStart;
+        synchronized (this) {
+            deletesAtStart = deletesSinceRun;
+        }
+
+        try {
+            long pagesBefore = readPragma("page_count");
+            if (readPragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                convertToIncrementalVacuum();
+                pagesFreed = Math.max(0, pagesBefore - readPragma("page_count"));
+            } else if (readPragma("freelist_count") >= MIN_FREE_PAGES_TO_VACUUM) {
+                pagesFreed = incrementalVacuum();
+            }
+
+            int recordCount = (int) DatabaseUtils.queryNumEntries(db, DriverRecordContract.RecordEntry.TABLE_NAME);
+            if (needsAnalyze(recordCount)) {
+                Log.d(LOG_LABEL, "Analyzing database with " + recordCount + " records");
+                db.execSQL("ANALYZE");
+                synchronized (this) {
+                    analyzedRecordCount = recordCount;
+                }
+            }
+        } catch (Exception e) {
+            // likely busy with a reader; try again next time
+            Log.e(LOG_LABEL, "Database maintenance failed");
+            e.printStackTrace();
+        }
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        synchronized (this) {
+            lastRunAt = System.currentTimeMillis();
+            lastRunMillis = elapsedMillis;
+            lastPagesFreed = pagesFreed;
+            deletesSinceRun -= deletesAtStart;
+
+            if (preferences != null) {
+                preferences.edit()
+                        .putLong(LAST_RUN_AT_KEY, lastRunAt)
+                        .putLong(LAST_RUN_MILLIS_KEY, lastRunMillis)
+                        .putLong(LAST_PAGES_FREED_KEY, lastPagesFreed)
+                        .putLong(ANALYZED_RECORD_COUNT_KEY, analyzedRecordCount)
+                        .apply();
+            }
+        }
+        Log.d(LOG_LABEL, "Maintenance freed " + pagesFreed + " pages in " + elapsedMillis + " ms");
+        return pagesFreed;
+    }
+
+    /**
+     * Incremental vacuum only takes effect once the database has been rebuilt with it set.
+     */
+    private void convertToIncrementalVacuum() {
+        Log.d(LOG_LABEL, "Rebuilding database for incremental vacuum");
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        db.execSQL("VACUUM");
+    }
+
+    /**
+     * The pragma frees a page each time it is stepped. Reading its cursor steps through them
+     * all where the platform fills windows for column-less rows; otherwise it stops after the
+     * first, so repeat until the batch is freed or no more progress is made.
+     */
+    private long incrementalVacuum() {
+        long freeBefore = readPragma("freelist_count");
+        long toFree = Math.min(freeBefore, MAX_PAGES_PER_PASS);
+        long freeNow = freeBefore;
+
+        while (freeBefore - freeNow < toFree) {
+            long remaining = toFree - (freeBefore - freeNow);
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + remaining + ")", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+
+            long freeAfter = readPragma("freelist_count");
+            if (freeAfter >= freeNow) {
+                break;
+            }
+            freeNow = freeAfter;
+        }
+        return freeBefore - freeNow;
+    }
+
+    private synchronized boolean needsAnalyze(int recordCount) {
+        if (analyzedRecordCount < 0) {
+            return true;
+        }
+        long change = Math.abs(recordCount - analyzedRecordCount);
+        return change > Math.max(1, analyzedRecordCount * ANALYZE_CHANGE_RATIO);
+    }
+
+    /**
+     * Add the time a query took to its running totals.
+     *
+     * @param name Name of the kind of query
+     * @param startNanos System.nanoTime() when the query started
+     */
+    public void recordQuery(String name, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        synchronized (this) {
+            QueryTiming timing = queryTimings.get(name);
+            if (timing == null) {
+                timing = new QueryTiming(name);
+                queryTimings.put(name, timing);
+            }
+            timing.count++;
+            timing.totalNanos += elapsed;
+            timing.maxNanos = Math.max(timing.maxNanos, elapsed);
+        }
+    }
+
+    /**
+     * Read the database's size and upkeep. Runs a few quick queries; fine to call from a
+     * diagnostics screen, but not in a loop.
+     *
+     * @return Snapshot of the current state
+     */
+    public Diagnostics getDiagnostics() {
+        Diagnostics diagnostics = new Diagnostics();
+        diagnostics.pageSize = readPragma("page_size");
+        diagnostics.pageCount = readPragma("page_count");
+        diagnostics.freePages = readPragma("freelist_count");
+        diagnostics.cacheSizePages = readPragma("cache_size");
+        diagnostics.autoVacuum = (int) readPragma("auto_vacuum");
+        diagnostics.journalMode = readJournalMode();
+        diagnostics.databaseBytes = diagnostics.pageSize * diagnostics.pageCount;
+        diagnostics.recordCount = (int) DatabaseUtils.queryNumEntries(db, DriverRecordContract.RecordEntry.TABLE_NAME);
+        if (databasePath != null) {
+            diagnostics.walBytes = new File(databasePath + "-wal").length();
+        }
+
+        Map<String, QueryTiming> timings = new LinkedHashMap<>();
+        synchronized (this) {
+            diagnostics.lastRunAt = lastRunAt;
+            diagnostics.lastRunMillis = lastRunMillis;
+            diagnostics.lastPagesFreed = lastPagesFreed;
+            for (QueryTiming timing : queryTimings.values()) {
+                timings.put(timing.name, new QueryTiming(timing));
+            }
+        }
+        diagnostics.queryTimings = Collections.unmodifiableMap(timings);
+        return diagnostics;
+    }
+
+    private long readPragma(String pragma) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + pragma, null);
+    }
+
+    private String readJournalMode() {
+        return DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null);
+    }
+}
@@ -1,21 +1,32 @@
 package org.worldbank.transport.driver.datastore;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.location.Location;
 import android.util.Log;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.worldbank.transport.driver.R;
 import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
 import org.worldbank.transport.driver.staticmodels.Record;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -23,14 +34,19 @@ import java.util.TimeZone;
  *
  * Created by kathrynkillebrew on 1/5/16.
  */
-public class RecordDatabaseManager {
+public class RecordDatabaseManager implements RecordStore {
 
     private static final String LOG_LABEL = "DatabaseManager";
 
     private static final String DATABASE_NAME = "driverdb";
 
-    // store date/time strings in same format generated by defaulting to current timestamp
-    private static final DateFormat storeDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // approximate length of a degree of latitude, for radius queries
+    private static final double METERS_PER_DEGREE = 111320;
+
+    // most geohash prefix ranges to scan for a bounding box query
+    private static final int MAX_GEOHASH_RANGES = 16;
 
     // use as WHERE clause to match on ID
     private static final String WHERE_ID = "_id= ?";
@@ -42,6 +58,7 @@ public class RecordDatabaseManager {
             DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT,
             DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION,
             DriverRecordContract.RecordEntry.COLUMN_DATA,
+            DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT,
 
             // constant fields
             DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM,
@@ -52,11 +69,315 @@ public class RecordDatabaseManager {
             DriverRecordContract.RecordEntry.COLUMN_LIGHT
     };
 
+    // Statements for the frequent writes are compiled once and re-bound for each call.
+    // Nullable constant columns are left as they were on update when not set, as they would be
+    // if they were left out of the update.
+    private static final String INSERT_RECORD = "INSERT INTO " + DriverRecordContract.RecordEntry.TABLE_NAME + " (" +
+            DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_DATA + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_LATITUDE + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_LONGITUDE + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_WEATHER + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_LIGHT + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_GEOHASH + ", " +
+            DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_RECORD = "UPDATE " + DriverRecordContract.RecordEntry.TABLE_NAME + " SET " +
+            DriverRecordContract.RecordEntry.COLUMN_DATA + " = ?, " +
+            DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT + " = ?, " +
+            DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM + " = ?, " +
+            DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO + " = ?, " +
+            coalesceColumn(DriverRecordContract.RecordEntry.COLUMN_LATITUDE) + ", " +
+            coalesceColumn(DriverRecordContract.RecordEntry.COLUMN_LONGITUDE) + ", " +
+            coalesceColumn(DriverRecordContract.RecordEntry.COLUMN_WEATHER) + ", " +
+            coalesceColumn(DriverRecordContract.RecordEntry.COLUMN_LIGHT) + ", " +
+            // geohash follows the location: replaced if a location is given (first parameter)
+            DriverRecordContract.RecordEntry.COLUMN_GEOHASH + " = CASE WHEN ? THEN ? ELSE " +
+            DriverRecordContract.RecordEntry.COLUMN_GEOHASH + " END, " +
+            DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT + " = ? " +
+            "WHERE " + WHERE_ID;
+
+    private static final String DELETE_RECORD = "DELETE FROM " + DriverRecordContract.RecordEntry.TABLE_NAME +
+            " WHERE " + WHERE_ID;
+
+    // Keep the full-text index row for a record in step with the record row. Constant field
+    // text is read from the record row, so it matches what was stored.
+    static final String SEARCH_INSERT = "INSERT INTO " + DriverRecordContract.SearchEntry.TABLE_NAME + " (" +
+            "docid, " +
+            DriverRecordContract.SearchEntry.COLUMN_DATA_TEXT + ", " +
+            DriverRecordContract.SearchEntry.COLUMN_CONSTANTS_TEXT +
+            ") SELECT " + DriverRecordContract.RecordEntry._ID + ", ?, " +
+            "COALESCE(" + DriverRecordContract.RecordEntry.COLUMN_WEATHER + ", '') || ' ' || " +
+            "COALESCE(" + DriverRecordContract.RecordEntry.COLUMN_LIGHT + ", '') " +
+            "FROM " + DriverRecordContract.RecordEntry.TABLE_NAME + " WHERE " + WHERE_ID;
+
+    private static final String SEARCH_DELETE = "DELETE FROM " + DriverRecordContract.SearchEntry.TABLE_NAME +
+            " WHERE docid = ?";
+
+    // for records stored by section, data text is gathered from the text saved with each section
+    private static final String SEARCH_INSERT_FROM_SECTIONS = "INSERT INTO " + DriverRecordContract.SearchEntry.TABLE_NAME + " (" +
+            "docid, " +
+            DriverRecordContract.SearchEntry.COLUMN_DATA_TEXT + ", " +
+            DriverRecordContract.SearchEntry.COLUMN_CONSTANTS_TEXT +
+            ") SELECT " + DriverRecordContract.RecordEntry._ID + ", " +
+            "(SELECT COALESCE(group_concat(" + DriverRecordContract.SectionEntry.COLUMN_SEARCH_TEXT + ", ' '), '') FROM " +
+            DriverRecordContract.SectionEntry.TABLE_NAME + " WHERE " + DriverRecordContract.SectionEntry.COLUMN_RECORD_ID + " = ?), " +
+            "COALESCE(" + DriverRecordContract.RecordEntry.COLUMN_WEATHER + ", '') || ' ' || " +
+            "COALESCE(" + DriverRecordContract.RecordEntry.COLUMN_LIGHT + ", '') " +
+            "FROM " + DriverRecordContract.RecordEntry.TABLE_NAME + " WHERE " + WHERE_ID;
+
+    // replaces any existing row for the section, by the table's unique constraint
+    private static final String SECTION_WRITE = "INSERT INTO " + DriverRecordContract.SectionEntry.TABLE_NAME + " (" +
+            DriverRecordContract.SectionEntry.COLUMN_RECORD_ID + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_SECTION_NAME + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_SECTION_INDEX + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_DATA + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_DATA_FORMAT + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_SEARCH_TEXT + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_ITEM_COUNT + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_PHOTO_COUNT + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_LABEL + ", " +
+            DriverRecordContract.SectionEntry.COLUMN_PAYLOAD_BYTES +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String WHERE_SECTION = DriverRecordContract.SectionEntry.COLUMN_RECORD_ID + " = ? AND " +
+            DriverRecordContract.SectionEntry.COLUMN_SECTION_NAME + " = ?";
+
+    private static final String SECTION_DELETE = "DELETE FROM " + DriverRecordContract.SectionEntry.TABLE_NAME +
+            " WHERE " + WHERE_SECTION;
+
+    private static final String SECTIONS_DELETE = "DELETE FROM " + DriverRecordContract.SectionEntry.TABLE_NAME +
+            " WHERE " + DriverRecordContract.SectionEntry.COLUMN_RECORD_ID + " = ?";
+
+    // Records without a location cannot be uploaded. Same test as canUploadLocation, for queries;
+    // a location stored as null or left at 0, 0 is not set.
+    static final String WHERE_UPLOAD_READY = "(COALESCE(" + DriverRecordContract.RecordEntry.COLUMN_LATITUDE + ", 0) != 0 OR " +
+            "COALESCE(" + DriverRecordContract.RecordEntry.COLUMN_LONGITUDE + ", 0) != 0)";
+
+    // Replace the summary row for a record. Whether it can be uploaded is read from the record
+    // row, as the location may have been left as it was by an update.
+    static final String SUMMARY_WRITE = "INSERT OR REPLACE INTO " + DriverRecordContract.SummaryEntry.TABLE_NAME + " (" +
+            DriverRecordContract.SummaryEntry.COLUMN_RECORD_ID + ", " +
+            DriverRecordContract.SummaryEntry.COLUMN_LABEL + ", " +
+            DriverRecordContract.SummaryEntry.COLUMN_ITEM_COUNTS + ", " +
+            DriverRecordContract.SummaryEntry.COLUMN_PHOTO_COUNT + ", " +
+            DriverRecordContract.SummaryEntry.COLUMN_PAYLOAD_BYTES + ", " +
+            DriverRecordContract.SummaryEntry.COLUMN_UPLOAD_READY +
+            ") SELECT " + DriverRecordContract.RecordEntry._ID + ", ?, ?, ?, ?, " + WHERE_UPLOAD_READY + " " +
+            "FROM " + DriverRecordContract.RecordEntry.TABLE_NAME + " WHERE " + WHERE_ID;
+
+    private static final String SUMMARY_DELETE = "DELETE FROM " + DriverRecordContract.SummaryEntry.TABLE_NAME +
+            " WHERE " + DriverRecordContract.SummaryEntry.COLUMN_RECORD_ID + " = ?";
+
+    // records with their summaries, for the record list
+    private static final String SELECT_SUMMARIES = "SELECT " +
+            "r." + DriverRecordContract.RecordEntry._ID + " AS " + DriverRecordContract.RecordEntry._ID + ", " +
+            "r." + DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " AS " + DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + ", " +
+            "s." + DriverRecordContract.SummaryEntry.COLUMN_LABEL + " AS " + DriverRecordContract.SummaryEntry.COLUMN_LABEL + ", " +
+            "s." + DriverRecordContract.SummaryEntry.COLUMN_ITEM_COUNTS + " AS " + DriverRecordContract.SummaryEntry.COLUMN_ITEM_COUNTS + ", " +
+            "s." + DriverRecordContract.SummaryEntry.COLUMN_PHOTO_COUNT + " AS " + DriverRecordContract.SummaryEntry.COLUMN_PHOTO_COUNT + ", " +
+            "s." + DriverRecordContract.SummaryEntry.COLUMN_UPLOAD_READY + " AS " + DriverRecordContract.SummaryEntry.COLUMN_UPLOAD_READY + " " +
+            "FROM " + DriverRecordContract.RecordEntry.TABLE_NAME + " r " +
+            "LEFT JOIN " + DriverRecordContract.SummaryEntry.TABLE_NAME + " s ON s." +
+            DriverRecordContract.SummaryEntry.COLUMN_RECORD_ID + " = r." + DriverRecordContract.RecordEntry._ID;
+
+    private static final String WHERE_SUMMARY_MATCHES = "r." + DriverRecordContract.RecordEntry._ID +
+            " IN (SELECT docid FROM " + DriverRecordContract.SearchEntry.TABLE_NAME + " WHERE " +
+            DriverRecordContract.SearchEntry.TABLE_NAME + " MATCH ?)";
+
+    // rows after a given one in list order; IDs break ties between records entered together
+    private static final String WHERE_SUMMARY_AFTER = "(r." + DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT +
+            " < ? OR (r." + DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " = ? AND r." +
+            DriverRecordContract.RecordEntry._ID + " < ?))";
+
+    private static final String SUMMARY_PAGE_ORDER = " ORDER BY r." +
+            DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " DESC, r." + DriverRecordContract.RecordEntry._ID + " DESC";
+
+    private static final String SELECT_SUMMARY_TOTALS = "SELECT COUNT(*), " +
+            "COALESCE(SUM(" + DriverRecordContract.SummaryEntry.COLUMN_UPLOAD_READY + "), 0), " +
+            "COALESCE(SUM(" + DriverRecordContract.SummaryEntry.COLUMN_PHOTO_COUNT + "), 0), " +
+            "COALESCE(SUM(" + DriverRecordContract.SummaryEntry.COLUMN_PAYLOAD_BYTES + "), 0) " +
+            "FROM " + DriverRecordContract.SummaryEntry.TABLE_NAME;
+
+    private static final String JOURNAL_INSERT = "INSERT INTO " + DriverRecordContract.JournalEntry.TABLE_NAME + " (" +
+            DriverRecordContract.JournalEntry.COLUMN_RECORD_ID + ", " +
+            DriverRecordContract.JournalEntry.COLUMN_SCHEMA_VERSION + ", " +
+            DriverRecordContract.JournalEntry.COLUMN_SECTION_NAME + ", " +
+            DriverRecordContract.JournalEntry.COLUMN_PATH + ", " +
+            DriverRecordContract.JournalEntry.COLUMN_VALUE +
+            ") VALUES (?, ?, ?, ?, ?)";
+
+    private static final String JOURNAL_CLEAR = "DELETE FROM " + DriverRecordContract.JournalEntry.TABLE_NAME;
+
+    private static final String SELECT_LAST_UPDATED = "SELECT COALESCE(" +
+            DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT + ", 0) FROM " +
+            DriverRecordContract.RecordEntry.TABLE_NAME + " WHERE " + WHERE_ID;
+
+    // names for query timings in the diagnostics
+    public static final String QUERY_SUMMARIES = "record summaries";
+    public static final String QUERY_SUMMARY_PAGE = "record summary page";
+    public static final String QUERY_TOTALS = "summary totals";
+    public static final String QUERY_SEARCH = "record search";
+    public static final String QUERY_RECORD = "record by ID";
+    public static final String QUERY_SECTION = "record section";
+
+    // data column value for records stored by section
+    private static final byte[] NO_DATA = new byte[0];
+
     RecordDatabaseHelper dbHelper;
 
     private final SQLiteDatabase writableDb;
     private final SQLiteDatabase readableDb;
 
+    // compiled statements are not thread-safe; synchronize on each while binding and executing
+    private final SQLiteStatement insertStatement;
+    private final SQLiteStatement updateStatement;
+    private final SQLiteStatement deleteStatement;
+    private final SQLiteStatement searchInsertStatement;
+    private final SQLiteStatement searchDeleteStatement;
+    private final SQLiteStatement searchInsertFromSectionsStatement;
+    private final SQLiteStatement sectionWriteStatement;
+    private final SQLiteStatement sectionDeleteStatement;
+    private final SQLiteStatement sectionsDeleteStatement;
+    private final SQLiteStatement summaryWriteStatement;
+    private final SQLiteStatement summaryDeleteStatement;
+    private final SQLiteStatement journalInsertStatement;
+    private final SQLiteStatement journalClearStatement;
+    private final SQLiteStatement lastUpdatedStatement;
+
+    private final RecordCache recordCache;
+    private final RecordDatabaseMaintenance maintenance;
+
+    // media fields to summarize and archive records by; null to use the current schema's
+    private volatile RecordSummary.MediaFields mediaFields;
+
+    /**
+     * Fields for a record to write. Data is either JSON text, bytes encoded with a codec, or a
+     * set of sections encoded with a codec.
+     */
+    public static class RecordRow {
+        public final String schemaVersion;
+        public final String data;
+        public final byte[] encodedData;
+        public final List<SectionRow> sections;
+        public final RecordDataCodec codec;
+        public final DriverConstantFields constants;
+
+        // set if writing this row saves the record being edited, so its edit journal is done with
+        public final boolean compactsJournal;
+
+        /**
+         * @param schemaVersion UUID of the schema used to create the record (only used on insert)
+         * @param data Serialized JSON representation of the record
+         * @param constants Constant fields for the record
+         */
+        public RecordRow(String schemaVersion, String data, DriverConstantFields constants) {
+            this(schemaVersion, data, null, null, JacksonRecordDataCodec.JSON, constants, false);
+        }
+
+        /**
+         * @param schemaVersion UUID of the schema used to create the record (only used on insert)
+         * @param encodedData Record data, as encoded by codec
+         * @param codec Codec that encoded the data
+         * @param constants Constant fields for the record
+         */
+        public RecordRow(String schemaVersion, byte[] encodedData, RecordDataCodec codec, DriverConstantFields constants) {
+            this(schemaVersion, null, encodedData, null, codec, constants, false);
+        }
+
+        /**
+         * Write only some sections of a record. Sections stored before and not in the list are
+         * left as they were.
+         *
+         * @param schemaVersion UUID of the schema used to create the record (only used on insert)
+         * @param sections Sections to write, as encoded by codec
+         * @param codec Codec that encoded the sections
+         * @param constants Constant fields for the record
+         */
+        public RecordRow(String schemaVersion, List<SectionRow> sections, RecordDataCodec codec, DriverConstantFields constants) {
+            this(schemaVersion, null, null, sections, codec, constants, false);
+        }
+
+        private RecordRow(String schemaVersion, String data, byte[] encodedData, List<SectionRow> sections,
+                          RecordDataCodec codec, DriverConstantFields constants, boolean compactsJournal) {
+            this.schemaVersion = schemaVersion;
+            this.data = data;
+            this.encodedData = encodedData;
+            this.sections = sections;
+            this.codec = codec;
+            this.constants = constants;
+            this.compactsJournal = compactsJournal;
+        }
+
+        /**
+         * @return Copy of this row that clears the edit journal in the transaction that writes it
+         */
+        public RecordRow withJournalCompaction() {
+            return new RecordRow(schemaVersion, data, encodedData, sections, codec, constants, true);
+        }
+
+        /**
+         * @return Value to store in the record's data format column
+         */
+        public int getDataFormat() {
+            if (sections != null) {
+                return DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS;
+            }
+            return codec.getFormat();
+        }
+
+        /**
+         * Combine a write waiting to run with a later one for the same record. Sections only
+         * in the earlier write are kept; everything else comes from the later write.
+         *
+         * @param earlier Write not yet run
+         * @param later Write queued after it
+         * @return Single write with the changes of both
+         */
+        public static RecordRow merge(RecordRow earlier, RecordRow later) {
+            if (earlier.sections == null || later.sections == null || earlier.codec != later.codec) {
+                if (earlier.compactsJournal && !later.compactsJournal) {
+                    return later.withJournalCompaction();
+                }
+                return later;
+            }
+
+            Map<String, SectionRow> merged = new LinkedHashMap<>();
+            for (SectionRow section : earlier.sections) {
+                merged.put(section.name, section);
+            }
+            for (SectionRow section : later.sections) {
+                merged.put(section.name, section);
+            }
+            return new RecordRow(later.schemaVersion, null, null, new ArrayList<>(merged.values()), later.codec,
+                    later.constants, earlier.compactsJournal || later.compactsJournal);
+        }
+    }
+
+    /**
+     * One encoded section of a record to write.
+     */
+    public static class SectionRow {
+        public final String name;
+        public final int index;
+        public final byte[] data;
+
+        /**
+         * @param name Serialized name of the section field
+         * @param index Position of the section in form order
+         * @param data Encoded section, or null to remove the stored section
+         */
+        public SectionRow(String name, int index, byte[] data) {
+            this.name = name;
+            this.index = index;
+            this.data = data;
+        }
+    }
+
     /**
      * Set up database for use. Will use in-memory database if amTesting flag is true.
      *
@@ -72,9 +393,64 @@ public class RecordDatabaseManager {
         }
 
         writableDb = dbHelper.getWritableDatabase();
+
+        // Write-ahead logging lets the list and forms read while the background writer commits.
+        // With it, commits only need to reach the log; syncing happens at checkpoints.
+        if (!amTesting && writableDb.enableWriteAheadLogging()) {
+            writableDb.execSQL("PRAGMA synchronous=NORMAL");
+        }
+
         readableDb = dbHelper.getReadableDatabase();
 
-        storeDateFormat.setTimeZone(TimeZone.getDefault());
+        maintenance = new RecordDatabaseMaintenance(writableDb, amTesting ? null : writableDb.getPath());
+        if (!amTesting) {
+            maintenance.applyCacheSize(context);
+            maintenance.restoreState(context.getSharedPreferences(
+                    context.getString(R.string.shared_preferences_file), Context.MODE_PRIVATE));
+        }
+
+        insertStatement = writableDb.compileStatement(INSERT_RECORD);
+        updateStatement = writableDb.compileStatement(UPDATE_RECORD);
+        deleteStatement = writableDb.compileStatement(DELETE_RECORD);
+        searchInsertStatement = writableDb.compileStatement(SEARCH_INSERT);
+        searchDeleteStatement = writableDb.compileStatement(SEARCH_DELETE);
+        searchInsertFromSectionsStatement = writableDb.compileStatement(SEARCH_INSERT_FROM_SECTIONS);
+        sectionWriteStatement = writableDb.compileStatement(SECTION_WRITE);
+        sectionDeleteStatement = writableDb.compileStatement(SECTION_DELETE);
+        sectionsDeleteStatement = writableDb.compileStatement(SECTIONS_DELETE);
+        summaryWriteStatement = writableDb.compileStatement(SUMMARY_WRITE);
+        summaryDeleteStatement = writableDb.compileStatement(SUMMARY_DELETE);
+        journalInsertStatement = writableDb.compileStatement(JOURNAL_INSERT);
+        journalClearStatement = writableDb.compileStatement(JOURNAL_CLEAR);
+        lastUpdatedStatement = readableDb.compileStatement(SELECT_LAST_UPDATED);
+
+        // cannot ask a test context for the memory class
+        recordCache = new RecordCache(amTesting ? RecordCache.DEFAULT_MAX_RECORDS : RecordCache.maxRecordsFor(context));
+    }
+
+    private static String coalesceColumn(String column) {
+        return column + " = COALESCE(?, " + column + ")";
+    }
+
+    /**
+     * Set the media fields to count photos and find media files by, in place of those of the
+     * current schema. For records of a schema other than the one loaded, as in test.
+     *
+     * @param mediaFields Media fields to use, or null to use those of the current schema
+     */
+    public void setMediaFields(RecordSummary.MediaFields mediaFields) {
+        this.mediaFields = mediaFields;
+    }
+
+    /**
+     * @return Media fields records are summarized and archived by
+     */
+    public RecordSummary.MediaFields getMediaFields() {
+        RecordSummary.MediaFields fields = mediaFields;
+        if (fields != null) {
+            return fields;
+        }
+        return RecordSummary.MediaFields.getForCurrentSchema();
     }
 
     /**
@@ -85,18 +461,22 @@ public class RecordDatabaseManager {
      * @return The row ID of the added record
      */
     public long addRecord(String schemaVersion, String data, DriverConstantFields constantFields) {
+        return addRecord(new RecordRow(schemaVersion, data, constantFields));
+    }
 
-        // store constants
-        ContentValues values = createConstantContent(constantFields);
-
-        // add schema version and serialized record data
-        values.put(DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION, schemaVersion);
-        values.put(DriverRecordContract.RecordEntry.COLUMN_DATA, data);
-
+    /**
+     * Add a record to the database.
+     *
+     * @param row Record to add
+     * @return The row ID of the added record, or -1 on failure
+     */
+    @Override
+    public long addRecord(RecordRow row) {
+        List<RecordSummary.SectionStats> stats = readRowStats(row);
         writableDb.beginTransaction();
         long newId = -1;
         try {
-            newId = writableDb.insert(DriverRecordContract.RecordEntry.TABLE_NAME, null, values);
+            newId = insertRecord(row, stats);
             writableDb.setTransactionSuccessful();
         } catch (Exception e) {
             Log.e(LOG_LABEL, "Database record insert failed");
@@ -110,38 +490,333 @@ public class RecordDatabaseManager {
     }
 
     /**
-     * Helper to build create/update query components for the constant fields.
-     * Call first, then modify returned values set to add/modify other fields.
+     * Add a batch of records to the database in a single transaction, as for an import.
+     * Either all of the records are added, or none are.
+     *
+     * @param rows Records to add
+     * @return Row IDs of the added records, in the order given, or null on failure
+     */
+    @Override
+    public long[] addRecords(List<RecordRow> rows) {
+        long[] newIds = new long[rows.size()];
+        List<List<RecordSummary.SectionStats>> stats = new ArrayList<>(rows.size());
+        for (RecordRow row : rows) {
+            stats.add(readRowStats(row));
+        }
+
+        writableDb.beginTransaction();
+        try {
+            for (int i = 0; i < newIds.length; i++) {
+                newIds[i] = insertRecord(rows.get(i), stats.get(i));
+            }
+            writableDb.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(LOG_LABEL, "Database bulk record insert failed");
+            e.printStackTrace();
+            newIds = null;
+        } finally {
+            writableDb.endTransaction();
+        }
+
+        return newIds;
+    }
+
+    /**
+     * Get the stats to summarize a row with. Photo files are looked at for their size here,
+     * before the write transaction is opened, rather than while it is held.
+     *
+     * @param row Record data to write
+     * @return Stats for each section in the row that has data, in the order given; or, for a
+     * record stored whole, for each of its sections
+     */
+    private List<RecordSummary.SectionStats> readRowStats(RecordRow row) {
+        RecordSummary.MediaFields mediaFields = getMediaFields();
+        if (row.sections == null) {
+            if (row.data != null) {
+                return RecordSummary.recordStats(row.data, mediaFields);
+            }
+            return RecordSummary.recordStats(row.encodedData, row.codec, mediaFields);
+        }
+
+        List<RecordSummary.SectionStats> stats = new ArrayList<>(row.sections.size());
+        for (SectionRow section : row.sections) {
+            if (section.data != null) {
+                stats.add(RecordSummary.sectionStats(section.name, section.index, section.data, row.codec,
+                        mediaFields.forSection(section.name)));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Run the compiled insert. Call within a transaction.
+     */
+    private long insertRecord(RecordRow row, List<RecordSummary.SectionStats> stats) {
+        long newId;
+        synchronized (insertStatement) {
+            insertStatement.clearBindings();
+            insertStatement.bindLong(1, System.currentTimeMillis());
+            insertStatement.bindString(2, row.schemaVersion);
+            bindData(insertStatement, 3, row);
+            bindConstants(insertStatement, 4, row.constants);
+            bindStringOrNull(insertStatement, 10, getGeohash(row.constants.location));
+            insertStatement.bindLong(11, row.getDataFormat());
+            newId = insertStatement.executeInsert();
+        }
+
+        if (newId > -1) {
+            if (row.sections != null) {
+                writeSections(newId, row, stats);
+            }
+            indexRecordText(newId, row);
+            summarizeRecord(newId, row, stats);
+            if (row.compactsJournal) {
+                executeClearJournal();
+            }
+        }
+        return newId;
+    }
+
+    /**
+     * Bind record data as text if it is text, so it can be read back as a string, or as a blob.
+     */
+    private static void bindData(SQLiteStatement statement, int index, RecordRow row) {
+        if (row.sections != null) {
+            statement.bindBlob(index, NO_DATA);
+        } else if (row.data != null) {
+            statement.bindString(index, row.data);
+        } else if (row.codec.isText()) {
+            statement.bindString(index, new String(row.encodedData, UTF_8));
+        } else {
+            statement.bindBlob(index, row.encodedData);
+        }
+    }
+
+    /**
+     * Replace the full-text index entry for a record. Call within the transaction that wrote
+     * the record row, after writing it.
+     *
+     * @param recordId Database ID of the record
+     * @param row Record data written
+     */
+    private void indexRecordText(long recordId, RecordRow row) {
+        removeRecordText(recordId);
+        if (row.sections != null) {
+            synchronized (searchInsertFromSectionsStatement) {
+                searchInsertFromSectionsStatement.bindLong(1, recordId);
+                searchInsertFromSectionsStatement.bindLong(2, recordId);
+                searchInsertFromSectionsStatement.executeInsert();
+            }
+            return;
+        }
+
+        String text;
+        if (row.data != null) {
+            text = RecordSearchText.fromRecordData(row.data);
+        } else {
+            text = RecordSearchText.fromRecordData(row.encodedData, row.codec);
+        }
+        synchronized (searchInsertStatement) {
+            searchInsertStatement.clearBindings();
+            searchInsertStatement.bindString(1, text);
+            searchInsertStatement.bindLong(2, recordId);
+            searchInsertStatement.executeInsert();
+        }
+    }
+
+    /**
+     * Write or remove the sections in a record row. Call within the transaction that wrote the
+     * record row.
+     *
+     * @param stats Stats for each section in the row that has data, in order, from {@link #readRowStats}
+     */
+    private void writeSections(long recordId, RecordRow row, List<RecordSummary.SectionStats> stats) {
+        int statsIndex = 0;
+        for (SectionRow section : row.sections) {
+            if (section.data == null) {
+                synchronized (sectionDeleteStatement) {
+                    sectionDeleteStatement.bindLong(1, recordId);
+                    sectionDeleteStatement.bindString(2, section.name);
+                    sectionDeleteStatement.executeUpdateDelete();
+                }
+                continue;
+            }
+
+            String text = RecordSearchText.fromRecordData(section.data, row.codec);
+            RecordSummary.SectionStats sectionStats = stats.get(statsIndex++);
+            synchronized (sectionWriteStatement) {
+                sectionWriteStatement.bindLong(1, recordId);
+                sectionWriteStatement.bindString(2, section.name);
+                sectionWriteStatement.bindLong(3, section.index);
+                sectionWriteStatement.bindBlob(4, section.data);
+                sectionWriteStatement.bindLong(5, row.codec.getFormat());
+                sectionWriteStatement.bindString(6, text);
+                bindSectionStats(sectionWriteStatement, 7, sectionStats);
+                sectionWriteStatement.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * Bind section stats to a statement. Binds, in order: item count, photo count, label, payload size.
+     */
+    static void bindSectionStats(SQLiteStatement statement, int startIndex, RecordSummary.SectionStats stats) {
+        statement.bindLong(startIndex, stats.itemCount);
+        statement.bindLong(startIndex + 1, stats.photoCount);
+        statement.bindString(startIndex + 2, stats.label);
+        statement.bindLong(startIndex + 3, stats.payloadBytes);
+    }
+
+    /**
+     * Replace the summary row for a record. Call within the transaction that wrote the record
+     * row, after writing it and its sections.
+     *
+     * @param recordId Database ID of the record
+     * @param row Record data written
+     * @param stats Stats read for the row by {@link #readRowStats}
+     */
+    private void summarizeRecord(long recordId, RecordRow row, List<RecordSummary.SectionStats> stats) {
+        List<RecordSummary.SectionStats> sections = stats;
+        if (row.sections != null) {
+            // sections not in this write count too
+            sections = readSectionStats(writableDb, recordId);
+        }
+
+        synchronized (summaryWriteStatement) {
+            bindSummary(summaryWriteStatement, recordId, RecordSummary.fromSections(sections));
+            summaryWriteStatement.executeInsert();
+        }
+    }
+
+    /**
+     * Bind a summary to a compiled {@link #SUMMARY_WRITE} statement.
+     */
+    static void bindSummary(SQLiteStatement statement, long recordId, RecordSummary summary) {
+        statement.clearBindings();
+        statement.bindString(1, summary.label);
+        statement.bindString(2, summary.getItemCountsJson());
+        statement.bindLong(3, summary.photoCount);
+        statement.bindLong(4, summary.payloadBytes);
+        statement.bindLong(5, recordId);
+    }
+
+    /**
+     * Read the stats stored with each section of a record.
      *
+     * @param db Database to read from; the writable database, if within a write transaction
+     * @param recordId Database ID of the record
+     * @return Stats for each stored section, in form order
+     */
+    static List<RecordSummary.SectionStats> readSectionStats(SQLiteDatabase db, long recordId) {
+        String[] columns = {
+                DriverRecordContract.SectionEntry.COLUMN_SECTION_NAME,
+                DriverRecordContract.SectionEntry.COLUMN_SECTION_INDEX,
+                DriverRecordContract.SectionEntry.COLUMN_ITEM_COUNT,
+                DriverRecordContract.SectionEntry.COLUMN_PHOTO_COUNT,
+                DriverRecordContract.SectionEntry.COLUMN_LABEL,
+                DriverRecordContract.SectionEntry.COLUMN_PAYLOAD_BYTES
+        };
+        String[] whereArgs = { String.valueOf(recordId) };
+
+        List<RecordSummary.SectionStats> sections = new ArrayList<>();
+        Cursor cursor = db.query(DriverRecordContract.SectionEntry.TABLE_NAME, columns,
+                DriverRecordContract.SectionEntry.COLUMN_RECORD_ID + " = ?", whereArgs, null, null,
+                DriverRecordContract.SectionEntry.COLUMN_SECTION_INDEX);
+        try {
+            while (cursor.moveToNext()) {
+                sections.add(new RecordSummary.SectionStats(cursor.getString(0), cursor.getInt(1),
+                        cursor.getInt(2), cursor.getInt(3), cursor.getString(4), cursor.getLong(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return sections;
+    }
+
+    private void removeSections(long recordId) {
+        synchronized (sectionsDeleteStatement) {
+            sectionsDeleteStatement.bindLong(1, recordId);
+            sectionsDeleteStatement.executeUpdateDelete();
+        }
+    }
+
+    private void removeRecordText(long recordId) {
+        synchronized (searchDeleteStatement) {
+            searchDeleteStatement.bindLong(1, recordId);
+            searchDeleteStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Helper to bind the constant fields to a compiled insert or update. Binds, in order:
+     * occurred from, occurred to, latitude, longitude, weather, light. Unset fields are bound
+     * as null.
+     *
+     * @param statement Compiled statement to bind to
+     * @param startIndex Index of the first constant field parameter in the statement
      * @param constantFields Object with constant fields to set
-     * @return New set of query values containing the constant fields
      */
-    private ContentValues createConstantContent(DriverConstantFields constantFields) {
-        ContentValues values = new ContentValues();
+    private void bindConstants(SQLiteStatement statement, int startIndex, DriverConstantFields constantFields) {
+        int index = startIndex;
 
-        // convert date to property formatted UTC strings
-        String formattedDateOccurred = storeDateFormat.format(constantFields.occurredFrom);
-        values.put(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM, formattedDateOccurred);
+        long occurred = constantFields.occurredFrom.getTime();
+        statement.bindLong(index++, occurred);
 
         // set occurred-to same as occurred-from
         // TODO: make this separately editable, or keep it hidden?
-        values.put(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO, formattedDateOccurred);
+        statement.bindLong(index++, occurred);
 
         // TODO: remove/modify null check if field becomes required
         if (constantFields.location != null) {
-            values.put(DriverRecordContract.RecordEntry.COLUMN_LATITUDE, constantFields.location.getLatitude());
-            values.put(DriverRecordContract.RecordEntry.COLUMN_LONGITUDE, constantFields.location.getLongitude());
+            statement.bindDouble(index++, constantFields.location.getLatitude());
+            statement.bindDouble(index++, constantFields.location.getLongitude());
+        } else {
+            statement.bindNull(index++);
+            statement.bindNull(index++);
         }
 
-        if (constantFields.Weather != null) {
-            values.put(DriverRecordContract.RecordEntry.COLUMN_WEATHER, constantFields.Weather.toString());
+        bindStringOrNull(statement, index++, constantFields.Weather);
+        bindStringOrNull(statement, index, constantFields.Light);
+    }
+
+    private static String getGeohash(Location location) {
+        if (location == null) {
+            return null;
         }
+        return getGeohash(location.getLatitude(), location.getLongitude());
+    }
+
+    /**
+     * Check whether a record location is set, as it must be for the record to be uploaded.
+     *
+     * @param latitude Record latitude, as stored
+     * @param longitude Record longitude, as stored
+     * @return False if the location is unset (at 0, 0)
+     */
+    public static boolean canUploadLocation(double latitude, double longitude) {
+        return latitude != 0 || longitude != 0;
+    }
 
-        if (constantFields.Light != null) {
-            values.put(DriverRecordContract.RecordEntry.COLUMN_LIGHT, constantFields.Light.toString());
+    /**
+     * Get the geohash to store for a record location.
+     *
+     * @param latitude Record latitude
+     * @param longitude Record longitude
+     * @return Geohash, or null if the location is unset (at 0, 0)
+     */
+    static String getGeohash(double latitude, double longitude) {
+        if (!canUploadLocation(latitude, longitude)) {
+            return null;
         }
+        return GeoHash.encode(latitude, longitude, GeoHash.STORED_PRECISION);
+    }
 
-        return values;
+    private static void bindStringOrNull(SQLiteStatement statement, int index, Object value) {
+        if (value != null) {
+            statement.bindString(index, value.toString());
+        } else {
+            statement.bindNull(index);
+        }
     }
 
     /**
@@ -152,21 +827,50 @@ public class RecordDatabaseManager {
      * @return Number of rows affected (should be 1 on success)
      */
     public int updateRecord(String data, DriverConstantFields constantFields, long recordId) {
+        return updateRecord(new RecordRow(null, data, constantFields), recordId);
+    }
 
-        String[] whereArgs = { String.valueOf(recordId) };
-
-        // store constants
-        ContentValues values = createConstantContent(constantFields);
-
-        values.put(DriverRecordContract.RecordEntry.COLUMN_DATA, data);
-
-        // set last updated timestamp
-        values.put(DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT, storeDateFormat.format(new Date()));
-
+    /**
+     * Update an existing record in the database. The schema version of the row is ignored.
+     *
+     * @param row Record data and constant fields to save
+     * @param recordId Database ID of the record to update
+     * @return Number of rows affected (should be 1 on success)
+     */
+    @Override
+    public int updateRecord(RecordRow row, long recordId) {
+        DriverConstantFields constantFields = row.constants;
+        List<RecordSummary.SectionStats> stats = readRowStats(row);
         writableDb.beginTransaction();
         int affected = -1;
         try {
-            affected = writableDb.update(DriverRecordContract.RecordEntry.TABLE_NAME, values, WHERE_ID, whereArgs);
+            synchronized (updateStatement) {
+                updateStatement.clearBindings();
+                bindData(updateStatement, 1, row);
+                updateStatement.bindLong(2, row.getDataFormat());
+                bindConstants(updateStatement, 3, constantFields);
+
+                updateStatement.bindLong(9, constantFields.location != null ? 1 : 0);
+                bindStringOrNull(updateStatement, 10, getGeohash(constantFields.location));
+
+                // set last updated timestamp
+                updateStatement.bindLong(11, System.currentTimeMillis());
+                updateStatement.bindLong(12, recordId);
+                affected = updateStatement.executeUpdateDelete();
+            }
+            if (affected == 1) {
+                if (row.sections != null) {
+                    writeSections(recordId, row, stats);
+                } else {
+                    // whole record replaces any sections stored before
+                    removeSections(recordId);
+                }
+                indexRecordText(recordId, row);
+                summarizeRecord(recordId, row, stats);
+                if (row.compactsJournal) {
+                    executeClearJournal();
+                }
+            }
             writableDb.setTransactionSuccessful();
         } catch (Exception e) {
             Log.e(LOG_LABEL, "Database record update failed for ID " + recordId);
@@ -175,6 +879,7 @@ public class RecordDatabaseManager {
         } finally {
             writableDb.endTransaction();
         }
+        recordCache.invalidate(recordId);
         return affected;
     }
 
@@ -184,13 +889,12 @@ public class RecordDatabaseManager {
      * @param recordId Database ID for the record to delete
      * @return true on success
      */
+    @Override
     public boolean deleteRecord(long recordId) {
-        String[] whereArgs = { String.valueOf(recordId) };
-
         writableDb.beginTransaction();
         int affected = -1;
         try {
-            affected = writableDb.delete(DriverRecordContract.RecordEntry.TABLE_NAME, WHERE_ID, whereArgs);
+            affected = executeDelete(recordId);
             writableDb.setTransactionSuccessful();
         } catch (Exception e) {
             Log.e(LOG_LABEL, "Database record deletion failed for ID " + recordId);
@@ -199,8 +903,10 @@ public class RecordDatabaseManager {
         } finally {
             writableDb.endTransaction();
         }
+        recordCache.invalidate(recordId);
 
         if (affected == 1) {
+            maintenance.noteDeleted(1);
             return true;
         } else {
             Log.e(LOG_LABEL, "Number or records affected by delete: " + affected);
@@ -209,6 +915,162 @@ public class RecordDatabaseManager {
         return false;
     }
 
+    /**
+     * Delete a set of records from the database in a single transaction, as after uploading.
+     *
+     * @param recordIds Database IDs for the records to delete
+     * @return Number of records deleted, or -1 on failure (in which case none are deleted)
+     */
+    @Override
+    public int deleteRecords(long[] recordIds) {
+        writableDb.beginTransaction();
+        int affected = 0;
+        try {
+            for (long recordId : recordIds) {
+                affected += executeDelete(recordId);
+            }
+            writableDb.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(LOG_LABEL, "Database bulk record deletion failed");
+            e.printStackTrace();
+            affected = -1;
+        } finally {
+            writableDb.endTransaction();
+        }
+        for (long recordId : recordIds) {
+            recordCache.invalidate(recordId);
+        }
+
+        if (affected != recordIds.length) {
+            Log.e(LOG_LABEL, "Deleted " + affected + " of " + recordIds.length + " records");
+        }
+        if (affected > 0) {
+            maintenance.noteDeleted(affected);
+        }
+
+        return affected;
+    }
+
+    /**
+     * Run the compiled delete. Call within a transaction.
+     */
+    private int executeDelete(long recordId) {
+        removeRecordText(recordId);
+        removeSections(recordId);
+        synchronized (summaryDeleteStatement) {
+            summaryDeleteStatement.bindLong(1, recordId);
+            summaryDeleteStatement.executeUpdateDelete();
+        }
+        synchronized (deleteStatement) {
+            deleteStatement.bindLong(1, recordId);
+            return deleteStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Append changes to the edit journal, in a single transaction.
+     *
+     * Should not be called on the UI thread; use {@link RecordWriteQueue#journal(List)}.
+     *
+     * @param changes Changes to the record being edited, in the order they were made
+     * @return True if all of the changes were written
+     */
+    public boolean appendJournal(List<RecordJournal.Change> changes) {
+        boolean written = false;
+        writableDb.beginTransaction();
+        try {
+            synchronized (journalInsertStatement) {
+                for (RecordJournal.Change change : changes) {
+                    journalInsertStatement.clearBindings();
+                    journalInsertStatement.bindLong(1, change.recordId);
+                    bindStringOrNull(journalInsertStatement, 2, change.schemaVersion);
+                    journalInsertStatement.bindString(3, change.sectionName);
+                    journalInsertStatement.bindString(4, change.path);
+                    bindStringOrNull(journalInsertStatement, 5, change.value);
+                    journalInsertStatement.executeInsert();
+                }
+            }
+            writableDb.setTransactionSuccessful();
+            written = true;
+        } catch (Exception e) {
+            Log.e(LOG_LABEL, "Failed to write record edit journal");
+            e.printStackTrace();
+        } finally {
+            writableDb.endTransaction();
+        }
+        return written;
+    }
+
+    /**
+     * Read the whole edit journal.
+     *
+     * @return Journaled changes, in the order they were made; empty if there are none
+     */
+    public List<RecordJournal.Change> readJournal() {
+        String[] columns = {
+                DriverRecordContract.JournalEntry.COLUMN_RECORD_ID,
+                DriverRecordContract.JournalEntry.COLUMN_SCHEMA_VERSION,
+                DriverRecordContract.JournalEntry.COLUMN_SECTION_NAME,
+                DriverRecordContract.JournalEntry.COLUMN_PATH,
+                DriverRecordContract.JournalEntry.COLUMN_VALUE
+        };
+
+        List<RecordJournal.Change> changes = new ArrayList<>();
+        Cursor cursor = readableDb.query(DriverRecordContract.JournalEntry.TABLE_NAME, columns,
+                null, null, null, null, DriverRecordContract.JournalEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(new RecordJournal.Change(cursor.getLong(0), cursor.getString(1),
+                        cursor.getString(2), cursor.getString(3), cursor.getString(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Remove everything from the edit journal, as when the record being edited is discarded.
+     *
+     * Should not be called on the UI thread; use {@link RecordWriteQueue#clearJournal()}.
+     */
+    public void clearJournal() {
+        try {
+            executeClearJournal();
+        } catch (Exception e) {
+            Log.e(LOG_LABEL, "Failed to clear record edit journal");
+            e.printStackTrace();
+        }
+    }
+
+    private void executeClearJournal() {
+        synchronized (journalClearStatement) {
+            journalClearStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Copy committed transactions from the write-ahead log into the database file, and sync it
+     * to disk. Does nothing if write-ahead logging is not enabled.
+     *
+     * Should not be called on the UI thread; use {@link RecordWriteQueue#flush()}.
+     */
+    @Override
+    public void checkpoint() {
+        Cursor cursor = null;
+        try {
+            cursor = writableDb.rawQuery("PRAGMA wal_checkpoint", null);
+            cursor.moveToFirst();
+        } catch (Exception e) {
+            Log.e(LOG_LABEL, "Database checkpoint failed");
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
     /**
      * Get a cursor to fetch all records.
      *
@@ -229,6 +1091,336 @@ public class RecordDatabaseManager {
         );
     }
 
+    /**
+     * Get a cursor to fetch records containing words that start with each of the words in the
+     * search text, most recently entered first. Matches against text in the record data and
+     * constant fields, without deserializing records.
+     *
+     * @param searchText Text to search for, as entered by user
+     * @return Database cursor to retrieve matching records, or all records if search text is empty
+     */
+    public Cursor searchRecords(String searchText) {
+        String matchQuery = RecordSearchText.buildMatchQuery(searchText);
+        if (matchQuery == null) {
+            return readAllRecords();
+        }
+
+        String where = DriverRecordContract.RecordEntry._ID + " IN (SELECT docid FROM " +
+                DriverRecordContract.SearchEntry.TABLE_NAME + " WHERE " +
+                DriverRecordContract.SearchEntry.TABLE_NAME + " MATCH ?)";
+        String[] whereArgs = { matchQuery };
+        String sortOrder = DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " DESC";
+
+        long startTime = System.nanoTime();
+        Cursor cursor = readableDb.query(
+                DriverRecordContract.RecordEntry.TABLE_NAME,
+                ALL_FIELDS, // columns
+                where,      // WHERE
+                whereArgs,  // WHERE args
+                null,       // GROUP BY
+                null,       // HAVING
+                sortOrder   // ORDER BY
+        );
+        // queries run when first read from, so read the count to time it
+        cursor.getCount();
+        maintenance.recordQuery(QUERY_SEARCH, startTime);
+        return cursor;
+    }
+
+    /**
+     * Get a cursor over the summaries of records for the record list, most recently entered
+     * first. Reads no record data. Filters by search text as for {@link #searchRecords(String)}.
+     *
+     * Columns are the record _ID and entered at time, and the summary label, item counts,
+     * photo count, and upload ready flag, named as in the summary table.
+     *
+     * @param searchText Text to search for, as entered by user; may be empty to list all records
+     * @return Database cursor over matching record summaries
+     */
+    public Cursor readRecordSummaries(String searchText) {
+        String matchQuery = RecordSearchText.buildMatchQuery(searchText);
+        String sortOrder = " ORDER BY r." + DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " DESC";
+
+        long startTime = System.nanoTime();
+        Cursor cursor;
+        if (matchQuery == null) {
+            cursor = readableDb.rawQuery(SELECT_SUMMARIES + sortOrder, null);
+        } else {
+            String[] whereArgs = { matchQuery };
+            cursor = readableDb.rawQuery(SELECT_SUMMARIES + " WHERE " + WHERE_SUMMARY_MATCHES + sortOrder, whereArgs);
+        }
+        cursor.getCount();
+        maintenance.recordQuery(QUERY_SUMMARIES, startTime);
+        return cursor;
+    }
+
+    /**
+     * Read one page of the record list, most recently entered first, starting after the last
+     * row of the page before. Pages are found by their position in the entered at index, so
+     * later pages cost no more to read than the first, and rows added or removed above the
+     * page do not shift it. Filters by search text as for {@link #searchRecords(String)}.
+     *
+     * @param searchText Text to search for, as entered by user; may be empty to list all records
+     * @param after Last row of the page before, or null to read the first page
+     * @param limit Most rows to read
+     * @return Rows of the page, in list order; fewer than the limit if there are no more
+     */
+    public List<RecordSummary.ListEntry> readRecordSummaryPage(String searchText, RecordSummary.ListEntry after,
+                                                               int limit) {
+        String matchQuery = RecordSearchText.buildMatchQuery(searchText);
+        List<String> whereArgs = new ArrayList<>(4);
+        StringBuilder where = new StringBuilder();
+
+        if (matchQuery != null) {
+            where.append(WHERE_SUMMARY_MATCHES);
+            whereArgs.add(matchQuery);
+        }
+
+        if (after != null) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(WHERE_SUMMARY_AFTER);
+            String enteredAt = String.valueOf(after.enteredAt);
+            whereArgs.add(enteredAt);
+            whereArgs.add(enteredAt);
+            whereArgs.add(String.valueOf(after.recordId));
+        }
+
+        String query = SELECT_SUMMARIES;
+        if (where.length() > 0) {
+            query += " WHERE " + where;
+        }
+        query += SUMMARY_PAGE_ORDER + " LIMIT " + limit;
+
+        long startTime = System.nanoTime();
+        Cursor cursor = readableDb.rawQuery(query, whereArgs.toArray(new String[whereArgs.size()]));
+        try {
+            List<RecordSummary.ListEntry> page = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                page.add(RecordSummary.ListEntry.fromCursor(cursor));
+            }
+            return page;
+        } finally {
+            cursor.close();
+            maintenance.recordQuery(QUERY_SUMMARY_PAGE, startTime);
+        }
+    }
+
+    /**
+     * Read the record list row for one record, to show it after it has been saved.
+     *
+     * @param recordId Database ID of the record
+     * @return Row for the record, or null if there is no such record
+     */
+    public RecordSummary.ListEntry readRecordSummaryEntry(long recordId) {
+        String[] whereArgs = { String.valueOf(recordId) };
+        Cursor cursor = readableDb.rawQuery(SELECT_SUMMARIES + " WHERE r." + WHERE_ID, whereArgs);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return RecordSummary.ListEntry.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Count stored records, how many can be uploaded, and what they hold, from their summaries.
+     *
+     * @return Totals across all records
+     */
+    public RecordSummary.Totals readSummaryTotals() {
+        long startTime = System.nanoTime();
+        Cursor cursor = readableDb.rawQuery(SELECT_SUMMARY_TOTALS, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new RecordSummary.Totals(0, 0, 0, 0);
+            }
+            return new RecordSummary.Totals(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2), cursor.getLong(3));
+        } finally {
+            cursor.close();
+            maintenance.recordQuery(QUERY_TOTALS, startTime);
+        }
+    }
+
+    /**
+     * Get a cursor to fetch records that occurred at any time within a range, most recent first.
+     *
+     * @param fromMillis Start of range, in milliseconds since the epoch
+     * @param toMillis End of range, in milliseconds since the epoch
+     * @return Database cursor to retrieve records in range
+     */
+    public Cursor readRecordsOccurredBetween(long fromMillis, long toMillis) {
+
+        // match records whose occurrence period overlaps the range
+        String where = DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM + " <= ? AND " +
+                DriverRecordContract.RecordEntry.COLUMN_OCCURRED_TO + " >= ?";
+        String[] whereArgs = { String.valueOf(toMillis), String.valueOf(fromMillis) };
+        String sortOrder = DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM + " DESC";
+
+        return readableDb.query(
+                DriverRecordContract.RecordEntry.TABLE_NAME,
+                ALL_FIELDS, // columns
+                where,      // WHERE
+                whereArgs,  // WHERE args
+                null,       // GROUP BY
+                null,       // HAVING
+                sortOrder   // ORDER BY
+        );
+    }
+
+    /**
+     * Get a cursor to fetch records entered at or after a given time, most recent first.
+     *
+     * @param sinceMillis Earliest entry time to match, in milliseconds since the epoch
+     * @return Database cursor to retrieve records entered since the given time
+     */
+    public Cursor readRecordsEnteredSince(long sinceMillis) {
+
+        String where = DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " >= ?";
+        String[] whereArgs = { String.valueOf(sinceMillis) };
+        String sortOrder = DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " DESC";
+
+        return readableDb.query(
+                DriverRecordContract.RecordEntry.TABLE_NAME,
+                ALL_FIELDS, // columns
+                where,      // WHERE
+                whereArgs,  // WHERE args
+                null,       // GROUP BY
+                null,       // HAVING
+                sortOrder   // ORDER BY
+        );
+    }
+
+    /**
+     * Get a cursor to fetch records located within a bounding box. If west is greater than east,
+     * the box is taken to cross the antimeridian.
+     *
+     * @param south Minimum latitude
+     * @param west Minimum longitude
+     * @param north Maximum latitude
+     * @param east Maximum longitude
+     * @return Database cursor to retrieve records in the box, most recently entered first
+     */
+    public Cursor readRecordsInBoundingBox(double south, double west, double north, double east) {
+        List<String> args = new ArrayList<>();
+        String where;
+        if (west > east) {
+            where = "(" + buildBoundingBoxWhere(south, west, north, 180, args) + ") OR (" +
+                    buildBoundingBoxWhere(south, -180, north, east, args) + ")";
+        } else {
+            where = buildBoundingBoxWhere(south, west, north, east, args);
+        }
+
+        String sortOrder = DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT + " DESC";
+
+        return readableDb.query(
+                DriverRecordContract.RecordEntry.TABLE_NAME,
+                ALL_FIELDS, // columns
+                where,      // WHERE
+                args.toArray(new String[args.size()]), // WHERE args
+                null,       // GROUP BY
+                null,       // HAVING
+                sortOrder   // ORDER BY
+        );
+    }
+
+    /**
+     * Get a cursor to fetch records within a distance of a point, nearest first.
+     *
+     * Distances are measured on a plane tangent to the earth at the center point, which is
+     * accurate to within a few meters for radii up to tens of kilometers.
+     *
+     * @param latitude Latitude of center point
+     * @param longitude Longitude of center point
+     * @param radiusMeters Distance from center point to search
+     * @return Database cursor to retrieve records in range
+     */
+    public Cursor readRecordsNear(double latitude, double longitude, double radiusMeters) {
+        double latDelta = radiusMeters / METERS_PER_DEGREE;
+        double lonScale = Math.cos(Math.toRadians(latitude));
+        double lonDelta = lonScale > 0 ? latDelta / lonScale : 360;
+
+        double south = Math.max(-90, latitude - latDelta);
+        double north = Math.min(90, latitude + latDelta);
+        double west = longitude - lonDelta;
+        double east = longitude + lonDelta;
+
+        List<String> args = new ArrayList<>();
+        String where;
+        if (lonDelta >= 180) {
+            where = buildBoundingBoxWhere(south, -180, north, 180, args);
+        } else if (west < -180) {
+            where = "(" + buildBoundingBoxWhere(south, west + 360, north, 180, args) + ") OR (" +
+                    buildBoundingBoxWhere(south, -180, north, east, args) + ")";
+        } else if (east > 180) {
+            where = "(" + buildBoundingBoxWhere(south, west, north, 180, args) + ") OR (" +
+                    buildBoundingBoxWhere(south, -180, north, east - 360, args) + ")";
+        } else {
+            where = buildBoundingBoxWhere(south, west, north, east, args);
+        }
+
+        // squared distance in degrees of latitude, with longitude differences wrapped to +/-180
+        String lonOffset = "(" + DriverRecordContract.RecordEntry.COLUMN_LONGITUDE + " - (" + longitude + "))";
+        String lonDiff = "(CASE WHEN " + lonOffset + " > 180 THEN " + lonOffset + " - 360 WHEN " +
+                lonOffset + " < -180 THEN " + lonOffset + " + 360 ELSE " + lonOffset + " END)";
+        String latDiff = "(" + DriverRecordContract.RecordEntry.COLUMN_LATITUDE + " - (" + latitude + "))";
+        String distanceSquared = latDiff + " * " + latDiff + " + " +
+                lonDiff + " * " + lonDiff + " * " + (lonScale * lonScale);
+
+        where = "(" + where + ") AND " + distanceSquared + " <= " + (latDelta * latDelta);
+
+        return readableDb.query(
+                DriverRecordContract.RecordEntry.TABLE_NAME,
+                ALL_FIELDS, // columns
+                where,      // WHERE
+                args.toArray(new String[args.size()]), // WHERE args
+                null,       // GROUP BY
+                null,       // HAVING
+                distanceSquared // ORDER BY
+        );
+    }
+
+    /**
+     * Helper to build a WHERE clause matching records in a bounding box that does not cross the
+     * antimeridian. Narrows by geohash prefix ranges first so the geohash index can be used.
+     *
+     * @param args Query arguments; arguments for the returned clause are appended
+     * @return WHERE clause for the box
+     */
+    private String buildBoundingBoxWhere(double south, double west, double north, double east, List<String> args) {
+        StringBuilder where = new StringBuilder();
+
+        List<String> prefixes = GeoHash.coverBoundingBox(south, west, north, east, MAX_GEOHASH_RANGES);
+        if (prefixes != null) {
+            where.append('(');
+            for (int i = 0; i < prefixes.size(); i++) {
+                if (i > 0) {
+                    where.append(" OR ");
+                }
+                where.append('(').append(DriverRecordContract.RecordEntry.COLUMN_GEOHASH).append(" >= ? AND ")
+                        .append(DriverRecordContract.RecordEntry.COLUMN_GEOHASH).append(" < ?)");
+                args.add(prefixes.get(i));
+                args.add(prefixes.get(i) + GeoHash.PREFIX_RANGE_END);
+            }
+            where.append(") AND ");
+        } else {
+            where.append(DriverRecordContract.RecordEntry.COLUMN_GEOHASH).append(" IS NOT NULL AND ");
+        }
+
+        // prefix cells extend past the box; check coordinates for exact match
+        where.append(DriverRecordContract.RecordEntry.COLUMN_LATITUDE).append(" BETWEEN ? AND ? AND ")
+                .append(DriverRecordContract.RecordEntry.COLUMN_LONGITUDE).append(" BETWEEN ? AND ?");
+        args.add(String.valueOf(south));
+        args.add(String.valueOf(north));
+        args.add(String.valueOf(west));
+        args.add(String.valueOf(east));
+
+        return where.toString();
+    }
+
     /**
      * Fetch the JSON representation of a record from the database by its _id
      *
@@ -237,7 +1429,10 @@ public class RecordDatabaseManager {
      */
     public String getSerializedRecordWithId(long recordId) {
 
-        String[] dataField = { DriverRecordContract.RecordEntry.COLUMN_DATA };
+        String[] dataField = {
+                DriverRecordContract.RecordEntry.COLUMN_DATA,
+                DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT
+        };
         String[] whereArgs = { String.valueOf(recordId) };
 
         Cursor cursor = readableDb.query(
@@ -255,7 +1450,14 @@ public class RecordDatabaseManager {
             return null;
         }
 
-        String recordData = cursor.getString(0);
+        String recordData;
+        if (cursor.getInt(1) == DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS) {
+            recordData = DriverSchemaSerializer.toJson(readSectionsTree(recordId));
+        } else if (cursor.getType(0) == Cursor.FIELD_TYPE_BLOB) {
+            recordData = DriverSchemaSerializer.toJson(cursor.getBlob(0), cursor.getInt(1));
+        } else {
+            recordData = cursor.getString(0);
+        }
         cursor.close();
         return recordData;
     }
@@ -280,40 +1482,391 @@ public class RecordDatabaseManager {
     }
 
     /**
-     * Retrieve a single record by ID from the database
+     * Retrieve a single record by ID from the database. Each call returns a new Record; the row
+     * is not queried again if it is cached and the record has not changed since.
+     *
      * @param recordId ID for the record
      * @return deserialized record, with constants
      */
     public Record getRecordById(long recordId) {
-
-        Cursor cursor = getRecordByIdCursor(recordId);
-
-        if (!cursor.moveToFirst()) {
+        long lastUpdated = getLastUpdated(recordId);
+        if (lastUpdated < 0) {
             Log.e(LOG_LABEL, "Record with ID " + recordId + " not found!");
             return null;
         }
 
-        // find column offsets in response
-        int dataColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
-        int schemaColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION);
+        RecordCache.Row row = recordCache.get(recordId, lastUpdated);
+        if (row == null) {
+            row = readRecordRow(recordId);
+            if (row == null) {
+                Log.e(LOG_LABEL, "Record with ID " + recordId + " not found!");
+                return null;
+            }
+            recordCache.put(row);
+        }
 
-        // fetch fields
-        String recordData = cursor.getString(dataColumn);
-        DriverConstantFields constants = readStoredConstants(cursor);
-        String schemaVersion = cursor.getString(schemaColumn);
-        cursor.close();
+        if (row.dataFormat == DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS) {
+            // sections are read as the form opens them
+            return Record.withUnloadedSections(recordId, row.getConstants(), row.schemaVersion);
+        }
 
-        Object recordObject;
-        if (recordData == null) {
-            Log.e(LOG_LABEL, "Cannot deserialize null record data string!");
+        if (row.getData() == null) {
+            Log.e(LOG_LABEL, "Cannot deserialize null record data!");
         }
 
-        recordObject = DriverSchemaSerializer.readRecord(recordData);
+        Object recordObject = DriverSchemaSerializer.readRecord(row.getData(), row.dataFormat);
         if (recordObject == null) {
             Log.e(LOG_LABEL, "Failed to deserialize record data for id " + recordId);
         }
+        return new Record(recordObject, recordId, row.getConstants(), row.schemaVersion);
+    }
+
+    /**
+     * Read the stored fields of a record, to build records from.
+     *
+     * @param recordId ID for the record
+     * @return Row for the record, or null if not found
+     */
+    private RecordCache.Row readRecordRow(long recordId) {
+        long startTime = System.nanoTime();
+        Cursor cursor = getRecordByIdCursor(recordId);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            maintenance.recordQuery(QUERY_RECORD, startTime);
+
+            // find column offsets in response
+            int dataColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA);
+            int formatColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT);
+            int schemaColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION);
+            int updatedColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT);
+
+            int dataFormat = cursor.getInt(formatColumn);
+            // read as bytes for the stored format's parser, whether stored as text or blob
+            byte[] recordData = null;
+            if (dataFormat != DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS) {
+                recordData = cursor.getBlob(dataColumn);
+            }
+            // stamp as read with the data, in case the record was updated after checking the cache
+            long lastUpdated = cursor.isNull(updatedColumn) ? 0 : cursor.getLong(updatedColumn);
+
+            return new RecordCache.Row(recordId, lastUpdated, cursor.getString(schemaColumn), dataFormat,
+                    recordData, readStoredConstants(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get the last updated stamp of a record, to check a cached copy against.
+     *
+     * @param recordId ID for the record
+     * @return Last updated time in epoch milliseconds, 0 if never updated, or -1 if not found
+     */
+    private long getLastUpdated(long recordId) {
+        synchronized (lastUpdatedStatement) {
+            lastUpdatedStatement.bindLong(1, recordId);
+            try {
+                return lastUpdatedStatement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Release cached records when the system is short on memory.
+     *
+     * @param level Level passed to onTrimMemory
+     */
+    public void trimMemory(int level) {
+        recordCache.trimMemory(level);
+        Log.d(LOG_LABEL, "Trimmed memory; " + recordCache);
+    }
+
+    /**
+     * @return Cache of records read, for its hit and miss counts
+     */
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * @return True if a database maintenance pass should be queued
+     */
+    public boolean isMaintenanceDue() {
+        return maintenance.isDue();
+    }
+
+    /**
+     * Compact the database and refresh its statistics, as described in
+     * {@link RecordDatabaseMaintenance}.
+     *
+     * Should not be called on the UI thread; queued by {@link RecordWriteQueue} when idle.
+     *
+     * @return Pages handed back to the file system
+     */
+    public long runMaintenance() {
+        return maintenance.run();
+    }
+
+    /**
+     * @return Size of the database, free pages, upkeep, and query timings
+     */
+    public RecordDatabaseMaintenance.Diagnostics getDiagnostics() {
+        return maintenance.getDiagnostics();
+    }
+
+    /**
+     * Read one section of a record stored by section.
+     *
+     * @param recordId ID for the record
+     * @param sectionName Serialized name of the section field
+     * @param sectionType Generic type of the section field
+     * @return Deserialized section, or null if the record has no such section stored
+     * @throws IOException if the section is stored but cannot be read; it should then be left
+     * as it is, and not written over
+     */
+    public Object readRecordSection(long recordId, String sectionName, Type sectionType) throws IOException {
+        String[] columns = {
+                DriverRecordContract.SectionEntry.COLUMN_DATA,
+                DriverRecordContract.SectionEntry.COLUMN_DATA_FORMAT
+        };
+        String[] whereArgs = { String.valueOf(recordId), sectionName };
+
+        long startTime = System.nanoTime();
+        Cursor cursor = readableDb.query(DriverRecordContract.SectionEntry.TABLE_NAME, columns,
+                WHERE_SECTION, whereArgs, null, null, null);
+        try {
+            boolean found = cursor.moveToFirst();
+            maintenance.recordQuery(QUERY_SECTION, startTime);
+            if (!found) {
+                Log.d(LOG_LABEL, "No stored section " + sectionName + " for record " + recordId);
+                return null;
+            }
+            return DriverSchemaSerializer.readSection(cursor.getBlob(0), cursor.getInt(1), sectionType);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Assemble the stored sections of a record into the tree for the whole record.
+     *
+     * @param recordId ID for the record
+     * @return Record data as a Gson tree, with sections in form order
+     */
+    public JsonObject readSectionsTree(long recordId) {
+        String[] columns = {
+                DriverRecordContract.SectionEntry.COLUMN_SECTION_NAME,
+                DriverRecordContract.SectionEntry.COLUMN_DATA,
+                DriverRecordContract.SectionEntry.COLUMN_DATA_FORMAT
+        };
+        String[] whereArgs = { String.valueOf(recordId) };
 
-        return new Record(recordObject, recordId, constants, schemaVersion);
+        JsonObject tree = new JsonObject();
+        Cursor cursor = readableDb.query(DriverRecordContract.SectionEntry.TABLE_NAME, columns,
+                DriverRecordContract.SectionEntry.COLUMN_RECORD_ID + " = ?", whereArgs, null, null,
+                DriverRecordContract.SectionEntry.COLUMN_SECTION_INDEX);
+        try {
+            while (cursor.moveToNext()) {
+                RecordDataCodec codec = DriverSchemaSerializer.getCodec(cursor.getInt(2));
+                if (codec == null) {
+                    continue;
+                }
+                try {
+                    tree.add(cursor.getString(0), codec.decode(cursor.getBlob(1)));
+                } catch (IOException e) {
+                    Log.e(LOG_LABEL, "Failed to decode section " + cursor.getString(0) + " of record " + recordId);
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return tree;
+    }
+
+    /**
+     * Deserialize the whole record at a cursor's current row, whichever way it is stored.
+     *
+     * @param cursor Cursor from one of the record queries, at the record to read
+     * @return Record object, or null on failure
+     */
+    public Object readRecordData(Cursor cursor) {
+        int dataFormat = cursor.getInt(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT));
+        if (dataFormat == DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS) {
+            long recordId = cursor.getLong(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry._ID));
+            return DriverSchemaSerializer.readRecord(readSectionsTree(recordId));
+        }
+
+        byte[] data = cursor.getBlob(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_DATA));
+        return DriverSchemaSerializer.readRecord(data, dataFormat);
+    }
+
+    @Override
+    public StoredRecord readRecord(long recordId) {
+        Cursor cursor = getRecordByIdCursor(recordId);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return readStoredRecord(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void scanRecords(RecordVisitor visitor) {
+        Cursor cursor = readableDb.query(DriverRecordContract.RecordEntry.TABLE_NAME, ALL_FIELDS,
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (!visitor.visit(readStoredRecord(cursor))) {
+                    return;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public int getRecordCount() {
+        return (int) DatabaseUtils.queryNumEntries(readableDb, DriverRecordContract.RecordEntry.TABLE_NAME);
+    }
+
+    /**
+     * Close the database. The manager cannot be used after.
+     */
+    @Override
+    public void close() {
+        SQLiteStatement[] statements = {
+                insertStatement, updateStatement, deleteStatement, searchInsertStatement,
+                searchDeleteStatement, searchInsertFromSectionsStatement, sectionWriteStatement,
+                sectionDeleteStatement, sectionsDeleteStatement, summaryWriteStatement,
+                summaryDeleteStatement, journalInsertStatement, journalClearStatement, lastUpdatedStatement
+        };
+        for (SQLiteStatement statement : statements) {
+            synchronized (statement) {
+                statement.close();
+            }
+        }
+        recordCache.clear();
+        dbHelper.close();
+    }
+
+    private StoredRecord readStoredRecord(Cursor cursor) {
+        int updatedColumn = cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_UPDATED_AT);
+        return new StoredRecord(
+                cursor.getLong(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry._ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION)),
+                readStoredConstants(cursor),
+                readRecordTree(cursor),
+                cursor.getLong(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT)),
+                cursor.isNull(updatedColumn) ? 0 : cursor.getLong(updatedColumn));
+    }
+
+    /**
+     * Read the whole record at a cursor's current row as a tree, whichever way it is stored.
+     *
+     * @param cursor Cursor from one of the record queries, at the record to read
+     * @return Record data as a Gson tree, or null on failure
+     */
+    public JsonElement readRecordTree(Cursor cursor) {
+        int dataFormat = cursor.getInt(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_DATA_FORMAT));
+        if (dataFormat == DriverRecordContract.RecordEntry.DATA_FORMAT_SECTIONS) {
+            return readSectionsTree(cursor.getLong(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry._ID)));
+        }
+
+        RecordDataCodec codec = DriverSchemaSerializer.getCodec(dataFormat);
+        if (codec == null) {
+            return null;
+        }
+        try {
+            return codec.decode(cursor.getBlob(cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_DATA)));
+        } catch (IOException e) {
+            Log.e(LOG_LABEL, "Failed to decode record data");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Get a cursor to fetch records to export, oldest first.
+     *
+     * @param recordIds Database IDs of the records to export, or null for all records
+     * @param uploadReadyOnly If true, leave out records that cannot be uploaded yet, as the
+     *                        upload task does
+     * @return Database cursor to retrieve the records
+     */
+    public Cursor readRecordsToExport(long[] recordIds, boolean uploadReadyOnly) {
+        StringBuilder where = new StringBuilder();
+        if (recordIds != null) {
+            // IDs are numbers, so safe to inline; there may be more than the limit on bound arguments
+            where.append(DriverRecordContract.RecordEntry._ID).append(" IN (");
+            for (int i = 0; i < recordIds.length; i++) {
+                if (i > 0) {
+                    where.append(',');
+                }
+                where.append(recordIds[i]);
+            }
+            where.append(')');
+        }
+        if (uploadReadyOnly) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(WHERE_UPLOAD_READY);
+        }
+
+        return readableDb.query(
+                DriverRecordContract.RecordEntry.TABLE_NAME,
+                ALL_FIELDS, // columns
+                where.length() > 0 ? where.toString() : null, // WHERE
+                null,       // WHERE args
+                null,       // GROUP BY
+                null,       // HAVING
+                DriverRecordContract.RecordEntry.COLUMN_ENTERED_AT // ORDER BY
+        );
+    }
+
+    /**
+     * Write records and their media to an archive, to move them to another device.
+     * See {@link RecordArchive} for the format. Closes the stream when done.
+     *
+     * Should not be called on the UI thread.
+     *
+     * @param recordIds Database IDs of the records to export, or null for all records
+     * @param uploadReadyOnly If true, leave out records that cannot be uploaded yet
+     * @param out Stream to write the archive to
+     * @return Counts and throughput of the export
+     * @throws IOException on failure to write the archive
+     */
+    public RecordArchive.Stats exportRecords(long[] recordIds, boolean uploadReadyOnly, OutputStream out) throws IOException {
+        Cursor cursor = readRecordsToExport(recordIds, uploadReadyOnly);
+        try {
+            return RecordArchive.export(this, cursor, out);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Add the records in an archive written by {@link #exportRecords(long[], boolean, OutputStream)},
+     * in batched transactions, and copy their media. Closes the stream when done.
+     *
+     * Should not be called on the UI thread.
+     *
+     * @param in Stream to read the archive from
+     * @param mediaDir Directory to copy media into
+     * @return Counts and throughput of the import
+     * @throws IOException on failure to read the archive or add its records
+     */
+    public RecordArchive.Stats importRecords(InputStream in, File mediaDir) throws IOException {
+        return RecordArchive.importArchive(this, in, mediaDir);
     }
 
     /**
@@ -322,7 +1875,7 @@ public class RecordDatabaseManager {
      * @param cursor Read cursor at record to read with constant fields
      * @return new DriverConstantFields object with fields set
      */
-    private DriverConstantFields readStoredConstants(Cursor cursor) {
+    DriverConstantFields readStoredConstants(Cursor cursor) {
         DriverConstantFields constantFields = new DriverConstantFields();
 
         // get field offsets
@@ -332,12 +1885,7 @@ public class RecordDatabaseManager {
         int weatherColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_WEATHER);
         int lightColumn = cursor.getColumnIndex(DriverRecordContract.RecordEntry.COLUMN_LIGHT);
 
-        String occurredFromString = cursor.getString(occurredFromColumn);
-        try {
-            constantFields.occurredFrom = storeDateFormat.parse(occurredFromString);
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+        constantFields.occurredFrom = new Date(cursor.getLong(occurredFromColumn));
 
         constantFields.location = new Location("");
         constantFields.location.setLatitude(cursor.getDouble(latitudeColumn));
@@ -0,0 +1,304 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Field-level changes to the record being edited, as kept in the edit journal between saves.
+ *
+ * Changes are found by comparing the serialized tree of a section with the tree for it last
+ * journaled, so only values that differ are written. Replaying the changes in order on the
+ * trees the record was opened with gives the trees last journaled.
+ */
+public class RecordJournal {
+
+    private static final String LOG_LABEL = "RecordJournal";
+
+    private static final String CONSTANT_OCCURRED_FROM = "occurredFrom";
+    private static final String CONSTANT_LATITUDE = "latitude";
+    private static final String CONSTANT_LONGITUDE = "longitude";
+    private static final String CONSTANT_WEATHER = "Weather";
+    private static final String CONSTANT_LIGHT = "Light";
+
+    /**
+     * One change: the new value at a path within a section of a record.
+     */
+    public static class Change {
+        public final long recordId;
+        public final String schemaVersion;
+        public final String sectionName;
+        public final String path;
+        public final String value;
+
+        /**
+         * @param recordId Database ID of the record, or -1 if it has not been saved
+         * @param schemaVersion UUID of the schema the record is being edited with
+         * @param sectionName Serialized name of the section field, or the constants section name
+         * @param path JSON array of member names and array offsets to the value within the section
+         * @param value New value as JSON, or null if the value was removed
+         */
+        public Change(long recordId, String schemaVersion, String sectionName, String path, String value) {
+            this.recordId = recordId;
+            this.schemaVersion = schemaVersion;
+            this.sectionName = sectionName;
+            this.path = path;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Find the changes from one tree of a section to another. Objects are compared by member
+     * and arrays of the same length by offset; anything else that differs is replaced whole.
+     *
+     * @param recordId Database ID of the record, or -1 if it has not been saved
+     * @param schemaVersion UUID of the schema the record is being edited with
+     * @param sectionName Name of the section the trees are for
+     * @param before Tree last journaled; null if none
+     * @param after Current tree; null if the section is unset
+     * @param changes List to add changes to
+     */
+    public static void diff(long recordId, String schemaVersion, String sectionName,
+                            JsonElement before, JsonElement after, List<Change> changes) {
+        diff(recordId, schemaVersion, sectionName, new ArrayList<Object>(), orNull(before), orNull(after), changes);
+    }
+
+    private static void diff(long recordId, String schemaVersion, String sectionName, List<Object> path,
+                             JsonElement before, JsonElement after, List<Change> changes) {
+        if (before.equals(after)) {
+            return;
+        }
+
+        if (before.isJsonObject() && after.isJsonObject()) {
+            JsonObject beforeObject = before.getAsJsonObject();
+            JsonObject afterObject = after.getAsJsonObject();
+            for (Map.Entry<String, JsonElement> member : beforeObject.entrySet()) {
+                if (!afterObject.has(member.getKey())) {
+                    path.add(member.getKey());
+                    changes.add(buildChange(recordId, schemaVersion, sectionName, path, JsonNull.INSTANCE));
+                    path.remove(path.size() - 1);
+                }
+            }
+            for (Map.Entry<String, JsonElement> member : afterObject.entrySet()) {
+                path.add(member.getKey());
+                diff(recordId, schemaVersion, sectionName, path, orNull(beforeObject.get(member.getKey())),
+                        member.getValue(), changes);
+                path.remove(path.size() - 1);
+            }
+            return;
+        }
+
+        if (before.isJsonArray() && after.isJsonArray() &&
+                before.getAsJsonArray().size() == after.getAsJsonArray().size()) {
+            JsonArray beforeArray = before.getAsJsonArray();
+            JsonArray afterArray = after.getAsJsonArray();
+            for (int i = 0; i < afterArray.size(); i++) {
+                path.add(i);
+                diff(recordId, schemaVersion, sectionName, path, beforeArray.get(i), afterArray.get(i), changes);
+                path.remove(path.size() - 1);
+            }
+            return;
+        }
+
+        changes.add(buildChange(recordId, schemaVersion, sectionName, path, after));
+    }
+
+    private static Change buildChange(long recordId, String schemaVersion, String sectionName,
+                                      List<Object> path, JsonElement value) {
+        JsonArray pathArray = new JsonArray();
+        for (Object step : path) {
+            if (step instanceof Integer) {
+                pathArray.add(new JsonPrimitive((Integer) step));
+            } else {
+                pathArray.add(new JsonPrimitive((String) step));
+            }
+        }
+        String valueJson = value.isJsonNull() ? null : value.toString();
+        return new Change(recordId, schemaVersion, sectionName, pathArray.toString(), valueJson);
+    }
+
+    /**
+     * Apply a journaled change to the tree of its section.
+     *
+     * @param tree Tree of the section; may be null if the section is unset
+     * @param change Change to apply
+     * @return Tree with the change applied, which may be a new object; JsonNull if the section
+     * was removed. Unchanged if the change does not fit the tree.
+     */
+    public static JsonElement apply(JsonElement tree, Change change) {
+        JsonArray path;
+        JsonElement value;
+        try {
+            JsonParser parser = new JsonParser();
+            path = parser.parse(change.path).getAsJsonArray();
+            value = change.value != null ? parser.parse(change.value) : JsonNull.INSTANCE;
+        } catch (JsonParseException e) {
+            Log.e(LOG_LABEL, "Skipping journaled change that could not be parsed");
+            e.printStackTrace();
+            return orNull(tree);
+        } catch (IllegalStateException e) {
+            Log.e(LOG_LABEL, "Skipping journaled change with a path that is not an array");
+            e.printStackTrace();
+            return orNull(tree);
+        }
+
+        if (path.size() == 0) {
+            return value;
+        }
+
+        JsonElement root = containerFor(orNull(tree), path.get(0));
+        JsonElement parent = root;
+        for (int i = 0; i < path.size() - 1; i++) {
+            JsonElement step = path.get(i);
+            JsonElement child = containerFor(getChild(parent, step), path.get(i + 1));
+            if (!setChild(parent, step, child)) {
+                Log.w(LOG_LABEL, "Journaled change does not fit section " + change.sectionName);
+                return orNull(tree);
+            }
+            parent = child;
+        }
+
+        if (!setChild(parent, path.get(path.size() - 1), value)) {
+            Log.w(LOG_LABEL, "Journaled change does not fit section " + change.sectionName);
+            return orNull(tree);
+        }
+        return root;
+    }
+
+    /**
+     * Get a container to hold the given path step, reusing the element if it is one already.
+     */
+    private static JsonElement containerFor(JsonElement element, JsonElement step) {
+        boolean needArray = step.getAsJsonPrimitive().isNumber();
+        if (needArray && element.isJsonArray()) {
+            return element;
+        }
+        if (!needArray && element.isJsonObject()) {
+            return element;
+        }
+        return needArray ? new JsonArray() : new JsonObject();
+    }
+
+    private static JsonElement getChild(JsonElement parent, JsonElement step) {
+        if (parent.isJsonObject()) {
+            return orNull(parent.getAsJsonObject().get(step.getAsString()));
+        }
+        JsonArray array = parent.getAsJsonArray();
+        int offset = step.getAsInt();
+        if (offset < array.size()) {
+            return array.get(offset);
+        }
+        return JsonNull.INSTANCE;
+    }
+
+    /**
+     * Set a member of an object or an element of an array. A null value removes an object member.
+     *
+     * @return False if the offset is past the end of the array
+     */
+    private static boolean setChild(JsonElement parent, JsonElement step, JsonElement value) {
+        if (parent.isJsonObject()) {
+            if (value.isJsonNull()) {
+                parent.getAsJsonObject().remove(step.getAsString());
+            } else {
+                parent.getAsJsonObject().add(step.getAsString(), value);
+            }
+            return true;
+        }
+
+        JsonArray array = parent.getAsJsonArray();
+        int offset = step.getAsInt();
+        if (offset < array.size()) {
+            array.set(offset, value);
+        } else if (offset == array.size()) {
+            array.add(value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static JsonElement orNull(JsonElement element) {
+        return element != null ? element : JsonNull.INSTANCE;
+    }
+
+    /**
+     * Build a tree of the constant fields to journal. Location is kept as its coordinates only.
+     *
+     * @param constants Constant fields of the record; may be null
+     * @return Tree of the set fields
+     */
+    public static JsonElement constantsTree(DriverConstantFields constants) {
+        if (constants == null) {
+            return JsonNull.INSTANCE;
+        }
+
+        JsonObject tree = new JsonObject();
+        if (constants.occurredFrom != null) {
+            tree.addProperty(CONSTANT_OCCURRED_FROM, constants.occurredFrom.getTime());
+        }
+        if (constants.location != null) {
+            tree.addProperty(CONSTANT_LATITUDE, constants.location.getLatitude());
+            tree.addProperty(CONSTANT_LONGITUDE, constants.location.getLongitude());
+        }
+        if (constants.Weather != null) {
+            tree.addProperty(CONSTANT_WEATHER, constants.Weather.toString());
+        }
+        if (constants.Light != null) {
+            tree.addProperty(CONSTANT_LIGHT, constants.Light.toString());
+        }
+        return tree;
+    }
+
+    /**
+     * Set constant fields from a tree built by {@link #constantsTree(DriverConstantFields)}.
+     *
+     * @param tree Tree of the constant fields
+     * @param constants Object to set the fields on
+     */
+    public static void readConstantsTree(JsonElement tree, DriverConstantFields constants) {
+        if (!tree.isJsonObject()) {
+            return;
+        }
+
+        JsonObject object = tree.getAsJsonObject();
+        try {
+            constants.occurredFrom = object.has(CONSTANT_OCCURRED_FROM) ?
+                    new Date(object.get(CONSTANT_OCCURRED_FROM).getAsLong()) : null;
+
+            if (object.has(CONSTANT_LATITUDE) && object.has(CONSTANT_LONGITUDE)) {
+                constants.location = new Location("");
+                constants.location.setLatitude(object.get(CONSTANT_LATITUDE).getAsDouble());
+                constants.location.setLongitude(object.get(CONSTANT_LONGITUDE).getAsDouble());
+            } else {
+                constants.location = null;
+            }
+
+            constants.Weather = object.has(CONSTANT_WEATHER) ?
+                    DriverConstantFields.WeatherEnum.fromValue(object.get(CONSTANT_WEATHER).getAsString()) : null;
+            constants.Light = object.has(CONSTANT_LIGHT) ?
+                    DriverConstantFields.LightEnum.fromValue(object.get(CONSTANT_LIGHT).getAsString()) : null;
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_LABEL, "Could not read journaled constant fields");
+            e.printStackTrace();
+        } catch (ClassCastException e) {
+            Log.e(LOG_LABEL, "Journaled constant field has an unexpected type");
+            e.printStackTrace();
+        }
+    }
+}
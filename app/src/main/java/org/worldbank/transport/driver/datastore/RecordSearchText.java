@@ -0,0 +1,194 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.util.Log;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+
+
+/**
+ * Builds the text indexed for full-text search of records, and search queries against it.
+ * Text is pulled straight from the stored data, so records need not be deserialized.
+ */
+public final class RecordSearchText {
+
+    private static final String LOG_LABEL = "RecordSearchText";
+
+    // values that identify things rather than describe them; not useful to search
+    private static final Pattern UUID_PATTERN =
+            Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private RecordSearchText() {}
+
+    /**
+     * Collect the text values in serialized record data. Skips metadata fields (with names
+     * starting with an underscore, like _localId), references to other items, and media paths.
+     * Data that is not JSON is indexed as-is.
+     *
+     * @param data Serialized record data
+     * @return Text values, separated by spaces
+     */
+    public static String fromRecordData(String data) {
+        if (data == null) {
+            return "";
+        }
+
+        StringBuilder text = new StringBuilder();
+        JsonReader reader = new JsonReader(new StringReader(data));
+        reader.setLenient(true);
+        try {
+            appendValues(reader, text);
+        } catch (IOException e) {
+            Log.w(LOG_LABEL, "Could not read all of record data for search");
+        } catch (IllegalStateException e) {
+            Log.w(LOG_LABEL, "Could not read all of record data for search");
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Collect the text values in encoded record data, as for {@link #fromRecordData(String)}.
+     *
+     * @param data Encoded record data
+     * @param codec Codec the data was encoded with
+     * @return Text values, separated by spaces
+     */
+    public static String fromRecordData(byte[] data, RecordDataCodec codec) {
+        if (data == null) {
+            return "";
+        }
+
+        StringBuilder text = new StringBuilder();
+        try {
+            JsonParser parser = codec.createParser(data);
+            try {
+                appendValues(parser, text);
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_LABEL, "Could not read all of record data for search");
+        }
+
+        return text.toString();
+    }
+
+    private static void appendValues(JsonParser parser, StringBuilder text) throws IOException {
+        com.fasterxml.jackson.core.JsonToken token;  // Gson has a JsonToken too
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case FIELD_NAME:
+                    if (parser.getCurrentName().startsWith("_")) {
+                        parser.nextToken();
+                        parser.skipChildren();
+                    }
+                    break;
+                case VALUE_STRING:
+                    appendIfSearchable(parser.getText(), text);
+                    break;
+                default:
+                    // structure, numbers, booleans, and nulls
+                    break;
+            }
+            if (parser.getParsingContext().inRoot() && token.isStructEnd()) {
+                // done with the record; ignore anything after it
+                return;
+            }
+        }
+    }
+
+    private static void appendValues(JsonReader reader, StringBuilder text) throws IOException {
+        int depth = 0;
+        do {
+            JsonToken token = reader.peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    depth--;
+                    break;
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    if (reader.nextName().startsWith("_")) {
+                        reader.skipValue();
+                    }
+                    break;
+                case STRING:
+                    appendIfSearchable(reader.nextString(), text);
+                    break;
+                case END_DOCUMENT:
+                    return;
+                default:
+                    // numbers, booleans, and nulls
+                    reader.skipValue();
+            }
+        } while (depth > 0);
+    }
+
+    private static void appendIfSearchable(String value, StringBuilder text) {
+        if (isSearchable(value)) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(value);
+        }
+    }
+
+    static boolean isSearchable(String value) {
+        return !value.isEmpty() && !value.startsWith("/") && !UUID_PATTERN.matcher(value).matches();
+    }
+
+    /**
+     * Build a full-text match expression from what a user typed. Every word must match, and
+     * each word matches as a prefix, so results narrow as the user types.
+     *
+     * @param userInput Search text entered by user
+     * @return Match expression, or null if there is nothing to search for
+     */
+    public static String buildMatchQuery(String userInput) {
+        if (userInput == null) {
+            return null;
+        }
+
+        // the index splits words on ASCII punctuation, so do the same here; this also drops
+        // characters with special meaning in match expressions
+        char[] chars = userInput.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] < 128 && !Character.isLetterOrDigit(chars[i])) {
+                chars[i] = ' ';
+            }
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (String word : new String(chars).trim().split(" +")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(word).append('*');
+        }
+
+        if (query.length() == 0) {
+            return null;
+        }
+        return query.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package org.worldbank.transport.driver.datastore;
+
+import com.google.gson.JsonElement;
+
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+
+import java.util.List;
+
+
+/**
+ * Storage for records, independent of how they are kept on disk.
+ *
+ * {@link RecordDatabaseManager} keeps records in SQLite, with indexes for the record list,
+ * search, and location queries. {@link LogRecordStore} appends records to log files, for
+ * capturing many records quickly where none of that is needed.
+ *
+ * Writes take the same {@link RecordDatabaseManager.RecordRow} in either store, and follow its
+ * rules: sections not in a write are kept, and unset nullable constant fields are left as they
+ * were on update.
+ */
+public interface RecordStore {
+
+    /**
+     * A record as read back from a store.
+     */
+    class StoredRecord {
+        public final long recordId;
+        public final String schemaVersion;
+        public final DriverConstantFields constants;
+        // null if the stored data could not be decoded
+        public final JsonElement data;
+        public final long enteredAt;
+        // 0 if never updated
+        public final long updatedAt;
+
+        public StoredRecord(long recordId, String schemaVersion, DriverConstantFields constants,
+                            JsonElement data, long enteredAt, long updatedAt) {
+            this.recordId = recordId;
+            this.schemaVersion = schemaVersion;
+            this.constants = constants;
+            this.data = data;
+            this.enteredAt = enteredAt;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    /**
+     * Receives records from {@link #scanRecords(RecordVisitor)}.
+     */
+    interface RecordVisitor {
+        /**
+         * @param record Next stored record
+         * @return True to go on to the next record; false to stop
+         */
+        boolean visit(StoredRecord record);
+    }
+
+    /**
+     * @param row Record to add
+     * @return ID of the added record, or -1 on failure
+     */
+    long addRecord(RecordDatabaseManager.RecordRow row);
+
+    /**
+     * Add records together; either all are added, or none are.
+     *
+     * @param rows Records to add
+     * @return IDs of the added records, in the order given, or null on failure
+     */
+    long[] addRecords(List<RecordDatabaseManager.RecordRow> rows);
+
+    /**
+     * @param row Record data and constant fields to save
+     * @param recordId ID of the record to update
+     * @return Number of records updated (1 on success)
+     */
+    int updateRecord(RecordDatabaseManager.RecordRow row, long recordId);
+
+    /**
+     * @param recordId ID of the record to delete
+     * @return True on success
+     */
+    boolean deleteRecord(long recordId);
+
+    /**
+     * Delete records together; either all are deleted, or none are.
+     *
+     * @param recordIds IDs of the records to delete
+     * @return Number of records deleted, or -1 on failure
+     */
+    int deleteRecords(long[] recordIds);
+
+    /**
+     * @param recordId ID of the record to read
+     * @return Stored record, or null if there is none with the ID
+     */
+    StoredRecord readRecord(long recordId);
+
+    /**
+     * Read every stored record, in no particular order.
+     *
+     * @param visitor Called with each record until it returns false
+     */
+    void scanRecords(RecordVisitor visitor);
+
+    /**
+     * @return Number of stored records
+     */
+    int getRecordCount();
+
+    /**
+     * Make writes so far durable. Should not be called on the UI thread.
+     */
+    void checkpoint();
+
+    /**
+     * Release the files held by the store. It cannot be used after.
+     */
+    void close();
+}
@@ -0,0 +1,550 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+import org.apache.commons.lang.StringUtils;
+import org.jsonschema2pojo.media.SerializableMedia;
+import org.worldbank.transport.driver.staticmodels.DriverApp;
+import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Summary of a record for the record list: a label, how many items each section has, how many
+ * photos are attached, and roughly how large its upload will be.
+ *
+ * Summaries are built from per-section stats, which are pulled straight from the stored data
+ * when a section is written, so records need not be deserialized to list them. Records stored
+ * whole have their stats taken from each top-level member of the data. Photos are the values of
+ * the fields the schema types as media; see {@link MediaFields}.
+ */
+public class RecordSummary {
+
+    private static final String LOG_LABEL = "RecordSummary";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // text values from the start of a section to label a record with
+    private static final int MAX_LABEL_VALUES = 2;
+    private static final String LABEL_SEPARATOR = " - ";
+
+    public final String label;
+    public final Map<String, Integer> itemCounts;
+    public final int photoCount;
+    public final long payloadBytes;
+
+    /**
+     * What is stored with each section to build the summary of its record from.
+     */
+    public static class SectionStats {
+        public final String name;
+        public final int index;
+        public final int itemCount;
+        public final int photoCount;
+        public final String label;
+        public final long payloadBytes;
+
+        /**
+         * @param name Serialized name of the section field
+         * @param index Position of the section in form order
+         * @param itemCount Number of items in the section; 1 for a single item section that is set
+         * @param photoCount Number of photos attached within the section
+         * @param label Text to label the record with, from the first items of the section; may be empty
+         * @param payloadBytes Estimated size of the section when uploaded, including photos
+         */
+        public SectionStats(String name, int index, int itemCount, int photoCount, String label, long payloadBytes) {
+            this.name = name;
+            this.index = index;
+            this.itemCount = itemCount;
+            this.photoCount = photoCount;
+            this.label = label;
+            this.payloadBytes = payloadBytes;
+        }
+    }
+
+    /**
+     * Serialized names of the media fields on the items of each section of a schema. The fields
+     * for the current schema are read once and kept until the schema changes.
+     */
+    public static class MediaFields {
+
+        /**
+         * For data without a schema to say where its media is; nothing counts as a photo.
+         */
+        public static final MediaFields NONE = new MediaFields(Collections.<String, Set<String>>emptyMap());
+
+        private static String compiledSchemaVersion;
+        private static MediaFields compiledFields;
+
+        private final Map<String, Set<String>> fieldsBySection;
+
+        /**
+         * @param fieldsBySection Serialized names of media fields, by serialized section name
+         */
+        public MediaFields(Map<String, Set<String>> fieldsBySection) {
+            this.fieldsBySection = fieldsBySection;
+        }
+
+        /**
+         * Get the media fields of the current schema, reading them if the schema has changed.
+         *
+         * @return Media fields; {@link #NONE} if there is no schema loaded
+         */
+        public static synchronized MediaFields getForCurrentSchema() {
+            String schemaVersion = DriverApp.getCurrentSchema();
+            if (compiledFields != null && StringUtils.equals(compiledSchemaVersion, schemaVersion)) {
+                return compiledFields;
+            }
+
+            Class schemaClass = DriverApp.getSchemaClass();
+            if (schemaClass == null) {
+                return NONE;
+            }
+            compiledFields = compile(schemaClass);
+            compiledSchemaVersion = schemaVersion;
+            return compiledFields;
+        }
+
+        /**
+         * Drop the fields read for the current schema. Call when the schema classes are reloaded.
+         */
+        public static synchronized void clear() {
+            compiledFields = null;
+            compiledSchemaVersion = null;
+        }
+
+        /**
+         * Find the media fields on the classes of the sections of a schema.
+         *
+         * @param schemaClass DriverSchema class, with a field for each section
+         * @return Media fields of the schema
+         */
+        public static MediaFields compile(Class schemaClass) {
+            Map<String, Set<String>> fieldsBySection = new HashMap<>();
+            for (Field sectionField : schemaClass.getFields()) {
+                Set<String> mediaFields = new HashSet<>();
+                for (Field field : getItemClass(sectionField).getDeclaredFields()) {
+                    if (getItemClass(field) == SerializableMedia.class) {
+                        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                        mediaFields.add(serializedName != null ? serializedName.value() : field.getName());
+                    }
+                }
+                if (!mediaFields.isEmpty()) {
+                    fieldsBySection.put(RecordFormSectionManager.getSectionName(sectionField), mediaFields);
+                }
+            }
+            return new MediaFields(fieldsBySection);
+        }
+
+        /**
+         * @param sectionName Serialized name of a section
+         * @return Serialized names of the media fields on the section's items; empty if none
+         */
+        public Set<String> forSection(String sectionName) {
+            Set<String> fields = fieldsBySection.get(sectionName);
+            if (fields == null) {
+                return Collections.emptySet();
+            }
+            return fields;
+        }
+
+        /**
+         * Class of a field, or of the items in it for a field holding a collection.
+         */
+        private static Class getItemClass(Field field) {
+            Type type = field.getGenericType();
+            if (type instanceof ParameterizedType) {
+                Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+                if (arguments.length == 1 && arguments[0] instanceof Class) {
+                    return (Class) arguments[0];
+                }
+            }
+            return field.getType();
+        }
+    }
+
+    /**
+     * Counts across all stored records.
+     */
+    public static class Totals {
+        public final int recordCount;
+        public final int uploadReadyCount;
+        public final int photoCount;
+        public final long payloadBytes;
+
+        public Totals(int recordCount, int uploadReadyCount, int photoCount, long payloadBytes) {
+            this.recordCount = recordCount;
+            this.uploadReadyCount = uploadReadyCount;
+            this.photoCount = photoCount;
+            this.payloadBytes = payloadBytes;
+        }
+    }
+
+    /**
+     * One row of the record list, read from a summary cursor with the item counts already
+     * parsed, so rows can be bound without touching the database.
+     */
+    public static class ListEntry {
+        public final long recordId;
+        public final long enteredAt;
+        public final String label;
+        public final Map<String, Integer> itemCounts;
+        public final int photoCount;
+        public final boolean uploadReady;
+
+        public ListEntry(long recordId, long enteredAt, String label, Map<String, Integer> itemCounts,
+                         int photoCount, boolean uploadReady) {
+            this.recordId = recordId;
+            this.enteredAt = enteredAt;
+            this.label = label;
+            this.itemCounts = itemCounts;
+            this.photoCount = photoCount;
+            this.uploadReady = uploadReady;
+        }
+
+        /**
+         * @param cursor Cursor from a summary query, at the row to read
+         * @return List row for the record at the cursor
+         */
+        public static ListEntry fromCursor(Cursor cursor) {
+            // no summary yet reads as not ready, same as a record without a location
+            return new ListEntry(cursor.getLong(0), cursor.getLong(1), cursor.getString(2),
+                    parseItemCounts(cursor.getString(3)), cursor.getInt(4), cursor.getInt(5) == 1);
+        }
+
+        /**
+         * @param other Another row for the same record
+         * @return True if both rows would show the same
+         */
+        public boolean hasSameContents(ListEntry other) {
+            return enteredAt == other.enteredAt && photoCount == other.photoCount &&
+                    uploadReady == other.uploadReady &&
+                    (label == null ? other.label == null : label.equals(other.label)) &&
+                    itemCounts.equals(other.itemCounts);
+        }
+    }
+
+    private RecordSummary(String label, Map<String, Integer> itemCounts, int photoCount, long payloadBytes) {
+        this.label = label;
+        this.itemCounts = itemCounts;
+        this.photoCount = photoCount;
+        this.payloadBytes = payloadBytes;
+    }
+
+    /**
+     * Combine the stats of the sections of a record.
+     *
+     * @param sections Stats for each stored section, in form order
+     * @return Summary of the record
+     */
+    public static RecordSummary fromSections(List<SectionStats> sections) {
+        String label = "";
+        Map<String, Integer> itemCounts = new LinkedHashMap<>(sections.size());
+        int photoCount = 0;
+        long payloadBytes = 0;
+
+        for (SectionStats section : sections) {
+            if (label.isEmpty() && section.label != null) {
+                label = section.label;
+            }
+            itemCounts.put(section.name, section.itemCount);
+            photoCount += section.photoCount;
+            payloadBytes += section.payloadBytes;
+        }
+
+        return new RecordSummary(label, itemCounts, photoCount, payloadBytes);
+    }
+
+    /**
+     * @return Item counts by section name, as a JSON object to store
+     */
+    public String getItemCountsJson() {
+        JsonObject counts = new JsonObject();
+        for (Map.Entry<String, Integer> count : itemCounts.entrySet()) {
+            counts.addProperty(count.getKey(), count.getValue());
+        }
+        return counts.toString();
+    }
+
+    /**
+     * Read stored item counts back.
+     *
+     * @param json Item counts as stored by {@link #getItemCountsJson()}; may be null
+     * @return Item counts by section name, in form order; empty if there are none
+     */
+    public static Map<String, Integer> parseItemCounts(String json) {
+        if (json == null || json.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        try {
+            JsonElement tree = new com.google.gson.JsonParser().parse(json);  // Jackson has a JsonParser too
+            for (Map.Entry<String, JsonElement> count : tree.getAsJsonObject().entrySet()) {
+                counts.put(count.getKey(), count.getValue().getAsInt());
+            }
+        } catch (JsonParseException e) {
+            Log.e(LOG_LABEL, "Could not parse stored item counts");
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            Log.e(LOG_LABEL, "Stored item counts are not an object");
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            Log.e(LOG_LABEL, "Stored item count is not a number");
+            e.printStackTrace();
+        }
+        return counts;
+    }
+
+    /**
+     * Get the stats for one encoded section of a record of the current schema.
+     *
+     * @param name Serialized name of the section field
+     * @param index Position of the section in form order
+     * @param data Encoded section
+     * @param codec Codec the section was encoded with
+     * @return Stats for the section; counts are zero if it cannot be read
+     */
+    public static SectionStats sectionStats(String name, int index, byte[] data, RecordDataCodec codec) {
+        return sectionStats(name, index, data, codec, MediaFields.getForCurrentSchema().forSection(name));
+    }
+
+    /**
+     * Get the stats for one encoded section. Photo files are looked at for their size, so call
+     * outside of write transactions where possible.
+     *
+     * @param name Serialized name of the section field
+     * @param index Position of the section in form order
+     * @param data Encoded section
+     * @param codec Codec the section was encoded with
+     * @param mediaFields Serialized names of the media fields on the section's items
+     * @return Stats for the section; counts are zero if it cannot be read
+     */
+    public static SectionStats sectionStats(String name, int index, byte[] data, RecordDataCodec codec,
+                                            Set<String> mediaFields) {
+        try {
+            JsonParser parser = codec.createParser(data);
+            try {
+                if (parser.nextToken() != null) {
+                    return readSection(name, index, parser, mediaFields);
+                }
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_LABEL, "Could not read all of section " + name + " for summary");
+        }
+        return new SectionStats(name, index, 0, 0, "", data.length);
+    }
+
+    /**
+     * Get the stats for each section of a record stored whole as JSON text.
+     *
+     * @param data Serialized record data
+     * @param mediaFields Media fields of the record's schema
+     * @return Stats for each top-level member of the data, in the order stored
+     */
+    public static List<SectionStats> recordStats(String data, MediaFields mediaFields) {
+        if (data == null) {
+            return new ArrayList<>(0);
+        }
+        return recordStats(data.getBytes(UTF_8), JacksonRecordDataCodec.JSON, mediaFields);
+    }
+
+    /**
+     * Get the stats for each section of a record of the current schema stored whole.
+     *
+     * @param data Encoded record data
+     * @param codec Codec the data was encoded with
+     * @return Stats for each top-level member of the data, in the order stored
+     */
+    public static List<SectionStats> recordStats(byte[] data, RecordDataCodec codec) {
+        return recordStats(data, codec, MediaFields.getForCurrentSchema());
+    }
+
+    /**
+     * Get the stats for each section of a record stored whole. Photo files are looked at for
+     * their size, so call outside of write transactions where possible.
+     *
+     * @param data Encoded record data
+     * @param codec Codec the data was encoded with
+     * @param mediaFields Media fields of the record's schema
+     * @return Stats for each top-level member of the data, in the order stored
+     */
+    public static List<SectionStats> recordStats(byte[] data, RecordDataCodec codec, MediaFields mediaFields) {
+        List<SectionStats> sections = new ArrayList<>();
+        if (data == null) {
+            return sections;
+        }
+
+        try {
+            JsonParser parser = codec.createParser(data);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    Log.w(LOG_LABEL, "Record data is not an object; cannot summarize it");
+                    return sections;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    sections.add(readSection(name, sections.size(), parser, mediaFields.forSection(name)));
+                }
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_LABEL, "Could not read all of record data for summary");
+        }
+        return sections;
+    }
+
+    /**
+     * Read the stats for the value at the parser's current token, leaving the parser on its last token.
+     */
+    private static SectionStats readSection(String name, int index, JsonParser parser, Set<String> mediaFields)
+            throws IOException {
+        Tally tally = new Tally(mediaFields);
+        int itemCount;
+
+        if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+            itemCount = 0;
+            tally.payloadBytes += 2;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.getCurrentToken() == null) {
+                    throw new IOException("Section " + name + " ended early");
+                }
+                itemCount++;
+                tally.readValue(parser);
+            }
+        } else {
+            itemCount = parser.getCurrentToken() == JsonToken.VALUE_NULL ? 0 : 1;
+            tally.readValue(parser);
+        }
+
+        return new SectionStats(name, index, itemCount, tally.photoCount, tally.label.toString(), tally.payloadBytes);
+    }
+
+    /**
+     * Running counts while reading a section.
+     */
+    private static class Tally {
+        int photoCount;
+        long payloadBytes;
+        int labelValues;
+        final StringBuilder label = new StringBuilder();
+
+        private final Set<String> mediaFields;
+        // depth of the media field whose value is being read; -1 outside of media values
+        private int mediaDepth = -1;
+
+        Tally(Set<String> mediaFields) {
+            this.mediaFields = mediaFields;
+        }
+
+        /**
+         * Count the value at the parser's current token, leaving the parser on its last token.
+         * Payload size is estimated as the length of the value as JSON.
+         */
+        void readValue(JsonParser parser) throws IOException {
+            int depth = 0;
+            JsonToken token = parser.getCurrentToken();
+            while (token != null) {
+                switch (token) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        depth++;
+                        payloadBytes += 2;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    case FIELD_NAME:
+                        payloadBytes += parser.getCurrentName().length() + 4;
+                        if (mediaFields.contains(parser.getCurrentName())) {
+                            mediaDepth = depth;
+                        } else if (parser.getCurrentName().startsWith("_")) {
+                            // metadata, like _localId; uploaded, but not for labels
+                            JsonToken value = parser.nextToken();
+                            if (value == null) {
+                                break;
+                            } else if (value.isStructStart()) {
+                                parser.skipChildren();
+                            } else {
+                                payloadBytes += parser.getText().length() + 2;
+                            }
+                        }
+                        break;
+                    case VALUE_STRING:
+                        if (mediaDepth >= 0) {
+                            addMedia(parser.getText());
+                        } else {
+                            addString(parser.getText());
+                        }
+                        break;
+                    default:
+                        // numbers, booleans, and nulls
+                        payloadBytes += parser.getText().length() + 1;
+                        break;
+                }
+
+                // a media value, or list of them, has been read once back at the depth of its field
+                if (mediaDepth == depth && token != JsonToken.FIELD_NAME) {
+                    mediaDepth = -1;
+                }
+
+                if (depth == 0) {
+                    return;
+                }
+                token = parser.nextToken();
+            }
+            throw new IOException("Data ended early");
+        }
+
+        /**
+         * Count a photo, stored as the path to its file.
+         */
+        private void addMedia(String path) {
+            if (path.isEmpty()) {
+                payloadBytes += 3;
+                return;
+            }
+            // photos are uploaded base64 encoded in place of their path
+            photoCount++;
+            payloadBytes += (new File(path).length() + 2) / 3 * 4 + 3;
+        }
+
+        private void addString(String value) {
+            payloadBytes += value.length() + 3;
+            if (labelValues < MAX_LABEL_VALUES && RecordSearchText.isSearchable(value)) {
+                if (label.length() > 0) {
+                    label.append(LABEL_SEPARATOR);
+                }
+                label.append(value);
+                labelValues++;
+            }
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+
+import org.apache.commons.lang.StringUtils;
+import org.jsonschema2pojo.annotations.FieldFormat;
+import org.jsonschema2pojo.annotations.FieldFormats;
+import org.jsonschema2pojo.annotations.FieldType;
+import org.jsonschema2pojo.annotations.FieldTypes;
+import org.jsonschema2pojo.annotations.IsHidden;
+import org.jsonschema2pojo.annotations.Multiple;
+import org.jsonschema2pojo.annotations.WatchTarget;
+import org.worldbank.transport.driver.staticmodels.DriverApp;
+import org.worldbank.transport.driver.utilities.DriverUtilities;
+import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+/**
+ * Checks stored record data against the constraints of a schema, without building form
+ * controls or model objects.
+ *
+ * The constraints on the schema classes (required fields, text formats, lengths and patterns,
+ * select list options, and references to items in other sections) are read once into a set of
+ * rules, which are then applied to the data tree of each record. The rules for the current
+ * schema are kept until the schema changes.
+ */
+public class RecordValidator {
+
+    private static final String LOG_LABEL = "RecordValidator";
+
+    // kinds of problem found
+    public static final String PROBLEM_REQUIRED = "required";
+    public static final String PROBLEM_FORMAT = "format";
+    public static final String PROBLEM_LENGTH = "length";
+    public static final String PROBLEM_PATTERN = "pattern";
+    public static final String PROBLEM_OPTION = "option";
+    public static final String PROBLEM_REFERENCE = "reference";
+    public static final String PROBLEM_STRUCTURE = "structure";
+
+    // serialized name of the hidden ID field on section items, used by references
+    private static final String LOCAL_ID_KEY = "_localId";
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("^[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?$");
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("^[-+]?\\d+$");
+    private static final Pattern EMAIL_PATTERN = Pattern.compile("^[^@\\s]+@[^@\\s]+\\.[^@\\s]+$");
+    private static final Pattern URL_PATTERN = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]*://\\S+$");
+    private static final Pattern TEL_PATTERN = Pattern.compile("^\\+?[0-9 ().\\-]{3,}$");
+
+    private static String compiledSchemaVersion;
+    private static RecordValidator compiledValidator;
+
+    /**
+     * A constraint a record does not meet.
+     */
+    public static class Problem {
+        // serialized name of the section
+        public final String section;
+        // offset of the item within a section with multiple items; -1 for other sections
+        public final int itemIndex;
+        // serialized name of the field; null for a problem with the section itself
+        public final String field;
+        // one of the PROBLEM_ constants
+        public final String kind;
+
+        public Problem(String section, int itemIndex, String field, String kind) {
+            this.section = section;
+            this.itemIndex = itemIndex;
+            this.field = field;
+            this.kind = kind;
+        }
+
+        @Override
+        public String toString() {
+            String where = itemIndex >= 0 ? section + "[" + itemIndex + "]" : section;
+            if (field != null) {
+                where += "." + field;
+            }
+            return where + ": " + kind;
+        }
+    }
+
+    private enum ValueType {
+        TEXT,
+        SELECT,
+        MULTI_SELECT,
+        REFERENCE,
+        OTHER
+    }
+
+    private static class FieldRule {
+        String key;
+        boolean required;
+        ValueType valueType = ValueType.OTHER;
+        Pattern format;
+        Pattern pattern;
+        int minLength = 0;
+        int maxLength = Integer.MAX_VALUE;
+        Set<String> options;
+        String referencedSection;
+    }
+
+    private static class SectionRule {
+        String key;
+        boolean multiple;
+        boolean required;
+        List<FieldRule> fields = new ArrayList<>();
+    }
+
+    private final List<SectionRule> sections;
+    // sections referred to from other sections, for which item IDs are collected
+    private final Set<String> referencedSections;
+
+    private RecordValidator(List<SectionRule> sections, Set<String> referencedSections) {
+        this.sections = sections;
+        this.referencedSections = referencedSections;
+    }
+
+    /**
+     * Get the validator for the current schema, compiling it if the schema has changed.
+     *
+     * @return Validator, or null if there is no schema loaded
+     */
+    public static synchronized RecordValidator getForCurrentSchema() {
+        String schemaVersion = DriverApp.getCurrentSchema();
+        Class schemaClass = DriverApp.getSchemaClass();
+        if (schemaClass == null) {
+            return null;
+        }
+
+        if (compiledValidator == null || !StringUtils.equals(compiledSchemaVersion, schemaVersion)) {
+            long startTime = System.nanoTime();
+            compiledValidator = compile(schemaClass);
+            compiledSchemaVersion = schemaVersion;
+            Log.d(LOG_LABEL, "Compiled validation rules for schema " + schemaVersion + " in " +
+                    ((System.nanoTime() - startTime) / 1000000) + " ms");
+        }
+        return compiledValidator;
+    }
+
+    /**
+     * Drop the compiled rules. Call when the schema classes are reloaded.
+     */
+    public static synchronized void clear() {
+        compiledValidator = null;
+        compiledSchemaVersion = null;
+    }
+
+    /**
+     * Read the constraints on a schema class and the classes of its sections into rules.
+     *
+     * @param schemaClass DriverSchema class, with a field for each section
+     * @return Validator for records of the schema
+     */
+    public static RecordValidator compile(Class schemaClass) {
+        List<SectionRule> sections = new ArrayList<>();
+        Set<String> referencedSections = new HashSet<>();
+
+        for (String sectionFieldName : DriverUtilities.getFieldOrder(schemaClass)) {
+            Field sectionField;
+            try {
+                sectionField = schemaClass.getField(sectionFieldName);
+            } catch (NoSuchFieldException e) {
+                Log.e(LOG_LABEL, "No section field named " + sectionFieldName);
+                e.printStackTrace();
+                continue;
+            }
+
+            SectionRule section = new SectionRule();
+            section.key = RecordFormSectionManager.getSectionName(sectionField);
+            section.required = sectionField.getAnnotation(NotNull.class) != null;
+            Multiple multiple = sectionField.getAnnotation(Multiple.class);
+            section.multiple = multiple != null && multiple.value();
+
+            Class sectionClass = getSectionClass(sectionField);
+            for (Field field : sectionClass.getDeclaredFields()) {
+                FieldRule rule = compileField(schemaClass, sectionClass, field);
+                if (rule != null) {
+                    section.fields.add(rule);
+                    if (rule.referencedSection != null) {
+                        referencedSections.add(rule.referencedSection);
+                    }
+                }
+            }
+            sections.add(section);
+        }
+
+        return new RecordValidator(sections, referencedSections);
+    }
+
+    /**
+     * Class of a section, or of the items in it for a section with multiple items.
+     */
+    private static Class getSectionClass(Field sectionField) {
+        Type type = sectionField.getGenericType();
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (arguments.length == 1 && arguments[0] instanceof Class) {
+                return (Class) arguments[0];
+            }
+        }
+        return sectionField.getType();
+    }
+
+    private static FieldRule compileField(Class schemaClass, Class sectionClass, Field field) {
+        IsHidden isHidden = field.getAnnotation(IsHidden.class);
+        if (isHidden != null && isHidden.value()) {
+            return null;
+        }
+
+        FieldRule rule = new FieldRule();
+        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+        rule.key = serializedName != null ? serializedName.value() : field.getName();
+        rule.required = field.getAnnotation(NotNull.class) != null;
+
+        Size size = field.getAnnotation(Size.class);
+        if (size != null) {
+            rule.minLength = size.min();
+            rule.maxLength = size.max();
+        }
+
+        javax.validation.constraints.Pattern pattern = field.getAnnotation(javax.validation.constraints.Pattern.class);
+        if (pattern != null) {
+            rule.pattern = Pattern.compile(pattern.regexp());
+        }
+
+        FieldType fieldType = field.getAnnotation(FieldType.class);
+        if (fieldType == null) {
+            return rule;
+        }
+
+        FieldTypes type = fieldType.value();
+        if (type == FieldTypes.text) {
+            rule.valueType = ValueType.TEXT;
+            FieldFormat format = field.getAnnotation(FieldFormat.class);
+            if (format != null) {
+                rule.format = getFormatPattern(format.value());
+            }
+        } else if (type == FieldTypes.number) {
+            rule.valueType = ValueType.TEXT;
+            rule.format = NUMBER_PATTERN;
+        } else if (type == FieldTypes.integer) {
+            rule.valueType = ValueType.TEXT;
+            rule.format = INTEGER_PATTERN;
+        } else if (type == FieldTypes.selectlist) {
+            Class fieldClass = field.getType();
+            if (fieldClass.isEnum()) {
+                rule.valueType = ValueType.SELECT;
+                rule.options = getEnumOptions(fieldClass);
+            } else if (fieldClass.equals(Set.class) || fieldClass.equals(List.class)) {
+                rule.valueType = ValueType.MULTI_SELECT;
+                // for checkbox fields, enum is in a separate class in the same package
+                String sectionClassName = sectionClass.getName();
+                String enumName = sectionClassName.substring(0, sectionClassName.lastIndexOf('.') + 1) +
+                        StringUtils.capitalize(field.getName()) + "Enum";
+                try {
+                    Class enumClass = DriverApp.loadClassWithModel(sectionClass, enumName);
+                    if (enumClass != null) {
+                        rule.options = getEnumOptions(enumClass);
+                    }
+                } catch (ClassNotFoundException e) {
+                    Log.w(LOG_LABEL, "No enumeration " + enumName + "; not checking options for " + rule.key);
+                }
+            }
+        } else if (type == FieldTypes.reference) {
+            WatchTarget watchTarget = field.getAnnotation(WatchTarget.class);
+            if (watchTarget != null) {
+                try {
+                    Field targetField = schemaClass.getField(
+                            RecordFormSectionManager.getSanitizedIdentifier(watchTarget.value(), ""));
+                    rule.valueType = ValueType.REFERENCE;
+                    rule.referencedSection = RecordFormSectionManager.getSectionName(targetField);
+                } catch (NoSuchFieldException e) {
+                    Log.w(LOG_LABEL, "No section " + watchTarget.value() + " for reference " + rule.key);
+                }
+            }
+        }
+
+        return rule;
+    }
+
+    private static Pattern getFormatPattern(FieldFormats format) {
+        switch (format) {
+            case number:
+                return NUMBER_PATTERN;
+            case integer:
+                return INTEGER_PATTERN;
+            case email:
+                return EMAIL_PATTERN;
+            case url:
+                return URL_PATTERN;
+            case tel:
+                return TEL_PATTERN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Values an enumeration is stored as: the serialized name of each constant, if it has one,
+     * or else its string value.
+     */
+    private static Set<String> getEnumOptions(Class enumClass) {
+        Object[] constants = enumClass.getEnumConstants();
+        Set<String> options = new HashSet<>(constants.length);
+        for (Object constant : constants) {
+            String value = constant.toString();
+            try {
+                Field constantField = enumClass.getField(((Enum) constant).name());
+                SerializedName serializedName = constantField.getAnnotation(SerializedName.class);
+                if (serializedName != null) {
+                    value = serializedName.value();
+                }
+            } catch (NoSuchFieldException e) {
+                Log.e(LOG_LABEL, "Failed to find enum field for " + value);
+                e.printStackTrace();
+            }
+            options.add(value);
+        }
+        return options;
+    }
+
+    /**
+     * Check a record's data against the rules.
+     *
+     * @param data Record data tree, as stored
+     * @return Problems found; empty if the record is valid
+     */
+    public List<Problem> validate(JsonElement data) {
+        List<Problem> problems = new ArrayList<>();
+        if (data == null || !data.isJsonObject()) {
+            problems.add(new Problem("", -1, null, PROBLEM_STRUCTURE));
+            return problems;
+        }
+
+        JsonObject record = data.getAsJsonObject();
+
+        // find the items references may point to first
+        HashMap<String, Set<String>> localIds = new HashMap<>(referencedSections.size());
+        for (String sectionKey : referencedSections) {
+            Set<String> ids = new HashSet<>();
+            JsonElement section = record.get(sectionKey);
+            if (section != null && section.isJsonArray()) {
+                for (JsonElement item : section.getAsJsonArray()) {
+                    addLocalId(item, ids);
+                }
+            } else {
+                addLocalId(section, ids);
+            }
+            localIds.put(sectionKey, ids);
+        }
+
+        for (SectionRule section : sections) {
+            JsonElement sectionData = record.get(section.key);
+            if (sectionData == null || sectionData.isJsonNull()) {
+                if (section.required) {
+                    problems.add(new Problem(section.key, -1, null, PROBLEM_REQUIRED));
+                }
+                continue;
+            }
+
+            if (section.multiple) {
+                if (!sectionData.isJsonArray()) {
+                    problems.add(new Problem(section.key, -1, null, PROBLEM_STRUCTURE));
+                    continue;
+                }
+                JsonArray items = sectionData.getAsJsonArray();
+                for (int i = 0; i < items.size(); i++) {
+                    validateItem(section, i, items.get(i), localIds, problems);
+                }
+            } else {
+                validateItem(section, -1, sectionData, localIds, problems);
+            }
+        }
+
+        return problems;
+    }
+
+    private static void addLocalId(JsonElement item, Set<String> ids) {
+        if (item == null || !item.isJsonObject()) {
+            return;
+        }
+        JsonElement localId = item.getAsJsonObject().get(LOCAL_ID_KEY);
+        if (localId != null && localId.isJsonPrimitive()) {
+            ids.add(localId.getAsString());
+        }
+    }
+
+    private void validateItem(SectionRule section, int index, JsonElement itemData,
+                              HashMap<String, Set<String>> localIds, List<Problem> problems) {
+        if (!itemData.isJsonObject()) {
+            problems.add(new Problem(section.key, index, null, PROBLEM_STRUCTURE));
+            return;
+        }
+
+        JsonObject item = itemData.getAsJsonObject();
+        for (FieldRule rule : section.fields) {
+            JsonElement value = item.get(rule.key);
+
+            if (rule.valueType == ValueType.MULTI_SELECT && value != null && value.isJsonArray()) {
+                JsonArray selected = value.getAsJsonArray();
+                if (selected.size() == 0 && rule.required) {
+                    problems.add(new Problem(section.key, index, rule.key, PROBLEM_REQUIRED));
+                } else if (rule.options != null) {
+                    for (JsonElement option : selected) {
+                        if (!option.isJsonPrimitive() || !rule.options.contains(option.getAsString())) {
+                            problems.add(new Problem(section.key, index, rule.key, PROBLEM_OPTION));
+                            break;
+                        }
+                    }
+                }
+                continue;
+            }
+
+            // empty text, and the empty option of select lists, count as not set
+            String text = null;
+            if (value != null && value.isJsonPrimitive()) {
+                text = value.getAsString();
+                if (text.length() == 0) {
+                    text = null;
+                }
+            } else if (value != null && !value.isJsonNull()) {
+                // objects, as for images, are only checked for being set
+                if (rule.valueType != ValueType.OTHER) {
+                    problems.add(new Problem(section.key, index, rule.key, PROBLEM_STRUCTURE));
+                }
+                continue;
+            }
+
+            if (text == null) {
+                if (rule.required) {
+                    problems.add(new Problem(section.key, index, rule.key, PROBLEM_REQUIRED));
+                }
+                continue;
+            }
+
+            String problem = checkValue(rule, text, localIds);
+            if (problem != null) {
+                problems.add(new Problem(section.key, index, rule.key, problem));
+            }
+        }
+    }
+
+    private static String checkValue(FieldRule rule, String text, HashMap<String, Set<String>> localIds) {
+        switch (rule.valueType) {
+            case SELECT:
+                if (rule.options != null && !rule.options.contains(text)) {
+                    return PROBLEM_OPTION;
+                }
+                break;
+            case REFERENCE:
+                Set<String> ids = localIds.get(rule.referencedSection);
+                if (ids == null || !ids.contains(text)) {
+                    return PROBLEM_REFERENCE;
+                }
+                break;
+            case MULTI_SELECT:
+                // a single value where a list is expected
+                return PROBLEM_STRUCTURE;
+            default:
+                break;
+        }
+
+        if (rule.format != null && !rule.format.matcher(text).matches()) {
+            return PROBLEM_FORMAT;
+        }
+        if (text.length() < rule.minLength || text.length() > rule.maxLength) {
+            return PROBLEM_LENGTH;
+        }
+        if (rule.pattern != null && !rule.pattern.matcher(text).matches()) {
+            return PROBLEM_PATTERN;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,448 @@
+package org.worldbank.transport.driver.datastore;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
+import org.worldbank.transport.driver.staticmodels.Record;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Single background writer for record saves and deletes, so the UI thread never waits on the
+ * database. Writes run one at a time, in the order they were queued.
+ *
+ * A save queued for a record that already has a save waiting to run replaces the waiting
+ * save's data instead of adding another write; both callers get the same future back.
+ * Sections written by the waiting save and not by the new one are kept.
+ *
+ * Changes to the record being edited are journaled through the same writer, so they land in
+ * order with the save that clears the journal.
+ *
+ * Reads that must see every write queued before them, such as opening a record that may
+ * have a save in flight, are queued on the writer too, with their result posted back to the
+ * main thread.
+ *
+ * Database maintenance also runs on the writer, once it has been idle for a while. It is put off
+ * again if anything is queued by the time it would start, so it never runs ahead of a write.
+ */
+public class RecordWriteQueue {
+
+    private static final String LOG_LABEL = "RecordWriteQueue";
+
+    // how long to wait for queued writes to land, where a caller must block for them
+    private static final long PENDING_WRITE_TIMEOUT_SECONDS = 5;
+
+    // database maintenance is queued once nothing else has been queued for this long
+    private static final long MAINTENANCE_IDLE_MILLIS = 60 * 1000;
+
+    /**
+     * Notified on the main thread after queued writes have run.
+     */
+    public interface RecordWriteListener {
+        /**
+         * @param recordId Database ID of the record saved, or -1 if a new record failed to insert
+         * @param succeeded True if the record was written
+         */
+        void recordSaveFinished(long recordId, boolean succeeded);
+
+        /**
+         * @param recordId Database ID of the record deleted
+         * @param succeeded True if the record was deleted
+         */
+        void recordDeleteFinished(long recordId, boolean succeeded);
+    }
+
+    /**
+     * Notified on the main thread with the result of a read queued behind pending writes.
+     */
+    public interface ReadCallback<T> {
+        /**
+         * @param result Value returned by the read; null if it failed
+         */
+        void readFinished(T result);
+    }
+
+    private final RecordDatabaseManager databaseManager;
+    private final ThreadPoolExecutor writer;
+    private final Handler mainHandler;
+
+    // saves queued but not yet started, keyed by database ID (or by record, for new records)
+    private final Map<Object, PendingSave> pendingSaves = new HashMap<>();
+    private final List<RecordWriteListener> listeners = new CopyOnWriteArrayList<>();
+
+    // posted to the main thread; rescheduled each time something is queued
+    private final Runnable maintenanceCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (!databaseManager.isMaintenanceDue()) {
+                return;
+            }
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // writes queued since the check go first; try again once idle
+                    if (!writer.getQueue().isEmpty()) {
+                        Log.d(LOG_LABEL, "Writes waiting; putting off database maintenance");
+                        scheduleMaintenance();
+                        return;
+                    }
+                    databaseManager.runMaintenance();
+                }
+            });
+        }
+    };
+
+    public RecordWriteQueue(RecordDatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        mainHandler = new Handler(Looper.getMainLooper());
+        writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "RecordWriter");
+            }
+        });
+        scheduleMaintenance();
+    }
+
+    /**
+     * Stop the writer once the writes already queued have run. The app's queue lives as long as
+     * the app does; this is for queues made for a single use, such as in test.
+     */
+    public void shutdown() {
+        mainHandler.removeCallbacks(maintenanceCheck);
+        writer.shutdown();
+    }
+
+    public void addListener(RecordWriteListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RecordWriteListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue database maintenance to run if it is due once nothing has been queued for a while.
+     * Called whenever a write is queued; call when the app goes to the background.
+     */
+    public void scheduleMaintenance() {
+        mainHandler.removeCallbacks(maintenanceCheck);
+        mainHandler.postDelayed(maintenanceCheck, MAINTENANCE_IDLE_MILLIS);
+    }
+
+    /**
+     * Queue a record to be inserted or updated. Whether it is inserted or updated is decided when
+     * the write runs, so a save queued behind the first save of a new record will update it.
+     *
+     * @param record Record being saved; its database ID will be set once a new record is inserted
+     * @param schemaVersion UUID of the schema used to create the record (only used on insert)
+     * @param data Serialized record data
+     * @param constants Snapshot of the record's constant fields, not to be modified after queueing
+     * @return Future that resolves to the record's database ID, or -1 if the write failed
+     */
+    public Future<Long> save(Record record, String schemaVersion, String data, DriverConstantFields constants) {
+        return save(record, new RecordDatabaseManager.RecordRow(schemaVersion, data, constants));
+    }
+
+    /**
+     * Queue a record to be inserted or updated, as for
+     * {@link #save(Record, String, String, DriverConstantFields)}.
+     *
+     * @param record Record being saved; its database ID will be set once a new record is inserted
+     * @param row Record data to write; constants in it are not to be modified after queueing
+     * @return Future that resolves to the record's database ID, or -1 if the write failed
+     */
+    public Future<Long> save(Record record, RecordDatabaseManager.RecordRow row) {
+        Object key = getKey(record);
+        synchronized (pendingSaves) {
+            PendingSave pending = pendingSaves.get(key);
+            if (pending != null) {
+                Log.d(LOG_LABEL, "Replacing data for a save that has not run yet");
+                pending.row = RecordDatabaseManager.RecordRow.merge(pending.row, row);
+                return pending.future;
+            }
+
+            pending = new PendingSave(key, record);
+            pending.row = row;
+            pendingSaves.put(key, pending);
+            writer.execute(pending.future);
+            scheduleMaintenance();
+            return pending.future;
+        }
+    }
+
+    /**
+     * Queue a record to be deleted. Drops any save for it that has not run yet.
+     *
+     * @param record Record to delete; nothing is deleted if it never made it to the database
+     * @return Future that resolves to true on success
+     */
+    public Future<Boolean> delete(final Record record) {
+        synchronized (pendingSaves) {
+            PendingSave pending = pendingSaves.remove(getKey(record));
+            if (pending != null) {
+                Log.d(LOG_LABEL, "Dropping queued save for record to delete");
+                pending.future.cancel(false);
+            }
+        }
+
+        scheduleMaintenance();
+        return writer.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                long recordId = record.getRecordId();
+                if (recordId < 0) {
+                    Log.d(LOG_LABEL, "Record to delete was never saved");
+                    return true;
+                }
+
+                boolean deleted = databaseManager.deleteRecord(recordId);
+                notifyListeners(recordId, true, deleted);
+                return deleted;
+            }
+        });
+    }
+
+    /**
+     * Queue a set of records to be deleted in one transaction, as after uploading them. Drops
+     * any saves for them that have not run yet. Listeners are told of each record deleted.
+     *
+     * @param recordIds Database IDs of the records to delete; not to be modified after queueing
+     * @return Future that resolves to the number of records deleted, or -1 on failure
+     */
+    public Future<Integer> deleteRecords(final long[] recordIds) {
+        synchronized (pendingSaves) {
+            for (long recordId : recordIds) {
+                PendingSave pending = pendingSaves.remove(recordId);
+                if (pending != null) {
+                    Log.d(LOG_LABEL, "Dropping queued save for record to delete");
+                    pending.future.cancel(false);
+                }
+            }
+        }
+
+        scheduleMaintenance();
+        return writer.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int deleted = databaseManager.deleteRecords(recordIds);
+                // records not found are gone either way
+                for (long recordId : recordIds) {
+                    notifyListeners(recordId, true, deleted > -1);
+                }
+                return deleted;
+            }
+        });
+    }
+
+    /**
+     * Queue changes to the record being edited to be appended to the edit journal.
+     *
+     * @param changes Changes to write, in the order they were made; not to be modified after queueing
+     */
+    public void journal(final List<RecordJournal.Change> changes) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                databaseManager.appendJournal(changes);
+            }
+        });
+        scheduleMaintenance();
+    }
+
+    /**
+     * Queue the edit journal to be cleared, as when the record being edited is discarded.
+     * Changes journaled after this call are kept.
+     */
+    public void clearJournal() {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                databaseManager.clearJournal();
+            }
+        });
+    }
+
+    /**
+     * Queue a checkpoint behind any pending writes, so they are synced to disk.
+     * Call from onPause; does not wait for the writes to finish.
+     *
+     * @return Future that completes once the checkpoint has run
+     */
+    public Future<?> flush() {
+        return writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                databaseManager.checkpoint();
+            }
+        });
+    }
+
+    /**
+     * Queue a read behind any pending writes, so it sees them, and post its result to the main
+     * thread. Use to read back a record that may have a save in flight, without waiting for it.
+     *
+     * @param read Read to run on the writer thread
+     * @param callback Notified on the main thread with the result; may be null
+     * @return Future resolving to the result of the read, or null if it failed
+     */
+    public <T> Future<T> read(final Callable<T> read, final ReadCallback<T> callback) {
+        return writer.submit(new Callable<T>() {
+            @Override
+            public T call() {
+                T result = null;
+                try {
+                    result = read.call();
+                } catch (Exception e) {
+                    Log.e(LOG_LABEL, "Queued read failed");
+                    e.printStackTrace();
+                }
+
+                if (callback != null) {
+                    final T posted = result;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.readFinished(posted);
+                        }
+                    });
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Block until everything queued so far has been written. Gives up after a few seconds, and
+     * may wait behind database maintenance, so never call from the main thread; use
+     * {@link #read(Callable, ReadCallback)} there instead.
+     */
+    public void waitForPendingWrites() {
+        Future<?> barrier = writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do; only need to know that writes queued ahead of this have run
+            }
+        });
+
+        try {
+            barrier.get(PENDING_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Log.w(LOG_LABEL, "Interrupted waiting for pending record writes");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_LABEL, "Error waiting for pending record writes");
+            e.printStackTrace();
+        } catch (TimeoutException e) {
+            Log.w(LOG_LABEL, "Timed out waiting for pending record writes");
+        }
+    }
+
+    /**
+     * Records already in the database are keyed by their ID, so different Record objects for
+     * the same row coalesce. New records have no ID yet, so are keyed by the object itself.
+     */
+    private static Object getKey(Record record) {
+        long recordId = record.getRecordId();
+        if (recordId > -1) {
+            return recordId;
+        }
+        return record;
+    }
+
+    private void notifyListeners(final long recordId, final boolean wasDelete, final boolean succeeded) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (RecordWriteListener listener : listeners) {
+                    if (wasDelete) {
+                        listener.recordDeleteFinished(recordId, succeeded);
+                    } else {
+                        listener.recordSaveFinished(recordId, succeeded);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * A save waiting to run. Its data may be replaced up until it starts.
+     */
+    private class PendingSave implements Callable<Long> {
+        private final Object key;
+        private final Record record;
+        private final FutureTask<Long> future;
+
+        // set holding lock on pendingSaves
+        private RecordDatabaseManager.RecordRow row;
+
+        PendingSave(Object key, Record record) {
+            this.key = key;
+            this.record = record;
+            this.future = new FutureTask<>(this);
+        }
+
+        @Override
+        public Long call() {
+            RecordDatabaseManager.RecordRow saveRow;
+
+            // once out of the pending map, later saves queue a new write instead of changing this one
+            synchronized (pendingSaves) {
+                if (pendingSaves.get(key) == this) {
+                    pendingSaves.remove(key);
+                }
+                saveRow = row;
+            }
+
+            long recordId = record.getRecordId();
+            boolean succeeded;
+
+            if (recordId > -1) {
+                int affected = databaseManager.updateRecord(saveRow, recordId);
+                succeeded = affected == 1;
+                if (!succeeded) {
+                    Log.e(LOG_LABEL, "Failed to update record. Number of affected rows: " + affected);
+                }
+            } else {
+                recordId = databaseManager.addRecord(saveRow);
+                succeeded = recordId > -1;
+                if (succeeded) {
+                    record.setRecordId(recordId);
+                } else {
+                    Log.e(LOG_LABEL, "Error inserting record");
+                }
+            }
+
+            notifyListeners(recordId, false, succeeded);
+            return succeeded ? recordId : -1;
+        }
+    }
+}
@@ -14,9 +14,18 @@ import org.apache.commons.lang.StringUtils;
 import org.jsonschema2pojo.annotations.FieldType;
 import org.jsonschema2pojo.annotations.FieldTypes;
 import org.worldbank.transport.driver.R;
+import org.worldbank.transport.driver.datastore.EnumCodecRegistry;
 import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordJournal;
+import org.worldbank.transport.driver.datastore.RecordSummary;
+import org.worldbank.transport.driver.datastore.RecordValidator;
+import org.worldbank.transport.driver.datastore.RecordWriteQueue;
 import org.worldbank.transport.driver.utilities.DriverUtilities;
+import org.worldbank.transport.driver.utilities.FieldAccessor;
+import org.worldbank.transport.driver.utilities.FormSectionTemplate;
 import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
+import org.worldbank.transport.driver.utilities.ReferenceOptionCache;
+import org.worldbank.transport.driver.utilities.ThumbnailLoader;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -27,10 +36,13 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import it.necst.grabnrun.SecureDexClassLoader;
 import it.necst.grabnrun.SecureLoaderFactory;
@@ -62,17 +74,33 @@ public class DriverApp extends Application {
     private DriverUserInfo userInfo;
 
     /**
-     * Object currently being edited (if any).
+     * Object currently being edited (if any). Also read from the section prefetch thread.
      */
-    private Record record;
+    private volatile Record record;
+
+    // set once the edit journal no longer needs to be checked for a record to restore
+    private boolean journalRestoreChecked = false;
+
+    // forms waiting for the edit journal to be read; set once the lookup is started with the app
+    private ArrayList<Runnable> journalRestoreWaiting;
+
+    // told once a record is restored from the journal; set if the record list is waiting for one
+    private RecordOpenedListener journalRestoreListener;
+
+    // set if a record was restored from the journal before the record list asked for it
+    private boolean journalRestoreUnannounced = false;
+
+    // last record open asked for and not yet read, so an open overtaken by another is dropped
+    private Object pendingOpen;
 
     private static Context mContext;
     private static ConnectivityManager connMgr;
     private static RecordDatabaseManager databaseManager;
+    private static RecordWriteQueue recordWriteQueue;
 
     private boolean amTesting = false;
     private boolean useHijri = false;
-    private SecureDexClassLoader schemaClassLoader = null;
+    private volatile SecureDexClassLoader schemaClassLoader = null;
     private static Map<String, URL> packageNameCertMap = null;
 
     /**
@@ -124,7 +152,38 @@ public class DriverApp extends Application {
         connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         record = null;
         databaseManager = new RecordDatabaseManager(mContext, amTesting);
+        recordWriteQueue = new RecordWriteQueue(databaseManager);
+        recordWriteQueue.addListener(new RecordWriteQueue.RecordWriteListener() {
+            // saves and deletes are reported as successful when queued, so let user know if one fails later
+            @Override
+            public void recordSaveFinished(long recordId, boolean succeeded) {
+                if (!succeeded) {
+                    Toast.makeText(mContext, getString(R.string.record_save_failure), Toast.LENGTH_LONG).show();
+                }
+            }
+
+            @Override
+            public void recordDeleteFinished(long recordId, boolean succeeded) {
+                if (!succeeded) {
+                    Toast.makeText(mContext, getString(R.string.record_delete_failure), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
         useHijri = DriverUtilities.isInSaudiArabiaOrArabic();
+        startJournalRestore();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (databaseManager != null) {
+            databaseManager.trimMemory(level);
+        }
+        ThumbnailLoader.trimMemory(level);
+        // app has gone to the background, which is a good time for database upkeep
+        if (level == TRIM_MEMORY_UI_HIDDEN && recordWriteQueue != null) {
+            recordWriteQueue.scheduleMaintenance();
+        }
     }
 
     public static Context getContext() {
@@ -139,6 +198,10 @@ public class DriverApp extends Application {
         return databaseManager;
     }
 
+    public static RecordWriteQueue getRecordWriteQueue() {
+        return recordWriteQueue;
+    }
+
     /**
      * Sets current user for app and sets user info in shared preferences.
      * Clears shared preferences for app if null user set (can be used on logout.)
@@ -172,6 +235,13 @@ public class DriverApp extends Application {
         return useHijri;
     }
 
+    /**
+     * Get the currently editing record's DriverSchema object, starting a new record if there is
+     * none. Forms should not ask for it while {@link #isRestoringJournaledRecord()}, or the
+     * record being restored is replaced.
+     *
+     * @return DriverSchema object of the currently editing record
+     */
     public Object getEditObject() {
         if (record == null) {
             record = new Record();
@@ -180,6 +250,78 @@ public class DriverApp extends Application {
         return record.getEditObject();
     }
 
+    /**
+     * Read a section of the currently editing record from the database if it has not been read
+     * yet, and note that it is being edited, so it will be written on save. Does nothing if the
+     * object given is not the currently editing record's.
+     *
+     * @param editObject DriverSchema object the section is on
+     * @param sectionName Serialized name of the section field
+     * @return False if the section is stored but could not be read, and so must not be edited
+     */
+    public static boolean openEditingSection(Object editObject, String sectionName) {
+        if (!(mContext instanceof DriverApp)) {
+            return true;
+        }
+
+        Record currentRecord = ((DriverApp) mContext).record;
+        if (currentRecord != null && currentRecord.getEditObject() == editObject) {
+            return currentRecord.openSection(sectionName);
+        }
+        return true;
+    }
+
+    /**
+     * Read a section of the currently editing record from the database if it has not been read
+     * yet, without noting that it is being edited. May be called from a background thread.
+     * Does nothing if the object given is not the currently editing record's.
+     *
+     * @param editObject DriverSchema object the section is on
+     * @param sectionName Serialized name of the section field
+     */
+    public static void prefetchEditingSection(Object editObject, String sectionName) {
+        if (!(mContext instanceof DriverApp)) {
+            return;
+        }
+
+        Record currentRecord = ((DriverApp) mContext).record;
+        if (currentRecord != null && currentRecord.getEditObject() == editObject) {
+            currentRecord.loadSection(sectionName);
+        }
+    }
+
+    /**
+     * Get the reference field options kept for the currently editing record.
+     *
+     * @param editObject DriverSchema object the options are for
+     * @return Options cache, or null if the object given is not the currently editing record's
+     */
+    public static ReferenceOptionCache getReferenceOptions(Object editObject) {
+        if (!(mContext instanceof DriverApp)) {
+            return null;
+        }
+
+        Record currentRecord = ((DriverApp) mContext).record;
+        if (currentRecord != null && currentRecord.getEditObject() == editObject) {
+            return currentRecord.getReferenceOptions();
+        }
+        return null;
+    }
+
+    /**
+     * Drop the reference field options for a section of the currently editing record, after
+     * items in it have been added, edited, or deleted.
+     *
+     * @param editObject DriverSchema object the section is on
+     * @param sectionField Field for the section on the DriverSchema class
+     */
+    public static void invalidateReferenceOptions(Object editObject, Field sectionField) {
+        ReferenceOptionCache referenceOptions = getReferenceOptions(editObject);
+        if (referenceOptions != null) {
+            referenceOptions.invalidate(sectionField.getName());
+        }
+    }
+
     public DriverConstantFields getEditConstants() {
         if (record != null) {
             return record.getEditConstants();
@@ -189,6 +331,125 @@ public class DriverApp extends Application {
         return null;
     }
 
+    /**
+     * Look for a record to restore from the edit journal, in case the app was killed while a
+     * record was being edited and before it was saved. The journal is read and the record
+     * rebuilt on the write queue, so the main thread never waits on it.
+     */
+    private void startJournalRestore() {
+        journalRestoreWaiting = new ArrayList<>();
+        recordWriteQueue.read(new Callable<Record>() {
+            @Override
+            public Record call() {
+                List<RecordJournal.Change> changes = databaseManager.readJournal();
+                if (changes.isEmpty()) {
+                    return null;
+                }
+
+                Log.d(LOG_LABEL, "Restoring record being edited from " + changes.size() + " journaled changes");
+                Record restored = Record.fromJournal(changes);
+                if (restored == null) {
+                    // already on the write queue
+                    databaseManager.clearJournal();
+                }
+                return restored;
+            }
+        }, new RecordWriteQueue.ReadCallback<Record>() {
+            @Override
+            public void readFinished(Record restored) {
+                // a form waiting to show the record is the announcement
+                takeJournaledRecord(restored, journalRestoreWaiting.isEmpty());
+
+                for (Runnable form : journalRestoreWaiting) {
+                    form.run();
+                }
+                journalRestoreWaiting.clear();
+            }
+        });
+    }
+
+    /**
+     * Be told when the record being edited when the app was killed has been restored from the
+     * edit journal, and is now the currently editing record. Only restores once after the app
+     * starts, and not at all once another record has been opened.
+     *
+     * @param listener Told on the main thread if a record is restored; not told otherwise
+     */
+    public void restoreJournaledRecord(RecordOpenedListener listener) {
+        if (!journalRestoreChecked) {
+            journalRestoreListener = listener;
+        } else if (journalRestoreUnannounced) {
+            journalRestoreUnannounced = false;
+            listener.recordOpened(true);
+        }
+    }
+
+    /**
+     * @return True while the edit journal is being read as the app starts, and the record being
+     * edited when the app was killed may yet be restored
+     */
+    public boolean isRestoringJournaledRecord() {
+        return journalRestoreWaiting != null && !journalRestoreChecked;
+    }
+
+    /**
+     * Wait for the edit journal to be read, for a form shown again after the app was killed, so
+     * it opens on the record restored rather than a new one. Only the first form after the app
+     * starts can find the journal still being read.
+     *
+     * @param form Run on the main thread once the journal has been read; run now if it has been
+     */
+    public void afterJournalRestore(Runnable form) {
+        if (isRestoringJournaledRecord()) {
+            journalRestoreWaiting.add(form);
+        } else {
+            form.run();
+        }
+    }
+
+    /**
+     * Make a record restored from the edit journal the currently editing record, unless a record
+     * has been opened or cleared since the app started.
+     *
+     * @param restored Record rebuilt from the journal, or null if there was none
+     * @param announce True to tell the record list, so it opens the form for the record
+     */
+    private void takeJournaledRecord(Record restored, boolean announce) {
+        if (journalRestoreChecked) {
+            return;
+        }
+        journalRestoreChecked = true;
+        if (restored == null || record != null) {
+            journalRestoreListener = null;
+            return;
+        }
+
+        record = restored;
+        if (!announce) {
+            journalRestoreListener = null;
+        } else if (journalRestoreListener != null) {
+            journalRestoreListener.recordOpened(true);
+            journalRestoreListener = null;
+        } else {
+            journalRestoreUnannounced = true;
+        }
+    }
+
+    /**
+     * Journal the changes made to the currently editing record since it was opened or last
+     * journaled. The changes are written in the background. Call when leaving a form.
+     */
+    public void journalEditingRecord() {
+        if (record == null) {
+            return;
+        }
+
+        List<RecordJournal.Change> changes = record.collectJournalChanges();
+        if (!changes.isEmpty()) {
+            recordWriteQueue.journal(changes);
+        }
+    }
+
     /**
      * Check if currently editing record is missing a location reading.
      *
@@ -211,15 +472,18 @@ public class DriverApp extends Application {
     }
 
     /**
-     * Save currently editing record to the database, and unset the currently editing record.
-     * Will clear the currently editing record, whether or not the changes saved successfully.
+     * Queue currently editing record to be saved to the database, and unset the currently
+     * editing record. Will clear the currently editing record, whether or not the changes
+     * could be queued.
      *
-     * @return True on success
+     * @return Future for the queued save, or null if it could not be queued
      */
-    public boolean saveRecordAndClearCurrentlyEditing() {
-        boolean wasSaved = saveRecord();
-        clearCurrentlyEditingRecord();
-        return wasSaved;
+    public Future<Long> saveRecordAndClearCurrentlyEditing() {
+        Future<Long> saved = saveRecord();
+        // the save clears the edit journal once written; until then, it is kept in case the save fails
+        record = null;
+        stopJournalRestore();
+        return saved;
     }
 
     /**
@@ -232,41 +496,124 @@ public class DriverApp extends Application {
             Log.w(LOG_LABEL, "No record to delete");
             return;
         }
-        databaseManager.deleteRecord(record.getRecordId());
+        recordWriteQueue.delete(record);
         clearCurrentlyEditingRecord();
     }
 
     /**
-     * Save currently editing record to the database.
+     * Queue currently editing record to be saved to the database.
      *
-     * @return True on success
+     * @return Future for the queued save, or null if it could not be queued
      */
-    private boolean saveRecord() {
+    private Future<Long> saveRecord() {
         if (record == null) {
             Log.e(LOG_LABEL, "No currently editing record to save!");
-            return false;
+            return null;
         }
 
         return record.save();
     }
 
-    public Cursor getAllRecords() {
-        return databaseManager.readAllRecords();
+    /**
+     * Get the summaries of records with text starting with each word of the search text, for
+     * the record list.
+     *
+     * @param searchText Text entered by user; may be empty
+     * @return Cursor with matching record summaries, or all of them if there is no search text
+     */
+    public Cursor getRecordSummaries(String searchText) {
+        return databaseManager.readRecordSummaries(searchText);
+    }
+
+    /**
+     * Get a page of the record list. Reads from the database; call off the main thread.
+     *
+     * @param searchText Text entered by user; may be empty
+     * @param after Last row of the page before, or null for the first page
+     * @param limit Most rows to get
+     * @return Rows of the page, most recently entered first
+     */
+    public List<RecordSummary.ListEntry> getRecordSummaryPage(String searchText, RecordSummary.ListEntry after,
+                                                              int limit) {
+        return databaseManager.readRecordSummaryPage(searchText, after, limit);
     }
 
+    /**
+     * @param recordId Database ID of a record
+     * @return Record list row for the record, or null if it is not stored
+     */
+    public RecordSummary.ListEntry getRecordSummaryEntry(long recordId) {
+        return databaseManager.readRecordSummaryEntry(recordId);
+    }
+
+    /**
+     * @return Counts across all stored records
+     */
+    public RecordSummary.Totals getRecordTotals() {
+        return databaseManager.readSummaryTotals();
+    }
+
+    /**
+     * Told on the main thread once a record asked for has been read for editing.
+     */
+    public interface RecordOpenedListener {
+        /**
+         * @param opened True if the record was read and is now the currently editing record
+         */
+        void recordOpened(boolean opened);
+    }
+
+    /**
+     * Discard the currently editing record, and any changes to it not yet saved.
+     */
     public void clearCurrentlyEditingRecord() {
+        pendingOpen = null;
         record = null;
+        stopJournalRestore();
+        recordWriteQueue.clearJournal();
+    }
+
+    /**
+     * Do not restore a record from the edit journal, once another record has been opened or the
+     * currently editing record is done with.
+     */
+    private void stopJournalRestore() {
+        journalRestoreChecked = true;
+        journalRestoreListener = null;
+        journalRestoreUnannounced = false;
     }
 
     /**
-     * Set the record to be edited by database record ID.
+     * Set the record to be edited by database record ID. Clears the currently editing record,
+     * then reads the record in the background, behind any save of it still in the write queue.
+     * Call from the main thread.
      *
      * @param databaseId _id of record in database
-     * @return true on success; will clear edit object on failure
+     * @param listener Told once the record has been read; not told if another record is opened,
+     *                 or the currently editing record cleared or set, first
      */
-    public boolean setCurrentlyEditingRecord(long databaseId) {
-        record = databaseManager.getRecordById(databaseId);
-        return record != null;
+    public void setCurrentlyEditingRecord(final long databaseId, final RecordOpenedListener listener) {
+        clearCurrentlyEditingRecord();
+
+        final Object openRequest = new Object();
+        pendingOpen = openRequest;
+        recordWriteQueue.read(new Callable<Record>() {
+            @Override
+            public Record call() {
+                return databaseManager.getRecordById(databaseId);
+            }
+        }, new RecordWriteQueue.ReadCallback<Record>() {
+            @Override
+            public void readFinished(Record opened) {
+                if (pendingOpen != openRequest || record != null) {
+                    Log.d(LOG_LABEL, "Record " + databaseId + " read after another was opened; dropping it");
+                    return;
+                }
+                pendingOpen = null;
+                record = opened;
+                listener.recordOpened(opened != null);
+            }
+        });
     }
 
     public static boolean getIsNetworkAvailable() {
@@ -298,8 +645,14 @@ public class DriverApp extends Application {
 
     public static Class getSchemaClass() {
         DriverApp driverApp = (DriverApp) DriverApp.getContext();
+        // also asked for off the main thread, as by the record writer, so may be mid reload
+        SecureDexClassLoader loader = driverApp != null ? driverApp.schemaClassLoader : null;
+        if (loader == null) {
+            Log.w(LOG_LABEL, "No schema class loader to get DriverSchema class from");
+            return null;
+        }
         try {
-            return driverApp.schemaClassLoader.loadClass(RecordFormSectionManager.MODEL_PACKAGE + "DriverSchema");
+            return loadSchemaClass(loader, RecordFormSectionManager.MODEL_PACKAGE + "DriverSchema");
         } catch (ClassNotFoundException e) {
             Log.e(LOG_LABEL, "Could not load DriverSchema class!");
             e.printStackTrace();
@@ -308,6 +661,64 @@ public class DriverApp extends Application {
         return null;
     }
 
+    /**
+     * Load a class through the schema class loader. The secure loader keeps its own verification
+     * state and is not registered as parallel capable, so calls into it are made one at a time.
+     *
+     * @param loader Loader for the schema jar
+     * @param className Fully qualified name of the class to load
+     * @return Loaded class; may be null if the jar could not be verified
+     * @throws ClassNotFoundException if the class is not in the jar
+     */
+    private static Class loadSchemaClass(SecureDexClassLoader loader, String className) throws ClassNotFoundException {
+        synchronized (loader) {
+            return loader.loadClass(className);
+        }
+    }
+
+    /**
+     * Load a class from the schema jar, through the current schema class loader.
+     *
+     * @param className Fully qualified name of the class to load
+     * @return Loaded class; may be null if the jar could not be verified
+     * @throws ClassNotFoundException if the class is not in the jar, or no schema is loaded
+     */
+    public static Class loadSchemaClass(String className) throws ClassNotFoundException {
+        DriverApp driverApp = (DriverApp) DriverApp.getContext();
+        SecureDexClassLoader loader = driverApp != null ? driverApp.schemaClassLoader : null;
+        if (loader == null) {
+            throw new ClassNotFoundException("No schema class loader to load " + className + " from");
+        }
+        return loadSchemaClass(loader, className);
+    }
+
+    /**
+     * Load a class from wherever a model class came from: the schema jar, for classes in the
+     * schema model package, or the app, for its own models such as the constant fields.
+     *
+     * @param modelClass Class of a model
+     * @param className Fully qualified name of the class to load
+     * @return Loaded class; may be null if the schema jar could not be verified
+     * @throws ClassNotFoundException if the class is not found with the model class, as when the
+     * model class is from a schema since replaced
+     */
+    public static Class loadClassWithModel(Class modelClass, String className) throws ClassNotFoundException {
+        if (!className.startsWith(RecordFormSectionManager.MODEL_PACKAGE)) {
+            // the app's own loader may be used from any thread
+            ClassLoader modelLoader = modelClass.getClassLoader();
+            if (modelLoader == null) {
+                throw new ClassNotFoundException("No class loader for " + modelClass.getName());
+            }
+            return modelLoader.loadClass(className);
+        }
+
+        Class loaded = loadSchemaClass(className);
+        if (loaded != null && loaded.getClassLoader() != modelClass.getClassLoader()) {
+            throw new ClassNotFoundException(className + " is not from the schema of " + modelClass.getName());
+        }
+        return loaded;
+    }
+
     public static SecureDexClassLoader getSchemaClassLoader() {
         DriverApp driverApp = (DriverApp) DriverApp.getContext();
         return driverApp.schemaClassLoader;
@@ -347,6 +758,7 @@ public class DriverApp extends Application {
      */
     public boolean loadSchemaClasses(String jarPath, String schemaVersion) {
         Log.d(LOG_LABEL, "loading schema classes...");
+        long startTime = System.nanoTime();
 
         try {
             File dexInternalStoragePath = new File(getDir("dex", Context.MODE_PRIVATE), jarPath);
@@ -374,13 +786,19 @@ public class DriverApp extends Application {
                 }
             }
 
+            long copiedTime = System.nanoTime();
             schemaClassLoader = null;
+            EnumCodecRegistry.clear();
+            FormSectionTemplate.clear();
+            FieldAccessor.clear();
+            RecordValidator.clear();
+            RecordSummary.MediaFields.clear();
             String modelPackageName = RecordFormSectionManager.MODEL_PACKAGE;
             SecureLoaderFactory secureLoaderFactory = new SecureLoaderFactory(this);
             schemaClassLoader = secureLoaderFactory.createDexClassLoader(dexInternalStoragePath.getAbsolutePath(),
                     null, getClass().getClassLoader(), packageNameCertMap);
 
-            Class newSchema = schemaClassLoader.loadClass(modelPackageName + "DriverSchema");
+            Class newSchema = loadSchemaClass(schemaClassLoader, modelPackageName + "DriverSchema");
 
             if (newSchema == null) {
                 // might get here if cert link not HTTPS, or is a redirect,
@@ -389,18 +807,20 @@ public class DriverApp extends Application {
                 return false;
             }
 
+            long loaderTime = System.nanoTime();
+
             // recursively reload all the child classes from DriverSchema and its fields
             recursiveClassLoad(newSchema);
-            Field[] fields = newSchema.getDeclaredFields();
-            for (Field field: fields) {
-                String fieldClassName = modelPackageName + StringUtils.capitalize(field.getName());
-                Log.d(LOG_LABEL, "Found section " + fieldClassName + " for field " + field.getName());
-                Log.d(LOG_LABEL, "Dynamically loading section " + fieldClassName);
-                Class sectionClass = schemaClassLoader.loadClass(fieldClassName);
-                recursiveClassLoad(sectionClass);
-            }
+            long rootTime = System.nanoTime();
 
-            Log.d(LOG_LABEL, "Done dynamically loading schema classes");
+            loadSectionClasses(newSchema);
+            long sectionsTime = System.nanoTime();
+
+            Log.i(LOG_LABEL, "Loaded schema classes in " + elapsedMillis(startTime, sectionsTime) + " ms: " +
+                    "copy jar " + elapsedMillis(startTime, copiedTime) + " ms, " +
+                    "open loader " + elapsedMillis(copiedTime, loaderTime) + " ms, " +
+                    "schema root " + elapsedMillis(loaderTime, rootTime) + " ms, " +
+                    "sections " + elapsedMillis(rootTime, sectionsTime) + " ms");
             setCurrentSchemaVersion(schemaVersion);
             return true;
 
@@ -415,6 +835,30 @@ public class DriverApp extends Application {
         return false;
     }
 
+    /**
+     * Load the class for each section of the schema, and its inner classes and enums. Loads take
+     * turns at the schema class loader, and the rest is cheap reflection, so sections are loaded
+     * one after another.
+     *
+     * @param schemaClass Loaded DriverSchema class, whose fields are the sections
+     * @throws ClassNotFoundException if a section class is not in the jar, or cannot be verified
+     */
+    private void loadSectionClasses(Class schemaClass) throws ClassNotFoundException {
+        for (Field field : schemaClass.getDeclaredFields()) {
+            String fieldClassName = RecordFormSectionManager.MODEL_PACKAGE + StringUtils.capitalize(field.getName());
+            Log.d(LOG_LABEL, "Found section " + fieldClassName + " for field " + field.getName());
+            Class sectionClass = loadSchemaClass(schemaClassLoader, fieldClassName);
+            if (sectionClass == null) {
+                throw new ClassNotFoundException("Could not verify section class " + fieldClassName);
+            }
+            recursiveClassLoad(sectionClass);
+        }
+    }
+
+    private static long elapsedMillis(long startNanos, long endNanos) {
+        return (endNanos - startNanos) / 1000000;
+    }
+
     /**
      * Dynamically load inner classes on sections
      *
@@ -422,12 +866,13 @@ public class DriverApp extends Application {
      */
     private void recursiveClassLoad(Class clazz) {
         try {
+            EnumCodecRegistry.register(clazz);
             enumClassLoad(clazz);
             Class[] hasClasses = clazz.getDeclaredClasses();
             if (hasClasses != null && hasClasses.length > 0) {
                 for (Class child : hasClasses) {
                     Log.d(LOG_LABEL, "Going to dynamically load class: " + child.getName());
-                    child = schemaClassLoader.loadClass(child.getName());
+                    child = loadSchemaClass(schemaClassLoader, child.getName());
                     // recurse
                     recursiveClassLoad(child);
                 }
@@ -439,7 +884,8 @@ public class DriverApp extends Application {
     }
 
     /**
-     * Find and load enums that are in separate classes (not inner classes)
+     * Find and load enums that are in separate classes (not inner classes), and register them
+     * for reading sets of them.
      * @param clazz Section class to introspect for enum class references
      */
     private void enumClassLoad(Class clazz) {
@@ -456,7 +902,7 @@ public class DriverApp extends Application {
                                     StringUtils.capitalize(field.getName()) + "Enum";
                             Log.d(LOG_LABEL, "Going to dynamically load class: " + enumClassName);
                             try {
-                                schemaClassLoader.loadClass(enumClassName);
+                                EnumCodecRegistry.register(loadSchemaClass(schemaClassLoader, enumClassName));
                             } catch (ClassNotFoundException e) {
                                 Log.e(LOG_LABEL, "Could not find enum class to dynamically load for " + field.getName());
                                 e.printStackTrace();
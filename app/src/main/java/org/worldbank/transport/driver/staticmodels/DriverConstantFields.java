@@ -61,6 +61,24 @@ public class DriverConstantFields {
     @FieldType(FieldTypes.selectlist)
     public LightEnum Light;
 
+    /**
+     * Make a copy of these fields that will not change if this object is edited.
+     *
+     * @return New object with the same field values
+     */
+    public DriverConstantFields copy() {
+        DriverConstantFields copy = new DriverConstantFields();
+        if (occurredFrom != null) {
+            copy.occurredFrom = new Date(occurredFrom.getTime());
+        }
+        if (location != null) {
+            copy.location = new Location(location);
+        }
+        copy.Weather = Weather;
+        copy.Light = Light;
+        return copy;
+    }
+
     public enum WeatherEnum {
 
         FAIR("Fair"),
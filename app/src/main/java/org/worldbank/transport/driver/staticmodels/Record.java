@@ -2,14 +2,40 @@ package org.worldbank.transport.driver.staticmodels;
 
 import android.util.Log;
 
+import com.google.gson.JsonElement;
+
+import org.worldbank.transport.driver.datastore.DriverRecordContract;
 import org.worldbank.transport.driver.datastore.DriverSchemaSerializer;
+import org.worldbank.transport.driver.datastore.RecordDataCodec;
 import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordJournal;
+import org.worldbank.transport.driver.datastore.RecordWriteQueue;
+import org.worldbank.transport.driver.utilities.RecordFormSectionManager;
+import org.worldbank.transport.driver.utilities.ReferenceOptionCache;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * Manages the data associated with a record.
  * DriverApp holds a private reference to an instance of this class to manage the record
  * currently being edited.
  *
+ * Records are stored by section. A record opened for editing starts with an empty edit object,
+ * and each section is read in when the form first asks for it. Saves write only the sections
+ * handed out for editing since the record was opened.
+ *
+ * Changes made between saves are journaled field by field, so the record can be rebuilt from
+ * the journal if the app is killed before it is saved.
+ *
  * Created by kathrynkillebrew on 1/11/16.
  */
 public class Record {
@@ -17,27 +43,81 @@ public class Record {
     private static final String LOG_LABEL = "Record";
 
     private Object editObject;
-    private long editObjectDatabaseId;
+    // set from the write queue thread once a new record has been inserted
+    private volatile long editObjectDatabaseId;
     private DriverConstantFields editConstants;
     private String recordSchemaVersion;
 
+    // sections read in so far, for a record opened with its sections unread; null if the edit
+    // object holds every section. Sections may be read in on a background thread, so this and
+    // the edit object's section fields are only used while holding the lock on this record.
+    private Set<String> loadedSections;
+
+    // sections that may have changed since the record was opened or last saved
+    private final Set<String> dirtySections = new HashSet<>();
+
+    // set until the record has been saved by section, so the first save writes every section
+    private boolean writeAllSections;
+
+    // trees of the opened sections and of the constants as last journaled, to find changes against
+    private final Map<String, JsonElement> journaledSections = new HashMap<>();
+    private JsonElement journaledConstants;
+
+    // set once the record may have changed since it was opened or last saved: a section has been
+    // handed out for editing, or changes have been found for the journal
+    private volatile boolean changedSinceSave;
+
+    // options for reference fields, by referenced section
+    private final ReferenceOptionCache referenceOptions = new ReferenceOptionCache();
+
     // constructor for editing an existing record
     public Record(Object editObject, long editObjectDatabaseId, DriverConstantFields editConstants, String recordSchemaVersion) {
         this.editObject = editObject;
         this.editObjectDatabaseId = editObjectDatabaseId;
         this.editConstants = editConstants;
         this.recordSchemaVersion = recordSchemaVersion;
+        writeAllSections = true;
+        journaledConstants = RecordJournal.constantsTree(editConstants);
+    }
+
+    /**
+     * Open a record stored by section, without reading any of its sections yet.
+     *
+     * @param recordId Database ID of the record
+     * @param constants Constant fields of the record
+     * @param schemaVersion UUID of the schema used to create the record
+     * @return Record with an empty edit object, or null if the schema class cannot be instantiated
+     */
+    public static Record withUnloadedSections(long recordId, DriverConstantFields constants, String schemaVersion) {
+        Object editObject = newEditObject();
+        if (editObject == null) {
+            return null;
+        }
+
+        Record record = new Record(editObject, recordId, constants, schemaVersion);
+        record.loadedSections = new HashSet<>();
+        record.writeAllSections = false;
+        return record;
     }
 
     // constructor to make a new record
     public Record() {
+        editObject = newEditObject();
+        editConstants = new DriverConstantFields();
+        editObjectDatabaseId = -1;
+        writeAllSections = true;
+        journaledConstants = RecordJournal.constantsTree(editConstants);
+        Log.d(LOG_LABEL, "Created new object to edit");
+    }
+
+    private static Object newEditObject() {
         Class schemaClass = DriverApp.getSchemaClass();
         if (schemaClass == null) {
             Log.e(LOG_LABEL, "No driver schema to instantiate!");
-            return;
+            return null;
         }
         try {
-            editObject = schemaClass.newInstance();
+            return schemaClass.newInstance();
         } catch (InstantiationException e) {
             Log.e(LOG_LABEL, "Could not instantiate driver schema class");
             e.printStackTrace();
@@ -45,16 +125,22 @@ public class Record {
             Log.e(LOG_LABEL, "Could not access driver schema class");
             e.printStackTrace();
         }
-
-        editConstants = new DriverConstantFields();
-        editObjectDatabaseId = -1;
-        Log.d(LOG_LABEL, "Created new object to edit");
+        return null;
     }
 
     public long getRecordId() {
         return editObjectDatabaseId;
     }
 
+    /**
+     * Set by the write queue once a new record has been inserted.
+     *
+     * @param recordId Database ID of the inserted record
+     */
+    public void setRecordId(long recordId) {
+        editObjectDatabaseId = recordId;
+    }
+
     public Object getEditObject() {
         return editObject;
     }
@@ -67,40 +153,302 @@ public class Record {
         return recordSchemaVersion;
     }
 
-    public boolean save() {
+    public ReferenceOptionCache getReferenceOptions() {
+        return referenceOptions;
+    }
+
+    /**
+     * Make sure a section has been read into the edit object, and note that it may be changed.
+     * Call before handing a section out for editing.
+     *
+     * @param sectionName Serialized name of the section field on DriverSchema
+     * @return True if the section may be edited; false if its stored data could not be read
+     */
+    public synchronized boolean openSection(String sectionName) {
+        if (!loadSection(sectionName)) {
+            return false;
+        }
+        dirtySections.add(sectionName);
+        changedSinceSave = true;
+
+        if (!journaledSections.containsKey(sectionName)) {
+            Field sectionField = RecordFormSectionManager.getFieldForSectionName(sectionName);
+            if (sectionField != null) {
+                journaledSections.put(sectionName, getSectionTree(sectionField));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a section from the database into the edit object, if it has not been read yet.
+     * Sections may be read ahead on a background thread, so this waits for one in progress.
+     *
+     * A section whose stored data cannot be read is left unread, so it is never written over.
+     *
+     * @param sectionName Serialized name of the section field on DriverSchema
+     * @return True if the section has been read, or the record has none stored; false if it
+     * could not be read
+     */
+    public synchronized boolean loadSection(String sectionName) {
         if (editObject == null) {
-            Log.e(LOG_LABEL, "No currently editing DRIVER data to save!");
             return false;
         }
+        if (loadedSections == null || loadedSections.contains(sectionName)) {
+            return true;
+        }
 
-        String serializedEditObject = DriverSchemaSerializer.serializeRecordForStorage(editObject);
+        Field sectionField = RecordFormSectionManager.getFieldForSectionName(sectionName);
+        if (sectionField == null) {
+            return false;
+        }
 
-        if (serializedEditObject == null) {
-            Log.e(LOG_LABEL, "Failed to serialize record to JSON");
+        Object section;
+        try {
+            section = DriverApp.getDatabaseManager().readRecordSection(editObjectDatabaseId, sectionName,
+                    sectionField.getGenericType());
+        } catch (IOException e) {
+            Log.e(LOG_LABEL, "Could not read section " + sectionName + " of record " + editObjectDatabaseId);
+            e.printStackTrace();
             return false;
         }
 
-        RecordDatabaseManager databaseManager = DriverApp.getDatabaseManager();
+        if (section != null) {
+            try {
+                sectionField.set(editObject, section);
+            } catch (IllegalAccessException e) {
+                Log.e(LOG_LABEL, "Do not have access to section field " + sectionName);
+                e.printStackTrace();
+                return false;
+            }
+        }
 
-        if (editObjectDatabaseId > -1) {
-            // update an existing record
-            int affected = databaseManager.updateRecord(serializedEditObject, editConstants, editObjectDatabaseId);
-            if (affected == 1) {
-                return true;
-            } else {
-                Log.e(LOG_LABEL, "Failed to update record. Number of affected rows: " + affected);
+        loadedSections.add(sectionName);
+        return true;
+    }
+
+    /**
+     * Find the fields changed since the record was opened or the last call, for the edit journal.
+     * Only the sections handed out for editing, and the constants, are checked.
+     *
+     * @return Changes to journal, in order; empty if nothing has changed
+     */
+    public synchronized List<RecordJournal.Change> collectJournalChanges() {
+        List<RecordJournal.Change> changes = new ArrayList<>();
+        if (editObject == null) {
+            return changes;
+        }
+
+        long recordId = editObjectDatabaseId;
+        String schemaVersion = DriverApp.getCurrentSchema();
+
+        JsonElement constantsTree = RecordJournal.constantsTree(editConstants);
+        RecordJournal.diff(recordId, schemaVersion, DriverRecordContract.JournalEntry.CONSTANTS_SECTION,
+                journaledConstants, constantsTree, changes);
+        journaledConstants = constantsTree;
+
+        for (Map.Entry<String, JsonElement> journaled : journaledSections.entrySet()) {
+            Field sectionField = RecordFormSectionManager.getFieldForSectionName(journaled.getKey());
+            if (sectionField == null) {
+                continue;
             }
+            JsonElement sectionTree = getSectionTree(sectionField);
+            RecordJournal.diff(recordId, schemaVersion, journaled.getKey(), journaled.getValue(), sectionTree, changes);
+            journaled.setValue(sectionTree);
+        }
+
+        if (!changes.isEmpty()) {
+            changedSinceSave = true;
+        }
+        return changes;
+    }
+
+    /**
+     * Check whether the record may have changed since it was opened or last saved. A section
+     * handed out for editing counts as changed, whether or not it was. Does not look through the
+     * record for changes, so is cheap to call, and leaves the journal as it is.
+     *
+     * @return True if the record may have changes that have not been saved
+     */
+    public boolean hasUnsavedChanges() {
+        return changedSinceSave;
+    }
+
+    /**
+     * Rebuild the record being edited from the edit journal. The record is read from the
+     * database, if it had been saved, and the journaled changes applied to it.
+     *
+     * @param changes Journaled changes, in order
+     * @return Record with the changes applied, or null if there are no changes or they cannot
+     * be applied (as when the record has since been deleted, or the schema has changed)
+     */
+    public static Record fromJournal(List<RecordJournal.Change> changes) {
+        if (changes.isEmpty()) {
+            return null;
+        }
+
+        RecordJournal.Change first = changes.get(0);
+        String schemaVersion = DriverApp.getCurrentSchema();
+        if (first.schemaVersion != null && !first.schemaVersion.equals(schemaVersion)) {
+            Log.w(LOG_LABEL, "Journaled record was edited with another schema; not restoring it");
+            return null;
+        }
+
+        Record record;
+        if (first.recordId > -1) {
+            record = DriverApp.getDatabaseManager().getRecordById(first.recordId);
         } else {
-            // add new record
-            long newId = databaseManager.addRecord(DriverApp.getCurrentSchema(), serializedEditObject, editConstants);
-            if (newId > -1) {
-                editObjectDatabaseId = newId;
-                return true;
-            } else {
-                Log.e(LOG_LABEL, "Error inserting record");
+            record = new Record();
+        }
+
+        if (record == null || record.editObject == null) {
+            Log.w(LOG_LABEL, "Could not open journaled record");
+            return null;
+        }
+
+        record.replayJournal(changes);
+        record.changedSinceSave = true;
+        return record;
+    }
+
+    /**
+     * Apply journaled changes, and mark the sections they touch as changed.
+     */
+    private synchronized void replayJournal(List<RecordJournal.Change> changes) {
+        Map<String, JsonElement> trees = new LinkedHashMap<>();
+        for (RecordJournal.Change change : changes) {
+            JsonElement tree = trees.get(change.sectionName);
+            if (tree == null) {
+                if (DriverRecordContract.JournalEntry.CONSTANTS_SECTION.equals(change.sectionName)) {
+                    tree = journaledConstants;
+                } else {
+                    openSection(change.sectionName);
+                    tree = journaledSections.get(change.sectionName);
+                    if (tree == null) {
+                        Log.w(LOG_LABEL, "Skipping journaled change to unknown section " + change.sectionName);
+                        continue;
+                    }
+                }
+            }
+            trees.put(change.sectionName, RecordJournal.apply(tree, change));
+        }
+
+        for (Map.Entry<String, JsonElement> replayed : trees.entrySet()) {
+            String sectionName = replayed.getKey();
+            if (DriverRecordContract.JournalEntry.CONSTANTS_SECTION.equals(sectionName)) {
+                RecordJournal.readConstantsTree(replayed.getValue(), editConstants);
+                journaledConstants = replayed.getValue();
+                continue;
+            }
+
+            Field sectionField = RecordFormSectionManager.getFieldForSectionName(sectionName);
+            try {
+                sectionField.set(editObject, DriverSchemaSerializer.readSection(replayed.getValue(),
+                        sectionField.getGenericType()));
+                journaledSections.put(sectionName, replayed.getValue());
+            } catch (IllegalAccessException e) {
+                Log.e(LOG_LABEL, "Do not have access to section field " + sectionName);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Call while holding the lock on this record.
+     *
+     * @return Tree of a section's current value; JsonNull if it is unset or cannot be read
+     */
+    private JsonElement getSectionTree(Field sectionField) {
+        Object section = null;
+        try {
+            section = sectionField.get(editObject);
+        } catch (IllegalAccessException e) {
+            Log.e(LOG_LABEL, "Do not have access to section field " + sectionField.getName());
+            e.printStackTrace();
+        }
+        return DriverSchemaSerializer.toSectionTree(section, sectionField.getGenericType());
+    }
+
+    /**
+     * Serialize the changed sections of the record and queue them to be written to the database
+     * in the background. The edit journal is cleared in the same transaction as the write.
+     *
+     * @return Future resolving to the record's database ID (-1 if the write failed),
+     * or null if the record could not be serialized
+     */
+    public Future<Long> save() {
+        if (editObject == null) {
+            Log.e(LOG_LABEL, "No currently editing DRIVER data to save!");
+            return null;
+        }
+
+        RecordDataCodec codec = DriverSchemaSerializer.getStorageCodec();
+        List<RecordDatabaseManager.SectionRow> sections;
+
+        synchronized (this) {
+            sections = encodeChangedSections(codec);
+
+            if (sections == null) {
+                Log.e(LOG_LABEL, "Failed to serialize record for storage");
+                return null;
+            }
+
+            writeAllSections = false;
+            dirtySections.clear();
+            changedSinceSave = false;
+        }
+
+        // constants are still editable once queued, so queue a copy
+        RecordWriteQueue writeQueue = DriverApp.getRecordWriteQueue();
+        return writeQueue.save(this, new RecordDatabaseManager.RecordRow(DriverApp.getCurrentSchema(),
+                sections, codec, editConstants.copy()).withJournalCompaction());
+    }
+
+    /**
+     * Encode each section that needs to be written. Call while holding the lock on this record.
+     *
+     * @return Encoded sections, or null on failure
+     */
+    private List<RecordDatabaseManager.SectionRow> encodeChangedSections(RecordDataCodec codec) {
+        List<RecordDatabaseManager.SectionRow> sections = new ArrayList<>();
+        int sectionCount = RecordFormSectionManager.getSectionCount();
+
+        for (int i = 0; i < sectionCount; i++) {
+            String sectionName = RecordFormSectionManager.getSectionName(i);
+            if (!writeAllSections && !dirtySections.contains(sectionName)) {
+                continue;
+            }
+
+            // a stored section that was never read in, or could not be read, must be kept as it is
+            if (loadedSections != null && !loadedSections.contains(sectionName)) {
+                Log.w(LOG_LABEL, "Not writing over section " + sectionName + "; it was not read");
+                continue;
+            }
+
+            Field sectionField = RecordFormSectionManager.getFieldForSectionName(sectionName);
+            if (sectionField == null) {
+                return null;
+            }
+
+            Object section;
+            try {
+                section = sectionField.get(editObject);
+            } catch (IllegalAccessException e) {
+                Log.e(LOG_LABEL, "Do not have access to section field " + sectionName);
+                e.printStackTrace();
+                return null;
+            }
+
+            byte[] data = null;
+            if (section != null) {
+                data = DriverSchemaSerializer.encodeSectionForStorage(section, sectionField.getGenericType(), codec);
+                if (data == null) {
+                    return null;
+                }
             }
+            sections.add(new RecordDatabaseManager.SectionRow(sectionName, i, data));
         }
 
-        return false;
+        return sections;
     }
 }
@@ -13,14 +13,15 @@ import com.google.gson.JsonParseException;
 import org.jsonschema2pojo.media.SerializableMedia;
 import org.worldbank.transport.driver.R;
 import org.worldbank.transport.driver.datastore.DriverRecordContract;
-import org.worldbank.transport.driver.datastore.DriverSchemaSerializer;
 import org.worldbank.transport.driver.datastore.GsonSetDeserializer;
 import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordWriteQueue;
 import org.worldbank.transport.driver.staticmodels.DriverApp;
 import org.worldbank.transport.driver.staticmodels.DriverAppContext;
 import org.worldbank.transport.driver.staticmodels.DriverSchemaUpload;
 import org.worldbank.transport.driver.staticmodels.DriverUploadGeom;
 import org.worldbank.transport.driver.staticmodels.DriverUserInfo;
+import org.worldbank.transport.driver.utilities.ThreadLocalDateFormat;
 import org.worldbank.transport.driver.utilities.UploadRecordUrlBuilder;
 
 import java.io.BufferedOutputStream;
@@ -32,7 +33,13 @@ import java.io.OutputStreamWriter;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Locale;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.worldbank.transport.driver.staticmodels.DriverApp.getContext;
 
@@ -48,6 +55,16 @@ public class PostRecordsTask extends AsyncTask<Long, Integer, Integer> {
 
     public static final String LOG_LABEL = "PostRecordsTask";
 
+    // Upload timestamps in the string formats the server has always received:
+    // record entry time in UTC, other times in device local time.
+    private static final ThreadLocalDateFormat UTC_DATE_FORMAT =
+            new ThreadLocalDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US, TimeZone.getTimeZone("UTC"));
+    private static final ThreadLocalDateFormat LOCAL_DATE_FORMAT =
+            new ThreadLocalDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US, null);
+
+    // how long to wait for queued writes before reading records, and for each delete after upload
+    private static final long WRITE_QUEUE_TIMEOUT_SECONDS = 30;
+
     public interface PostRecordsListener {
         void recordUploadFinished(int failed);
         void recordUploadCancelled(String errorMessage);
@@ -68,26 +85,36 @@ public class PostRecordsTask extends AsyncTask<Long, Integer, Integer> {
     private final UploadRecordUrl uploadRecordUrl;
     private final DriverUserInfo userInfo;
     private final RecordDatabaseManager databaseManager;
+    private final RecordWriteQueue writeQueue;
     private String errorMessage;
 
     public PostRecordsTask(PostRecordsListener listener, DriverUserInfo userInfo) {
-        this(listener, userInfo, new UploadRecordUrlBuilder(), DriverApp.getDatabaseManager());
+        this(listener, userInfo, new UploadRecordUrlBuilder(), DriverApp.getDatabaseManager(),
+                DriverApp.getRecordWriteQueue());
     }
 
-    // Invoke this constructor directly in test.
-    public PostRecordsTask(PostRecordsListener listener, DriverUserInfo userInfo,
-                           UploadRecordUrl uploadRecordUrl, RecordDatabaseManager databaseManager) {
+    /**
+     * Invoke this constructor directly in test.
+     *
+     * @param writeQueue Queue to delete uploaded records through, so deletes stay in order with saves
+     */
+    public PostRecordsTask(PostRecordsListener listener, DriverUserInfo userInfo, UploadRecordUrl uploadRecordUrl,
+                           RecordDatabaseManager databaseManager, RecordWriteQueue writeQueue) {
 
         this.listener = new WeakReference<>(listener);
         this.userInfo = userInfo;
         this.uploadRecordUrl = uploadRecordUrl;
         this.databaseManager = databaseManager;
+        this.writeQueue = writeQueue;
         serverUrl = context.getString(R.string.api_server_url);
     }
 
     @Override
     protected Integer doInBackground(Long... params) {
 
+        // upload records as last saved, not as they were before a save still in the queue
+        writeQueue.waitForPendingWrites();
+
         Cursor cursor;
         if (params.length == 0) {
             Log.d(LOG_LABEL, "Going to upload all records");
@@ -144,7 +171,6 @@ public class PostRecordsTask extends AsyncTask<Long, Integer, Integer> {
         try {
             int idCol = cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry._ID);
             int schemaCol = cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_SCHEMA_VERSION);
-            int dataCol = cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_DATA);
             int weatherCol = cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_WEATHER);
             int lightCol = cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_LIGHT);
             int colOccurredFrom = cursor.getColumnIndexOrThrow(DriverRecordContract.RecordEntry.COLUMN_OCCURRED_FROM);
@@ -162,25 +188,27 @@ public class PostRecordsTask extends AsyncTask<Long, Integer, Integer> {
                 // it will continue to the next record in the loop on failure
                 try {
                     String schemaVersion = cursor.getString(schemaCol);
-                    String data = cursor.getString(dataCol);
                     String weather = cursor.getString(weatherCol);
                     String light = cursor.getString(lightCol);
-                    String occurredFrom = cursor.getString(colOccurredFrom);
-                    String occurredTo = cursor.getString(colOccurredTo);
+                    String occurredFrom = LOCAL_DATE_FORMAT.format(cursor.getLong(colOccurredFrom));
+                    String occurredTo = LOCAL_DATE_FORMAT.format(cursor.getLong(colOccurredTo));
                     Double latitude = cursor.getDouble(colLat);
                     Double longitude = cursor.getDouble(colLon);
-                    String enteredAt = cursor.getString(colEnteredAt);
-                    String updatedAt = cursor.getString(colUpdatedAt);
+                    String enteredAt = UTC_DATE_FORMAT.format(cursor.getLong(colEnteredAt));
+                    String updatedAt = null;
+                    if (!cursor.isNull(colUpdatedAt)) {
+                        updatedAt = LOCAL_DATE_FORMAT.format(cursor.getLong(colUpdatedAt));
+                    }
 
                     // user allowed to save record without a location, in case they cannot get a
                     // GPS fix somewhere, but it cannot be uploaded until set
-                    if (latitude == 0 && longitude == 0) {
+                    if (!RecordDatabaseManager.canUploadLocation(latitude, longitude)) {
                         Log.d(LOG_LABEL, "Record without coordinates cannot be uploaded");
                         continue;
                     }
 
                     DriverSchemaUpload driverSchemaUpload = new DriverSchemaUpload();
-                    driverSchemaUpload.driverData = DriverSchemaSerializer.readRecord(data);
+                    driverSchemaUpload.driverData = databaseManager.readRecordData(cursor);
                     driverSchemaUpload.schemaVersion = schemaVersion;
                     driverSchemaUpload.driverWeather = weather;
                     driverSchemaUpload.driverLight = light;
@@ -233,10 +261,9 @@ public class PostRecordsTask extends AsyncTask<Long, Integer, Integer> {
                     } else {
                         Log.d(LOG_LABEL, "Record uploaded successfully!");
 
-                        // delete uploaded record from DB now
-                        if (!databaseManager.deleteRecord(recordId)) {
-                            Log.e(LOG_LABEL, "Failed to delete record " + recordId);
-                        }
+                        // delete uploaded record from DB before sending the next, so a failure
+                        // part way through never re-sends a record the server already has
+                        deleteUploadedRecord(recordId);
                         failed--;
                         publishProgress(1);
 
@@ -263,6 +290,32 @@ public class PostRecordsTask extends AsyncTask<Long, Integer, Integer> {
         return null;
     }
 
+    /**
+     * Delete a record that has been uploaded from the database, waiting for the delete to run.
+     * Deletes go through the write queue, so they land in order with saves of the same record,
+     * and the record list hears of them.
+     *
+     * @param recordId Database ID of the uploaded record
+     */
+    private void deleteUploadedRecord(long recordId) {
+        Future<Integer> delete = writeQueue.deleteRecords(new long[] {recordId});
+
+        try {
+            int deleted = delete.get(WRITE_QUEUE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (deleted < 0) {
+                Log.e(LOG_LABEL, "Failed to delete uploaded record " + recordId);
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_LABEL, "Interrupted waiting for uploaded record to be deleted");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_LABEL, "Error deleting uploaded record " + recordId);
+            e.printStackTrace();
+        } catch (TimeoutException e) {
+            Log.w(LOG_LABEL, "Timed out waiting for uploaded record to be deleted");
+        }
+    }
+
     @Override
     protected void onProgressUpdate(Integer... values) {
         PostRecordsListener caller = listener.get();
@@ -0,0 +1,107 @@
+package org.worldbank.transport.driver.tasks;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import org.worldbank.transport.driver.datastore.RecordDatabaseManager;
+import org.worldbank.transport.driver.datastore.RecordStore;
+import org.worldbank.transport.driver.datastore.RecordValidator;
+import org.worldbank.transport.driver.staticmodels.DriverApp;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check all stored records against the current schema before uploading them, from their
+ * stored data, without opening them in the form.
+ *
+ * Records made with another schema version cannot be checked, and are counted as skipped.
+ */
+public class ValidateRecordsTask extends AsyncTask<Void, Void, ValidateRecordsTask.Result> {
+
+    private static final String LOG_LABEL = "ValidateRecordsTask";
+
+    public interface ValidateRecordsListener {
+        void recordsValidated(Result result);
+    }
+
+    /**
+     * Outcome of checking the stored records.
+     */
+    public static class Result {
+        public int checked;
+        public int skipped;
+        // database IDs of records with problems
+        public final List<Long> invalidRecordIds = new ArrayList<>();
+        public long elapsedMillis;
+
+        public int getInvalidCount() {
+            return invalidRecordIds.size();
+        }
+    }
+
+    private final WeakReference<ValidateRecordsListener> listener;
+    private final RecordDatabaseManager databaseManager;
+
+    public ValidateRecordsTask(ValidateRecordsListener listener) {
+        this(listener, DriverApp.getDatabaseManager());
+    }
+
+    // Invoke this constructor directly in test.
+    public ValidateRecordsTask(ValidateRecordsListener listener, RecordDatabaseManager databaseManager) {
+        this.listener = new WeakReference<>(listener);
+        this.databaseManager = databaseManager;
+    }
+
+    @Override
+    protected Result doInBackground(Void... params) {
+        return validateRecords(databaseManager, RecordValidator.getForCurrentSchema(), DriverApp.getCurrentSchema());
+    }
+
+    /**
+     * Check every stored record made with a schema version against a validator.
+     *
+     * @param store Store to read the records from
+     * @param validator Validator for the schema version, or null to skip all records
+     * @param schemaVersion Schema version the validator is for
+     * @return Counts of records checked and skipped, and IDs of those with problems
+     */
+    public static Result validateRecords(RecordStore store, final RecordValidator validator,
+                                         final String schemaVersion) {
+        final long startTime = System.nanoTime();
+        final Result result = new Result();
+
+        store.scanRecords(new RecordStore.RecordVisitor() {
+            @Override
+            public boolean visit(RecordStore.StoredRecord record) {
+                if (validator == null || schemaVersion == null || !schemaVersion.equals(record.schemaVersion)) {
+                    result.skipped++;
+                    return true;
+                }
+
+                result.checked++;
+                List<RecordValidator.Problem> problems = validator.validate(record.data);
+                if (!problems.isEmpty()) {
+                    Log.w(LOG_LABEL, "Record " + record.recordId + " has " + problems.size() +
+                            " problems, first: " + problems.get(0));
+                    result.invalidRecordIds.add(record.recordId);
+                }
+                return true;
+            }
+        });
+
+        result.elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        Log.d(LOG_LABEL, "Checked " + result.checked + " records in " + result.elapsedMillis + " ms; " +
+                result.getInvalidCount() + " invalid, " + result.skipped + " skipped");
+        return result;
+    }
+
+    @Override
+    protected void onPostExecute(Result result) {
+        ValidateRecordsListener caller = listener.get();
+        if (caller != null) {
+            caller.recordsValidated(result);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.worldbank.transport.driver.utilities;
+
+import android.content.Context;
+
+import com.github.msarhan.ummalqura.calendar.UmmalquraCalendar;
+import com.github.msarhan.ummalqura.calendar.UmmalquraDateFormatSymbols;
+
+import java.text.DateFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Formats dates for display in the Gregorian or Umm al-Qura Hijri calendar, with one pattern.
+ *
+ * Each thread that formats gets its own date format from a {@link ThreadLocalDateFormat}, set
+ * up once with the calendar and month names to use. Formatted text is kept for the most finely
+ * grained unit in the pattern, such as the minute or the day, and shared by all threads; so text
+ * may be formatted ahead of time on a background thread, and then found again when it is shown.
+ */
+public class DisplayDateFormatter {
+
+    // most formatted dates to keep
+    private static final int MAX_FORMATTED = 512;
+
+    private static final long SECOND_MILLIS = 1000;
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private final TimeZone timeZone;
+    private final ThreadLocalDateFormat dateFormat;
+
+    // length of time that formats to the same text, in milliseconds; 1 if every millisecond differs
+    private final long bucketMillis;
+
+    /**
+     * Formatted text, by local time bucket. The offset from UTC is kept with the text so times
+     * repeated when clocks go back are told apart.
+     */
+    private static class Formatted {
+        final int offset;
+        final String text;
+
+        Formatted(int offset, String text) {
+            this.offset = offset;
+            this.text = text;
+        }
+    }
+
+    private final LinkedHashMap<Long, Formatted> formatted =
+            new LinkedHashMap<Long, Formatted>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Formatted> eldest) {
+                    return size() > MAX_FORMATTED;
+                }
+            };
+
+    /**
+     * @param pattern Pattern as for {@link SimpleDateFormat}
+     * @param locale Locale to use for presentation (determines language to use)
+     * @param timeZone Time zone to show times in
+     * @param useUmmalqura Show dates in the Umm al-Qura Hijri calendar
+     */
+    public DisplayDateFormatter(String pattern, final Locale locale, TimeZone timeZone, boolean useUmmalqura) {
+        this.timeZone = timeZone;
+        this.bucketMillis = getBucketMillis(pattern);
+
+        if (useUmmalqura) {
+            dateFormat = new ThreadLocalDateFormat(pattern, locale, timeZone) {
+                @Override
+                protected void configure(SimpleDateFormat format) {
+                    format.setCalendar(new UmmalquraCalendar(locale));
+
+                    // explicitly set the date format symbols; otherwise months display as incorrect Gregorian
+                    UmmalquraDateFormatSymbols ummalquara = new UmmalquraDateFormatSymbols();
+                    DateFormatSymbols symbols = new DateFormatSymbols(locale);
+                    symbols.setMonths(ummalquara.getMonths());
+                    symbols.setShortMonths(ummalquara.getShortMonths());
+                    format.setDateFormatSymbols(symbols);
+                }
+            };
+        } else {
+            dateFormat = new ThreadLocalDateFormat(pattern, locale, timeZone);
+        }
+    }
+
+    /**
+     * Get a formatter for the full date and time, as shown in the record list, in the default
+     * locale and time zone. Uses the 24-hour clock if the system does so. Times are shown to the
+     * minute, so records entered within the same minute share their formatted text.
+     *
+     * @param context Context to read the time format setting from
+     * @param useUmmalqura Show dates in the Umm al-Qura Hijri calendar
+     * @return New formatter
+     */
+    public static DisplayDateFormatter getDateTimeInstance(Context context, boolean useUmmalqura) {
+        String dateFormatString = "EEEE d MMMM, y ";
+        if (android.text.format.DateFormat.is24HourFormat(context)) {
+            dateFormatString += "HH:mm z";
+        } else {
+            dateFormatString += "hh:mm z";
+        }
+        return new DisplayDateFormatter(dateFormatString, Locale.getDefault(), TimeZone.getDefault(), useUmmalqura);
+    }
+
+    /**
+     * Format a date. May be called from any thread.
+     *
+     * @param millis Time to format, in milliseconds since the epoch
+     * @return Formatted date/time string
+     */
+    public String format(long millis) {
+        int offset = timeZone.getOffset(millis);
+        Long bucket = floorDiv(millis + offset, bucketMillis);
+
+        synchronized (formatted) {
+            Formatted found = formatted.get(bucket);
+            if (found != null && found.offset == offset) {
+                return found.text;
+            }
+        }
+
+        String text = dateFormat.format(millis);
+        synchronized (formatted) {
+            formatted.put(bucket, new Formatted(offset, text));
+        }
+        return text;
+    }
+
+    /**
+     * @param date Date to format
+     * @return Formatted date/time string
+     */
+    public String format(Date date) {
+        return format(date.getTime());
+    }
+
+    /**
+     * Find the most finely grained unit the pattern shows, ignoring quoted text.
+     *
+     * @param pattern Pattern as for {@link SimpleDateFormat}
+     * @return Length of the unit, in milliseconds
+     */
+    static long getBucketMillis(String pattern) {
+        long bucket = DAY_MILLIS;
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+                continue;
+            }
+            if (quoted) {
+                continue;
+            }
+
+            switch (c) {
+                case 'S':
+                    return 1;
+                case 's':
+                    bucket = Math.min(bucket, SECOND_MILLIS);
+                    break;
+                case 'm':
+                    bucket = Math.min(bucket, MINUTE_MILLIS);
+                    break;
+                case 'H':
+                case 'h':
+                case 'k':
+                case 'K':
+                case 'a':
+                    bucket = Math.min(bucket, HOUR_MILLIS);
+                    break;
+            }
+        }
+        return bucket;
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long quotient = value / divisor;
+        if (value % divisor < 0) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
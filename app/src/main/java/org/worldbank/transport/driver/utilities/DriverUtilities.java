@@ -8,7 +8,6 @@ import com.github.msarhan.ummalqura.calendar.UmmalquraDateFormatSymbols;
 import com.github.msarhan.ummalqura.calendar.text.UmmalquraFormatData_ar;
 import com.google.gson.annotations.SerializedName;
 
-import org.jsonschema2pojo.media.SerializableMedia;
 import org.worldbank.transport.driver.R;
 import org.worldbank.transport.driver.staticmodels.DriverApp;
 import org.worldbank.transport.driver.staticmodels.DriverConstantFields;
@@ -122,96 +121,33 @@ public class DriverUtilities {
      */
     public static ListItemLabels getListItemLabels(ArrayList items, Class sectionClass, String defaultLabel) {
 
-        final int MAX_NUM_LABEL_FIELDS = 3;
+        ListItemLabeler labeler = new ListItemLabeler(sectionClass);
 
-        String[] fieldOrders = getFieldOrder(sectionClass);
-
-        ArrayList<String> labels = new ArrayList<>(items.size());
+        int itemsSize = items.size();
+        ArrayList<String> labels = new ArrayList<>(itemsSize);
         ArrayList<String> imagePaths = null;
 
-        // If there are less than MAX_NUM_LABEL_FIELDS fields in the section,
-        // use as many as are available.
-        ArrayList<Field> labelFields = new ArrayList<>(MAX_NUM_LABEL_FIELDS);
-        int numLabelFields = MAX_NUM_LABEL_FIELDS;
-        if (numLabelFields > fieldOrders.length) {
-            numLabelFields = fieldOrders.length;
-        }
-
-        Field mediaField = null;
-
-        // get fields to use for the labels
-        try {
-            for (int i = 0; i < numLabelFields; i++) {
-                String labelFieldName = fieldOrders[i];
-                Field labelField = sectionClass.getField(labelFieldName);
-
-                // Do not attempt to use media fields for string label.
-                // Use first media field found for image.
-                if (labelField.getType().equals(SerializableMedia.class)) {
-                    if (mediaField == null) {
-                        mediaField = labelField;
-                    }
-                } else {
-                    labelFields.add(labelField);
-                }
-            }
-        } catch(NoSuchFieldException e) {
-            e.printStackTrace();
-        }
-
-        if (mediaField != null) {
-            imagePaths = new ArrayList<>(items.size());
+        if (labeler.hasImages()) {
+            imagePaths = new ArrayList<>(itemsSize);
         }
 
         // build the labels
-        try {
-            String label;
-            int itemsSize = items.size();
-            for (int i = 0; i < itemsSize; i++) {
-                label = "";
-                Object item = items.get(i);
-
-                // get path to image to use
-                if (mediaField != null) {
-                    String imagePath = "";
-                    Object obj = mediaField.get(item);
-                    if (obj != null) {
-                        SerializableMedia media = (SerializableMedia) obj;
-                        imagePath = media.path;
-                    }
-                    imagePaths.add(imagePath);
-                }
-
-                for (Field labelField : labelFields) {
-                    Object obj = labelField.get(item);
-                    if (obj == null) {
-                        continue; // no value entered for this field
-                    }
-
-                    String objString = obj.toString();
-
-                    if (objString.length() == 0) {
-                        continue; // empty string representation for this field
-                    }
+        for (int i = 0; i < itemsSize; i++) {
+            Object item = items.get(i);
 
-                    if (label.length() > 0) {
-                        label += " - "; // separator
-                    }
-                    label += objString;
-                }
+            // get path to image to use
+            if (imagePaths != null) {
+                imagePaths.add(labeler.getImagePath(item));
+            }
 
-                // add a default label if no values found to use
-                // {Field Label} - {Item #}
-                if (label.length() == 0) {
-                    label = defaultLabel;
-                    // append item number in list (starting with one)
-                    label += " - " + String.valueOf(i + 1);
-                }
+            String label = labeler.getValueLabel(item);
 
-                labels.add(label);
+            // add a default label if no values found to use
+            if (label.length() == 0) {
+                label = ListItemLabeler.getDefaultLabel(defaultLabel, i);
             }
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+
+            labels.add(label);
         }
 
         return new ListItemLabels(labels, imagePaths);
@@ -253,7 +189,8 @@ public class DriverUtilities {
     }
 
     /**
-     * Convert date to its Hijri Ummalqura calendar representation.
+     * Convert date to its Hijri Ummalqura calendar representation. Sets up the calendar and
+     * symbols on the given format each time; to format many dates, use {@link DisplayDateFormatter}.
      *
      * @param date Date to format
      * @param dateFormat Formatter with pattern set
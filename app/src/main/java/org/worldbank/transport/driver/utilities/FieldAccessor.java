@@ -0,0 +1,178 @@
+package org.worldbank.transport.driver.utilities;
+
+import android.util.Log;
+
+import org.worldbank.transport.driver.staticmodels.DriverApp;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and sets one field on model objects.
+ *
+ * The schema jar may include an accessor class for each model class, named after it with
+ * {@link #PROVIDER_SUFFIX} appended and implementing {@link Provider}, with generated code that
+ * reads and sets the fields directly. For fields without a generated accessor, reflection is
+ * used instead. Accessors are looked up once per field and cached; clear them with
+ * {@link #clear()} when the schema classes are reloaded.
+ */
+public abstract class FieldAccessor {
+
+    private static final String LOG_LABEL = "FieldAccessor";
+
+    public static final String PROVIDER_SUFFIX = "Accessors";
+
+    // found accessors, by model class, then by field name
+    private static final ConcurrentHashMap<Class, ConcurrentHashMap<String, FieldAccessor>> accessors =
+            new ConcurrentHashMap<>();
+
+    // generated accessor providers, by model class; classes without one map to NO_PROVIDER
+    private static final ConcurrentHashMap<Class, Provider> providers = new ConcurrentHashMap<>();
+
+    /**
+     * Implemented by the accessor classes generated with the schema models.
+     */
+    public interface Provider {
+        /**
+         * @param fieldName Name of a field on the model class
+         * @return Accessor for the field, or null to use reflection for it
+         */
+        FieldAccessor getAccessor(String fieldName);
+    }
+
+    private static final Provider NO_PROVIDER = new Provider() {
+        @Override
+        public FieldAccessor getAccessor(String fieldName) {
+            return null;
+        }
+    };
+
+    /**
+     * @param target Object to read the field on
+     * @return Value of the field
+     * @throws IllegalAccessException If the field cannot be read
+     */
+    public abstract Object get(Object target) throws IllegalAccessException;
+
+    /**
+     * @param target Object to set the field on
+     * @param value New value for the field
+     * @throws IllegalAccessException If the field cannot be set
+     */
+    public abstract void set(Object target, Object value) throws IllegalAccessException;
+
+    /**
+     * Get the accessor for a public field on a model class.
+     *
+     * @param modelClass Class with the field
+     * @param fieldName Name of the field
+     * @return Accessor for the field, or null if there is no such public field
+     */
+    public static FieldAccessor forField(Class modelClass, String fieldName) {
+        ConcurrentHashMap<String, FieldAccessor> classAccessors = accessors.get(modelClass);
+        if (classAccessors == null) {
+            classAccessors = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, FieldAccessor> found = accessors.putIfAbsent(modelClass, classAccessors);
+            if (found != null) {
+                classAccessors = found;
+            }
+        }
+
+        FieldAccessor accessor = classAccessors.get(fieldName);
+        if (accessor != null) {
+            return accessor;
+        }
+
+        accessor = getProvider(modelClass).getAccessor(fieldName);
+        if (accessor == null) {
+            try {
+                accessor = new ReflectiveAccessor(modelClass.getField(fieldName));
+            } catch (NoSuchFieldException e) {
+                Log.e(LOG_LABEL, "No field " + fieldName + " on " + modelClass.getSimpleName());
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        classAccessors.put(fieldName, accessor);
+        return accessor;
+    }
+
+    /**
+     * Get the accessor for a field found by reflection.
+     *
+     * @param field Public field on a model class
+     * @return Accessor for the field
+     */
+    public static FieldAccessor forField(Field field) {
+        FieldAccessor accessor = forField(field.getDeclaringClass(), field.getName());
+        if (accessor == null) {
+            // not public; use the field as given
+            accessor = new ReflectiveAccessor(field);
+        }
+        return accessor;
+    }
+
+    /**
+     * Drop all cached accessors. Call when the schema classes are reloaded.
+     */
+    public static void clear() {
+        accessors.clear();
+        providers.clear();
+    }
+
+    private static Provider getProvider(Class modelClass) {
+        Provider provider = providers.get(modelClass);
+        if (provider != null) {
+            return provider;
+        }
+
+        provider = NO_PROVIDER;
+        if (modelClass.getClassLoader() != null) {
+            String providerName = modelClass.getName() + PROVIDER_SUFFIX;
+            try {
+                Class providerClass = DriverApp.loadClassWithModel(modelClass, providerName);
+                if (providerClass == null) {
+                    Log.w(LOG_LABEL, "Could not load " + providerName);
+                } else if (Provider.class.isAssignableFrom(providerClass)) {
+                    provider = (Provider) providerClass.newInstance();
+                    Log.d(LOG_LABEL, "Using generated accessors for " + modelClass.getSimpleName());
+                } else {
+                    Log.w(LOG_LABEL, providerName + " is not an accessor provider");
+                }
+            } catch (ClassNotFoundException e) {
+                // no generated accessors for this class; use reflection
+            } catch (InstantiationException e) {
+                Log.e(LOG_LABEL, "Could not instantiate accessors " + providerName);
+                e.printStackTrace();
+            } catch (IllegalAccessException e) {
+                Log.e(LOG_LABEL, "Could not access accessors " + providerName);
+                e.printStackTrace();
+            }
+        }
+
+        providers.put(modelClass, provider);
+        return provider;
+    }
+
+    /**
+     * Accessor for a field without a generated one.
+     */
+    private static class ReflectiveAccessor extends FieldAccessor {
+        private final Field field;
+
+        ReflectiveAccessor(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        public Object get(Object target) throws IllegalAccessException {
+            return field.get(target);
+        }
+
+        @Override
+        public void set(Object target, Object value) throws IllegalAccessException {
+            field.set(target, value);
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package org.worldbank.transport.driver.utilities;
+
+import android.content.res.Resources;
+import android.text.InputType;
+import android.util.Log;
+
+import com.google.gson.annotations.SerializedName;
+
+import org.apache.commons.lang.StringUtils;
+import org.jsonschema2pojo.annotations.FieldFormat;
+import org.jsonschema2pojo.annotations.FieldFormats;
+import org.jsonschema2pojo.annotations.FieldType;
+import org.jsonschema2pojo.annotations.FieldTypes;
+import org.jsonschema2pojo.annotations.IsHidden;
+import org.jsonschema2pojo.annotations.WatchTarget;
+import org.jsonschema2pojo.media.SerializableMedia;
+import org.worldbank.transport.driver.annotations.ConstantFieldType;
+import org.worldbank.transport.driver.annotations.ConstantFieldTypes;
+import org.worldbank.transport.driver.staticmodels.DriverApp;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Describes the form controls for a section class: which fields to show, in what order, with
+ * what labels and options. Building one means scanning the section class's fields and
+ * annotations and resolving its enumerations, so templates are cached per schema version,
+ * section class, and locale, and forms only need to create controls bound to the object
+ * being edited.
+ *
+ * Templates do not change once built. Options for reference fields depend on the record
+ * being edited, so only the watch target is kept for those.
+ */
+public class FormSectionTemplate {
+
+    private static final String LOG_LABEL = "FormSectionTemplate";
+
+    private static final ConcurrentHashMap<String, FormSectionTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Kinds of form control a field can have.
+     */
+    public enum ControlType {
+        IMAGE,
+        CHECKBOX,
+        SELECT,
+        TEXT,
+        REFERENCE,
+        DATE
+    }
+
+    /**
+     * Everything needed to create the form control for one field.
+     */
+    public static class FieldTemplate {
+        public final String name;
+        public final String label;
+        public final ControlType controlType;
+        public final boolean isRequired;
+        // input type for text fields
+        public final int inputType;
+        // option labels and values for select and checkbox fields; in matching order
+        public final List<String> optionLabels;
+        public final List<Object> optionItems;
+        // name of the referenced section for reference fields
+        public final String watchTarget;
+
+        FieldTemplate(String name, String label, ControlType controlType, boolean isRequired, int inputType,
+                      List<String> optionLabels, List<Object> optionItems, String watchTarget) {
+            this.name = name;
+            this.label = label;
+            this.controlType = controlType;
+            this.isRequired = isRequired;
+            this.inputType = inputType;
+            this.optionLabels = optionLabels;
+            this.optionItems = optionItems;
+            this.watchTarget = watchTarget;
+        }
+    }
+
+    /**
+     * Field templates, in the order the fields should appear on the form.
+     */
+    public final List<FieldTemplate> fields;
+
+    private FormSectionTemplate(List<FieldTemplate> fields) {
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Get the template for a section class, building it on first use.
+     *
+     * @param sectionClass Class of the section to build a form for
+     * @param isConstants True for the constants form, which keeps its labels in strings.xml
+     * @param resources Resources to find translated labels and the current locale in
+     * @param packageName Package to look up string resources in
+     * @return Template for the section
+     */
+    public static FormSectionTemplate getTemplate(Class sectionClass, boolean isConstants,
+                                                  Resources resources, String packageName) {
+        Locale locale = resources.getConfiguration().locale;
+        String key = DriverApp.getCurrentSchema() + "|" + sectionClass.getName() + "|" +
+                isConstants + "|" + locale;
+
+        FormSectionTemplate template = templates.get(key);
+        if (template == null) {
+            long startTime = System.nanoTime();
+            template = buildTemplate(sectionClass, isConstants, resources, packageName);
+            templates.put(key, template);
+            Log.d(LOG_LABEL, "Built form template for " + sectionClass.getSimpleName() + " in " +
+                    ((System.nanoTime() - startTime) / 1000000) + " ms");
+        }
+        return template;
+    }
+
+    /**
+     * Drop all cached templates. Call when the schema classes are reloaded.
+     */
+    public static void clear() {
+        templates.clear();
+    }
+
+    private static FormSectionTemplate buildTemplate(Class sectionClass, boolean isConstants,
+                                                     Resources resources, String packageName) {
+        Field[] fields = sectionClass.getDeclaredFields();
+
+        HashMap<String, Class> enums = new HashMap<>();
+
+        // find enums for select lists
+        Class[] classes = sectionClass.getDeclaredClasses();
+        for (Class clazz : classes) {
+            if (clazz.isEnum()) {
+                enums.put(clazz.getSimpleName(), clazz);
+            }
+        }
+
+        // map of field names to their templates
+        HashMap<String, FieldTemplate> fieldTemplates = new HashMap<>(fields.length);
+
+        field_loop:
+        for (Field field: fields) {
+            String fieldName = field.getName();
+            String fieldLabel = fieldName;
+            FieldTypes fieldType = null;
+            FieldFormats format = null;
+            boolean isRequired = false;
+            ConstantFieldTypes constantFieldType = null;
+            String watchTarget = null;
+
+            ControlType controlType = null;
+            int inputType = InputType.TYPE_CLASS_TEXT;
+            SelectListInfo options = null;
+
+            // constants form keeps translated field labels in strings
+            if (isConstants) {
+                fieldLabel = resources.getString(resources.getIdentifier(fieldName, "string", packageName));
+            }
+
+            Annotation[] annotations = field.getDeclaredAnnotations();
+
+            for (Annotation annotation: annotations) {
+
+                Class annotationType = annotation.annotationType();
+
+                if (annotationType.equals(IsHidden.class)) {
+                    IsHidden isHidden = (IsHidden) annotation;
+                    if (isHidden.value()) {
+                        continue field_loop;
+                    } else {
+                        Log.w(LOG_LABEL, "Have false isHidden annotation, which is inefficient. Better just leave it off.");
+                    }
+                } else if (annotationType.equals(FieldType.class)) {
+                    FieldType fieldTypeAnnotation = (FieldType) annotation;
+                    fieldType = fieldTypeAnnotation.value();
+                } else if (annotationType.equals(FieldFormat.class)) {
+                    FieldFormat formatAnnotation = (FieldFormat) annotation;
+                    format = formatAnnotation.value();
+                    Log.d(LOG_LABEL, "Format for field " + fieldName + " is : " + format);
+                } else if (annotationType.equals(SerializedName.class) && !isConstants) {
+                    SerializedName serializedName = (SerializedName) annotation;
+                    fieldLabel = serializedName.value();
+                } else if (annotationType.equals(NotNull.class)) {
+                    isRequired = true;
+                } else if (annotationType.equals(ConstantFieldType.class)) {
+                    ConstantFieldType constantFieldTypeAnnotation = (ConstantFieldType) annotation;
+                    constantFieldType = constantFieldTypeAnnotation.value();
+                } else if (annotationType.equals(WatchTarget.class)) {
+                    WatchTarget watchTargetAnnotation = (WatchTarget) annotation;
+                    watchTarget = watchTargetAnnotation.value();
+                }
+            }
+
+            if (fieldType != null) {
+                // have a jsonschema2pojo field type
+                switch (fieldType) {
+                    case image:
+                        Log.d(LOG_LABEL, "found image field");
+
+                        if (!field.getType().equals(SerializableMedia.class)) {
+                            Log.e(LOG_LABEL, "image field has wrong type: " + field.getType());
+                            continue;
+                        }
+
+                        controlType = ControlType.IMAGE;
+                        break;
+                    case selectlist:
+                        // find enum with the options in it
+                        Class fieldClass = field.getType();
+                        Class enumClass = enums.get(fieldClass.getSimpleName());
+
+                        // for checkbox-formatted fields, enum is in a separate class (not inner)
+                        if (enumClass == null) {
+                            if (fieldClass.equals(Set.class) || fieldClass.equals(List.class)) {
+                                String enumName = RecordFormSectionManager.MODEL_PACKAGE +
+                                        StringUtils.capitalize(fieldName) + "Enum";
+                                try {
+                                    enumClass = DriverApp.loadSchemaClass(enumName);
+                                    options = buildSelectEnumInfo(enumClass, isConstants, resources, packageName);
+                                    controlType = ControlType.CHECKBOX;
+                                } catch (ClassNotFoundException e) {
+                                    e.printStackTrace();
+                                    Log.e(LOG_LABEL, "selectlist enumeration class " + enumName + " not found for " + fieldClass);
+                                    continue;
+                                }
+                            } else {
+                                Log.e(LOG_LABEL, "selectlist enumeration not found for " + fieldClass);
+                                continue;
+                            }
+                        } else {
+                            options = buildSelectEnumInfo(enumClass, isConstants, resources, packageName);
+                            if (!isRequired) {
+                                Log.d(LOG_LABEL, "Adding empty option to list for " + fieldClass);
+                                options.labels.add(0, "");
+                                options.items.add(0, "");
+                            }
+                            controlType = ControlType.SELECT;
+                        }
+
+                        break;
+                    case text:
+                        // check the field format for setting the text field input type
+                        if (format != null) {
+                            if (format.equals(FieldFormats.number)) {
+                                inputType = InputType.TYPE_NUMBER_FLAG_DECIMAL |
+                                        InputType.TYPE_NUMBER_FLAG_SIGNED |
+                                        InputType.TYPE_CLASS_NUMBER;
+                            } else if (format.equals(FieldFormats.integer)) {
+                                inputType = InputType.TYPE_CLASS_NUMBER |
+                                        InputType.TYPE_NUMBER_FLAG_SIGNED;
+                            } else if (format.equals(FieldFormats.textarea)) {
+                                inputType |= InputType.TYPE_TEXT_FLAG_MULTI_LINE;
+                            } else if (format.equals(FieldFormats.tel)) {
+                                inputType |= InputType.TYPE_CLASS_PHONE;
+                            } else if (format.equals(FieldFormats.email)) {
+                                inputType |= InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS;
+                            } else if (format.equals(FieldFormats.url)) {
+                                inputType |= InputType.TYPE_TEXT_VARIATION_URI;
+                            }
+                        }
+                        controlType = ControlType.TEXT;
+                        break;
+                    case reference:
+                        if (watchTarget == null) {
+                            Log.e(LOG_LABEL, "Found a reference field without a watch target! Cannot use field " + fieldName);
+                            continue;
+                        }
+                        // options come from the record being edited, so are found when the form is built
+                        controlType = ControlType.REFERENCE;
+                        break;
+                    case integer:
+                        inputType = InputType.TYPE_CLASS_NUMBER |
+                                InputType.TYPE_NUMBER_FLAG_SIGNED;
+                        controlType = ControlType.TEXT;
+                        break;
+                    case number:
+                        inputType = InputType.TYPE_NUMBER_FLAG_DECIMAL |
+                                InputType.TYPE_NUMBER_FLAG_SIGNED |
+                                InputType.TYPE_CLASS_NUMBER;
+                        controlType = ControlType.TEXT;
+                        break;
+                    default:
+                        Log.e(LOG_LABEL, "Don't know what to do with field type " + fieldType.toString());
+                        break;
+                }
+            } else {
+                if (constantFieldType == null) {
+                    // In this case, it's probably a subsection, which doesn't happen in our usage.
+                    Log.e(LOG_LABEL, "No field type found for field " + fieldName);
+                    continue;
+                } else {
+                    // have a constant field type
+                    switch (constantFieldType) {
+                        case date:
+                            controlType = ControlType.DATE;
+                            break;
+                        default:
+                            Log.e(LOG_LABEL, "Unrecognized constant field type " + constantFieldType);
+                            break;
+                    }
+                }
+            }
+
+            if (controlType != null) {
+                List<String> optionLabels = null;
+                List<Object> optionItems = null;
+                if (options != null) {
+                    optionLabels = Collections.unmodifiableList(options.labels);
+                    optionItems = Collections.unmodifiableList(options.items);
+                }
+                fieldTemplates.put(fieldName, new FieldTemplate(fieldName, fieldLabel, controlType, isRequired,
+                        inputType, optionLabels, optionItems, watchTarget));
+            }
+        }
+
+        // read/respect JsonPropertyOrder annotation of fields, if present
+        String[] orderedFields = DriverUtilities.getFieldOrder(sectionClass);
+
+        ArrayList<FieldTemplate> ordered = new ArrayList<>(orderedFields.length);
+        for (String nextField : orderedFields) {
+            FieldTemplate fieldTemplate = fieldTemplates.get(nextField);
+            if (fieldTemplate != null) {
+                ordered.add(fieldTemplate);
+            } else {
+                Log.w(LOG_LABEL, "No control found for ordered field " + nextField);
+            }
+        }
+
+        return new FormSectionTemplate(ordered);
+    }
+
+    /**
+     * Structure to hold labels and items for a select controller.
+     * Order of items in both collections should match.
+     */
+    private static class SelectListInfo {
+        public final ArrayList<String> labels;
+        public final ArrayList<Object> items;
+
+        public SelectListInfo(ArrayList<String> labels, ArrayList<Object> items) {
+            this.labels = labels;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Helper to build the labels and items to go in a select control for a field of enums.
+     *
+     * @param enumClass Enum class containing options to put in the control
+     * @param isConstants True to find labels in strings.xml
+     * @param resources Resources to find translated labels in
+     * @param packageName Package to look up string resources in
+     * @return SelectListInfo structure with labels and items to use in select field
+     */
+    private static SelectListInfo buildSelectEnumInfo(Class enumClass, boolean isConstants,
+                                                      Resources resources, String packageName) {
+        ArrayList<Object> enumValueObjectList = new ArrayList<>(Arrays.asList(enumClass.getEnumConstants()));
+        ArrayList<String> enumLabels = new ArrayList<>(enumValueObjectList.size());
+
+        for (Object enumConstant : enumValueObjectList) {
+            String prettyLabel = enumConstant.toString();
+
+            Enum myEnum = (Enum) enumConstant;
+
+            // Find the field of the same name as the enum constant, to get its label from
+            // the SerializedName annotation.
+            try {
+                Field enumField = enumClass.getField(myEnum.name());
+                if (isConstants) {
+                    // labels are in strings.xml for translation
+                    // hyphens are not valid in strings.xml identifiers; replaced with underscores
+                    String resourceLabel = prettyLabel.replace("-", "_");
+                    prettyLabel = resources.getString(resources.getIdentifier(resourceLabel, "string", packageName));
+                } else {
+                    SerializedName serializedName = enumField.getAnnotation(SerializedName.class);
+                    if (serializedName != null) {
+                        prettyLabel = serializedName.value();
+                    }
+                }
+            } catch (NoSuchFieldException e) {
+                Log.e(LOG_LABEL, "Failed to find enum field to build label for " + prettyLabel);
+                e.printStackTrace();
+            }
+            enumLabels.add(prettyLabel);
+        }
+
+        return new SelectListInfo(enumLabels, enumValueObjectList);
+    }
+}
@@ -0,0 +1,137 @@
+package org.worldbank.transport.driver.utilities;
+
+import android.util.Log;
+
+import org.jsonschema2pojo.media.SerializableMedia;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+/**
+ * Builds the label for one list item at a time, from the first few fields in the ordered field
+ * list of the item class. The fields to use are found once, so items can be labelled as they
+ * are added or changed without looking at the rest of the list.
+ */
+public class ListItemLabeler {
+
+    private static final String LOG_LABEL = "ListItemLabeler";
+
+    private static final int MAX_NUM_LABEL_FIELDS = 3;
+
+    private final Class itemClass;
+    private final ArrayList<FieldAccessor> labelFields = new ArrayList<>(MAX_NUM_LABEL_FIELDS);
+    private FieldAccessor mediaField;
+
+    /**
+     * @param itemClass Class of the items to be labelled
+     */
+    public ListItemLabeler(Class itemClass) {
+        this.itemClass = itemClass;
+
+        String[] fieldOrders = DriverUtilities.getFieldOrder(itemClass);
+
+        // If there are less than MAX_NUM_LABEL_FIELDS fields in the section,
+        // use as many as are available.
+        int numLabelFields = MAX_NUM_LABEL_FIELDS;
+        if (numLabelFields > fieldOrders.length) {
+            numLabelFields = fieldOrders.length;
+        }
+
+        // get fields to use for the labels
+        try {
+            for (int i = 0; i < numLabelFields; i++) {
+                String labelFieldName = fieldOrders[i];
+                Field labelField = itemClass.getField(labelFieldName);
+
+                // Do not attempt to use media fields for string label.
+                // Use first media field found for image.
+                if (labelField.getType().equals(SerializableMedia.class)) {
+                    if (mediaField == null) {
+                        mediaField = FieldAccessor.forField(labelField);
+                    }
+                } else {
+                    labelFields.add(FieldAccessor.forField(labelField));
+                }
+            }
+        } catch(NoSuchFieldException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public Class getItemClass() {
+        return itemClass;
+    }
+
+    /**
+     * @return True if items have an image to show with their label
+     */
+    public boolean hasImages() {
+        return mediaField != null;
+    }
+
+    /**
+     * Build the label from an item's field values.
+     *
+     * @param item Item to label
+     * @return Field values separated by hyphens, or an empty string if the item has none set
+     */
+    public String getValueLabel(Object item) {
+        String label = "";
+        try {
+            for (FieldAccessor labelField : labelFields) {
+                Object obj = labelField.get(item);
+                if (obj == null) {
+                    continue; // no value entered for this field
+                }
+
+                String objString = obj.toString();
+
+                if (objString.length() == 0) {
+                    continue; // empty string representation for this field
+                }
+
+                if (label.length() > 0) {
+                    label += " - "; // separator
+                }
+                label += objString;
+            }
+        } catch (IllegalAccessException e) {
+            Log.e(LOG_LABEL, "Failed to read label field on " + itemClass.getSimpleName());
+            e.printStackTrace();
+        }
+        return label;
+    }
+
+    /**
+     * Label for an item without any label field values set.
+     *
+     * @param defaultLabel Descriptive label for the items
+     * @param index Offset of the item in its list
+     * @return Label of the form {Field Label} - {Item #}, numbered from one
+     */
+    public static String getDefaultLabel(String defaultLabel, int index) {
+        return defaultLabel + " - " + String.valueOf(index + 1);
+    }
+
+    /**
+     * @param item Item to find image for
+     * @return Path to the image for the item, or an empty string if it has none
+     */
+    public String getImagePath(Object item) {
+        if (mediaField == null) {
+            return "";
+        }
+
+        try {
+            Object obj = mediaField.get(item);
+            if (obj != null) {
+                SerializableMedia media = (SerializableMedia) obj;
+                return media.path;
+            }
+        } catch (IllegalAccessException e) {
+            Log.e(LOG_LABEL, "Failed to read image field on " + itemClass.getSimpleName());
+            e.printStackTrace();
+        }
+        return "";
+    }
+}
@@ -2,7 +2,9 @@ package org.worldbank.transport.driver.utilities;
 
 import android.app.Dialog;
 import android.content.DialogInterface;
+import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Process;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.DialogFragment;
@@ -12,6 +14,8 @@ import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.google.gson.annotations.SerializedName;
+
 import org.apache.commons.lang.StringUtils;
 import org.jsonschema2pojo.annotations.Multiple;
 import org.jsonschema2pojo.annotations.PluralTitle;
@@ -24,6 +28,9 @@ import org.worldbank.transport.driver.staticmodels.DriverApp;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -40,6 +47,9 @@ public class RecordFormSectionManager {
 
     private static String[] schemaSectionOrder;
 
+    // reads in the sections either side of the one being shown, so moving between them is quick
+    private static ExecutorService prefetcher;
+
     // path to model classes created by jsonschema2pojo
     // this must match the targetPackage declared in the jsonschema2pojo gradle build file
     // for the models (with a trailing period)
@@ -96,6 +106,27 @@ public class RecordFormSectionManager {
         return null;
     }
 
+    /**
+     * @return Number of sections on the DriverSchema class
+     */
+    public static int getSectionCount() {
+        return getSchemaSectionOrder().length;
+    }
+
+    /**
+     * Get the serialized name of a DriverSchema section field, as used in the section order.
+     *
+     * @param sectionField Field for the section on the DriverSchema class
+     * @return Name the section is serialized with
+     */
+    public static String getSectionName(Field sectionField) {
+        SerializedName serializedName = sectionField.getAnnotation(SerializedName.class);
+        if (serializedName != null) {
+            return serializedName.value();
+        }
+        return sectionField.getName();
+    }
+
     /**
      * Strip characters from identifier names that are not allowed.
      *
@@ -129,7 +160,7 @@ public class RecordFormSectionManager {
             // class names are capitalized; field names of that type may not be
             sectionName = getSanitizedIdentifier(sectionName, "");
             sectionName = StringUtils.capitalize(sectionName);
-            return DriverApp.getSchemaClassLoader().loadClass(MODEL_PACKAGE + sectionName);
+            return DriverApp.loadSchemaClass(MODEL_PACKAGE + sectionName);
         } catch (ClassNotFoundException e) {
             Log.e(LOG_LABEL, "Could not find class named " + sectionName);
             e.printStackTrace();
@@ -249,15 +280,23 @@ public class RecordFormSectionManager {
      * @param sectionField Field for the section on the DriverSchema class
      * @param sectionClass Class of the field
      * @param currentlyEditing DriverSchema object currently editing, as managed by the app singleton
-     * @return Section object, ready for use by form
+     * @return Section object, ready for use by form; null if it could not be read or created
      */
     @Nullable
     public static Object getOrCreateSectionObject(Field sectionField, Class sectionClass, Object currentlyEditing) {
+        // sections of a stored record are read in as they are first needed
+        if (!DriverApp.openEditingSection(currentlyEditing, getSectionName(sectionField))) {
+            // do not replace stored data that could not be read with an empty section
+            Log.e(LOG_LABEL, "Could not read stored section " + sectionField.getName());
+            return null;
+        }
+
         // attempt to get the section from the currently editing model object;
         // it will not exist if creating a new record
 
         try {
-            Object section = sectionField.get(currentlyEditing);
+            FieldAccessor sectionAccessor = FieldAccessor.forField(sectionField);
+            Object section = sectionAccessor.get(currentlyEditing);
 
             if (section == null) {
                 Log.d(LOG_LABEL, "No section found for field " + sectionField.getName() + "; creating it");
@@ -265,9 +304,9 @@ public class RecordFormSectionManager {
                 section = sectionClass.newInstance();
 
                 // add the new section to the currently editing model object
-                sectionField.set(currentlyEditing, section);
+                sectionAccessor.set(currentlyEditing, section);
 
-                if (sectionField.get(currentlyEditing) == null) {
+                if (sectionAccessor.get(currentlyEditing) == null) {
                     Log.e(LOG_LABEL, "Section field is still null after set to new instance!");
                 } else {
                     Log.d(LOG_LABEL, "Section field successfully set to new instance");
@@ -289,6 +328,66 @@ public class RecordFormSectionManager {
         return null;
     }
 
+    /**
+     * Prepare the sections before and after the one being shown, in the background, so going to
+     * either only needs to build its form controls. Builds their form templates, and reads them
+     * into the record being edited if they have not been read yet. Prefetched sections are not
+     * marked as being edited.
+     *
+     * @param sectionId Offset of the section being shown; -1 for the constants form
+     * @param currentlyEditing DriverSchema object currently editing, as managed by the app singleton
+     * @param resources Resources to find form labels in
+     * @param packageName Package to look up string resources in
+     */
+    public static void prefetchAdjacentSections(final int sectionId, final Object currentlyEditing,
+                                                final Resources resources, final String packageName) {
+        getPrefetcher().execute(new Runnable() {
+            @Override
+            public void run() {
+                int[] adjacentIds = { sectionId + 1, sectionId - 1 };
+                for (int adjacentId : adjacentIds) {
+                    if (adjacentId >= 0 && adjacentId < getSectionCount()) {
+                        prefetchSection(adjacentId, currentlyEditing, resources, packageName);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void prefetchSection(int sectionId, Object currentlyEditing, Resources resources,
+                                        String packageName) {
+        long startTime = System.nanoTime();
+        String sectionName = getSectionName(sectionId);
+        Field sectionField = getFieldForSectionName(sectionName);
+        Class sectionClass = getSectionClass(sectionName);
+        if (sectionField == null || sectionClass == null) {
+            return;
+        }
+
+        FormSectionTemplate.getTemplate(sectionClass, false, resources, packageName);
+        DriverApp.prefetchEditingSection(currentlyEditing, getSectionName(sectionField));
+        Log.d(LOG_LABEL, "Prefetched section " + sectionName + " in " +
+                ((System.nanoTime() - startTime) / 1000000) + " ms");
+    }
+
+    private static synchronized ExecutorService getPrefetcher() {
+        if (prefetcher == null) {
+            prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "SectionPrefetch");
+                }
+            });
+        }
+        return prefetcher;
+    }
+
     /**
      * Get an item from a section with multiple items, or create a new item and add it to the section.
      *
@@ -302,6 +401,9 @@ public class RecordFormSectionManager {
     @Nullable
     public static Object getOrCreateListItem(Field sectionField, Class sectionClass, Object currentlyEditing, int index) {
         Object section = RecordFormSectionManager.getOrCreateSectionObject(sectionField, sectionClass, currentlyEditing);
+        if (section == null) {
+            return null;
+        }
         ArrayList items = getSectionList(section);
 
         if (items.size() > index) {
@@ -309,10 +411,13 @@ public class RecordFormSectionManager {
             return items.get(index);
         }
 
+        // references to this section need the new item among their options
+        DriverApp.invalidateReferenceOptions(currentlyEditing, sectionField);
+
         try {
             if (items.size() == 0) {
                 Log.d(LOG_LABEL, "Created new list for section " + sectionField.getName());
-                sectionField.set(currentlyEditing, items);
+                FieldAccessor.forField(sectionField).set(currentlyEditing, items);
             }
             Object item = sectionClass.newInstance();
             items.add(index, item);
@@ -348,6 +453,7 @@ public class RecordFormSectionManager {
         }
 
         Object item = items.remove(index);
+        DriverApp.invalidateReferenceOptions(currentlyEditing, sectionField);
         if (item == null) {
             Log.e(LOG_LABEL, "Failed to delete from " + sectionField.getName() + " at index " + index);
             return false;
@@ -407,10 +513,11 @@ public class RecordFormSectionManager {
 
     /**
      * Internal helper to save record. Should only be called via {@link #saveAndExit(DriverApp, AppCompatActivity)},
-     * which performs checks first.
+     * which performs checks first. The record is written in the background, so this does not
+     * wait on the database before navigating away.
      */
     private static void saveAndExitWithoutWarnings(DriverApp app, AppCompatActivity activity) {
-        if (app.saveRecordAndClearCurrentlyEditing()) {
+        if (app.saveRecordAndClearCurrentlyEditing() != null) {
             Toast toast = Toast.makeText(activity, activity.getString(R.string.record_save_success), Toast.LENGTH_SHORT);
             toast.show();
             NavUtils.navigateUpFromSameTask(activity);
@@ -538,6 +645,8 @@ public class RecordFormSectionManager {
                     .setNegativeButton(R.string.stop_action, new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int id) {
                             // exit without saving changes
+                            DriverApp app = (DriverApp) getActivity().getApplication();
+                            app.clearCurrentlyEditingRecord();
                             NavUtils.navigateUpFromSameTask(getActivity());
                         }
                     });
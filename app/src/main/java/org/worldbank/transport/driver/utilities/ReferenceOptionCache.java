@@ -0,0 +1,55 @@
+package org.worldbank.transport.driver.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Options for reference fields, kept for the record being edited, by the section they refer
+ * to. A section's options are dropped when items are added to it or deleted from it, and when
+ * the form for one of its items is left, and built again the next time a form refers to it.
+ */
+public class ReferenceOptionCache {
+
+    /**
+     * Labels and local IDs of the items in a referenced section, in matching order.
+     */
+    public static class Options {
+        public final List<String> labels;
+        public final List<Object> ids;
+
+        public Options(ArrayList<String> labels, ArrayList<Object> ids) {
+            this.labels = Collections.unmodifiableList(labels);
+            this.ids = Collections.unmodifiableList(ids);
+        }
+    }
+
+    // by field name of the referenced section on DriverSchema
+    private final HashMap<String, Options> options = new HashMap<>();
+
+    /**
+     * @param sectionFieldName Field name of the referenced section on DriverSchema
+     * @return Options for the section, or null if they need to be built
+     */
+    public synchronized Options get(String sectionFieldName) {
+        return options.get(sectionFieldName);
+    }
+
+    /**
+     * @param sectionFieldName Field name of the referenced section on DriverSchema
+     * @param sectionOptions Options built for the section
+     */
+    public synchronized void put(String sectionFieldName, Options sectionOptions) {
+        options.put(sectionFieldName, sectionOptions);
+    }
+
+    /**
+     * Drop the options for a section whose items have changed.
+     *
+     * @param sectionFieldName Field name of the section on DriverSchema
+     */
+    public synchronized void invalidate(String sectionFieldName) {
+        options.remove(sectionFieldName);
+    }
+}
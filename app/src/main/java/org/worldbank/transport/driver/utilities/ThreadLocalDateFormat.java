@@ -0,0 +1,76 @@
+package org.worldbank.transport.driver.utilities;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Date pattern that is safe to share between threads. SimpleDateFormat is not thread-safe, so
+ * each thread that formats gets its own instance, built on first use and reused afterwards.
+ * Formatting from epoch milliseconds reuses a per-thread Date as well.
+ */
+public class ThreadLocalDateFormat {
+
+    private final String pattern;
+    private final Locale locale;
+    private final TimeZone timeZone;
+
+    private final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, locale);
+            configure(format);
+            format.setTimeZone(timeZone != null ? timeZone : TimeZone.getDefault());
+            return format;
+        }
+    };
+
+    private final ThreadLocal<Date> reusableDate = new ThreadLocal<Date>() {
+        @Override
+        protected Date initialValue() {
+            return new Date();
+        }
+    };
+
+    /**
+     * @param pattern SimpleDateFormat pattern
+     * @param locale Locale for the pattern
+     * @param timeZone Time zone to format in, or null to use the device time zone
+     */
+    public ThreadLocalDateFormat(String pattern, Locale locale, TimeZone timeZone) {
+        this.pattern = pattern;
+        this.locale = locale;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Set up a new formatter before the time zone is set on it, such as to use another calendar.
+     * Called once for each thread that formats.
+     *
+     * @param format New formatter with this pattern and locale
+     */
+    protected void configure(SimpleDateFormat format) {
+    }
+
+    /**
+     * Format a timestamp.
+     *
+     * @param epochMillis Milliseconds since the epoch
+     * @return Formatted date string
+     */
+    public String format(long epochMillis) {
+        Date date = reusableDate.get();
+        date.setTime(epochMillis);
+        return dateFormat.get().format(date);
+    }
+
+    /**
+     * Get the formatter for the calling thread. Do not pass it to other threads.
+     *
+     * @return Formatter with this pattern, locale, and time zone
+     */
+    public SimpleDateFormat get() {
+        return dateFormat.get();
+    }
+}
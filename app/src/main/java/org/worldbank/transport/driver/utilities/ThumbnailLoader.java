@@ -0,0 +1,338 @@
+package org.worldbank.transport.driver.utilities;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads downscaled images into image views, for lists that show a thumbnail per row.
+ *
+ * Decoded thumbnails are kept in memory, up to a share of the app heap. Views asking for the same
+ * thumbnail while it is being decoded share one decode. A view that is bound to another image, or
+ * recycled, drops its request, and the decode is cancelled if no other view wants it; so a view
+ * is only ever set to the last image it asked for. Decodes run on a small pool of background
+ * threads, and read the stored thumbnail for an image where there is one; see {@link ThumbnailStore}.
+ *
+ * Load and cancel from the main thread only.
+ */
+public class ThumbnailLoader {
+
+    private static final String LOG_LABEL = "ThumbnailLoader";
+
+    // share of the app heap to keep thumbnails in
+    private static final int HEAP_FRACTION = 8;
+    private static final int DECODE_THREADS = 2;
+
+    private static ThumbnailLoader instance;
+
+    public interface ThumbnailCallback {
+        /**
+         * @param path Path of the image that could not be loaded
+         */
+        void thumbnailNotSet(String path);
+    }
+
+    /**
+     * A decode under way, and the views waiting for it.
+     */
+    private static class Request {
+        final String key;
+        final ArrayList<WeakReference<ImageView>> targets = new ArrayList<>(1);
+        final ArrayList<ThumbnailCallback> callbacks = new ArrayList<>(1);
+        Future<?> future;
+
+        Request(String key) {
+            this.key = key;
+        }
+    }
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ThreadPoolExecutor decoder;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // touched on the main thread only
+    private final HashMap<String, Request> pending = new HashMap<>();
+    private final WeakHashMap<ImageView, String> targetKeys = new WeakHashMap<>();
+
+    /**
+     * @param maxKilobytes Most decoded image data to keep in memory
+     */
+    public ThumbnailLoader(int maxKilobytes) {
+        memoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return Math.max(1, bitmap.getByteCount() / 1024);
+            }
+        };
+
+        decoder = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ThumbnailDecode");
+            }
+        });
+    }
+
+    /**
+     * @return Loader with a memory cache sized for the app heap
+     */
+    public static synchronized ThumbnailLoader getInstance() {
+        if (instance == null) {
+            int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / HEAP_FRACTION);
+            Log.d(LOG_LABEL, "Keeping up to " + maxKilobytes + " KB of thumbnails");
+            instance = new ThumbnailLoader(maxKilobytes);
+        }
+        return instance;
+    }
+
+    /**
+     * Release kept thumbnails when the system is short on memory.
+     *
+     * @param level Level passed to onTrimMemory
+     */
+    public static synchronized void trimMemory(int level) {
+        if (instance == null) {
+            return;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            Log.d(LOG_LABEL, "Releasing all thumbnails");
+            instance.memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            Log.d(LOG_LABEL, "Releasing half of thumbnails");
+            // snapshot is ordered from least to most recently used
+            int toRemove = instance.memoryCache.size() / 2;
+            for (String key : instance.memoryCache.snapshot().keySet()) {
+                if (toRemove <= 0) {
+                    break;
+                }
+                Bitmap removed = instance.memoryCache.remove(key);
+                if (removed != null) {
+                    toRemove -= Math.max(1, removed.getByteCount() / 1024);
+                }
+            }
+        }
+    }
+
+    /**
+     * Show a downscaled image in a view, replacing any image the view asked for before.
+     *
+     * @param path Path to the image file; may be empty if there is no image
+     * @param target View to show the image in
+     * @param width Most width for the thumbnail, in pixels
+     * @param height Most height for the thumbnail, in pixels
+     * @param callback Told if the image could not be loaded
+     */
+    public void load(String path, ImageView target, int width, int height, ThumbnailCallback callback) {
+        String key = path + "|" + width + "x" + height;
+        String oldKey = targetKeys.get(target);
+        if (key.equals(oldKey)) {
+            return; // already waiting for this one
+        }
+        cancel(target);
+
+        if (path == null || path.isEmpty()) {
+            target.setImageResource(android.R.drawable.ic_menu_gallery);
+            return;
+        }
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            target.setImageBitmap(cached);
+            return;
+        }
+
+        // do not show the image of whatever this view was bound to before while waiting
+        target.setImageResource(android.R.drawable.ic_menu_gallery);
+        targetKeys.put(target, key);
+
+        Request request = pending.get(key);
+        if (request == null) {
+            request = new Request(key);
+            pending.put(key, request);
+            request.future = decoder.submit(new DecodeRunnable(request, path, width, height));
+        }
+        request.targets.add(new WeakReference<>(target));
+        request.callbacks.add(callback);
+    }
+
+    /**
+     * Drop the request for a view, such as when it is recycled. The decode is cancelled if no
+     * other view is waiting for it.
+     *
+     * @param target View that asked for an image
+     */
+    public void cancel(ImageView target) {
+        String key = targetKeys.remove(target);
+        if (key == null) {
+            return;
+        }
+
+        Request request = pending.get(key);
+        if (request == null) {
+            return;
+        }
+
+        int i = 0;
+        Iterator<WeakReference<ImageView>> targets = request.targets.iterator();
+        while (targets.hasNext()) {
+            ImageView waiting = targets.next().get();
+            if (waiting == null || waiting == target) {
+                targets.remove();
+                request.callbacks.remove(i);
+            } else {
+                i++;
+            }
+        }
+
+        if (request.targets.isEmpty()) {
+            pending.remove(key);
+            request.future.cancel(false);
+            // take it off the queue if it has not started
+            decoder.remove((Runnable) request.future);
+        }
+    }
+
+    /**
+     * Decode an image file at about the size it will be shown, without reading it in full.
+     * Decodes on the calling thread.
+     *
+     * @param path Path to the image file
+     * @param width Most width for the thumbnail, in pixels
+     * @param height Most height for the thumbnail, in pixels
+     * @return Image scaled to fit within the size, or null if it could not be read
+     */
+    public static Bitmap decodeThumbnail(String path, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(LOG_LABEL, "Could not read image size for " + path);
+            return null;
+        }
+
+        // largest power of two that keeps the decoded image at least as large as wanted
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+
+        try {
+            Bitmap decoded = BitmapFactory.decodeFile(path, options);
+            if (decoded == null) {
+                Log.w(LOG_LABEL, "Could not decode image " + path);
+                return null;
+            }
+            return scaleToFit(decoded, width, height);
+        } catch (OutOfMemoryError e) {
+            Log.e(LOG_LABEL, "Ran out of memory decoding thumbnail for " + path);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Scale an image down to fit within a size, keeping its aspect ratio. Images that already
+     * fit are returned as they are; otherwise the image passed in is recycled.
+     *
+     * @param image Image to scale
+     * @param width Most width, in pixels
+     * @param height Most height, in pixels
+     * @return Image that fits within the size
+     */
+    static Bitmap scaleToFit(Bitmap image, int width, int height) {
+        float scale = Math.min((float) width / image.getWidth(), (float) height / image.getHeight());
+        if (scale >= 1) {
+            return image;
+        }
+
+        Bitmap scaled = Bitmap.createScaledBitmap(image,
+                Math.max(1, Math.round(image.getWidth() * scale)),
+                Math.max(1, Math.round(image.getHeight() * scale)), true);
+        if (scaled != image) {
+            image.recycle();
+        }
+        return scaled;
+    }
+
+    private void deliver(Request request, Bitmap bitmap, String path) {
+        if (pending.get(request.key) != request) {
+            return; // cancelled
+        }
+        pending.remove(request.key);
+
+        if (bitmap != null) {
+            memoryCache.put(request.key, bitmap);
+        }
+
+        for (int i = 0; i < request.targets.size(); i++) {
+            ImageView target = request.targets.get(i).get();
+            // view may have moved on to another image
+            if (target == null || !request.key.equals(targetKeys.get(target))) {
+                continue;
+            }
+            targetKeys.remove(target);
+
+            if (bitmap != null) {
+                target.setImageBitmap(bitmap);
+            } else if (request.callbacks.get(i) != null) {
+                request.callbacks.get(i).thumbnailNotSet(path);
+            }
+        }
+    }
+
+    private class DecodeRunnable implements Runnable {
+        private final Request request;
+        private final String path;
+        private final int width;
+        private final int height;
+
+        DecodeRunnable(Request request, String path, int width, int height) {
+            this.request = request;
+            this.path = path;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = ThumbnailStore.loadThumbnail(path, width, height);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(request, bitmap, path);
+                }
+            });
+        }
+    }
+}
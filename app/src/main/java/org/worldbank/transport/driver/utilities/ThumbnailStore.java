@@ -0,0 +1,179 @@
+package org.worldbank.transport.driver.utilities;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Small copies of captured images, stored next to them, so lists of photos decode a few
+ * kilobytes per row rather than the full image.
+ *
+ * The thumbnail for an image is the image's path with {@link #THUMBNAIL_SUFFIX} appended, so
+ * the media model need not change, and thumbnails are removed along with the images they belong
+ * to. Thumbnails are written in the background when an image is captured. Images without a current thumbnail,
+ * such as those from older records or imported archives, have one made the first time they are
+ * listed.
+ */
+public class ThumbnailStore {
+
+    private static final String LOG_LABEL = "ThumbnailStore";
+
+    // not an image extension, so thumbnails do not show up in the gallery
+    public static final String THUMBNAIL_SUFFIX = ".thumb";
+
+    // longest side of stored thumbnails, in pixels; enough for list rows on dense screens
+    public static final int THUMBNAIL_SIZE = 240;
+
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    private static ExecutorService writer;
+
+    /**
+     * @param imagePath Path to a stored image
+     * @return Where the thumbnail for the image is kept
+     */
+    public static File getThumbnailFile(String imagePath) {
+        return new File(imagePath + THUMBNAIL_SUFFIX);
+    }
+
+    /**
+     * Store the thumbnail for a newly captured image on a background thread.
+     *
+     * @param image Image as stored; recycled once the thumbnail is written, so not to be used after
+     * @param imageFile File the image was stored in
+     */
+    public static void writeThumbnailInBackground(final Bitmap image, final File imageFile) {
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!writeThumbnail(image, imageFile)) {
+                    Log.w(LOG_LABEL, "No thumbnail stored for " + imageFile + "; it will be made when listed");
+                }
+                image.recycle();
+            }
+        });
+    }
+
+    /**
+     * Store the thumbnail for a newly captured image. Writes on the calling thread.
+     *
+     * @param image Image as stored; not recycled
+     * @param imageFile File the image was stored in
+     * @return True if the thumbnail was written
+     */
+    public static boolean writeThumbnail(Bitmap image, File imageFile) {
+        float scale = Math.min((float) THUMBNAIL_SIZE / image.getWidth(), (float) THUMBNAIL_SIZE / image.getHeight());
+        Bitmap thumbnail = image;
+        if (scale < 1) {
+            thumbnail = Bitmap.createScaledBitmap(image, Math.max(1, Math.round(image.getWidth() * scale)),
+                    Math.max(1, Math.round(image.getHeight() * scale)), true);
+        }
+
+        try {
+            return storeThumbnail(thumbnail, imageFile.getAbsolutePath());
+        } finally {
+            if (thumbnail != image) {
+                thumbnail.recycle();
+            }
+        }
+    }
+
+    /**
+     * Decode the thumbnail for an image at a size, from its stored thumbnail if that is current
+     * and large enough, or else from the image. A thumbnail made from the image is stored for
+     * next time. Decodes on the calling thread.
+     *
+     * @param imagePath Path to a stored image
+     * @param width Most width for the thumbnail, in pixels
+     * @param height Most height for the thumbnail, in pixels
+     * @return Image scaled to fit within the size, or null if it could not be read
+     */
+    public static Bitmap loadThumbnail(String imagePath, int width, int height) {
+        if (width > THUMBNAIL_SIZE || height > THUMBNAIL_SIZE) {
+            return ThumbnailLoader.decodeThumbnail(imagePath, width, height);
+        }
+
+        File imageFile = new File(imagePath);
+        File thumbnailFile = getThumbnailFile(imagePath);
+        // an image saved again over an older one has a newer thumbnail written after it
+        if (thumbnailFile.lastModified() >= imageFile.lastModified() && thumbnailFile.length() > 0) {
+            Bitmap stored = ThumbnailLoader.decodeThumbnail(thumbnailFile.getAbsolutePath(), width, height);
+            if (stored != null) {
+                return stored;
+            }
+        }
+
+        if (!imageFile.isFile()) {
+            Log.w(LOG_LABEL, "No image at " + imagePath);
+            return null;
+        }
+
+        Log.d(LOG_LABEL, "Making missing thumbnail for " + imagePath);
+        Bitmap thumbnail = ThumbnailLoader.decodeThumbnail(imagePath, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        if (thumbnail == null) {
+            return null;
+        }
+        storeThumbnail(thumbnail, imagePath);
+        return ThumbnailLoader.scaleToFit(thumbnail, width, height);
+    }
+
+    private static synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "ThumbnailWrite");
+                }
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Write a thumbnail to a temporary file, then move it into place, so a thumbnail being
+     * written is never read.
+     */
+    private static boolean storeThumbnail(Bitmap thumbnail, String imagePath) {
+        File thumbnailFile = getThumbnailFile(imagePath);
+        File tempFile = new File(thumbnailFile.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                if (!thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out)) {
+                    Log.e(LOG_LABEL, "Could not compress thumbnail for " + imagePath);
+                    return false;
+                }
+            } finally {
+                out.close();
+            }
+
+            if (!tempFile.renameTo(thumbnailFile)) {
+                Log.e(LOG_LABEL, "Could not move thumbnail into place for " + imagePath);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_LABEL, "Could not write thumbnail for " + imagePath);
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.w(LOG_LABEL, "Could not remove temporary thumbnail " + tempFile);
+            }
+        }
+    }
+}